@@ -0,0 +1,473 @@
+package lazyj;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Single-pass codec for PostgreSQL array literals (<code>{1,2,3}</code>, <code>{"a b",NULL,"c\"d"}</code>, <code>{{1,2},{3,4}}</code>).
+ * Numeric arrays are decoded straight into primitive arrays, without creating any intermediate String or boxed value.<br>
+ * <br>
+ * For details on the format consult the <a href="http://www.postgresql.org/docs/current/static/arrays.html">documentation</a>.
+ *
+ * @author costing
+ * @since Oct 16, 2026
+ */
+public final class ArrayCodec {
+
+	/**
+	 * Empty result of the primitive decoders
+	 */
+	private static final int[]	NO_INTS		= new int[0];
+
+	/**
+	 * Empty result of the primitive decoders
+	 */
+	private static final long[]	NO_LONGS	= new long[0];
+
+	/**
+	 * No instances
+	 */
+	private ArrayCodec() {
+		// static methods only
+	}
+
+	/**
+	 * @param s array literal
+	 * @return the position right after the opening brace, or -1 if this is not an array literal
+	 */
+	private static int getStart(final String s) {
+		if (s == null || s.length() < 2 || s.charAt(s.length() - 1) != '}')
+			return -1;
+
+		int pos = 0;
+
+		// optional dimension decoration, like "[1:3]={1,2,3}"
+		if (s.charAt(0) == '[') {
+			pos = s.indexOf('=');
+
+			if (pos < 0)
+				return -1;
+
+			pos++;
+		}
+
+		return pos < s.length() && s.charAt(pos) == '{' ? pos + 1 : -1;
+	}
+
+	/**
+	 * Decode an array literal into its elements. Multi-dimensional arrays are flattened, in storage order.
+	 *
+	 * @param s array literal
+	 * @return the elements, with <code>null</code> for the NULL ones. The list is empty if the value is not an array literal.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static List<String> decode(final String s) {
+		final int start = getStart(s);
+
+		if (start < 0)
+			return Collections.emptyList();
+
+		final List ret = new ArrayList<>();
+
+		parse(s, start, ret, true, new StringBuilder());
+
+		return ret;
+	}
+
+	/**
+	 * Decode an array literal keeping the structure of the multi-dimensional arrays
+	 *
+	 * @param s array literal
+	 * @return the elements, each of them being either a String (or <code>null</code>) or a nested List. The list is empty if the value is not an array literal.
+	 */
+	public static List<Object> decodeNested(final String s) {
+		final int start = getStart(s);
+
+		if (start < 0)
+			return Collections.emptyList();
+
+		final List<Object> ret = new ArrayList<>();
+
+		parse(s, start, ret, false, new StringBuilder());
+
+		return ret;
+	}
+
+	/**
+	 * Parse the elements of an array
+	 *
+	 * @param s array literal
+	 * @param start position right after the opening brace
+	 * @param out where to add the elements
+	 * @param flat whether to flatten the nested arrays
+	 * @param sb buffer to reuse
+	 * @return the position right after the closing brace
+	 */
+	private static int parse(final String s, final int start, final List<Object> out, final boolean flat, final StringBuilder sb) {
+		final int len = s.length();
+
+		int pos = start;
+
+		while (pos < len) {
+			char c = s.charAt(pos);
+
+			if (c == '}')
+				return pos + 1;
+
+			if (c == ',' || Character.isWhitespace(c)) {
+				pos++;
+				continue;
+			}
+
+			if (c == '{') {
+				if (flat)
+					pos = parse(s, pos + 1, out, true, sb);
+				else {
+					final List<Object> nested = new ArrayList<>();
+					pos = parse(s, pos + 1, nested, false, sb);
+					out.add(nested);
+				}
+
+				continue;
+			}
+
+			sb.setLength(0);
+
+			if (c == '"') {
+				pos++;
+
+				while (pos < len) {
+					c = s.charAt(pos++);
+
+					if (c == '\\' && pos < len)
+						sb.append(s.charAt(pos++));
+					else if (c == '"')
+						break;
+					else
+						sb.append(c);
+				}
+
+				out.add(sb.toString());
+				continue;
+			}
+
+			boolean escaped = false;
+
+			while (pos < len) {
+				c = s.charAt(pos);
+
+				if (c == ',' || c == '}')
+					break;
+
+				if (c == '\\' && pos + 1 < len) {
+					sb.append(s.charAt(pos + 1));
+					pos += 2;
+					escaped = true;
+					continue;
+				}
+
+				sb.append(c);
+				pos++;
+			}
+
+			// whitespace around unquoted elements is not significant
+			int end = sb.length();
+
+			while (end > 0 && Character.isWhitespace(sb.charAt(end - 1)))
+				end--;
+
+			sb.setLength(end);
+
+			out.add(!escaped && end == 4 && "NULL".equalsIgnoreCase(sb.toString()) ? null : sb.toString()); //$NON-NLS-1$
+		}
+
+		return pos;
+	}
+
+	/**
+	 * Decode a numeric array literal directly into primitives. NULL elements and values that are not integer numbers are skipped.
+	 *
+	 * @param s array literal
+	 * @param start position right after the opening brace
+	 * @param min smallest accepted value
+	 * @param max largest accepted value
+	 * @param count output, the number of values
+	 * @return the values, or <code>null</code> if the array has elements that the fast path doesn't handle
+	 */
+	private static long[] parseNumbers(final String s, final int start, final long min, final long max, final int[] count) {
+		final int len = s.length();
+
+		long[] values = new long[16];
+
+		int n = 0;
+
+		int pos = start;
+
+		while (pos < len) {
+			char c = s.charAt(pos);
+
+			if (c == '{' || c == '}' || c == ',' || Character.isWhitespace(c)) {
+				pos++;
+				continue;
+			}
+
+			if (c == 'N' || c == 'n') {
+				if (s.regionMatches(true, pos, "NULL", 0, 4)) { //$NON-NLS-1$
+					pos += 4;
+					continue;
+				}
+
+				return null;
+			}
+
+			boolean negative = false;
+
+			if (c == '-' || c == '+') {
+				negative = c == '-';
+				pos++;
+			}
+
+			long value = 0;
+			int digits = 0;
+			boolean overflow = false;
+
+			while (pos < len && (c = s.charAt(pos)) >= '0' && c <= '9') {
+				if (value > (Long.MAX_VALUE - 9) / 10)
+					overflow = true;
+
+				value = value * 10 + (c - '0');
+				digits++;
+				pos++;
+			}
+
+			if (pos < len && c != ',' && c != '}' && !Character.isWhitespace(c))
+				return null; // quoted elements, decimals, exponents ...
+
+			if (digits == 0 || overflow)
+				continue;
+
+			if (negative)
+				value = -value;
+
+			if (value < min || value > max)
+				continue;
+
+			if (n == values.length) {
+				final long[] bigger = new long[n * 2];
+				System.arraycopy(values, 0, bigger, 0, n);
+				values = bigger;
+			}
+
+			values[n++] = value;
+		}
+
+		count[0] = n;
+
+		return values;
+	}
+
+	/**
+	 * Slow path for the numeric decoders: decode the strings and parse each of them
+	 *
+	 * @param s array literal
+	 * @param min smallest accepted value
+	 * @param max largest accepted value
+	 * @param count output, the number of values
+	 * @return the values
+	 */
+	private static long[] parseNumbersSlow(final String s, final long min, final long max, final int[] count) {
+		final List<String> strings = decode(s);
+
+		final long[] values = new long[strings.size()];
+
+		int n = 0;
+
+		for (final String element : strings) {
+			if (element == null)
+				continue;
+
+			try {
+				final long value = Long.parseLong(element.trim());
+
+				if (value >= min && value <= max)
+					values[n++] = value;
+			}
+			catch (final NumberFormatException nfe) {
+				// ignore
+			}
+		}
+
+		count[0] = n;
+
+		return values;
+	}
+
+	/**
+	 * Decode an integer array literal. NULL elements and values that are not integer numbers are skipped.
+	 *
+	 * @param s array literal
+	 * @return the values, never <code>null</code>
+	 */
+	public static int[] decodeToIntArray(final String s) {
+		final int start = getStart(s);
+
+		if (start < 0)
+			return NO_INTS;
+
+		final int[] count = new int[1];
+
+		long[] values = parseNumbers(s, start, Integer.MIN_VALUE, Integer.MAX_VALUE, count);
+
+		if (values == null)
+			values = parseNumbersSlow(s, Integer.MIN_VALUE, Integer.MAX_VALUE, count);
+
+		final int[] ret = new int[count[0]];
+
+		for (int i = 0; i < ret.length; i++)
+			ret[i] = (int) values[i];
+
+		return ret;
+	}
+
+	/**
+	 * Decode a bigint array literal. NULL elements and values that are not integer numbers are skipped.
+	 *
+	 * @param s array literal
+	 * @return the values, never <code>null</code>
+	 */
+	public static long[] decodeToLongArray(final String s) {
+		final int start = getStart(s);
+
+		if (start < 0)
+			return NO_LONGS;
+
+		final int[] count = new int[1];
+
+		long[] values = parseNumbers(s, start, Long.MIN_VALUE, Long.MAX_VALUE, count);
+
+		if (values == null)
+			values = parseNumbersSlow(s, Long.MIN_VALUE, Long.MAX_VALUE, count);
+
+		if (values.length == count[0])
+			return values;
+
+		final long[] ret = new long[count[0]];
+
+		System.arraycopy(values, 0, ret, 0, ret.length);
+
+		return ret;
+	}
+
+	/**
+	 * Encode a collection as an array literal, to be passed as a parameter value (for example with <code>?::text[]</code>).
+	 * Numbers and booleans are written as they are, everything else is quoted. Nested collections and arrays become
+	 * nested array literals.
+	 *
+	 * @param values the elements
+	 * @return the array literal
+	 */
+	public static String encode(final Collection<?> values) {
+		final StringBuilder sb = new StringBuilder(values.size() * 8 + 2);
+
+		appendArray(sb, values);
+
+		return sb.toString();
+	}
+
+	/**
+	 * @param sb where to append
+	 * @param values elements to append
+	 */
+	private static void appendArray(final StringBuilder sb, final Collection<?> values) {
+		sb.append('{');
+
+		boolean first = true;
+
+		for (final Object o : values) {
+			if (!first)
+				sb.append(',');
+
+			appendElement(sb, o);
+
+			first = false;
+		}
+
+		sb.append('}');
+	}
+
+	/**
+	 * @param sb where to append
+	 * @param o element to append
+	 */
+	private static void appendElement(final StringBuilder sb, final Object o) {
+		if (o == null) {
+			sb.append("NULL"); //$NON-NLS-1$
+			return;
+		}
+
+		if (o instanceof Number || o instanceof Boolean) {
+			sb.append(o);
+			return;
+		}
+
+		if (o instanceof Collection) {
+			appendArray(sb, (Collection<?>) o);
+			return;
+		}
+
+		if (o.getClass().isArray() && !(o instanceof char[])) {
+			final List<Object> l = new ArrayList<>();
+
+			for (int i = 0; i < Array.getLength(o); i++)
+				l.add(Array.get(o, i));
+
+			appendArray(sb, l);
+			return;
+		}
+
+		final String s = o.toString();
+
+		sb.append('"');
+
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+
+			if (c == '"' || c == '\\')
+				sb.append('\\');
+
+			sb.append(c);
+		}
+
+		sb.append('"');
+	}
+
+	/**
+	 * Flatten the value returned by {@link java.sql.Array#getArray()}
+	 *
+	 * @param array Java array, possibly multi-dimensional, of objects or primitives
+	 * @param out where to add the elements
+	 */
+	static void flatten(final Object array, final List<Object> out) {
+		if (array == null)
+			return;
+
+		if (!array.getClass().isArray()) {
+			out.add(array);
+			return;
+		}
+
+		final int len = Array.getLength(array);
+
+		for (int i = 0; i < len; i++) {
+			final Object o = Array.get(array, i);
+
+			if (o != null && o.getClass().isArray() && !(o instanceof byte[]))
+				flatten(o, out);
+			else
+				out.add(o);
+		}
+	}
+}
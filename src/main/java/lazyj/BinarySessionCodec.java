@@ -0,0 +1,501 @@
+package lazyj;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact, versioned binary encoding of the sessions. The session fields and the values of the common types (String, numbers,
+ * Boolean, Character, byte[]) are written directly, only the values of other types go through the Java serialization.
+ * Large sessions are optionally compressed with Deflate.<br>
+ * <br>
+ * Layout: the magic bytes 'L' 'S', the format version, a flags byte (bit 0 = deflated) and, for compressed data, the
+ * length of the uncompressed payload. The payload has the session fields followed by the number of values and the
+ * key / type tag / value triplets.
+ *
+ * @author costing
+ * @since Oct 16, 2026
+ */
+public final class BinarySessionCodec implements SessionCodec {
+
+	/**
+	 * First magic byte
+	 */
+	private static final byte	MAGIC1			= 'L';
+
+	/**
+	 * Second magic byte
+	 */
+	private static final byte	MAGIC2			= 'S';
+
+	/**
+	 * Current format version
+	 */
+	private static final byte	VERSION			= 1;
+
+	/**
+	 * Flag : the payload is deflated
+	 */
+	private static final int	FLAG_DEFLATE	= 1;
+
+	/**
+	 * Value type : null
+	 */
+	private static final int	T_NULL	= 0;
+
+	/**
+	 * Value type : String
+	 */
+	private static final int	T_STRING	= 1;
+
+	/**
+	 * Value type : Integer
+	 */
+	private static final int	T_INT	= 2;
+
+	/**
+	 * Value type : Long
+	 */
+	private static final int	T_LONG	= 3;
+
+	/**
+	 * Value type : Double
+	 */
+	private static final int	T_DOUBLE	= 4;
+
+	/**
+	 * Value type : Float
+	 */
+	private static final int	T_FLOAT	= 5;
+
+	/**
+	 * Value type : Boolean.TRUE
+	 */
+	private static final int	T_TRUE	= 6;
+
+	/**
+	 * Value type : Boolean.FALSE
+	 */
+	private static final int	T_FALSE	= 7;
+
+	/**
+	 * Value type : Short
+	 */
+	private static final int	T_SHORT	= 8;
+
+	/**
+	 * Value type : Byte
+	 */
+	private static final int	T_BYTE	= 9;
+
+	/**
+	 * Value type : Character
+	 */
+	private static final int	T_CHAR	= 10;
+
+	/**
+	 * Value type : byte[]
+	 */
+	private static final int	T_BYTES	= 11;
+
+	/**
+	 * Value type : any other object, Java-serialized
+	 */
+	private static final int	T_OBJECT	= 12;
+
+	/**
+	 * Whether or not to compress large sessions
+	 */
+	private final boolean		compress;
+
+	/**
+	 * Compress only payloads larger than this
+	 */
+	private final int			minCompressSize;
+
+	/**
+	 * Deflate compression level
+	 */
+	private final int			level;
+
+	/**
+	 * Default settings: compress sessions larger than 1KB, favoring speed
+	 */
+	public BinarySessionCodec() {
+		this(true, 1024, Deflater.BEST_SPEED);
+	}
+
+	/**
+	 * @param compress whether or not to compress large sessions
+	 * @param minCompressSize compress only the sessions larger than this many bytes
+	 * @param level Deflate compression level, between 1 (fastest) and 9 (smallest)
+	 */
+	public BinarySessionCodec(final boolean compress, final int minCompressSize, final int level) {
+		this.compress = compress;
+		this.minCompressSize = minCompressSize;
+		this.level = Math.max(Math.min(level, Deflater.BEST_COMPRESSION), Deflater.BEST_SPEED);
+	}
+
+	/**
+	 * @param data encoded session
+	 * @return <code>true</code> if the data is in this format
+	 */
+	static boolean accepts(final byte[] data) {
+		return data != null && data.length >= 4 && data[0] == MAGIC1 && data[1] == MAGIC2;
+	}
+
+	@Override
+	public byte[] encode(final DBSession session) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(256);
+
+		try (DataOutputStream out = new DataOutputStream(baos)) {
+			writeString(out, session.getID());
+			out.writeInt(session.getApp());
+			writeString(out, session.getClientIP());
+			out.writeBoolean(session.isIPProtected());
+			writeString(out, session.getUsername());
+			writeString(out, session.getFullname());
+			writeString(out, session.getUserAgent());
+			writeString(out, session.getLastPage());
+			out.writeLong(session.lLastAccess);
+			out.writeLong(session.lLastSaved);
+
+			final Map<String, Serializable> values = session.getValuesSnapshot();
+
+			writeVarInt(out, values.size());
+
+			for (final Map.Entry<String, Serializable> me : values.entrySet()) {
+				writeString(out, me.getKey());
+				writeValue(out, me.getValue());
+			}
+		}
+
+		final byte[] payload = baos.toByteArray();
+
+		if (!this.compress || payload.length < this.minCompressSize) {
+			final byte[] ret = new byte[payload.length + 4];
+			writeHeader(ret, 0);
+			System.arraycopy(payload, 0, ret, 4, payload.length);
+			return ret;
+		}
+
+		final Deflater deflater = new Deflater(this.level);
+
+		try {
+			deflater.setInput(payload);
+			deflater.finish();
+
+			final ByteArrayOutputStream compressed = new ByteArrayOutputStream(payload.length / 2 + 16);
+
+			final byte[] header = new byte[4];
+			writeHeader(header, FLAG_DEFLATE);
+			compressed.write(header);
+
+			final DataOutputStream out = new DataOutputStream(compressed);
+			writeVarInt(out, payload.length);
+			out.flush();
+
+			final byte[] buffer = new byte[4096];
+
+			while (!deflater.finished()) {
+				final int n = deflater.deflate(buffer);
+				compressed.write(buffer, 0, n);
+			}
+
+			return compressed.toByteArray();
+		}
+		finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * @param target where to write
+	 * @param flags format flags
+	 */
+	private static void writeHeader(final byte[] target, final int flags) {
+		target[0] = MAGIC1;
+		target[1] = MAGIC2;
+		target[2] = VERSION;
+		target[3] = (byte) flags;
+	}
+
+	@Override
+	public DBSession decode(final byte[] data, final ClassLoader loader) throws IOException {
+		if (!accepts(data))
+			throw new IOException("not a binary session"); //$NON-NLS-1$
+
+		if (data[2] > VERSION)
+			throw new IOException("unsupported session format version " + data[2]); //$NON-NLS-1$
+
+		byte[] payload;
+		int offset = 4;
+
+		if ((data[3] & FLAG_DEFLATE) != 0) {
+			final DataInputStream lengthIn = new DataInputStream(new ByteArrayInputStream(data, 4, data.length - 4));
+
+			final int length = readVarInt(lengthIn);
+
+			offset = data.length - lengthIn.available();
+
+			payload = new byte[length];
+
+			final Inflater inflater = new Inflater();
+
+			try {
+				inflater.setInput(data, offset, data.length - offset);
+
+				int done = 0;
+
+				while (done < length && !inflater.finished()) {
+					final int n = inflater.inflate(payload, done, length - done);
+
+					if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+						throw new IOException("truncated session data"); //$NON-NLS-1$
+
+					done += n;
+				}
+			}
+			catch (final DataFormatException dfe) {
+				throw new IOException("corrupted session data", dfe); //$NON-NLS-1$
+			}
+			finally {
+				inflater.end();
+			}
+
+			offset = 0;
+		}
+		else
+			payload = data;
+
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload, offset, payload.length - offset))) {
+			final String sID = readString(in);
+			final int iApp = in.readInt();
+			final String sIP = readString(in);
+			final boolean bIPProtected = in.readBoolean();
+
+			final DBSession session = new DBSession(sID, iApp, sIP, bIPProtected);
+
+			final String sUsername = readString(in);
+			final String sFullname = readString(in);
+			final String sUserAgent = readString(in);
+			final String sLastPage = readString(in);
+			final long lLastAccess = in.readLong();
+			final long lLastSaved = in.readLong();
+
+			session.restore(sUsername, sFullname, sUserAgent, sLastPage, lLastAccess, lLastSaved);
+
+			final Map<String, Serializable> values = session.getValues();
+
+			final int count = readVarInt(in);
+
+			for (int i = 0; i < count; i++) {
+				final String key = readString(in);
+				final Serializable value = readValue(in, loader);
+
+				if (key != null && value != null)
+					values.put(key, value);
+			}
+
+			return session;
+		}
+	}
+
+	/**
+	 * @param out where to write
+	 * @param value a non-negative number
+	 * @throws IOException
+	 */
+	private static void writeVarInt(final DataOutputStream out, final int value) throws IOException {
+		int v = value;
+
+		while ((v & ~0x7F) != 0) {
+			out.writeByte((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+
+		out.writeByte(v);
+	}
+
+	/**
+	 * @param in where to read from
+	 * @return the number
+	 * @throws IOException
+	 */
+	private static int readVarInt(final DataInputStream in) throws IOException {
+		int value = 0;
+
+		for (int shift = 0; shift < 35; shift += 7) {
+			final int b = in.readUnsignedByte();
+
+			value |= (b & 0x7F) << shift;
+
+			if ((b & 0x80) == 0)
+				return value;
+		}
+
+		throw new IOException("malformed length"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Write a nullable string, as its UTF-8 length + 1 (0 meaning <code>null</code>) followed by the bytes
+	 *
+	 * @param out where to write
+	 * @param s the string
+	 * @throws IOException
+	 */
+	private static void writeString(final DataOutputStream out, final String s) throws IOException {
+		if (s == null) {
+			out.writeByte(0);
+			return;
+		}
+
+		final byte[] b = s.getBytes(StandardCharsets.UTF_8);
+
+		writeVarInt(out, b.length + 1);
+		out.write(b);
+	}
+
+	/**
+	 * @param in where to read from
+	 * @return the string
+	 * @throws IOException
+	 */
+	private static String readString(final DataInputStream in) throws IOException {
+		final int len = readVarInt(in);
+
+		if (len == 0)
+			return null;
+
+		final byte[] b = new byte[len - 1];
+
+		in.readFully(b);
+
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param out where to write
+	 * @param o the value
+	 * @throws IOException
+	 */
+	private static void writeValue(final DataOutputStream out, final Serializable o) throws IOException {
+		if (o == null)
+			out.writeByte(T_NULL);
+		else if (o instanceof String) {
+			out.writeByte(T_STRING);
+			writeString(out, (String) o);
+		}
+		else if (o instanceof Integer) {
+			out.writeByte(T_INT);
+			out.writeInt(((Integer) o).intValue());
+		}
+		else if (o instanceof Long) {
+			out.writeByte(T_LONG);
+			out.writeLong(((Long) o).longValue());
+		}
+		else if (o instanceof Double) {
+			out.writeByte(T_DOUBLE);
+			out.writeDouble(((Double) o).doubleValue());
+		}
+		else if (o instanceof Float) {
+			out.writeByte(T_FLOAT);
+			out.writeFloat(((Float) o).floatValue());
+		}
+		else if (o instanceof Boolean)
+			out.writeByte(((Boolean) o).booleanValue() ? T_TRUE : T_FALSE);
+		else if (o instanceof Short) {
+			out.writeByte(T_SHORT);
+			out.writeShort(((Short) o).shortValue());
+		}
+		else if (o instanceof Byte) {
+			out.writeByte(T_BYTE);
+			out.writeByte(((Byte) o).byteValue());
+		}
+		else if (o instanceof Character) {
+			out.writeByte(T_CHAR);
+			out.writeChar(((Character) o).charValue());
+		}
+		else if (o instanceof byte[]) {
+			out.writeByte(T_BYTES);
+			writeVarInt(out, ((byte[]) o).length);
+			out.write((byte[]) o);
+		}
+		else {
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream(256);
+
+			try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+				oos.writeObject(o);
+			}
+
+			out.writeByte(T_OBJECT);
+			writeVarInt(out, baos.size());
+			baos.writeTo(out);
+		}
+	}
+
+	/**
+	 * @param in where to read from
+	 * @param loader alternative class loader for the serialized objects
+	 * @return the value
+	 * @throws IOException
+	 */
+	private static Serializable readValue(final DataInputStream in, final ClassLoader loader) throws IOException {
+		final int type = in.readUnsignedByte();
+
+		switch (type) {
+			case T_NULL:
+				return null;
+			case T_STRING:
+				return readString(in);
+			case T_INT:
+				return Integer.valueOf(in.readInt());
+			case T_LONG:
+				return Long.valueOf(in.readLong());
+			case T_DOUBLE:
+				return Double.valueOf(in.readDouble());
+			case T_FLOAT:
+				return Float.valueOf(in.readFloat());
+			case T_TRUE:
+				return Boolean.TRUE;
+			case T_FALSE:
+				return Boolean.FALSE;
+			case T_SHORT:
+				return Short.valueOf(in.readShort());
+			case T_BYTE:
+				return Byte.valueOf(in.readByte());
+			case T_CHAR:
+				return Character.valueOf(in.readChar());
+			case T_BYTES: {
+				final byte[] b = new byte[readVarInt(in)];
+				in.readFully(b);
+				return b;
+			}
+			case T_OBJECT: {
+				final byte[] b = new byte[readVarInt(in)];
+				in.readFully(b);
+
+				try (ObjectInputStream ois = new SerializationSessionCodec.LoaderObjectInputStream(new ByteArrayInputStream(b), loader)) {
+					return (Serializable) ois.readObject();
+				}
+				catch (final ClassNotFoundException cnfe) {
+					// the class of this value is gone, drop the value but keep the rest of the session
+					Log.log(Log.WARNING, "lazyj.DBSession", "cannot decode a session value", cnfe); //$NON-NLS-1$ //$NON-NLS-2$
+					return null;
+				}
+			}
+			default:
+				throw new IOException("unknown value type " + type); //$NON-NLS-1$
+		}
+	}
+}
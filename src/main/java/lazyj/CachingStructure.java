@@ -3,10 +3,14 @@
  */
 package lazyj;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.ref.WeakReference;
 import java.util.StringTokenizer;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 /**
@@ -27,15 +31,41 @@ public final class CachingStructure implements Comparable<CachingStructure> {
 	public final long		lifetime;
 
 	/**
-	 * Cached content
+	 * Cached content, <code>null</code> once it was moved to the off-heap store
 	 */
-	private final byte[]	content;
+	private volatile byte[]	content;
+	
+	/**
+	 * Size of the cached content, as it is stored (compressed or not)
+	 */
+	private final int		iStoredLength;
+	
+	/**
+	 * Off-heap store that keeps the content, <code>null</code> while the content is on the heap
+	 */
+	private volatile PageStore	store		= null;
+	
+	/**
+	 * Blocks of the off-heap store that keep the content
+	 */
+	private volatile int[]		blocks		= null;
+	
+	/**
+	 * References to the off-heap content: one for the cache that owns this entry and one for each request that is
+	 * reading it. The blocks are given back to the store when the last one is released.
+	 */
+	private final AtomicInteger	refs		= new AtomicInteger(1);
 
 	/**
 	 * Unique key to access this content
 	 */
 	public final String		sKey;
 
+	/**
+	 * For how long, in milliseconds, the content can still be served after it has expired, while it is rendered again.
+	 */
+	volatile long			staleLifetime	= 0;
+
 	/**
 	 * Number of accesses to this cache entry.
 	 */
@@ -56,6 +86,11 @@ public final class CachingStructure implements Comparable<CachingStructure> {
 	 */
 	public final String		sContentType;
 	
+	/**
+	 * Strong entity tag of the plain content, computed once when the entry is created
+	 */
+	private final String	sETag;
+	
 	/**
 	 * Keep a weak reference to the uncompressed contents 
 	 */
@@ -86,6 +121,7 @@ public final class CachingStructure implements Comparable<CachingStructure> {
 		this.iOriginalLength = vbContent.length;
 		this.lifetime = lLifetime;
 		this.sContentType = sContentType;
+		this.sETag = RequestWrapper.getETag(vbContent, 0, vbContent.length);
 		
 		if (vbContent.length>3000){
 			this.content = Utils.compress(vbContent);
@@ -96,30 +132,269 @@ public final class CachingStructure implements Comparable<CachingStructure> {
 			this.content = vbContent;
 			this.isCompressed = false;
 		}
+		
+		this.iStoredLength = this.content.length;
+	}
+	
+	/**
+	 * Move the content to an off-heap store. From now on the content is only accessible while a reference is held, see
+	 * {@link #retain()}. The cache that owns this entry holds the initial reference.
+	 * 
+	 * @param s the store
+	 * @return true if the content was moved, false if the store doesn't have enough free space
+	 */
+	boolean offload(final PageStore s){
+		final byte[] data = this.content;
+		
+		final int[] indexes = s.allocate(data.length);
+		
+		if (indexes == null)
+			return false;
+		
+		s.put(indexes, data);
+		
+		if (!this.isCompressed)
+			this.wrUncompressed = new WeakReference<>(data);
+		
+		this.blocks = indexes;
+		this.store = s;
+		this.content = null;
+		
+		return true;
+	}
+	
+	/**
+	 * Take a reference to the content, so that it is not freed while it is read. Every successful call must be
+	 * followed by a {@link #release()}.
+	 * 
+	 * @return false if the content was already evicted from the off-heap store
+	 */
+	boolean retain(){
+		if (this.store == null)
+			return true;
+		
+		int r;
+		
+		do{
+			r = this.refs.get();
+			
+			if (r <= 0)
+				return false;
+		}
+		while (!this.refs.compareAndSet(r, r+1));
+		
+		return true;
+	}
+	
+	/**
+	 * Drop a reference to the content. The last one gives the off-heap blocks back to the store.
+	 */
+	void release(){
+		final PageStore s = this.store;
+		
+		if (s != null && this.refs.decrementAndGet() == 0)
+			s.free(this.blocks, this.iStoredLength);
+	}
+	
+	/**
+	 * @return true if the content is kept in the off-heap store
+	 */
+	public boolean isOffHeap(){
+		return this.store != null;
+	}
+	
+	/**
+	 * @return the content as it is stored (compressed or not), copied to the heap if it is kept off-heap, or
+	 * 		<code>null</code> if it was evicted from the off-heap store
+	 */
+	private byte[] getStoredContent(){
+		final byte[] data = this.content;
+		
+		if (data != null)
+			return data;
+		
+		if (!retain())
+			return null;
+		
+		try{
+			return this.store.get(this.blocks, this.iStoredLength);
+		}
+		finally{
+			release();
+		}
 	}
 	
 	/**
 	 * Get the contents.
 	 * 
-	 * @return the contents of the cache
+	 * @return the contents of the cache, empty if the entry was evicted from the off-heap store in the meantime
 	 */
 	public byte[] getContent(){
 		this.iAccesses++;
 		
-		if (this.isCompressed){
-			byte[] uncompressed = this.wrUncompressed.get();
+		final byte[] plain = getPlainContent();
+		
+		return plain != null ? plain : new byte[0];
+	}
+	
+	/**
+	 * @return the uncompressed contents, without counting an access, or <code>null</code> if the entry was evicted
+	 * 		from the off-heap store
+	 */
+	private byte[] getPlainContent(){
+		final byte[] data = this.content;
+		
+		if (data != null && !this.isCompressed)
+			return data;
+		
+		byte[] uncompressed = this.wrUncompressed != null ? this.wrUncompressed.get() : null;
+		
+		if (uncompressed!=null)
+			return uncompressed;
+		
+		final byte[] stored = data != null ? data : getStoredContent();
+		
+		if (stored == null || !this.isCompressed)
+			return stored;
+		
+		uncompressed = Utils.uncompress(stored);
+		
+		this.wrUncompressed = new WeakReference<>(uncompressed);
+		
+		return uncompressed;
+	}
+	
+	/**
+	 * @return true if the content is kept gzip-compressed in memory, see {@link #getCompressedContent()}
+	 */
+	public boolean isCompressed(){
+		return this.isCompressed;
+	}
+	
+	/**
+	 * Get the contents exactly as they are kept in memory, gzip-compressed, to be sent as such to the clients that accept
+	 * this encoding. This avoids decompressing the content for each hit.
+	 * 
+	 * @return the compressed contents, or <code>null</code> if the contents are not compressed or were evicted from the
+	 * 		off-heap store in the meantime
+	 */
+	public byte[] getCompressedContent(){
+		if (!this.isCompressed)
+			return null;
+		
+		this.iAccesses++;
+		
+		return getStoredContent();
+	}
+	
+	/**
+	 * Get the entity tag of one representation of this content. The compressed representation has a different tag
+	 * than the plain one, since the bytes sent to the client differ.
+	 * 
+	 * @param bCompressed true for the tag of the gzip-compressed representation
+	 * @return the quoted entity tag
+	 */
+	public String getETag(final boolean bCompressed){
+		if (bCompressed && this.isCompressed)
+			return this.sETag.substring(0, this.sETag.length()-1) + "-gz\""; //$NON-NLS-1$
+		
+		return this.sETag;
+	}
+	
+	/**
+	 * Check whether the client already has this content, either representation of it
+	 * 
+	 * @param request the request, with the <i>If-None-Match</i> or <i>If-Modified-Since</i> headers
+	 * @return true if a <i>304 Not Modified</i> status can be sent instead of the content
+	 */
+	public boolean isNotModified(final HttpServletRequest request){
+		if (this.isCompressed)
+			return RequestWrapper.isNotModified(request, this.lGenerated, this.sETag, getETag(true));
+		
+		return RequestWrapper.isNotModified(request, this.lGenerated, this.sETag);
+	}
+	
+	/**
+	 * Write the contents to the client, compressed if possible, setting the HTTP headers accordingly. If the client
+	 * already has this content only the headers are sent, with a <i>304 Not Modified</i> status.
+	 * 
+	 * @param request the request, to check if the client accepts compressed content
+	 * @param response object to set the headers on
+	 * @param os stream to write to
+	 * @return true if the content was sent, false if the client was told that its copy is still valid
+	 * @throws IOException
+	 */
+	public boolean write(final HttpServletRequest request, final HttpServletResponse response, final OutputStream os) throws IOException{
+		return write(request, response, os, null);
+	}
+	
+	/**
+	 * Write the contents to the client, see {@link #write(HttpServletRequest, HttpServletResponse, OutputStream)}
+	 * 
+	 * @param request the request
+	 * @param response object to set the headers on
+	 * @param os stream to write to
+	 * @param rendered the content, if the caller has just rendered it, or <code>null</code> for an access to the cache
+	 * 		entry. It is sent if the client doesn't accept the compressed content or if the entry is evicted in the meantime.
+	 * @return true if the content was sent, false if the client was told that its copy is still valid
+	 * @throws IOException
+	 */
+	boolean write(final HttpServletRequest request, final HttpServletResponse response, final OutputStream os, final byte[] rendered) throws IOException{
+		boolean bGzip = this.isCompressed && RequestWrapper.acceptsEncoding(request, "gzip"); //$NON-NLS-1$
+		
+		if (isNotModified(request)){
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
 			
-			if (uncompressed!=null)
-				return uncompressed;
+			if (this.isCompressed)
+				response.setHeader("Vary", "Accept-Encoding"); //$NON-NLS-1$ //$NON-NLS-2$
 			
-			uncompressed = Utils.uncompress(this.content);
+			RequestWrapper.setValidators(response, getETag(bGzip), this.lGenerated);
+			RequestWrapper.setCacheTimeout(response, getRemainingLifetime());
 			
-			this.wrUncompressed = new WeakReference<>(uncompressed);
+			return false;
+		}
+		
+		if (rendered == null)
+			this.iAccesses++;
+		
+		final PageStore s = this.store;
+		
+		if (s != null && (bGzip || !this.isCompressed)){
+			// the stored bytes are sent as they are, straight from the off-heap memory
+			if (retain()){
+				try{
+					setHeaders(response, bGzip);
+					
+					s.writeTo(this.blocks, this.iStoredLength, os);
+				}
+				finally{
+					release();
+				}
+				
+				return true;
+			}
 			
-			return uncompressed;
+			// evicted in the meantime, the plain content might still be on the heap
+			bGzip = false;
 		}
 		
-		return this.content;
+		final byte[] data = bGzip ? getStoredContent() : rendered != null ? rendered : getPlainContent();
+		
+		if (data == null)
+			throw new IOException("The content of "+this.sKey+" was evicted from the page cache"); //$NON-NLS-1$ //$NON-NLS-2$
+		
+		setHeaders(response, bGzip);
+		
+		os.write(data);
+		
+		return true;
+	}
+	
+	/**
+	 * @return how many seconds this entry is still valid for
+	 */
+	private int getRemainingLifetime(){
+		return (int) ((this.lGenerated+this.lifetime-System.currentTimeMillis())/1000);
 	}
 	
 	/**
@@ -128,11 +403,31 @@ public final class CachingStructure implements Comparable<CachingStructure> {
 	 * @param response object to set the headers on
 	 */
 	public void setHeaders(final HttpServletResponse response){
+		setHeaders(response, false);
+	}
+	
+	/**
+	 * Set the proper HTTP headers for this cached content
+	 * 
+	 * @param response object to set the headers on
+	 * @param bCompressed true if the compressed contents ({@link #getCompressedContent()}) are sent, false for the plain ones
+	 */
+	public void setHeaders(final HttpServletResponse response, final boolean bCompressed){
 		response.setContentType(this.sContentType);
 		response.setHeader("Content-Language", "en"); //$NON-NLS-1$ //$NON-NLS-2$
-		response.setContentLength(length());
 		
-		RequestWrapper.setCacheTimeout(response, (int) ((this.lGenerated+this.lifetime-System.currentTimeMillis())/1000));
+		if (this.isCompressed)
+			response.setHeader("Vary", "Accept-Encoding"); //$NON-NLS-1$ //$NON-NLS-2$
+		
+		if (bCompressed && this.isCompressed){
+			response.setHeader("Content-Encoding", "gzip"); //$NON-NLS-1$ //$NON-NLS-2$
+			response.setContentLength(this.iStoredLength);
+		}
+		else
+			response.setContentLength(length());
+		
+		RequestWrapper.setValidators(response, getETag(bCompressed), this.lGenerated);
+		RequestWrapper.setCacheTimeout(response, getRemainingLifetime());
 	}
 	
 	/**
@@ -211,7 +506,7 @@ public final class CachingStructure implements Comparable<CachingStructure> {
 	 * @return original content size
 	 */
 	public int getRealSize(){
-		return this.content!=null ? this.content.length : -1;
+		return this.iStoredLength;
 	}
 	
 	/**
@@ -0,0 +1,167 @@
+package lazyj;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Output stream that gzip-compresses the response on the fly. The first bytes are buffered until the configured minimum
+ * size is reached, so that small responses are sent as they are, with their exact length. Once the minimum is reached
+ * the <i>Content-Encoding</i> header is set and the rest of the content is compressed as it is written.<br>
+ * <br>
+ * A flush before the minimum size is reached is ignored, the decision is only taken by the content size or by the close of
+ * the stream. A response that already has a content encoding or whose content type is not worth compressing (images,
+ * archives ...) is sent as it is.
+ *
+ * @author costing
+ * @since Oct 16, 2026
+ */
+final class CompressingOutputStream extends OutputStream {
+
+	/**
+	 * Response, to set the headers on
+	 */
+	private final HttpServletResponse	response;
+
+	/**
+	 * Stream to the client
+	 */
+	private final OutputStream			out;
+
+	/**
+	 * Deflate level
+	 */
+	private final int					level;
+
+	/**
+	 * Size from which the content is compressed
+	 */
+	private final int					minSize;
+
+	/**
+	 * The first bytes, until the decision to compress or not is taken
+	 */
+	private ByteArrayOutputStream		buffer;
+
+	/**
+	 * Where the content goes after the decision, either the client stream or the compressor in front of it
+	 */
+	private OutputStream				target	= null;
+
+	/**
+	 * Whether or not the stream was closed
+	 */
+	private boolean						closed	= false;
+
+	/**
+	 * @param response response, to set the headers on
+	 * @param out stream to the client
+	 * @param level deflate level, 1 (fastest) to 9 (smallest)
+	 * @param minSize responses shorter than this are not compressed
+	 */
+	CompressingOutputStream(final HttpServletResponse response, final OutputStream out, final int level, final int minSize) {
+		this.response = response;
+		this.out = out;
+		this.level = Math.max(Math.min(level, 9), 1);
+		this.minSize = Math.max(minSize, 0);
+		this.buffer = new ByteArrayOutputStream(Math.min(Math.max(this.minSize, 32), 64 * 1024));
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		if (this.target != null) {
+			this.target.write(b);
+			return;
+		}
+
+		this.buffer.write(b);
+
+		if (this.buffer.size() >= this.minSize)
+			start(true);
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		if (this.target != null) {
+			this.target.write(b, off, len);
+			return;
+		}
+
+		this.buffer.write(b, off, len);
+
+		if (this.buffer.size() >= this.minSize)
+			start(true);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		// the PrintWriter on top flushes all the time, keep buffering until the size or the close decides
+		if (this.target != null)
+			this.target.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.closed)
+			return;
+
+		this.closed = true;
+
+		if (this.target == null) {
+			// the whole response is known and it is short
+			if (!this.response.isCommitted())
+				this.response.setContentLength(this.buffer.size());
+
+			start(false);
+		}
+
+		// for the compressor this also writes the gzip trailer
+		this.target.close();
+	}
+
+	/**
+	 * Decide whether the content is compressed and write the buffered bytes
+	 *
+	 * @param bCompress true to compress, if the response allows it
+	 * @throws IOException
+	 */
+	private void start(final boolean bCompress) throws IOException {
+		if (bCompress && canCompress()) {
+			this.response.setHeader("Content-Encoding", "gzip"); //$NON-NLS-1$ //$NON-NLS-2$
+			this.response.addHeader("Vary", "Accept-Encoding"); //$NON-NLS-1$ //$NON-NLS-2$
+
+			final int deflateLevel = this.level;
+
+			this.target = new GZIPOutputStream(this.out, 8192) {
+				{
+					this.def.setLevel(deflateLevel);
+				}
+			};
+		}
+		else
+			this.target = this.out;
+
+		this.buffer.writeTo(this.target);
+		this.buffer = null;
+	}
+
+	/**
+	 * @return true if the headers can still be changed and the content type is worth compressing
+	 */
+	private boolean canCompress() {
+		if (this.response.isCommitted() || this.response.containsHeader("Content-Encoding") || this.response.containsHeader("Content-Length")) //$NON-NLS-1$ //$NON-NLS-2$
+			return false;
+
+		final String sContentType = this.response.getContentType();
+
+		if (sContentType == null)
+			return true;
+
+		final String s = sContentType.toLowerCase();
+
+		return s.startsWith("text/") || s.contains("json") || s.contains("xml") || s.contains("javascript"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	}
+}
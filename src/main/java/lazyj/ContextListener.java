@@ -0,0 +1,29 @@
+package lazyj;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Releases the resources that outlive the servlets when the web application is stopped, for now the off-heap store of
+ * the {@link PageCache}. It is picked up automatically when lazyj is in <i>WEB-INF/lib</i>, otherwise declare it in
+ * web.xml:<br>
+ * <code>&lt;listener&gt;&lt;listener-class&gt;lazyj.ContextListener&lt;/listener-class&gt;&lt;/listener&gt;</code>
+ *
+ * @author costing
+ * @since Oct 16, 2026
+ */
+@WebListener
+public final class ContextListener implements ServletContextListener {
+
+	@Override
+	public void contextInitialized(final ServletContextEvent sce) {
+		// nothing to do, everything is initialized on first use
+	}
+
+	@Override
+	public void contextDestroyed(final ServletContextEvent sce) {
+		PageCache.shutdown();
+	}
+
+}
@@ -0,0 +1,1167 @@
+package lazyj;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import lazyj.DBFunctions.DBConnection;
+
+/**
+ * Connection pool for one JDBC target (one unique key of {@link DBFunctions}).<br>
+ * <br>
+ * Idle connections are kept in a lock-free LIFO stack, so that taking a free connection is a single
+ * non-blocking pop and the most recently used (warm) connections are reused first. The number of established
+ * connections is bounded by a counter that is reserved with compare-and-set before a new connection is
+ * opened. Validation of the idle connections is done by the background maintenance, never by the thread
+ * that borrows the connection.<br>
+ * <br>
+ * Each pool is maintained independently by a small scheduled executor: idle connections are validated and evicted,
+ * connections left in an error state are replaced, and a minimum number of idle connections can be kept pre-warmed.
+ * None of this blocks the threads that take or free connections.<br>
+ * <br>
+ * The following keys from the {@link DBFunctions} configuration are understood by the pool and are not passed
+ * to the JDBC driver:<br>
+ * <ul>
+ * <li><b>pool.maxConnections</b> : (optional) maximum number of established connections to this target, default 100</li>
+ * <li><b>pool.connectRetries</b> : (optional) how many times to try to get a connection before giving up, default 3</li>
+ * <li><b>pool.connectRetryDelay</b> : (optional) milliseconds to wait between two attempts, default 50</li>
+ * <li><b>pool.validationInterval</b> : (optional) idle seconds after which a connection is checked in background before being handed out again, default 60</li>
+ * <li><b>pool.validationTime</b> : (optional) milliseconds that one maintenance run may spend checking connections, the rest are checked at the
+ * next run, default 1000</li>
+ * <li><b>pool.acquireTimeout</b> : (optional) if positive, the maximum time in milliseconds to wait in a FIFO queue for a free connection
+ * when the pool is exhausted, instead of the retry loop above. Default 0 (retry loop).</li>
+ * <li><b>pool.minIdle</b> : (optional) number of idle connections to keep established and ready, default 0</li>
+ * <li><b>pool.maxIdle</b> : (optional) idle connections beyond this number are closed, default 5</li>
+ * <li><b>pool.idleTimeout</b> : (optional) seconds after which an unused connection is closed, default 300</li>
+ * <li><b>pool.maxBusyTime</b> : (optional) seconds after which a connection that is still in use is detached from the pool, default 120</li>
+ * <li><b>pool.maintenanceInterval</b> : (optional) milliseconds between two maintenance runs of the pool, default 2000</li>
+ * <li><b>pool.statementCacheSize</b> : (optional) how many prepared statements to keep for reuse on each connection (LRU), default 0 (disabled)</li>
+ * <li><b>pool.replicas</b> : (optional) whitespace-separated list of JDBC URLs of read replicas, used for the queries flagged with
+ * {@link DBFunctions#setReadOnly(boolean)}. Each replica has its own pool, configured with the same keys as this one.</li>
+ * <li><b>pool.replicaSelection</b> : (optional) <i>roundrobin</i> (default) or <i>leastbusy</i>, how to pick the replica for a query</li>
+ * <li><b>pool.replicaRetryInterval</b> : (optional) seconds during which a replica that failed to accept a connection is not used, default 30</li>
+ * </ul>
+ *
+ * @author costing
+ * @since Oct 16, 2026
+ * @see DBFunctions
+ */
+public final class DBConnectionPool {
+
+	/**
+	 * Prefix of the configuration keys that are interpreted by the pool and not passed to the driver
+	 */
+	static final String									CONFIG_PREFIX		= "pool.";				//$NON-NLS-1$
+
+	/**
+	 * All known pools, by unique key
+	 */
+	private static final ConcurrentHashMap<String, DBConnectionPool>	pools	= new ConcurrentHashMap<>();
+
+	/**
+	 * Unique key of this pool
+	 */
+	private final String								sKey;
+
+	/**
+	 * JDBC driver class name
+	 */
+	private final String								driver;
+
+	/**
+	 * JDBC connection string
+	 */
+	private final String								jdbcURL;
+
+	/**
+	 * Properties passed to the driver when establishing new connections
+	 */
+	private volatile Properties							driverProperties;
+
+	/**
+	 * Idle connections, the head of the deque is the top of the stack (most recently freed)
+	 */
+	private final ConcurrentLinkedDeque<DBConnection>	idle				= new ConcurrentLinkedDeque<>();
+
+	/**
+	 * All the connections that belong to this pool, busy or idle
+	 */
+	private final Set<DBConnection>						all					= Collections.newSetFromMap(new ConcurrentHashMap<DBConnection, Boolean>());
+
+	/**
+	 * Number of established connections plus the ones that are being established right now
+	 */
+	private final AtomicInteger							size				= new AtomicInteger(0);
+
+	/**
+	 * Maximum number of connections to this target
+	 */
+	private volatile int								maxConnections		= 100;
+
+	/**
+	 * How many times to try getting a connection
+	 */
+	private volatile int								connectRetries		= 3;
+
+	/**
+	 * Delay between two attempts to get a connection, in milliseconds
+	 */
+	private volatile long								connectRetryDelay	= 50;
+
+	/**
+	 * Idle time after which a connection is validated by the cleanup thread, in milliseconds
+	 */
+	private volatile long								validationInterval	= 1000 * 60;
+
+	/**
+	 * How long one maintenance run may spend validating connections, in milliseconds. The maintenance threads are shared by
+	 * all pools, so a pool with many dead connections must not hold them for long.
+	 */
+	private volatile long								validationTime		= 1000;
+
+	/**
+	 * Maximum time to wait in the queue for a free connection, in milliseconds. 0 means no queuing, fall back to the retry loop.
+	 */
+	private volatile long								acquireTimeout		= 0;
+
+	/**
+	 * Number of idle connections to keep ready
+	 */
+	private volatile int								minIdle				= 0;
+
+	/**
+	 * Maximum number of idle connections
+	 */
+	private volatile int								maxIdle				= 5;
+
+	/**
+	 * Unused connections are closed after this many milliseconds
+	 */
+	private volatile long								idleTimeout			= 1000 * 60 * 5;
+
+	/**
+	 * Connections in use for more than this many milliseconds are detached from the pool
+	 */
+	private volatile long								maxBusyTime			= 1000 * 60 * 2;
+
+	/**
+	 * Time between two maintenance runs, in milliseconds
+	 */
+	private volatile long								maintenanceInterval	= 2000;
+
+	/**
+	 * Currently scheduled maintenance task of this pool
+	 */
+	private ScheduledFuture<?>							maintenanceTask		= null;
+
+	/**
+	 * Statistics : connections closed because they were not used for {@link #idleTimeout}
+	 */
+	private final AtomicLong							evictedIdleTimeout	= new AtomicLong(0);
+
+	/**
+	 * Statistics : connections closed because there were more than {@link #maxIdle} idle connections
+	 */
+	private final AtomicLong							evictedIdleExcess	= new AtomicLong(0);
+
+	/**
+	 * Statistics : connections closed because they were found in an error state
+	 */
+	private final AtomicLong							evictedBroken		= new AtomicLong(0);
+
+	/**
+	 * Statistics : connections closed because they failed the validation
+	 */
+	private final AtomicLong							evictedInvalid		= new AtomicLong(0);
+
+	/**
+	 * Statistics : connections detached because they were busy for more than {@link #maxBusyTime}
+	 */
+	private final AtomicLong							detachedBusy		= new AtomicLong(0);
+
+	/**
+	 * Statistics : connections established by the maintenance to keep {@link #minIdle} connections ready
+	 */
+	private final AtomicLong							prewarmed			= new AtomicLong(0);
+
+	/**
+	 * Number of prepared statements to cache on each connection
+	 */
+	private volatile int								statementCacheSize	= 0;
+
+	/**
+	 * Statistics : prepared statements found in the connections' cache
+	 */
+	private final AtomicLong							statementHits		= new AtomicLong(0);
+
+	/**
+	 * Statistics : prepared statements that had to be prepared by the server
+	 */
+	private final AtomicLong							statementMisses		= new AtomicLong(0);
+
+	/**
+	 * Statistics : prepared statements evicted from the connections' cache because it was full
+	 */
+	private final AtomicLong							statementEvictions	= new AtomicLong(0);
+
+	/**
+	 * Read replicas of this target
+	 */
+	private volatile DBConnectionPool[]					replicas			= new DBConnectionPool[0];
+
+	/**
+	 * Value of <i>pool.replicas</i> that {@link #replicas} was built from
+	 */
+	private volatile String								sReplicasConfig		= null;
+
+	/**
+	 * The <i>pool.*</i> keys applied by the last {@link #configure(Properties)} that changed them
+	 */
+	private Properties									poolConfig			= null;
+
+	/**
+	 * If <code>true</code> pick the replica with the fewest busy connections, otherwise go round-robin
+	 */
+	private volatile boolean							leastBusy			= false;
+
+	/**
+	 * Round-robin position in {@link #replicas}
+	 */
+	private final AtomicInteger							nextReplica			= new AtomicInteger(0);
+
+	/**
+	 * For how long a failed replica is skipped, in milliseconds
+	 */
+	private volatile long								replicaRetryInterval	= 1000 * 30;
+
+	/**
+	 * Until when this pool is considered unhealthy, as replica, after a failed connection attempt
+	 */
+	private volatile long								unhealthyUntil		= 0;
+
+	/**
+	 * Statistics : connections that could not be established
+	 */
+	private final AtomicLong							connectFailures		= new AtomicLong(0);
+
+	/**
+	 * Marker put in a waiter's slot when a connection slot was freed and the waiter could establish a new connection
+	 */
+	private static final Object							SLOT_FREED			= new Object();
+
+	/**
+	 * Marker put in a waiter's slot by the waiter itself when it gives up
+	 */
+	private static final Object							CANCELLED			= new Object();
+
+	/**
+	 * One thread waiting for a connection
+	 */
+	private static final class Waiter {
+		/**
+		 * The waiting thread
+		 */
+		final Thread					thread	= Thread.currentThread();
+
+		/**
+		 * <code>null</code> while waiting, then either the connection that was handed over, {@link DBConnectionPool#SLOT_FREED}
+		 * or {@link DBConnectionPool#CANCELLED}
+		 */
+		final AtomicReference<Object>	slot	= new AtomicReference<>();
+
+		/**
+		 * Default constructor
+		 */
+		Waiter() {
+			// nothing
+		}
+	}
+
+	/**
+	 * Threads waiting for a connection, in arrival order
+	 */
+	private final ConcurrentLinkedDeque<Waiter>			waiters				= new ConcurrentLinkedDeque<>();
+
+	/**
+	 * Statistics : number of threads currently waiting
+	 */
+	private final AtomicInteger							waiting				= new AtomicInteger(0);
+
+	/**
+	 * Statistics : how long the threads had to wait for a connection
+	 */
+	private final LatencyHistogram						waitTime			= new LatencyHistogram();
+
+	/**
+	 * Statistics : how many threads gave up waiting
+	 */
+	private final AtomicLong							timeouts			= new AtomicLong(0);
+
+	/**
+	 * Create a pool for the given target. Use {@link #getPool(String, String, String, Properties)} to obtain an instance.
+	 *
+	 * @param key unique key
+	 * @param driverClass JDBC driver class name
+	 * @param url JDBC connection string
+	 */
+	private DBConnectionPool(final String key, final String driverClass, final String url) {
+		this.sKey = key;
+		this.driver = driverClass;
+		this.jdbcURL = url;
+	}
+
+	/**
+	 * Get (creating it if necessary) the pool for a given target and apply the pool-related configuration keys.
+	 *
+	 * @param key unique key of the target
+	 * @param driverClass JDBC driver class name
+	 * @param url JDBC connection string
+	 * @param prop configuration options, can be <code>null</code>
+	 * @return the pool
+	 */
+	static DBConnectionPool getPool(final String key, final String driverClass, final String url, final Properties prop) {
+		DBConnectionPool pool = pools.get(key);
+
+		if (pool == null) {
+			pool = new DBConnectionPool(key, driverClass, url);
+
+			final DBConnectionPool old = pools.putIfAbsent(key, pool);
+
+			if (old != null)
+				pool = old;
+			else
+				schedule(pool);
+		}
+
+		pool.configure(prop);
+
+		return pool;
+	}
+
+	/**
+	 * Get the pool for a given unique key, if it exists.
+	 *
+	 * @param key unique key (JDBC connection string)
+	 * @return the pool, or <code>null</code> if nothing was done yet with this target
+	 */
+	public static DBConnectionPool getPool(final String key) {
+		return pools.get(key);
+	}
+
+	/**
+	 * Get all the known pools
+	 *
+	 * @return a snapshot of the known pools, by unique key
+	 */
+	public static Map<String, DBConnectionPool> getPools() {
+		return Collections.unmodifiableMap(pools);
+	}
+
+	/**
+	 * Apply the pool configuration keys. This is called each time a {@link DBFunctions} object starts using the pool,
+	 * so the settings are only changed when the caller has <i>pool.*</i> keys that differ from the ones already applied,
+	 * and the driver properties (credentials) only when the caller has some.
+	 *
+	 * @param prop configuration options, can be <code>null</code>
+	 */
+	@SuppressWarnings("nls")
+	synchronized void configure(final Properties prop) {
+		final Properties dp = getDriverProperties(prop);
+
+		if (this.driverProperties == null || dp.size() > 0)
+			this.driverProperties = dp;
+
+		if (prop == null)
+			return;
+
+		final Properties pc = new Properties();
+
+		for (final Map.Entry<Object, Object> me : prop.entrySet())
+			if (me.getKey().toString().startsWith(CONFIG_PREFIX))
+				pc.put(me.getKey(), me.getValue());
+
+		if (pc.isEmpty() || pc.equals(this.poolConfig))
+			return;
+
+		this.poolConfig = pc;
+
+		this.maxConnections = getInt(prop, "pool.maxConnections", 100);
+		this.connectRetries = Math.max(getInt(prop, "pool.connectRetries", 3), 1);
+		this.connectRetryDelay = Math.max(getInt(prop, "pool.connectRetryDelay", 50), 0);
+		this.validationInterval = Math.max(getInt(prop, "pool.validationInterval", 60), 0) * 1000L;
+		this.validationTime = Math.max(getInt(prop, "pool.validationTime", 1000), 1);
+		this.acquireTimeout = Math.max(getInt(prop, "pool.acquireTimeout", 0), 0);
+		this.statementCacheSize = Math.max(getInt(prop, "pool.statementCacheSize", 0), 0);
+		this.maxIdle = Math.max(getInt(prop, "pool.maxIdle", 5), 0);
+		this.minIdle = Math.min(Math.max(getInt(prop, "pool.minIdle", 0), 0), this.maxIdle);
+		this.idleTimeout = Math.max(getInt(prop, "pool.idleTimeout", 300), 1) * 1000L;
+		this.maxBusyTime = Math.max(getInt(prop, "pool.maxBusyTime", 120), 1) * 1000L;
+		this.leastBusy = "leastbusy".equalsIgnoreCase(prop.getProperty("pool.replicaSelection", "").trim());
+		this.replicaRetryInterval = Math.max(getInt(prop, "pool.replicaRetryInterval", 30), 0) * 1000L;
+
+		configureReplicas(prop);
+
+		final long interval = Math.max(getInt(prop, "pool.maintenanceInterval", 2000), 100);
+
+		if (interval != this.maintenanceInterval) {
+			this.maintenanceInterval = interval;
+			schedule(this);
+		}
+	}
+
+	/**
+	 * (Re)build the list of replica pools, if the <i>pool.replicas</i> key has changed
+	 *
+	 * @param prop configuration options
+	 */
+	private void configureReplicas(final Properties prop) {
+		final String sReplicas = prop.getProperty("pool.replicas", "").trim(); //$NON-NLS-1$ //$NON-NLS-2$
+
+		if (sReplicas.equals(this.sReplicasConfig))
+			return;
+
+		final List<DBConnectionPool> l = new ArrayList<>();
+
+		if (sReplicas.length() > 0) {
+			// the replicas share the configuration, except for the list of replicas
+			final Properties replicaProp = new Properties();
+
+			for (final Map.Entry<Object, Object> me : prop.entrySet())
+				if (!"pool.replicas".equals(me.getKey())) //$NON-NLS-1$
+					replicaProp.put(me.getKey(), me.getValue());
+
+			final StringTokenizer st = new StringTokenizer(sReplicas);
+
+			while (st.hasMoreTokens()) {
+				final String url = st.nextToken();
+
+				if (!url.equals(this.jdbcURL))
+					l.add(getPool(url, this.driver, url, replicaProp));
+			}
+		}
+
+		this.replicas = l.toArray(new DBConnectionPool[l.size()]);
+		this.sReplicasConfig = sReplicas;
+	}
+
+	/**
+	 * Pick a healthy replica to execute a read-only query on.
+	 *
+	 * @return the replica pool, or <code>null</code> if there are no replicas or none of them is usable right now
+	 */
+	DBConnectionPool selectReplica() {
+		final DBConnectionPool[] r = this.replicas;
+
+		if (r.length == 0)
+			return null;
+
+		final long now = System.currentTimeMillis();
+
+		if (this.leastBusy) {
+			DBConnectionPool best = null;
+			int bestLoad = Integer.MAX_VALUE;
+
+			for (final DBConnectionPool replica : r) {
+				if (!replica.isHealthy(now))
+					continue;
+
+				final int load = replica.getSize() - replica.getIdleCount() + replica.getWaiters();
+
+				if (load < bestLoad) {
+					best = replica;
+					bestLoad = load;
+				}
+			}
+
+			return best;
+		}
+
+		final int start = (this.nextReplica.getAndIncrement() & Integer.MAX_VALUE) % r.length;
+
+		for (int i = 0; i < r.length; i++) {
+			final DBConnectionPool replica = r[(start + i) % r.length];
+
+			if (replica.isHealthy(now))
+				return replica;
+		}
+
+		return null;
+	}
+
+	/**
+	 * @param now current time
+	 * @return <code>true</code> if this target can be used as replica
+	 */
+	private boolean isHealthy(final long now) {
+		return now >= this.unhealthyUntil;
+	}
+
+	/**
+	 * Check if this target is currently considered healthy, i.e. no connection to it failed in the last <i>pool.replicaRetryInterval</i>
+	 * seconds. Only replicas are skipped while unhealthy, the queries fall back to the master.
+	 *
+	 * @return health status
+	 */
+	public boolean isHealthy() {
+		return isHealthy(System.currentTimeMillis());
+	}
+
+	/**
+	 * @return the replica pools of this target, empty if none are configured
+	 */
+	public List<DBConnectionPool> getReplicas() {
+		return Collections.unmodifiableList(Arrays.asList(this.replicas));
+	}
+
+	/**
+	 * Statistics : how many connections to this target could not be established
+	 *
+	 * @return number of failed connection attempts
+	 */
+	public long getConnectFailures() {
+		return this.connectFailures.get();
+	}
+
+	/**
+	 * Parse an integer configuration option
+	 *
+	 * @param prop configuration
+	 * @param key key to look for
+	 * @param defaultValue value to return if the key is missing or cannot be parsed
+	 * @return the value
+	 */
+	static int getInt(final Properties prop, final String key, final int defaultValue) {
+		final String s = prop.getProperty(key);
+
+		if (s == null)
+			return defaultValue;
+
+		try {
+			return Integer.parseInt(s.trim());
+		}
+		catch (final NumberFormatException nfe) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Remove the pool-only keys from the configuration, the rest are passed to the driver
+	 *
+	 * @param prop full configuration
+	 * @return the driver properties
+	 */
+	static Properties getDriverProperties(final Properties prop) {
+		if (prop == null)
+			return new Properties();
+
+		boolean hasPoolKeys = false;
+
+		for (final Object o : prop.keySet())
+			if (o.toString().startsWith(CONFIG_PREFIX)) {
+				hasPoolKeys = true;
+				break;
+			}
+
+		if (!hasPoolKeys)
+			return prop;
+
+		final Properties ret = new Properties();
+
+		for (final Map.Entry<Object, Object> me : prop.entrySet())
+			if (!me.getKey().toString().startsWith(CONFIG_PREFIX))
+				ret.put(me.getKey(), me.getValue());
+
+		return ret;
+	}
+
+	/**
+	 * Take a free connection from the stack and mark it as busy.
+	 *
+	 * @return a connection ready to be used, or <code>null</code> if there is no idle connection
+	 */
+	DBConnection poll() {
+		DBConnection dbc;
+
+		while ((dbc = this.idle.pollFirst()) != null) {
+			if (dbc.use())
+				return dbc;
+
+			// closed while idle, make sure it doesn't count any more
+			dbc.close();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Establish a new connection, if the pool limit allows it. The returned connection is already marked as busy.
+	 *
+	 * @return the new connection, or <code>null</code> if the limit is reached or the connection cannot be established
+	 * @see #isFull()
+	 */
+	DBConnection create() {
+		int current;
+
+		do {
+			current = this.size.get();
+
+			if (current >= this.maxConnections)
+				return null;
+		}
+		while (!this.size.compareAndSet(current, current + 1));
+
+		final DBConnection dbc = new DBConnection(this.driver, this.jdbcURL, this.driverProperties, this.sKey);
+
+		if (dbc.use()) {
+			dbc.pool = this;
+			this.all.add(dbc);
+			return dbc;
+		}
+
+		this.size.decrementAndGet();
+		dbc.close();
+
+		this.connectFailures.incrementAndGet();
+		this.unhealthyUntil = System.currentTimeMillis() + this.replicaRetryInterval;
+
+		return null;
+	}
+
+	/**
+	 * Get a connection, waiting in a FIFO queue for at most {@link #getAcquireTimeout()} milliseconds if the pool is exhausted.
+	 * New requests don't overtake the threads that are already waiting.
+	 *
+	 * @return a connection ready to be used, or <code>null</code> if the timeout expired, the thread was interrupted or a new
+	 *         connection could not be established
+	 */
+	DBConnection acquire() {
+		if (this.waiters.isEmpty()) {
+			final DBConnection dbc = poll();
+
+			if (dbc != null)
+				return dbc;
+
+			if (!isFull()) {
+				final DBConnection dbcNew = create();
+
+				if (dbcNew != null || !isFull())
+					return dbcNew;
+			}
+		}
+
+		final long lStart = System.nanoTime();
+		final long lDeadline = lStart + TimeUnit.MILLISECONDS.toNanos(this.acquireTimeout);
+
+		this.waiting.incrementAndGet();
+
+		try {
+			Waiter w = new Waiter();
+
+			this.waiters.offerLast(w);
+
+			// a connection might have been freed while we were queuing
+			dispatch();
+
+			while (true) {
+				final Object o = w.slot.get();
+
+				if (o == null) {
+					final long lLeft = lDeadline - System.nanoTime();
+
+					if (lLeft <= 0 || Thread.currentThread().isInterrupted()) {
+						if (w.slot.compareAndSet(null, CANCELLED)) {
+							this.waiters.remove(w);
+							this.timeouts.incrementAndGet();
+							this.waitTime.record(System.nanoTime() - lStart);
+							return null;
+						}
+
+						continue; // something was handed over in the mean time
+					}
+
+					LockSupport.parkNanos(this, lLeft);
+					continue;
+				}
+
+				DBConnection dbc = null;
+
+				if (o instanceof DBConnection) {
+					dbc = (DBConnection) o;
+
+					if (!dbc.use()) {
+						dbc.close();
+						dbc = null;
+					}
+				}
+				else {
+					// a slot was freed, try to use it
+					dbc = poll();
+
+					if (dbc == null) {
+						dbc = create();
+
+						if (dbc == null && !isFull()) {
+							this.waitTime.record(System.nanoTime() - lStart);
+							return null; // cannot connect
+						}
+					}
+				}
+
+				if (dbc != null) {
+					this.waitTime.record(System.nanoTime() - lStart);
+					return dbc;
+				}
+
+				// somebody else was faster, queue again in front of the others
+				w = new Waiter();
+				this.waiters.offerFirst(w);
+				dispatch();
+			}
+		}
+		finally {
+			this.waiting.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Hand over the idle connections (or the free connection slots) to the waiting threads, in the order of their arrival.
+	 */
+	private void dispatch() {
+		while (!this.waiters.isEmpty()) {
+			final DBConnection dbc = this.idle.pollFirst();
+
+			if (dbc == null) {
+				if (!isFull())
+					wakeUp(SLOT_FREED);
+
+				return;
+			}
+
+			if (!wakeUp(dbc)) {
+				this.idle.offerFirst(dbc);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Give something to the first thread in the queue
+	 *
+	 * @param o either a connection or {@link #SLOT_FREED}
+	 * @return <code>true</code> if a waiting thread took it, <code>false</code> if there is nobody waiting
+	 */
+	private boolean wakeUp(final Object o) {
+		Waiter w;
+
+		while ((w = this.waiters.pollFirst()) != null) {
+			if (w.slot.compareAndSet(null, o)) {
+				LockSupport.unpark(w.thread);
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Put back a connection that was freed by the user.
+	 *
+	 * @param dbc connection, already marked as free
+	 */
+	void giveBack(final DBConnection dbc) {
+		if (this.all.contains(dbc)) {
+			this.idle.offerFirst(dbc);
+
+			if (!this.waiters.isEmpty())
+				dispatch();
+		}
+		else
+			dbc.close(); // was detached from the pool while in use
+	}
+
+	/**
+	 * Remove a connection from the accounting of this pool.
+	 *
+	 * @param dbc connection
+	 * @return <code>true</code> if the connection was part of this pool
+	 */
+	boolean remove(final DBConnection dbc) {
+		if (this.all.remove(dbc)) {
+			this.size.decrementAndGet();
+
+			if (!this.waiters.isEmpty())
+				dispatch();
+
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Maintenance executor, shared by all pools
+	 */
+	private static ScheduledThreadPoolExecutor			maintenance			= null;
+
+	/**
+	 * Start the background maintenance of all pools. Called automatically when {@link DBFunctions} is first used.
+	 */
+	static synchronized void startMaintenance() {
+		if (maintenance != null)
+			return;
+
+		maintenance = new ScheduledThreadPoolExecutor(2, new ThreadFactory() {
+			private final AtomicInteger	threadNo	= new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "lazyj.DBConnectionPool: maintenance thread " + this.threadNo.incrementAndGet()); //$NON-NLS-1$
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		for (final DBConnectionPool pool : pools.values())
+			schedule(pool);
+	}
+
+	/**
+	 * Stop the background maintenance. You should only call this when the JVM is about to shut down.
+	 */
+	static synchronized void stopMaintenance() {
+		if (maintenance == null)
+			return;
+
+		maintenance.shutdownNow();
+		maintenance = null;
+
+		for (final DBConnectionPool pool : pools.values())
+			pool.maintenanceTask = null;
+	}
+
+	/**
+	 * (Re)schedule the periodic maintenance of a pool, with its current interval
+	 *
+	 * @param pool the pool
+	 */
+	static synchronized void schedule(final DBConnectionPool pool) {
+		if (maintenance == null)
+			return;
+
+		if (pool.maintenanceTask != null)
+			pool.maintenanceTask.cancel(false);
+
+		pool.maintenanceTask = maintenance.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					pool.maintain(System.currentTimeMillis());
+				}
+				catch (final Throwable t) {
+					Log.log(Log.ERROR, "lazyj.DBConnectionPool", "Exception maintaining the pool for " + pool.sKey, t); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+			}
+		}, pool.maintenanceInterval, pool.maintenanceInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Periodic maintenance of this pool, run in background. It will:<br>
+	 * <ul>
+	 * <li>detach from the pool the connections that are in use for more than {@link #maxBusyTime}, to be closed when they are freed</li>
+	 * <li>close any connection left in an error state</li>
+	 * <li>close idle connections that weren't used for {@link #idleTimeout}, or beyond {@link #maxIdle} idle connections</li>
+	 * <li>validate the connections that were idle for more than {@link #validationInterval}</li>
+	 * <li>establish new connections until there are at least {@link #minIdle} of them ready to be used</li>
+	 * </ul>
+	 * No lock is held while doing this, each connection that is checked or closed is first taken out of the idle stack.
+	 *
+	 * @param now current time
+	 */
+	void maintain(final long now) {
+		for (final DBConnection dbc : this.all) {
+			final int state = dbc.iBusy;
+
+			if (state == 2) {
+				if (now - dbc.lLastAccess > this.maxBusyTime && remove(dbc)) {
+					Log.log(Log.WARNING, "lazyj.DBConnectionPool", "Detaching from the pool a connection busy for too long (description: " + dbc.getDescription() + ')'); //$NON-NLS-1$ //$NON-NLS-2$
+					this.detachedBusy.incrementAndGet();
+				}
+			}
+			else if (state != 1) {
+				if (this.idle.removeFirstOccurrence(dbc) || remove(dbc)) {
+					dbc.close();
+					this.evictedBroken.incrementAndGet();
+				}
+			}
+		}
+
+		// the bottom of the stack holds the connections that were not used for the longest time
+		int iIdle = this.idle.size();
+
+		DBConnection dbc;
+
+		while ((dbc = this.idle.peekLast()) != null) {
+			final boolean excess = iIdle > this.maxIdle;
+
+			if (!excess && (iIdle <= this.minIdle || now - dbc.lLastAccess <= this.idleTimeout))
+				break;
+
+			if (this.idle.removeLastOccurrence(dbc)) {
+				dbc.close();
+				(excess ? this.evictedIdleExcess : this.evictedIdleTimeout).incrementAndGet();
+			}
+
+			iIdle--;
+		}
+
+		validate(now);
+
+		prewarm();
+	}
+
+	/**
+	 * Establish new connections until there are at least {@link #minIdle} idle connections, or the pool is full
+	 */
+	private void prewarm() {
+		while (this.idle.size() < this.minIdle && this.waiters.isEmpty()) {
+			final DBConnection dbc = create();
+
+			if (dbc == null)
+				return;
+
+			dbc.lLastValidated = System.currentTimeMillis();
+
+			this.prewarmed.incrementAndGet();
+
+			dbc.free();
+		}
+	}
+
+	/**
+	 * Check the idle connections that were not used or checked recently, the oldest first. Each connection is taken out of the
+	 * stack while it is checked, so no other thread can get it in the mean time. The checks stop after {@link #validationTime},
+	 * the connections that are left are checked by the next run.
+	 *
+	 * @param now current time
+	 */
+	private void validate(final long now) {
+		final long interval = this.validationInterval;
+
+		if (interval <= 0)
+			return;
+
+		final List<DBConnection> toCheck = new ArrayList<>();
+
+		final Iterator<DBConnection> it = this.idle.descendingIterator();
+
+		while (it.hasNext()) {
+			final DBConnection dbc = it.next();
+
+			if (now - Math.max(dbc.lLastAccess, dbc.lLastValidated) > interval)
+				toCheck.add(dbc);
+		}
+
+		final long deadline = System.currentTimeMillis() + this.validationTime;
+
+		for (final DBConnection dbc : toCheck) {
+			final long remaining = deadline - System.currentTimeMillis();
+
+			if (remaining <= 0)
+				break;
+
+			if (!this.idle.removeFirstOccurrence(dbc))
+				continue; // somebody took it in the mean time
+
+			// JDBC timeouts are in seconds, a connection that doesn't answer in time is considered dead
+			if (dbc.isValid((int) Math.min((remaining + 999) / 1000, 10))) {
+				this.idle.offerLast(dbc);
+
+				if (!this.waiters.isEmpty())
+					dispatch();
+			}
+			else {
+				dbc.close();
+				this.evictedInvalid.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Get the unique key of this pool
+	 *
+	 * @return the key (JDBC connection string)
+	 */
+	public String getKey() {
+		return this.sKey;
+	}
+
+	/**
+	 * Statistics : the number of connections in this pool, busy or idle
+	 *
+	 * @return the number of established connections
+	 */
+	public int getSize() {
+		return this.size.get();
+	}
+
+	/**
+	 * Statistics : the number of idle connections
+	 *
+	 * @return idle connections
+	 */
+	public int getIdleCount() {
+		return this.idle.size();
+	}
+
+	/**
+	 * @return maximum time to wait for a free connection, in milliseconds, or 0 if the queuing is disabled
+	 */
+	public long getAcquireTimeout() {
+		return this.acquireTimeout;
+	}
+
+	/**
+	 * Statistics : the number of threads waiting right now for a connection
+	 *
+	 * @return waiting threads
+	 */
+	public int getWaiters() {
+		return this.waiting.get();
+	}
+
+	/**
+	 * Statistics : distribution of the time spent by the threads waiting for a connection (average, percentiles, maximum)
+	 *
+	 * @return wait time histogram
+	 */
+	public LatencyHistogram getWaitTime() {
+		return this.waitTime;
+	}
+
+	/**
+	 * Statistics : how many threads gave up waiting for a connection
+	 *
+	 * @return number of timeouts
+	 */
+	public long getTimeouts() {
+		return this.timeouts.get();
+	}
+
+	/**
+	 * Statistics : what the background maintenance did to this pool, as reason - number of connections. The reasons are
+	 * <i>idle timeout</i>, <i>idle excess</i>, <i>broken</i>, <i>failed validation</i> (closed connections), <i>busy too long</i>
+	 * (detached connections) and <i>prewarmed</i> (established connections).
+	 *
+	 * @return maintenance counters
+	 */
+	@SuppressWarnings("nls")
+	public Map<String, Long> getMaintenanceCounters() {
+		final Map<String, Long> ret = new LinkedHashMap<>();
+
+		ret.put("idle timeout", Long.valueOf(this.evictedIdleTimeout.get()));
+		ret.put("idle excess", Long.valueOf(this.evictedIdleExcess.get()));
+		ret.put("broken", Long.valueOf(this.evictedBroken.get()));
+		ret.put("failed validation", Long.valueOf(this.evictedInvalid.get()));
+		ret.put("busy too long", Long.valueOf(this.detachedBusy.get()));
+		ret.put("prewarmed", Long.valueOf(this.prewarmed.get()));
+
+		return ret;
+	}
+
+	/**
+	 * @return how many prepared statements are cached on each connection, 0 if the statement cache is disabled
+	 */
+	public int getStatementCacheSize() {
+		return this.statementCacheSize;
+	}
+
+	/**
+	 * Count a statement cache hit
+	 */
+	void statementCacheHit() {
+		this.statementHits.incrementAndGet();
+	}
+
+	/**
+	 * Count a statement cache miss
+	 */
+	void statementCacheMiss() {
+		this.statementMisses.incrementAndGet();
+	}
+
+	/**
+	 * Count a statement evicted from a full cache
+	 */
+	void statementCacheEviction() {
+		this.statementEvictions.incrementAndGet();
+	}
+
+	/**
+	 * Statistics : prepared statement cache counters for all the connections of this pool, as <i>hits</i>, <i>misses</i>
+	 * and <i>evictions</i>.
+	 *
+	 * @return statement cache counters
+	 */
+	@SuppressWarnings("nls")
+	public Map<String, Long> getStatementCacheCounters() {
+		final Map<String, Long> ret = new LinkedHashMap<>();
+
+		ret.put("hits", Long.valueOf(this.statementHits.get()));
+		ret.put("misses", Long.valueOf(this.statementMisses.get()));
+		ret.put("evictions", Long.valueOf(this.statementEvictions.get()));
+
+		return ret;
+	}
+
+	/**
+	 * Check whether the pool has reached its connection limit
+	 *
+	 * @return <code>true</code> if no new connection can be established
+	 */
+	public boolean isFull() {
+		return this.size.get() >= this.maxConnections;
+	}
+
+	/**
+	 * @return maximum number of connections to this target
+	 */
+	public int getMaxConnections() {
+		return this.maxConnections;
+	}
+
+	/**
+	 * @return how many times to try to get a connection before failing
+	 */
+	public int getConnectRetries() {
+		return this.connectRetries;
+	}
+
+	/**
+	 * @return delay between two attempts to get a connection, in milliseconds
+	 */
+	public long getConnectRetryDelay() {
+		return this.connectRetryDelay;
+	}
+
+	@Override
+	public String toString() {
+		return this.sKey + " : " + getSize() + " connections (" + getIdleCount() + " idle, max " + this.maxConnections + "), " + getWaiters() + " waiting, " + getTimeouts() + " timeouts, wait time " + this.waitTime; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+	}
+}
@@ -1,6 +1,15 @@
 package lazyj;
 
+import java.io.BufferedWriter;
 import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.PreparedStatement;
@@ -9,24 +18,32 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Properties;
-import java.util.StringTokenizer;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 
 /**
@@ -39,11 +56,6 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class DBFunctions implements Closeable {
 
-	/**
-	 * List of connections for each known target
-	 */
-	static final HashMap<String, LinkedList<DBConnection>>			hmConn				= new HashMap<>();
-	
 	/**
 	 * Was this the first row ?
 	 */
@@ -82,7 +94,7 @@ public class DBFunctions implements Closeable {
 	/**
 	 * Total number of executed queries
 	 */
-	private static volatile long									lQueryCount			= 0;
+	private static final AtomicLong									lQueryCount			= new AtomicLong(0);
 
 	/**
 	 * For statistics: how many queries were executed on each connection.
@@ -124,6 +136,16 @@ public class DBFunctions implements Closeable {
 	 */
 	private int														cursorType = ResultSet.TYPE_FORWARD_ONLY;
 	
+	/**
+	 * Number of rows to fetch at once from the server, 0 means the driver default
+	 */
+	private int														fetchSize = 0;
+	
+	/**
+	 * Whether or not the following queries should stream the results instead of loading them entirely in memory
+	 */
+	private boolean													streaming = false;
+	
 	/**
 	 * Create a connection to the database using the parameters in this properties file. The
 	 * following keys are extracted:<br>
@@ -249,38 +271,6 @@ public class DBFunctions implements Closeable {
 		query(sQuery);
 	}
 	
-	/**
-	 * From the current connections try to find out if there is any one of them that is free
-	 * 
-	 * @param sConn
-	 * @return a free connection, or null
-	 */
-	private final static DBConnection getFreeConnection(final String sConn) {
-		LinkedList<DBConnection> ll;
-		
-		synchronized (hmConn) {
-			ll = hmConn.get(sConn);
-
-			if (ll==null){
-				ll = new LinkedList<>();
-				hmConn.put(sConn, ll);
-				
-				return null;
-			}
-		}
-		
-		synchronized (ll) {
-			for (final DBConnection dbt : ll) {
-				if (dbt.canUse()) {
-					dbt.use();
-					return dbt;
-				}
-			}
-		}
-
-		return null;
-	}
-
 	/**
 	 * Build a unique key
 	 * 
@@ -291,7 +281,8 @@ public class DBFunctions implements Closeable {
 	}
 	
 	/**
-	 * Signal that the following query is read-only and, if available, a database slave could be used to execute it. 
+	 * Signal that the following query is read-only and, if available, a database slave could be used to execute it. The slaves
+	 * are listed in the <i>pool.replicas</i> configuration key, see {@link DBConnectionPool}.
 	 * 
 	 * @param readOnly if <code>true</code> then the query can potentially go to a slave, if <code>false</code> then only the master can execute it 
 	 * @return previous value of the read-only flag
@@ -334,6 +325,76 @@ public class DBFunctions implements Closeable {
 		return this.cursorType;
 	}
 	
+	/**
+	 * Default fetch size in streaming mode, if none was explicitly set
+	 */
+	private static final int DEFAULT_STREAMING_FETCH_SIZE = 1000;
+	
+	/**
+	 * Set how many rows the driver should fetch from the server at once when more rows are needed.
+	 * 
+	 * @param size number of rows, 0 to use the driver default (which for most drivers means all the rows)
+	 * @return previous fetch size
+	 * @see Statement#setFetchSize(int)
+	 * @see #setStreaming(boolean)
+	 */
+	public int setFetchSize(final int size){
+		final int previousSize = this.fetchSize;
+		
+		this.fetchSize = size > 0 ? size : 0;
+		
+		return previousSize;
+	}
+	
+	/**
+	 * @return the fetch size
+	 * @see #setFetchSize(int)
+	 */
+	public int getFetchSize(){
+		return this.fetchSize;
+	}
+	
+	/**
+	 * Enable or disable the streaming mode for the following queries. In streaming mode the results are read from the server
+	 * in chunks of {@link #getFetchSize()} rows (default {@value #DEFAULT_STREAMING_FETCH_SIZE}) while {@link #moveNext()} goes
+	 * through them, so arbitrarily large results can be processed in bounded memory. To do this:<br>
+	 * <ul>
+	 * <li>the cursor is always forward-only, {@link #count()}, {@link #absolute(int)} and such will not work</li>
+	 * <li>auto-commit is disabled while the result is read, as PostgreSQL only uses server-side cursors inside a transaction</li>
+	 * <li>the database connection is kept by this object until the last row was read or {@link #close()} is called, so make
+	 * sure you do one of them</li>
+	 * </ul>
+	 * For MySQL the connection should have <code>useCursorFetch=true</code> for the fetch size to be honored.
+	 * 
+	 * @param stream new value
+	 * @return previous value
+	 */
+	public boolean setStreaming(final boolean stream){
+		final boolean previousValue = this.streaming;
+		
+		this.streaming = stream;
+		
+		return previousValue;
+	}
+	
+	/**
+	 * @return whether or not the streaming mode is enabled
+	 * @see #setStreaming(boolean)
+	 */
+	public boolean isStreaming(){
+		return this.streaming;
+	}
+	
+	/**
+	 * @return the fetch size to set to the statements
+	 */
+	private int getEffectiveFetchSize(){
+		if (this.streaming && this.fetchSize <= 0)
+			return DEFAULT_STREAMING_FETCH_SIZE;
+		
+		return this.fetchSize;
+	}
+	
 	/**
 	 * Check if this connection is done to a PostgreSQL database (if we are using the PG JDBC driver)
 	 * 
@@ -366,64 +427,124 @@ public class DBFunctions implements Closeable {
 		return this.sConnectFailReason;
 	}
 		
+	/**
+	 * Connection pool for this target, resolved at the first connection attempt
+	 */
+	private DBConnectionPool pool = null;
+	
+	/**
+	 * Get the connection pool for this target
+	 * 
+	 * @return the pool, or <code>null</code> if the JDBC connection string could not be built
+	 */
+	private DBConnectionPool getPool(){
+		if (this.pool==null && this.uniqueKey!=null)
+			this.pool = DBConnectionPool.getPool(this.uniqueKey, this.driver, this.jdbcConnectionString, this.prop);
+		
+		return this.pool;
+	}
+		
 	/**
 	 * Initialize a database connection. First it will try to take a free one from the pool. If there is no free connection it will
-	 * try to establish a new one, only if there are less than 100 connections to this particular database in total. 
+	 * try to establish a new one, only if there are less than <i>pool.maxConnections</i> (default 100) connections to this particular
+	 * database in total. This is tried <i>pool.connectRetries</i> times (default 3), waiting <i>pool.connectRetryDelay</i> milliseconds
+	 * (default 50) between attempts.<br>
+	 * <br>
+	 * If <i>pool.acquireTimeout</i> is set then a busy pool is handled differently: the thread waits in a FIFO queue
+	 * for at most that many milliseconds for a connection to be freed.
 	 * 
 	 * @return <code>true</code> if the connection was established and <code>this.dbc</code> can be used, <code>false</code> if not.
+	 * @see DBConnectionPool
 	 */
 	private final boolean connect() {
-		for (int i = 0; i < 3; i++) {
-			this.dbc = getFreeConnection(this.uniqueKey);
-
+		return connect(this.readOnlyQuery);
+	}
+	
+	/**
+	 * Initialize a database connection, like {@link #connect()}. If replicas are configured (<i>pool.replicas</i>) and the query is
+	 * read-only then one of the healthy replicas is tried first, falling back to the master if no replica can serve it.
+	 * 
+	 * @param allowReplica whether or not a replica can be used
+	 * @return <code>true</code> if the connection was established and <code>this.dbc</code> can be used, <code>false</code> if not.
+	 */
+	private final boolean connect(final boolean allowReplica) {
+		final DBConnectionPool connPool = getPool();
+		
+		if (connPool==null){
+			this.sConnectFailReason = "Cannot build the JDBC connection string"; //$NON-NLS-1$
+			return false;
+		}
+		
+		if (allowReplica){
+			final DBConnectionPool replica = connPool.selectReplica();
+			
+			if (replica != null){
+				if (connect(replica))
+					return true;
+				
+				Log.log(Log.FINE, "lazyj.DBFunctions", "Replica "+replica.getKey()+" cannot serve the query because "+this.sConnectFailReason+", falling back to the master"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			}
+		}
+		
+		return connect(connPool);
+	}
+	
+	/**
+	 * Get a connection from the given pool
+	 * 
+	 * @param connPool pool to take the connection from
+	 * @return <code>true</code> if the connection was established and <code>this.dbc</code> can be used, <code>false</code> if not.
+	 */
+	private final boolean connect(final DBConnectionPool connPool) {
+		if (connPool.getAcquireTimeout() > 0){
+			this.dbc = connPool.acquire();
+			
 			if (this.dbc != null){
 				this.sConnectFailReason = null;
 				
 				return true;
 			}
 			
-			final LinkedList<DBConnection> ll;
+			if (connPool.isFull())
+				this.sConnectFailReason = "Timed out after "+connPool.getAcquireTimeout()+" ms waiting for one of the "+connPool.getMaxConnections()+" connections to the DB to be freed"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			else
+				this.sConnectFailReason = "Cannot establish new DB connection"; //$NON-NLS-1$
 			
-			synchronized (hmConn) {
-				ll = hmConn.get(this.uniqueKey);
-			}
+			return false;
+		}
+		
+		final int retries = connPool.getConnectRetries();
+		
+		for (int i = 0; i < retries; i++) {
+			this.dbc = connPool.poll();
 
-			boolean addNew = false;
-			
-			synchronized (ll){
-				if (ll.size() < 100) {
-					addNew = true;
-				}
+			if (this.dbc != null){
+				this.sConnectFailReason = null;
+				
+				return true;
 			}
 			
-			if (addNew){
-				this.dbc = new DBConnection(this.driver, this.jdbcConnectionString, this.prop, this.uniqueKey);
+			if (!connPool.isFull()){
+				this.dbc = connPool.create();
 				
-				if (this.dbc.canUse()) {
+				if (this.dbc != null) {
 					this.sConnectFailReason = null;
 					
-					this.dbc.use();
-					
-					synchronized (ll){
-						ll.add(this.dbc);
-					}
-					
 					return true;
 				}
 				
-				this.sConnectFailReason = "Cannot establish new DB connection"; //$NON-NLS-1$
-				
-				this.dbc.close();
-				this.dbc = null;
+				this.sConnectFailReason = connPool.isFull() ? "Lost the race for the last free slot in the connection pool" : "Cannot establish new DB connection"; //$NON-NLS-1$ //$NON-NLS-2$
 			}
 			else{
-				this.sConnectFailReason = "There are already 100 established connections to the DB, refusing to establish another one"; //$NON-NLS-1$
+				this.sConnectFailReason = "There are already "+connPool.getMaxConnections()+" established connections to the DB, refusing to establish another one"; //$NON-NLS-1$ //$NON-NLS-2$
 			}
 
-			try {
-				Thread.sleep(50);
-			} catch (final InterruptedException e) {
-				// ignore improbable interruption
+			if (i < retries - 1){
+				try {
+					Thread.sleep(connPool.getConnectRetryDelay());
+				} catch (final InterruptedException e) {
+					// ignore improbable interruption
+				}
 			}
 		}
 
@@ -575,12 +696,28 @@ public class DBFunctions implements Closeable {
 		/**
 		 * 0 - not connected 1 - ready 2 - in use 3 - error or disconnected
 		 */
-		int						iBusy;
+		volatile int			iBusy;
 
 		/**
 		 * When this cached connection was last used
 		 */
-		long					lLastAccess;
+		volatile long			lLastAccess;
+		
+		/**
+		 * When this connection was last checked by the pool cleanup thread
+		 */
+		volatile long			lLastValidated;
+		
+		/**
+		 * Pool that this connection belongs to, if any
+		 */
+		DBConnectionPool		pool = null;
+		
+		/**
+		 * Prepared statements that are not in use, by SQL text (prefixed with a marker if generated keys are requested).
+		 * Synchronized on the connection object.
+		 */
+		private LRUMap<String, PreparedStatement> statementCache = null;
 
 		/**
 		 * Connection key
@@ -655,7 +792,7 @@ public class DBFunctions implements Closeable {
 			}
 			
 			try{
-				this.conn = driver.connect(jdbcURL, prop!=null ? prop : new Properties());
+				this.conn = driver.connect(jdbcURL, DBConnectionPool.getDriverProperties(prop));
 				this.iBusy = 1;
 				
 				setDescription(this.conn.toString());
@@ -677,6 +814,155 @@ public class DBFunctions implements Closeable {
 			return this.conn;
 		}
 
+		/**
+		 * Check if the prepared statements are cached for this connection
+		 * 
+		 * @return <code>true</code> if the pool this connection belongs to has a statement cache configured
+		 * @see DBConnectionPool#getStatementCacheSize()
+		 */
+		final boolean isStatementCacheEnabled(){
+			return this.pool != null && this.pool.getStatementCacheSize() > 0;
+		}
+		
+		/**
+		 * @param sql SQL text
+		 * @param generatedKeys generated keys mode
+		 * @return key in the statements cache
+		 */
+		private static String getStatementKey(final String sql, final int generatedKeys){
+			return generatedKeys == Statement.RETURN_GENERATED_KEYS ? '\u0001' + sql : sql;
+		}
+		
+		/**
+		 * Get a prepared statement for the given SQL, from the statement cache if possible. A cached statement is taken out of the
+		 * cache while it is in use, so you should give it back with {@link #releaseStatement(String, int, PreparedStatement)} once you
+		 * are done with it (and with its result set).
+		 * 
+		 * @param sql SQL text
+		 * @param generatedKeys one of Statement.RETURN_GENERATED_KEYS or Statement.NO_GENERATED_KEYS
+		 * @return the prepared statement
+		 * @throws SQLException
+		 */
+		final PreparedStatement prepareStatement(final String sql, final int generatedKeys) throws SQLException {
+			if (!isStatementCacheEnabled())
+				return this.conn.prepareStatement(sql, generatedKeys);
+			
+			final PreparedStatement ps;
+			
+			synchronized (this){
+				ps = this.statementCache != null ? this.statementCache.remove(getStatementKey(sql, generatedKeys)) : null;
+			}
+			
+			if (ps != null && !ps.isClosed()){
+				this.pool.statementCacheHit();
+				return ps;
+			}
+			
+			this.pool.statementCacheMiss();
+			
+			return this.conn.prepareStatement(sql, generatedKeys);
+		}
+		
+		/**
+		 * Give back a statement obtained from {@link #prepareStatement(String, int)}. It is kept for reuse unless the connection is
+		 * closed in the mean time.
+		 * 
+		 * @param sql SQL text it was prepared for
+		 * @param generatedKeys generated keys mode it was prepared with
+		 * @param ps the statement
+		 */
+		final void releaseStatement(final String sql, final int generatedKeys, final PreparedStatement ps){
+			PreparedStatement toClose = ps;
+			
+			if (isStatementCacheEnabled() && this.iBusy != 3){
+				try{
+					ps.clearParameters();
+					ps.clearWarnings();
+					
+					synchronized (this){
+						if (this.conn != null){
+							if (this.statementCache == null)
+								this.statementCache = new StatementCache(this.pool.getStatementCacheSize());
+						
+							final PreparedStatement old = this.statementCache.put(getStatementKey(sql, generatedKeys), ps);
+							
+							toClose = old != ps ? old : null;
+						}
+					}
+				}
+				catch (final SQLException sqle){
+					// cannot be reused, close it
+				}
+			}
+			
+			closeQuietly(toClose);
+		}
+		
+		/**
+		 * Close all the cached statements
+		 */
+		private final void clearStatementCache(){
+			final List<PreparedStatement> l;
+			
+			synchronized (this){
+				if (this.statementCache == null)
+					return;
+				
+				l = new ArrayList<>(this.statementCache.values());
+				
+				this.statementCache = null;
+			}
+			
+			for (final PreparedStatement ps: l)
+				closeQuietly(ps);
+		}
+		
+		/**
+		 * @param st statement to close, can be <code>null</code>
+		 */
+		static final void closeQuietly(final Statement st){
+			if (st == null)
+				return;
+			
+			try{
+				st.close();
+			}
+			catch (final Throwable t){
+				// ignore
+			}
+		}
+		
+		/**
+		 * Bounded LRU cache of prepared statements, closing the evicted statements
+		 */
+		private final class StatementCache extends LRUMap<String, PreparedStatement> {
+			/**
+			 * serial version
+			 */
+			private static final long	serialVersionUID	= 1L;
+
+			/**
+			 * @param size maximum number of statements
+			 */
+			StatementCache(final int size){
+				super(size);
+			}
+			
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, PreparedStatement> eldest) {
+				if (super.removeEldestEntry(eldest)){
+					closeQuietly(eldest.getValue());
+					
+					if (DBConnection.this.pool != null)
+						DBConnection.this.pool.statementCacheEviction();
+					
+					return true;
+				}
+				
+				return false;
+			}
+		}
+		
 		/**
 		 * Find out if this connection is free to use
 		 * 
@@ -723,6 +1009,24 @@ public class DBFunctions implements Closeable {
 
 			return false;
 		}
+		
+		/**
+		 * Check if the underlying JDBC connection is still usable. This might block for up to the given timeout, so
+		 * it is only called from the pool cleanup thread.
+		 * 
+		 * @param timeout how long to wait for the database to answer, in seconds
+		 * @return <code>true</code> if the connection is valid
+		 */
+		final boolean isValid(final int timeout) {
+			this.lLastValidated = System.currentTimeMillis();
+			
+			try{
+				return this.conn != null && this.conn.isValid(timeout);
+			}
+			catch (final SQLException sqle){
+				return false;
+			}
+		}
 
 		/**
 		 * Mark a previously used connection as free to be used by somebody else
@@ -733,6 +1037,10 @@ public class DBFunctions implements Closeable {
 		public final boolean free() {
 			if (this.iBusy == 2) {
 				this.iBusy = 1;
+				
+				if (this.pool != null)
+					this.pool.giveBack(this);
+				
 				return true;
 			}
 			close();
@@ -743,6 +1051,8 @@ public class DBFunctions implements Closeable {
 		 * Really close a connection to the database
 		 */
 		public final void close() {
+			clearStatementCache();
+			
 			if (this.conn != null) {
 				lClosed++;
 
@@ -756,6 +1066,9 @@ public class DBFunctions implements Closeable {
 			}
 
 			this.iBusy = 3;
+			
+			if (this.pool != null)
+				this.pool.remove(this);
 		}
 
 		/**
@@ -792,135 +1105,29 @@ public class DBFunctions implements Closeable {
 		}
 	}
 
-	/**
-	 * @author costing
-	 * @since 15.12.2006
-	 */
-	static class CleanupThread extends Thread {
-
-		/**
-		 * Create the thread with some name to display in the stack trace
-		 */
-		public CleanupThread(){
-			super("lazyj.DBFunctions: cleanup thread"); //$NON-NLS-1$
-		}
-		
-		/**
-		 * Flag to stop the cleanup thread. Used only when the machine stops or smth ...
-		 */
-		boolean	bShouldStop	= false;
-
-		/**
-		 * Connection cleaner thread, periodically checks for too many idle connection and closes
-		 * them.
-		 */
-		@Override
-		public void run() {
-			long now;
-			int iIdleCount;
-			Iterator<DBConnection> it;
-			DBConnection dbc;
-			boolean bIdle;
-			boolean bClose;
-			int iClosedToGC = 0;
-
-			while (!this.bShouldStop) {
-				now = System.currentTimeMillis();
-
-				synchronized (hmConn) {
-					for (final Entry<String, LinkedList<DBConnection>> me : hmConn.entrySet()) {
-						final LinkedList<DBConnection> ll = me.getValue();
-
-						synchronized (ll){
-							iIdleCount = 0;
-							it = ll.iterator();
-	
-							while (it.hasNext()) {
-								dbc = it.next();
-	
-								bIdle = (dbc.iBusy == 1);
-	
-								if (bIdle)
-									iIdleCount++;
-	
-								// - in use for more than 2 min, such a query takes too long and we should remove the connection from the pool
-								// - limit the number of idle connections
-								// - any connection left in an error state by a query
-								bClose = (dbc.iBusy == 2 && (now - dbc.lLastAccess > 1000 * 60 * 2)) || 
-										 (bIdle && (iIdleCount > 5 || now - dbc.lLastAccess > 1000 * 60 * 5)) ||
-										 (dbc.iBusy != 2 && dbc.iBusy != 1); // error case
-	
-								if (bClose) {
-									iClosedToGC++;
-	
-									if (dbc.iBusy != 2) { // force connection close only if the object
-										// is not in use
-										dbc.close();
-									} else {
-										System.err.println("DBFunctions: Not closing busy connection (description: "+dbc.getDescription()+')'); //$NON-NLS-1$
-									}
-	
-									it.remove();
-									if (bIdle) // if it was idle but i decided to remove it
-										iIdleCount--;
-								}
-							}
-						}
-					}
-				}
-
-				// when we remove connection make sure the resources are really freed by JVM 
-				if (iClosedToGC > 20) {
-					iClosedToGC = 0;
-					System.gc();
-				}
-
-				try {
-					Thread.sleep(2000);
-				} catch (final InterruptedException e) {
-					// ignore an interruption
-				}
-			}
-		}
-
-	}
-
-	/**
-	 * Cleanup thread
-	 */
-	private static CleanupThread	tCleanup	= null;
-
 	static {
 		startThread();
 	}
 	
 
 	/**
-	 * Start the cleanup thread. Should not be called externally since it is called automatically at
+	 * Start the pool maintenance. Should not be called externally since it is called automatically at
 	 * the first use of this class.
+	 * 
+	 * @see DBConnectionPool#startMaintenance()
 	 */
-	static public final synchronized void startThread() {
-		if (tCleanup == null) {
-			tCleanup = new CleanupThread();
-			try {
-				tCleanup.setDaemon(true);
-			} catch (final Throwable e) {
-				// it's highly unlikely for an exception to occur here
-			}
-			tCleanup.start();
-		}
+	static public final void startThread() {
+		DBConnectionPool.startMaintenance();
 	}
 
 	/**
-	 * Signal the thread that it's time to stop. You should only call this when the JVM is about to
+	 * Signal the pool maintenance that it's time to stop. You should only call this when the JVM is about to
 	 * shut down, and not even then it's necessary to do so.
+	 * 
+	 * @see DBConnectionPool#stopMaintenance()
 	 */
-	
-	static public final synchronized void stopThread() {
-		if (tCleanup != null) {
-			tCleanup.bShouldStop = true;
-			tCleanup = null;
-		}
+	static public final void stopThread() {
+		DBConnectionPool.stopMaintenance();
 	}
 
 	/**
@@ -947,31 +1154,123 @@ public class DBFunctions implements Closeable {
 	 * Last SQL Statement
 	 */
 	private Statement	stat	= null;
-
+	
 	/**
-	 * Explicitly close the allocated resources 
+	 * If {@link #stat} was taken from the statement cache of the connection, the SQL it was prepared for
 	 */
-	@Override
-	public void close(){
-		if (this.rsRezultat != null) {
-			try {
-				this.rsRezultat.close();
-			} catch (final Throwable t) {
+	private String		sCachedStatementSQL	= null;
+	
+	/**
+	 * If {@link #stat} was taken from the statement cache of the connection, the generated keys mode it was prepared with
+	 */
+	private int			iCachedStatementKeys;
+	
+	/**
+	 * Set while the result of a streaming query is being read, the connection is kept by this object until then
+	 */
+	private boolean		bStreamOpen = false;
+	
+	/**
+	 * Auto-commit flag of the connection before the streaming query changed it
+	 */
+	private boolean		bStreamAutoCommit;
+	
+	/**
+	 * Read-only flag of the connection before the streaming query changed it
+	 */
+	private boolean		bStreamReadOnly;
+	
+	/**
+	 * Number of rows read so far from the current streaming result
+	 */
+	private long		lStreamRows;
+	
+	/**
+	 * Release the resources held by a streaming query: close the result, end the transaction, restore the connection flags
+	 * and give the connection back to the pool.
+	 */
+	private void finishStreaming(){
+		if (!this.bStreamOpen)
+			return;
+		
+		this.bStreamOpen = false;
+		
+		if (this.rsRezultat != null) {
+			try {
+				this.rsRezultat.close();
+			} catch (final Throwable t) {
 				// ignore this
 			}
 			
 			this.rsRezultat = null;
 		}
-
-		if (this.stat != null) {
+		
+		closeStatement();
+		
+		final Connection conn = this.dbc.getConnection();
+		
+		if (conn == null)
+			return;
+		
+		try{
+			if (this.bStreamAutoCommit){
+				conn.commit();
+				conn.setAutoCommit(true);
+			}
+			
+			conn.setReadOnly(this.bStreamReadOnly);
+		}
+		catch (final SQLException sqle){
+			Log.log(Log.WARNING, "lazyj.DBFunctions", getKey() + " --> cannot restore the connection state after streaming", sqle); //$NON-NLS-1$ //$NON-NLS-2$
+			
+			this.dbc.close();
+		}
+		
+		this.dbc.free();
+	}
+	
+	/**
+	 * Close the last statement, or give it back to the statement cache of the connection that prepared it
+	 */
+	private void closeStatement(){
+		if (this.stat == null)
+			return;
+		
+		if (this.sCachedStatementSQL != null && this.dbc != null){
+			this.dbc.releaseStatement(this.sCachedStatementSQL, this.iCachedStatementKeys, (PreparedStatement) this.stat);
+		}
+		else{
 			try {
 				this.stat.close();
 			} catch (final Throwable t) {
 				// ignore this
 			}
+		}
+		
+		this.stat = null;
+		this.sCachedStatementSQL = null;
+	}
+
+	/**
+	 * Explicitly close the allocated resources 
+	 */
+	@Override
+	public void close(){
+		finishStreaming();
+		
+		flushRowStats();
+		
+		if (this.rsRezultat != null) {
+			try {
+				this.rsRezultat.close();
+			} catch (final Throwable t) {
+				// ignore this
+			}
 			
-			this.stat = null;
-		}		
+			this.rsRezultat = null;
+		}
+
+		closeStatement();
 	}
 	
 	/**
@@ -1066,99 +1365,127 @@ public class DBFunctions implements Closeable {
 	 * @return true if the query succeeded, false if there was an error
 	 */
 	public final boolean query(final String sQuery, final boolean bIgnoreErrors, final Object... values) {
-		lQueryCount++;
-
-		final String sConnection = getKey();
-
-		AtomicInteger ai = chmQueryCount.get(sConnection);
-		AtomicLong al = null;
-		if (ai == null) {
-			ai = new AtomicInteger(1);
-			chmQueryCount.put(sConnection, ai);
-
-			al = new AtomicLong(0);
-			chmQueryTime.put(sConnection, al);
-		} else {
-			ai.incrementAndGet();
-
-			al = chmQueryTime.get(sConnection);
-		}
-
-		if (al == null) {
-			al = new AtomicLong(0);
-			chmQueryTime.put(sConnection, al);
-		}
+		resetResults();
 		
-		if (this.rsRezultat != null) {
-			try {
-				this.rsRezultat.close();
-			} catch (final Throwable e) {
-				// ignore this
-			}
-
-			this.rsRezultat = null;
-		}
-
-		if (this.stat != null) {
-			try {
-				this.stat.close();
-			} catch (final Throwable e) {
-				// ignore this
+		final QueryResultCache.Key cacheKey = this.resultCacheTTL > 0 && this.readOnlyQuery && !this.streaming ? new QueryResultCache.Key(getKey(), sQuery, values) : null;
+		
+		Set<String> cacheTags = null;
+		
+		long cacheGeneration = 0;
+		
+		if (cacheKey != null){
+			final ResultBuffer buffer = QueryResultCache.get(cacheKey);
+			
+			if (buffer != null){
+				this.rsRezultat = buffer.cursor();
+				this.bIsUpdate = false;
+				
+				try{
+					this.first = this.rsRezultat.next();
+				}
+				catch (final SQLException e){
+					this.first = false;
+				}
+				
+				return true;
 			}
-
-			this.stat = null;
+			
+			// taken before the query, an update that commits in the mean time prevents caching its result
+			cacheTags = this.resultCacheTags != null ? this.resultCacheTags : QueryResultCache.getTables(sQuery);
+			cacheGeneration = QueryResultCache.getGeneration(cacheTags);
 		}
+		
+		final long lStartTime = System.nanoTime();
 
-		this.bIsUpdate = false;
-		this.iUpdateCount = -1;
-		this.first = false;
-		this.lastGeneratedKey = null;
+		final boolean connected = connect();
 		
-		final long lStartTime = System.currentTimeMillis();
+		// the statistics go to the replica that actually executes the query, if that is the case
+		final String sConnection = getConnectionKey(connected);
 
-		if (!connect()) {
+		final AtomicLong al = countQuery(sConnection);
+		
+		if (!connected) {
 			try {
 				throw new SQLException("connection failed"); //$NON-NLS-1$
 			} catch (final Exception e) {
 				Log.log(Log.ERROR, "lazyj.DBFunctions", sConnection + " --> cannot connect for query because "+getConnectFailReason()+" : \n" + sQuery, e);  //$NON-NLS-1$//$NON-NLS-2$ //$NON-NLS-3$
 			}
 
-			al.addAndGet(System.currentTimeMillis() - lStartTime);
+			recordQuery(al, sConnection, sQuery, lStartTime, true);
 
 			return false;
 		}
 		
 		boolean wasReadOnly = false;
+		boolean wasAutoCommit = false;
+		boolean bFailed = false;
 		
 		try {
 			final boolean execResult;
 			
-			wasReadOnly = this.dbc.getConnection().isReadOnly();
+			final Connection conn = this.dbc.getConnection();
+			
+			wasReadOnly = conn.isReadOnly();
 			
-			this.dbc.getConnection().setReadOnly(isReadOnly());
+			conn.setReadOnly(isReadOnly());
+			
+			if (this.streaming){
+				wasAutoCommit = conn.getAutoCommit();
+				
+				if (wasAutoCommit)
+					conn.setAutoCommit(false);
+			}
 			
 			if (values!=null && values.length>0){
-				final PreparedStatement prepStat = this.dbc.getConnection().prepareStatement(sQuery, this.generatedKeyRequest);
+				final PreparedStatement prepStat = this.dbc.prepareStatement(sQuery, this.generatedKeyRequest);
+				
+				this.stat = prepStat;
+				
+				if (this.dbc.isStatementCacheEnabled()){
+					this.sCachedStatementSQL = sQuery;
+					this.iCachedStatementKeys = this.generatedKeyRequest;
+				}
+				
+				// always set, a cached statement might carry the fetch size of a previous query
+				prepStat.setFetchSize(getEffectiveFetchSize());
 			
 				for (int i=0; i<values.length; i++)
 					prepStat.setObject(i+1, values[i]);
 				
-				this.stat = prepStat;
-				
 				execResult = prepStat.execute();
 			}
 			else{
-				this.stat = this.dbc.getConnection().createStatement(getCursorType(), ResultSet.CONCUR_READ_ONLY);
+				this.stat = conn.createStatement(this.streaming ? ResultSet.TYPE_FORWARD_ONLY : getCursorType(), ResultSet.CONCUR_READ_ONLY);
+				
+				if (getEffectiveFetchSize() > 0)
+					this.stat.setFetchSize(getEffectiveFetchSize());
 				
 				execResult = this.stat.execute(sQuery, this.generatedKeyRequest);
 			}	
 
 			if (execResult) {
 				this.rsRezultat = this.stat.getResultSet();
+				
+				// INSERT / UPDATE / DELETE ... RETURNING produce a result set too
+				QueryResultCache.invalidateModified(sQuery);
+				
+				if (cacheKey != null || (this.bufferResults && !this.streaming)){
+					final ResultBuffer buffer = ResultBuffer.materialize(this.rsRezultat);
+					
+					this.rsRezultat.close();
+					closeStatement();
+					
+					if (cacheKey != null)
+						QueryResultCache.put(cacheKey, buffer, this.resultCacheTTL, cacheTags, cacheGeneration);
+					
+					this.rsRezultat = buffer.cursor();
+				}
 			}
 			else {
 				this.bIsUpdate = true;
 				this.iUpdateCount = this.stat.getUpdateCount();
+				
+				QueryResultCache.invalidateModified(sQuery);
 
 				if (this.generatedKeyRequest == Statement.RETURN_GENERATED_KEYS){
 					this.rsRezultat = this.stat.getGeneratedKeys();
@@ -1170,8 +1497,7 @@ public class DBFunctions implements Closeable {
 					this.rsRezultat = null;
 				}
 				
-				this.stat.close();
-				this.stat = null;
+				closeStatement();
 			}
 
 			if (!this.bIsUpdate) {
@@ -1185,14 +1511,35 @@ public class DBFunctions implements Closeable {
 			} else
 				this.first = false;
 			
-			this.dbc.getConnection().setReadOnly(wasReadOnly);
+			if (this.streaming && !this.bIsUpdate){
+				// keep the connection and the transaction open until the entire result was read
+				this.bStreamOpen = true;
+				this.bStreamAutoCommit = wasAutoCommit;
+				this.bStreamReadOnly = wasReadOnly;
+				this.lStreamRows = 0;
+				
+				if (!this.first)
+					finishStreaming();
+				
+				return true;
+			}
+			
+			if (wasAutoCommit){
+				conn.commit();
+				conn.setAutoCommit(true);
+			}
+			
+			conn.setReadOnly(wasReadOnly);
 
 			this.dbc.free();
 
 			return true;
 		} catch (final Exception e) {
+			bFailed = true;
+			
 			this.rsRezultat = null;
 			this.first = false;
+			this.bStreamOpen = false;
 
 			final String s = e.getMessage();
 
@@ -1202,6 +1549,11 @@ public class DBFunctions implements Closeable {
 				this.dbc.close();
 			} else {
 				try{
+					if (wasAutoCommit){
+						this.dbc.getConnection().rollback();
+						this.dbc.getConnection().setAutoCommit(true);
+					}
+					
 					this.dbc.getConnection().setReadOnly(wasReadOnly);
 				}
 				catch (final SQLException sqle){
@@ -1214,13 +1566,1260 @@ public class DBFunctions implements Closeable {
 
 			return false;
 		} finally {
-			al.addAndGet(System.currentTimeMillis() - lStartTime);
+			recordQuery(al, sConnection, sQuery, lStartTime, bFailed);
+		}
+	}
+	
+
+	/**
+	 * Whether or not the results are read entirely into a detached buffer right after the execution
+	 */
+	private boolean bufferResults = false;
+	
+	/**
+	 * Read the entire result of the following queries into a compact, detached buffer right after the execution, releasing
+	 * the statement immediately. The rows are then navigated in memory, which is what you want if the result is processed
+	 * slowly or handed over to another thread. Ignored in {@link #setStreaming(boolean) streaming mode}.
+	 * 
+	 * @param buffer new value
+	 * @return previous value
+	 */
+	public boolean setBufferResults(final boolean buffer){
+		final boolean previousValue = this.bufferResults;
+		
+		this.bufferResults = buffer;
+		
+		return previousValue;
+	}
+	
+	/**
+	 * @return whether or not the results are buffered
+	 * @see #setBufferResults(boolean)
+	 */
+	public boolean isBufferResults(){
+		return this.bufferResults;
+	}
+	
+	/**
+	 * Maximum number of queries executed in parallel by {@link #queryAsync(String, Object...)}
+	 */
+	private static volatile int asyncThreads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+	
+	/**
+	 * Executor of the asynchronous queries, created when first needed
+	 */
+	private static ThreadPoolExecutor asyncExecutor = null;
+	
+	/**
+	 * Set the maximum number of asynchronous queries that are executed in parallel, the others wait in a queue. Each of them
+	 * holds a database connection while running, so this should stay below the <i>pool.maxConnections</i> of the databases,
+	 * or <i>pool.acquireTimeout</i> should be set so that the queries wait for a free connection instead of failing.
+	 * 
+	 * @param threads number of threads, default is twice the number of CPUs, at least 4
+	 */
+	public static synchronized void setAsyncThreads(final int threads){
+		asyncThreads = Math.max(threads, 1);
+		
+		if (asyncExecutor != null){
+			if (asyncThreads > asyncExecutor.getMaximumPoolSize()){
+				asyncExecutor.setMaximumPoolSize(asyncThreads);
+				asyncExecutor.setCorePoolSize(asyncThreads);
+			}
+			else{
+				asyncExecutor.setCorePoolSize(asyncThreads);
+				asyncExecutor.setMaximumPoolSize(asyncThreads);
+			}
+		}
+	}
+	
+	/**
+	 * Statistics : how many asynchronous queries are waiting for a free thread
+	 * 
+	 * @return queue length
+	 */
+	public static synchronized int getAsyncQueueLength(){
+		return asyncExecutor != null ? asyncExecutor.getQueue().size() : 0;
+	}
+	
+	/**
+	 * @return the executor of the asynchronous queries
+	 */
+	private static synchronized Executor getAsyncExecutor(){
+		if (asyncExecutor == null){
+			asyncExecutor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), getAsyncThreadFactory());
+			asyncExecutor.allowCoreThreadTimeOut(true);
+		}
+		
+		return asyncExecutor;
+	}
+	
+	/**
+	 * Threads for the asynchronous queries: virtual threads if the JVM supports them, daemon platform threads otherwise
+	 * 
+	 * @return thread factory
+	 */
+	private static ThreadFactory getAsyncThreadFactory(){
+		try{
+			final Class<?> builderClass = Class.forName("java.lang.Thread$Builder"); //$NON-NLS-1$
+			
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null); //$NON-NLS-1$
+			
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "lazyj.DBFunctions: async query ", Long.valueOf(1)); //$NON-NLS-1$ //$NON-NLS-2$
+			
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder); //$NON-NLS-1$
+		}
+		catch (final Throwable t){
+			// older JVM
+		}
+		
+		return new ThreadFactory() {
+			private final AtomicInteger	threadNo	= new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "lazyj.DBFunctions: async query " + this.threadNo.incrementAndGet()); //$NON-NLS-1$
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+	
+	/**
+	 * Execute a query in background. The query runs on a separate object, with the same database and the same settings
+	 * (read-only flag, result cache, cursor type and so on) as this one, and its result is fully read in a detached buffer
+	 * (see {@link #setBufferResults(boolean)}), so the returned object can be navigated with the usual {@link #moveNext()} /
+	 * {@link #gets(String)} methods without holding any database resource.<br>
+	 * <br>
+	 * Independent queries can be started together and then joined, paying the round trip to the database only once:<br>
+	 * <code>
+	 * CompletableFuture&lt;DBFunctions&gt; users = db.queryAsync("SELECT ...");<br>
+	 * CompletableFuture&lt;DBFunctions&gt; stats = db.queryAsync("SELECT ...", id);<br>
+	 * DBFunctions u = users.join();
+	 * </code>
+	 * 
+	 * @param sQuery query to execute
+	 * @param values values to bind to the prepared statement, if any
+	 * @return the future result, completed exceptionally with an SQLException if the query fails
+	 * @see #setAsyncThreads(int)
+	 */
+	public final CompletableFuture<DBFunctions> queryAsync(final String sQuery, final Object... values){
+		final DBFunctions db = new DBFunctions(this.driver, this.jdbcConnectionString, this.prop);
+		
+		db.readOnlyQuery = this.readOnlyQuery;
+		db.cursorType = this.cursorType;
+		db.fetchSize = this.fetchSize;
+		db.trimStrings = this.trimStrings;
+		db.generatedKeyRequest = this.generatedKeyRequest;
+		db.resultCacheTTL = this.resultCacheTTL;
+		db.resultCacheTags = this.resultCacheTags;
+		db.bufferResults = true;
+		
+		return CompletableFuture.supplyAsync(new Supplier<DBFunctions>() {
+			@Override
+			public DBFunctions get() {
+				if (!db.query(sQuery, false, values))
+					throw new CompletionException(new SQLException(db.getConnectFailReason() != null ? db.getConnectFailReason() : "Error executing '" + sQuery + "'")); //$NON-NLS-1$ //$NON-NLS-2$
+				
+				return db;
+			}
+		}, getAsyncExecutor());
+	}
+	
+	/**
+	 * @param connected whether or not {@link #connect()} has succeeded
+	 * @return the key of the pool that the current connection belongs to, or the key of this target if there is no connection
+	 */
+	private String getConnectionKey(final boolean connected){
+		if (connected && this.dbc.pool != null)
+			return this.dbc.pool.getKey();
+		
+		return getKey();
+	}
+	
+	/**
+	 * Count one more query for the given connection key and get the counter of the total execution time for it
+	 * 
+	 * @param sConnection connection key
+	 * @return the time counter, where the caller should add the query execution time
+	 */
+	private static AtomicLong countQuery(final String sConnection){
+		lQueryCount.incrementAndGet();
+
+		AtomicInteger ai = chmQueryCount.get(sConnection);
+		
+		if (ai == null) {
+			ai = new AtomicInteger(0);
+			
+			final AtomicInteger old = chmQueryCount.putIfAbsent(sConnection, ai);
+			
+			if (old != null)
+				ai = old;
+		}
+		
+		ai.incrementAndGet();
+
+		AtomicLong al = chmQueryTime.get(sConnection);
+
+		if (al == null) {
+			al = new AtomicLong(0);
+			
+			final AtomicLong old = chmQueryTime.putIfAbsent(sConnection, al);
+			
+			if (old != null)
+				al = old;
+		}
+		
+		return al;
+	}
+	
+	/**
+	 * Statistics of the query pattern that produced the current result
+	 */
+	private QueryStats statsQuery = null;
+	
+	/**
+	 * Statistics of the database that produced the current result
+	 */
+	private QueryStats statsDatabase = null;
+	
+	/**
+	 * Rows of the current result that were read so far
+	 */
+	private long lRowsRead = 0;
+	
+	/**
+	 * Account the execution of a query
+	 * 
+	 * @param al legacy time counter of the database, in milliseconds
+	 * @param sConnection database key
+	 * @param sQuery query text
+	 * @param lStartTime {@link System#nanoTime()} when the execution started
+	 * @param bFailed whether or not the execution failed
+	 */
+	private void recordQuery(final AtomicLong al, final String sConnection, final String sQuery, final long lStartTime, final boolean bFailed){
+		final long lEndTime = System.nanoTime();
+		final long lDuration = lEndTime - lStartTime;
+		
+		// difference of the truncated values, so that sub-millisecond queries are not always rounded to 0
+		al.addAndGet(lEndTime / 1000000 - lStartTime / 1000000);
+		
+		this.statsQuery = QueryStats.forQuery(sQuery);
+		this.statsDatabase = QueryStats.forDatabase(sConnection);
+		
+		this.statsQuery.record(lDuration, bFailed);
+		this.statsDatabase.record(lDuration, bFailed);
+		
+		if (this.bIsUpdate && !bFailed && this.iUpdateCount > 0){
+			this.statsQuery.addRows(this.iUpdateCount);
+			this.statsDatabase.addRows(this.iUpdateCount);
+		}
+		
+		QueryStats.checkSlowQuery(sConnection, sQuery, lDuration);
+	}
+	
+	/**
+	 * Account the rows that were read from the previous result
+	 */
+	private void flushRowStats(){
+		if (this.statsQuery != null && this.lRowsRead > 0){
+			this.statsQuery.addRows(this.lRowsRead);
+			this.statsDatabase.addRows(this.lRowsRead);
+		}
+		
+		this.statsQuery = null;
+		this.statsDatabase = null;
+		this.lRowsRead = 0;
+	}
+	
+	/**
+	 * Close the previous result set and statement and forget any result of the previous query
+	 */
+	private void resetResults(){
+		finishStreaming();
+		
+		flushRowStats();
+		
+		if (this.rsRezultat != null) {
+			try {
+				this.rsRezultat.close();
+			} catch (final Throwable e) {
+				// ignore this
+			}
+
+			this.rsRezultat = null;
+		}
+
+		closeStatement();
+
+		this.bIsUpdate = false;
+		this.iUpdateCount = -1;
+		this.first = false;
+		this.lastGeneratedKey = null;
+		this.batchUpdateCounts = null;
+		this.batchGeneratedKeys = null;
+		this.columnIndexSource = null;
+		this.columnIndex = null;
+		this.columnTypes = null;
+	}
+	
+	/**
+	 * For how long the results of the read-only queries can be cached, in milliseconds. 0 disables the cache.
+	 */
+	private long resultCacheTTL = 0;
+	
+	/**
+	 * Explicit tables that the cached results depend on, <code>null</code> to extract them from each query
+	 */
+	private Set<String> resultCacheTags = null;
+	
+	/**
+	 * Enable the result cache for the following queries of this object. Only the queries flagged with {@link #setReadOnly(boolean)}
+	 * are cached, the results being kept in memory at most for the given time and shared with any other object that executes the
+	 * same query, with the same parameters, on the same database. Cached results can be navigated, but they are never streamed.
+	 * 
+	 * @param millis how long a result is valid, in milliseconds. 0 to disable the cache (default).
+	 * @return previous value
+	 * @see QueryResultCache
+	 */
+	public long setResultCacheTTL(final long millis){
+		final long previousValue = this.resultCacheTTL;
+		
+		this.resultCacheTTL = millis > 0 ? millis : 0;
+		
+		return previousValue;
+	}
+	
+	/**
+	 * @return for how long the results are cached, in milliseconds
+	 * @see #setResultCacheTTL(long)
+	 */
+	public long getResultCacheTTL(){
+		return this.resultCacheTTL;
+	}
+	
+	/**
+	 * Set the tables that the following cached results depend on. A change to any of them, signaled with {@link QueryResultCache#invalidate(String)}
+	 * or executed through a DBFunctions object, drops the cached results. By default the tables are extracted from the FROM and JOIN
+	 * clauses of each query.
+	 * 
+	 * @param tables table names, nothing to go back to the automatic extraction
+	 */
+	public void setResultCacheTags(final String... tables){
+		this.resultCacheTags = tables != null && tables.length > 0 ? QueryResultCache.getTags(Arrays.asList(tables)) : null;
+	}
+	
+	/**
+	 * How many statements to send to the server at once in {@link #executeBatch(String, Iterable)}
+	 */
+	private int batchSize = 1000;
+	
+	/**
+	 * Whether or not to execute the batches in a single transaction
+	 */
+	private boolean batchTransaction = false;
+	
+	/**
+	 * Update counts of each batch sent to the server by the last batch execution
+	 */
+	private List<int[]> batchUpdateCounts = null;
+	
+	/**
+	 * Keys generated by the last batch execution, if {@link #setLastGeneratedKey(boolean)} was enabled
+	 */
+	private List<String> batchGeneratedKeys = null;
+	
+	/**
+	 * Set how many statements are accumulated before being sent to the server in the batch execution methods.
+	 * 
+	 * @param size new batch size, default is 1000
+	 * @return previous batch size
+	 * @see #executeBatch(String, Iterable)
+	 * @see #executeBatch(Iterable)
+	 */
+	public int setBatchSize(final int size){
+		final int previousSize = this.batchSize;
+		
+		this.batchSize = size > 0 ? size : 1;
+		
+		return previousSize;
+	}
+	
+	/**
+	 * @return current batch size
+	 * @see #setBatchSize(int)
+	 */
+	public int getBatchSize(){
+		return this.batchSize;
+	}
+	
+	/**
+	 * Set whether or not the batch execution methods should wrap all the batches in a single transaction. If enabled, any
+	 * error rolls back all the changes done by the batch execution. If not (the default), the batches that were successfully
+	 * sent to the server before the error remain committed.
+	 * 
+	 * @param transaction new value
+	 * @return previous value
+	 * @see #executeBatch(String, Iterable)
+	 * @see #executeBatch(Iterable)
+	 */
+	public boolean setBatchTransaction(final boolean transaction){
+		final boolean previousValue = this.batchTransaction;
+		
+		this.batchTransaction = transaction;
+		
+		return previousValue;
+	}
+	
+	/**
+	 * @return whether or not the batches are executed in a transaction
+	 * @see #setBatchTransaction(boolean)
+	 */
+	public boolean isBatchTransaction(){
+		return this.batchTransaction;
+	}
+	
+	/**
+	 * Get the update counts returned by the server for each batch of the last batch execution. After a batch execution
+	 * {@link #getUpdateCount()} returns the total number of changed rows.
+	 * 
+	 * @return the update counts, one array for each batch sent to the server, or <code>null</code> if the last operation was not a batch execution
+	 * @see Statement#executeBatch()
+	 */
+	public List<int[]> getBatchUpdateCounts(){
+		return this.batchUpdateCounts;
+	}
+	
+	/**
+	 * Get the keys generated by the last batch execution, in the order of the rows. Only available after {@link #setLastGeneratedKey(boolean)}
+	 * was called with <code>true</code>, for {@link #executeBatch(String, Iterable)}, and if the driver supports it.
+	 * 
+	 * @return generated keys, or <code>null</code>
+	 */
+	public List<String> getBatchGeneratedKeys(){
+		return this.batchGeneratedKeys;
+	}
+	
+	/**
+	 * Execute the same parameterized statement for many sets of values, on a single connection and with as few round trips to the
+	 * server as possible. The statements are sent in batches of {@link #getBatchSize()} and, if {@link #setBatchTransaction(boolean)}
+	 * was enabled, all of them are executed in a single transaction.<br>
+	 * <br>
+	 * After the execution {@link #getUpdateCount()} returns the total number of changed rows, {@link #getBatchUpdateCounts()} the
+	 * details for each batch and {@link #getBatchGeneratedKeys()} the generated keys, if requested.
+	 * 
+	 * @param sQuery SQL statement with '?' placeholders
+	 * @param values one array of values for each execution
+	 * @return <code>true</code> if all the statements were executed, <code>false</code> if there was an error
+	 */
+	public final boolean executeBatch(final String sQuery, final Iterable<? extends Object[]> values){
+		return executeBatch(sQuery, values, null);
+	}
+
+	/**
+	 * Execute many different SQL statements on a single connection, sending them in batches of {@link #getBatchSize()}. If
+	 * {@link #setBatchTransaction(boolean)} was enabled then all of them are executed in a single transaction.
+	 * 
+	 * @param queries statements to execute
+	 * @return <code>true</code> if all the statements were executed, <code>false</code> if there was an error
+	 * @see #executeBatch(String, Iterable)
+	 */
+	public final boolean executeBatch(final Iterable<String> queries){
+		return executeBatch(null, null, queries);
+	}
+	
+	/**
+	 * Actual implementation of the batch execution
+	 * 
+	 * @param sQuery parameterized statement, or <code>null</code> for the list of statements
+	 * @param values values for the parameterized statement
+	 * @param queries list of statements
+	 * @return <code>true</code> if everything was fine
+	 */
+	private boolean executeBatch(final String sQuery, final Iterable<? extends Object[]> values, final Iterable<String> queries){
+		resetResults();
+		
+		this.bIsUpdate = true;
+		
+		final long lStartTime = System.nanoTime();
+		
+		final String sDescription = sQuery != null ? sQuery : "batch of statements"; //$NON-NLS-1$
+		
+		// batches change data, they always go to the master
+		final boolean connected = connect(false);
+		
+		final String sConnection = getConnectionKey(connected);
+
+		final AtomicLong al = countQuery(sConnection);
+
+		if (!connected) {
+			Log.log(Log.ERROR, "lazyj.DBFunctions", sConnection + " --> cannot connect for batch because "+getConnectFailReason()+" : \n" + sDescription);  //$NON-NLS-1$//$NON-NLS-2$ //$NON-NLS-3$
+
+			recordQuery(al, sConnection, sDescription, lStartTime, true);
+
+			return false;
+		}
+		
+		final Connection conn = this.dbc.getConnection();
+		
+		final List<int[]> counts = new ArrayList<>();
+		final List<String> keys = this.generatedKeyRequest == Statement.RETURN_GENERATED_KEYS && sQuery != null ? new ArrayList<String>() : null;
+		
+		boolean wasAutoCommit = true;
+		boolean bFailed = false;
+		
+		// tables to invalidate in the result cache, whatever the outcome, since some rows might have been committed
+		final Set<String> modified = new HashSet<>();
+		
+		try {
+			if (this.batchTransaction){
+				wasAutoCommit = conn.getAutoCommit();
+				
+				if (wasAutoCommit)
+					conn.setAutoCommit(false);
+			}
+			
+			int pending = 0;
+			
+			if (sQuery != null){
+				addModifiedTable(modified, sQuery);
+				
+				final PreparedStatement prepStat = this.dbc.prepareStatement(sQuery, this.generatedKeyRequest);
+				
+				this.stat = prepStat;
+				
+				if (this.dbc.isStatementCacheEnabled()){
+					this.sCachedStatementSQL = sQuery;
+					this.iCachedStatementKeys = this.generatedKeyRequest;
+				}
+				
+				for (final Object[] row: values){
+					for (int i=0; i<row.length; i++)
+						prepStat.setObject(i+1, row[i]);
+					
+					prepStat.addBatch();
+					
+					if (++pending >= this.batchSize){
+						flushBatch(counts, keys);
+						pending = 0;
+					}
+				}
+			}
+			else{
+				this.stat = conn.createStatement();
+				
+				for (final String query: queries){
+					addModifiedTable(modified, query);
+					
+					this.stat.addBatch(query);
+					
+					if (++pending >= this.batchSize){
+						flushBatch(counts, null);
+						pending = 0;
+					}
+				}
+			}
+			
+			if (pending > 0)
+				flushBatch(counts, keys);
+			
+			if (this.batchTransaction && wasAutoCommit)
+				conn.commit();
+			
+			return true;
+		}
+		catch (final Exception e) {
+			bFailed = true;
+			
+			if (this.batchTransaction && wasAutoCommit){
+				try{
+					conn.rollback();
+				}
+				catch (final SQLException sqle){
+					// ignore, the connection is closed below anyway
+				}
+			}
+			
+			Log.log(Log.ERROR, "lazyj.DBFunctions", sConnection + " --> Error executing batch '" + sDescription + "' after "+counts.size()+" successful batches", e instanceof SQLException && ((SQLException) e).getNextException()!=null ? ((SQLException) e).getNextException() : e);  //$NON-NLS-1$ //$NON-NLS-2$//$NON-NLS-3$ //$NON-NLS-4$
+			
+			this.dbc.close();
+
+			return false;
+		}
+		finally {
+			for (final String table: modified)
+				QueryResultCache.invalidate(table);
+			
+			int total = 0;
+			
+			for (final int[] batch: counts)
+				for (final int count: batch)
+					if (count > 0)
+						total += count;
+			
+			this.iUpdateCount = total;
+			this.batchUpdateCounts = counts;
+			this.batchGeneratedKeys = keys;
+			
+			closeStatement();
+			
+			if (this.batchTransaction && wasAutoCommit && this.dbc.getConnection() != null){
+				try{
+					conn.setAutoCommit(true);
+				}
+				catch (final SQLException sqle){
+					this.dbc.close();
+				}
+			}
+			
+			this.dbc.free();
+			
+			recordQuery(al, sConnection, sDescription, lStartTime, bFailed);
+		}
+	}
+	
+	/**
+	 * Remember the table modified by a statement
+	 * 
+	 * @param tables where to add it
+	 * @param sql a data modification statement
+	 */
+	private static void addModifiedTable(final Set<String> tables, final String sql){
+		final String table = QueryResultCache.getModifiedTable(sql);
+		
+		if (table != null)
+			tables.add(table);
+	}
+	
+	/**
+	 * Send the accumulated statements to the server
+	 * 
+	 * @param counts where to add the update counts
+	 * @param keys where to add the generated keys, can be <code>null</code> if they were not requested
+	 * @throws SQLException
+	 */
+	private void flushBatch(final List<int[]> counts, final List<String> keys) throws SQLException {
+		counts.add(this.stat.executeBatch());
+		
+		if (keys != null){
+			try (ResultSet rs = this.stat.getGeneratedKeys()){
+				while (rs != null && rs.next())
+					keys.add(rs.getString(1));
+			}
+		}
+		
+		this.stat.clearBatch();
+	}
+	
+	/**
+	 * Load rows into a table as fast as possible. For PostgreSQL the rows are streamed through <i>COPY ... FROM STDIN</i> with the
+	 * driver's CopyManager, for other databases they are inserted with {@link #executeBatch(String, Iterable)}. The rows are formatted
+	 * on the fly, so the iterable can be arbitrarily large.<br>
+	 * <br>
+	 * {@link #getUpdateCount()} returns the number of loaded rows afterwards.
+	 * 
+	 * @param tableName table to load the data into
+	 * @param columns columns to fill, if <code>null</code> the keys of the first row are used
+	 * @param rows column - value mappings, missing columns are loaded as <code>null</code>
+	 * @return <code>true</code> if all the rows were loaded
+	 */
+	public final boolean copyIn(final String tableName, final List<String> columns, final Iterable<? extends Map<String, ?>> rows){
+		if (tableName == null || rows == null)
+			return false;
+		
+		final Iterator<? extends Map<String, ?>> it = rows.iterator();
+		
+		final Map<String, ?> first = it.hasNext() ? it.next() : null;
+		
+		final List<String> actualColumns = columns != null ? columns : (first != null ? getColumns(first) : null);
+		
+		if (first == null || actualColumns == null || actualColumns.isEmpty()){
+			resetResults();
+			
+			this.bIsUpdate = true;
+			this.iUpdateCount = 0;
+			
+			return true;
+		}
+		
+		final Iterator<Map<String, ?>> allRows = new Iterator<Map<String, ?>>(){
+			private boolean bFirst = true;
+			
+			@Override
+			public boolean hasNext() {
+				return this.bFirst || it.hasNext();
+			}
+
+			@Override
+			public Map<String, ?> next() {
+				if (this.bFirst){
+					this.bFirst = false;
+					return first;
+				}
+				
+				return it.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+		
+		if (isPostgreSQL()){
+			final Iterator<String> lines = new Iterator<String>(){
+				private final StringBuilder sb = new StringBuilder();
+				
+				@Override
+				public boolean hasNext() {
+					return allRows.hasNext();
+				}
+
+				@Override
+				public String next() {
+					final Map<String, ?> row = allRows.next();
+					
+					this.sb.setLength(0);
+					
+					for (int i=0; i<actualColumns.size(); i++){
+						if (i > 0)
+							this.sb.append('\t');
+						
+						appendCopyValue(this.sb, row.get(actualColumns.get(i)));
+					}
+					
+					return this.sb.toString();
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+			
+			final Boolean ret = copyInPostgreSQL(getCopySQL(tableName, actualColumns) + " FROM STDIN", lines); //$NON-NLS-1$
+			
+			if (ret != null)
+				return ret.booleanValue();
+		}
+		
+		return executeBatch(getInsertTemplate(tableName, actualColumns), new Iterable<Object[]>(){
+			@Override
+			public Iterator<Object[]> iterator() {
+				return new Iterator<Object[]>(){
+					@Override
+					public boolean hasNext() {
+						return allRows.hasNext();
+					}
+
+					@Override
+					public Object[] next() {
+						final Map<String, ?> row = allRows.next();
+						
+						final Object[] values = new Object[actualColumns.size()];
+						
+						for (int i=0; i<values.length; i++)
+							values[i] = getBindValue(row.get(actualColumns.get(i)));
+						
+						return values;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		});
+	}
+	
+	/**
+	 * Load lines in the PostgreSQL <i>COPY</i> text format (tab-separated values, <code>\N</code> for <code>null</code>, backslash escapes)
+	 * into a table, for example from a {@link FileLinesIterable} over a dump file. For other databases the lines are parsed and
+	 * inserted with {@link #executeBatch(String, Iterable)}.<br>
+	 * <br>
+	 * {@link #getUpdateCount()} returns the number of loaded rows afterwards.
+	 * 
+	 * @param tableName table to load the data into
+	 * @param columns columns present in each line, in order, or <code>null</code> for all the columns of the table (PostgreSQL only)
+	 * @param lines the data
+	 * @return <code>true</code> if all the lines were loaded
+	 */
+	public final boolean copyInLines(final String tableName, final List<String> columns, final Iterable<String> lines){
+		if (tableName == null || lines == null)
+			return false;
+		
+		if (isPostgreSQL()){
+			final Boolean ret = copyInPostgreSQL(getCopySQL(tableName, columns) + " FROM STDIN", lines.iterator()); //$NON-NLS-1$
+			
+			if (ret != null)
+				return ret.booleanValue();
+		}
+		
+		if (columns == null || columns.isEmpty()){
+			Log.log(Log.ERROR, "lazyj.DBFunctions", "copyInLines: the list of columns is mandatory for databases other than PostgreSQL"); //$NON-NLS-1$ //$NON-NLS-2$
+			return false;
+		}
+		
+		return executeBatch(getInsertTemplate(tableName, columns), new Iterable<Object[]>(){
+			@Override
+			public Iterator<Object[]> iterator() {
+				final Iterator<String> it = lines.iterator();
+				
+				return new Iterator<Object[]>(){
+					@Override
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+
+					@Override
+					public Object[] next() {
+						return parseCopyLine(it.next(), columns.size());
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		});
+	}
+	
+	/**
+	 * Export a table or the result of a query in the PostgreSQL <i>COPY</i> text format, one line per row. For PostgreSQL this is done with
+	 * <i>COPY ... TO STDOUT</i>, for other databases the query is executed in {@link #setStreaming(boolean) streaming mode} and the
+	 * values are formatted in the same way.<br>
+	 * <br>
+	 * {@link #getUpdateCount()} returns the number of exported rows afterwards.
+	 * 
+	 * @param tableOrQuery table name or SELECT query
+	 * @param out where to write the data. It is flushed but not closed.
+	 * @return <code>true</code> if the entire data was written
+	 */
+	public final boolean copyOut(final String tableOrQuery, final Writer out){
+		if (tableOrQuery == null || out == null)
+			return false;
+		
+		final boolean bQuery = tableOrQuery.trim().toLowerCase(Locale.ENGLISH).matches("(?s)^(select|with|values|table)\\s.*"); //$NON-NLS-1$
+		
+		if (isPostgreSQL()){
+			final Boolean ret = copyOutPostgreSQL((bQuery ? "COPY (" + tableOrQuery + ")" : "COPY " + tableOrQuery) + " TO STDOUT", out); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			
+			if (ret != null)
+				return ret.booleanValue();
+		}
+		
+		final boolean wasStreaming = setStreaming(true);
+		
+		try{
+			if (!query(bQuery ? tableOrQuery : "SELECT * FROM " + tableOrQuery)) //$NON-NLS-1$
+				return false;
+			
+			final int columns = this.rsRezultat.getMetaData().getColumnCount();
+			
+			final StringBuilder sb = new StringBuilder();
+			
+			int rows = 0;
+			
+			while (moveNext()){
+				sb.setLength(0);
+				
+				for (int i=1; i<=columns; i++){
+					if (i > 1)
+						sb.append('\t');
+					
+					appendCopyValue(sb, this.rsRezultat.getString(i));
+				}
+				
+				out.write(sb.append('\n').toString());
+				
+				rows++;
+			}
+			
+			out.flush();
+			
+			this.iUpdateCount = rows;
+			
+			return true;
+		}
+		catch (final Exception e){
+			Log.log(Log.ERROR, "lazyj.DBFunctions", "copyOut: cannot export '" + tableOrQuery + "'", e); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			
+			resetResults();
+			
+			return false;
+		}
+		finally{
+			setStreaming(wasStreaming);
+		}
+	}
+	
+	/**
+	 * Export a table or the result of a query to a file, see {@link #copyOut(String, Writer)}
+	 * 
+	 * @param tableOrQuery table name or SELECT query
+	 * @param f output file, overwritten if it exists
+	 * @return <code>true</code> if the entire data was written
+	 */
+	public final boolean copyOut(final String tableOrQuery, final File f){
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f), StandardCharsets.UTF_8))){
+			return copyOut(tableOrQuery, out);
+		}
+		catch (final IOException ioe){
+			Log.log(Log.ERROR, "lazyj.DBFunctions", "copyOut: cannot write to " + f, ioe); //$NON-NLS-1$ //$NON-NLS-2$
+			
+			return false;
+		}
+	}
+	
+	/**
+	 * @param tableName table name
+	 * @param columns columns, can be <code>null</code>
+	 * @return the beginning of the COPY statement
+	 */
+	private static String getCopySQL(final String tableName, final List<String> columns){
+		final StringBuilder sb = new StringBuilder("COPY ").append(tableName); //$NON-NLS-1$
+		
+		if (columns != null && columns.size() > 0){
+			sb.append(" ("); //$NON-NLS-1$
+			
+			for (int i=0; i<columns.size(); i++){
+				if (i > 0)
+					sb.append(',');
+				
+				sb.append(Format.escSQL(columns.get(i)));
+			}
+			
+			sb.append(')');
+		}
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * @param tableName table name
+	 * @param columns columns
+	 * @return parameterized INSERT statement for one row
+	 */
+	private static String getInsertTemplate(final String tableName, final List<String> columns){
+		final StringBuilder sb = new StringBuilder("INSERT INTO ").append(tableName).append(" ("); //$NON-NLS-1$ //$NON-NLS-2$
+		final StringBuilder sbValues = new StringBuilder(") VALUES ("); //$NON-NLS-1$
+		
+		for (int i=0; i<columns.size(); i++){
+			if (i > 0){
+				sb.append(',');
+				sbValues.append(',');
+			}
+			
+			sb.append(Format.escSQL(columns.get(i)));
+			sbValues.append('?');
+		}
+		
+		return sb.append(sbValues).append(')').toString();
+	}
+	
+	/**
+	 * Append a value in the COPY text format
+	 * 
+	 * @param sb where to append
+	 * @param o value
+	 */
+	private static void appendCopyValue(final StringBuilder sb, final Object o){
+		if (o == null){
+			sb.append("\\N"); //$NON-NLS-1$
+			return;
+		}
+		
+		if (o instanceof Boolean){
+			sb.append(((Boolean) o).booleanValue() ? 't' : 'f');
+			return;
+		}
+		
+		if (o instanceof Number){
+			sb.append(o);
+			return;
+		}
+		
+		if (o instanceof byte[]){
+			// bytea hex format, with the backslash escaped
+			sb.append("\\\\x"); //$NON-NLS-1$
+			
+			for (final byte b: (byte[]) o){
+				sb.append(Character.forDigit((b >> 4) & 0x0F, 16));
+				sb.append(Character.forDigit(b & 0x0F, 16));
+			}
+			
+			return;
+		}
+		
+		final String s = o instanceof Date && !(o instanceof java.sql.Date) && !(o instanceof java.sql.Time) ? formatSQLDate((Date) o) : o.toString();
+		
+		for (int i=0; i<s.length(); i++){
+			final char c = s.charAt(i);
+			
+			switch (c){
+				case '\\': sb.append("\\\\"); break; //$NON-NLS-1$
+				case '\t': sb.append("\\t"); break; //$NON-NLS-1$
+				case '\n': sb.append("\\n"); break; //$NON-NLS-1$
+				case '\r': sb.append("\\r"); break; //$NON-NLS-1$
+				default: sb.append(c);
+			}
+		}
+	}
+	
+	/**
+	 * Parse one line in the COPY text format
+	 * 
+	 * @param line the line
+	 * @param columns expected number of columns, missing values are <code>null</code>
+	 * @return the values
+	 */
+	private static Object[] parseCopyLine(final String line, final int columns){
+		final Object[] values = new Object[columns];
+		
+		final StringBuilder sb = new StringBuilder();
+		
+		int column = 0;
+		
+		for (int i=0; i<=line.length() && column < columns; i++){
+			final char c = i < line.length() ? line.charAt(i) : '\t';
+			
+			if (c == '\t'){
+				final String value = sb.toString();
+				
+				values[column++] = "\\N".equals(value) ? null : unescapeCopyValue(value); //$NON-NLS-1$
+				
+				sb.setLength(0);
+			}
+			else{
+				sb.append(c);
+				
+				if (c == '\\' && i + 1 < line.length())
+					sb.append(line.charAt(++i));
+			}
+		}
+		
+		return values;
+	}
+	
+	/**
+	 * @param value escaped value
+	 * @return unescaped value
+	 */
+	private static String unescapeCopyValue(final String value){
+		if (value.indexOf('\\') < 0)
+			return value;
+		
+		final StringBuilder sb = new StringBuilder(value.length());
+		
+		for (int i=0; i<value.length(); i++){
+			char c = value.charAt(i);
+			
+			if (c == '\\' && i + 1 < value.length()){
+				c = value.charAt(++i);
+				
+				switch (c){
+					case 't': c = '\t'; break;
+					case 'n': c = '\n'; break;
+					case 'r': c = '\r'; break;
+					case 'b': c = '\b'; break;
+					case 'f': c = '\f'; break;
+					case 'v': c = 0x0B; break;
+					default: // the character itself
+				}
+			}
+			
+			sb.append(c);
+		}
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * Reader that concatenates lines, adding a new line after each of them
+	 */
+	private static final class LinesReader extends Reader {
+		/**
+		 * Lines to read
+		 */
+		private final Iterator<String> lines;
+		
+		/**
+		 * Current line, including the new line
+		 */
+		private String current = null;
+		
+		/**
+		 * Position in the current line
+		 */
+		private int pos = 0;
+		
+		/**
+		 * How many lines were read
+		 */
+		int count = 0;
+		
+		/**
+		 * @param lines lines to read
+		 */
+		LinesReader(final Iterator<String> lines){
+			this.lines = lines;
+		}
+		
+		@Override
+		public int read(final char[] cbuf, final int off, final int len) {
+			if (len == 0)
+				return 0;
+			
+			int done = 0;
+			
+			while (done < len){
+				if (this.current == null || this.pos >= this.current.length()){
+					if (!this.lines.hasNext())
+						break;
+					
+					this.current = this.lines.next() + '\n';
+					this.pos = 0;
+					this.count++;
+				}
+				
+				final int n = Math.min(len - done, this.current.length() - this.pos);
+				
+				this.current.getChars(this.pos, this.pos + n, cbuf, off + done);
+				
+				this.pos += n;
+				done += n;
+			}
+			
+			return done > 0 ? done : -1;
+		}
+		
+		@Override
+		public void close() {
+			// nothing to close
+		}
+	}
+	
+	/**
+	 * @param conn JDBC connection
+	 * @return the PostgreSQL CopyManager of this connection, or <code>null</code> if the driver doesn't provide one
+	 */
+	private static Object getCopyManager(final Connection conn){
+		try{
+			final Class<?> pgConnection = Class.forName("org.postgresql.PGConnection", true, conn.getClass().getClassLoader()); //$NON-NLS-1$
+			
+			return pgConnection.getMethod("getCopyAPI").invoke(conn.unwrap(pgConnection)); //$NON-NLS-1$
+		}
+		catch (final Throwable t){
+			Log.log(Log.FINE, "lazyj.DBFunctions", "CopyManager is not available, falling back to batched inserts", t); //$NON-NLS-1$ //$NON-NLS-2$
+			
+			return null;
+		}
+	}
+	
+	/**
+	 * Run a <i>COPY ... FROM STDIN</i> statement
+	 * 
+	 * @param sql the COPY statement
+	 * @param lines data to send
+	 * @return <code>null</code> if the CopyManager is not available, otherwise whether the operation was successful
+	 */
+	private Boolean copyInPostgreSQL(final String sql, final Iterator<String> lines){
+		return copyPostgreSQL(sql, "copyIn", Reader.class, new LinesReader(lines)); //$NON-NLS-1$
+	}
+	
+	/**
+	 * Run a <i>COPY ... TO STDOUT</i> statement
+	 * 
+	 * @param sql the COPY statement
+	 * @param out where to write the data
+	 * @return <code>null</code> if the CopyManager is not available, otherwise whether the operation was successful
+	 */
+	private Boolean copyOutPostgreSQL(final String sql, final Writer out){
+		return copyPostgreSQL(sql, "copyOut", Writer.class, out); //$NON-NLS-1$
+	}
+	
+	/**
+	 * Execute a COPY statement with the CopyManager
+	 * 
+	 * @param sql the COPY statement
+	 * @param method <code>copyIn</code> or <code>copyOut</code>
+	 * @param streamClass {@link Reader} or {@link Writer}
+	 * @param stream the data source or destination
+	 * @return <code>null</code> if the CopyManager is not available, otherwise whether the operation was successful
+	 */
+	private Boolean copyPostgreSQL(final String sql, final String method, final Class<?> streamClass, final Object stream){
+		resetResults();
+		
+		final boolean bIn = stream instanceof Reader;
+		
+		this.bIsUpdate = bIn;
+		
+		final long lStartTime = System.nanoTime();
+		
+		// data loading must go to the master, exports only run on a replica if the caller asked for read-only queries
+		final boolean connected = connect(bIn ? false : this.readOnlyQuery);
+		
+		final String sConnection = getConnectionKey(connected);
+		
+		if (!connected){
+			Log.log(Log.ERROR, "lazyj.DBFunctions", sConnection + " --> cannot connect for COPY because "+getConnectFailReason()+" : \n" + sql);  //$NON-NLS-1$//$NON-NLS-2$ //$NON-NLS-3$
+			
+			recordQuery(countQuery(sConnection), sConnection, sql, lStartTime, true);
+			
+			return Boolean.FALSE;
+		}
+		
+		final Object copyManager = getCopyManager(this.dbc.getConnection());
+		
+		if (copyManager == null){
+			this.dbc.free();
+			return null;
+		}
+		
+		final AtomicLong al = countQuery(sConnection);
+		
+		boolean bFailed = false;
+		
+		long rows = 0;
+		
+		try{
+			rows = ((Number) copyManager.getClass().getMethod(method, String.class, streamClass).invoke(copyManager, sql, stream)).longValue();
+			
+			if (bIn)
+				QueryResultCache.invalidateModified(sql.replaceFirst("(?i)^COPY\\s+", "INSERT INTO ")); //$NON-NLS-1$ //$NON-NLS-2$
+			else
+				((Writer) stream).flush();
+			
+			return Boolean.TRUE;
+		}
+		catch (final Throwable t){
+			bFailed = true;
+			
+			final Throwable cause = t instanceof InvocationTargetException && t.getCause() != null ? t.getCause() : t;
+			
+			Log.log(Log.ERROR, "lazyj.DBFunctions", sConnection + " --> Error executing '" + sql + "'" + (bIn ? " after " + ((LinesReader) stream).count + " lines" : ""), cause); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+			
+			// the connection might be left in the middle of the COPY protocol
+			this.dbc.close();
+			
+			return Boolean.FALSE;
+		}
+		finally{
+			this.iUpdateCount = (int) Math.min(rows, Integer.MAX_VALUE);
+			
+			if (!bIn)
+				this.lRowsRead = rows;
+			
+			this.dbc.free();
+			
+			recordQuery(al, sConnection, sql, lStartTime, bFailed);
 		}
 	}
 	
-
 	/**
-	 * Get the number of rows that were selected by the previous query. Will only work if you have previously called {@link #setCursorType(int)} with one of the ResultSet.TYPE_SCROLL_* constants.
+	 * Get the number of rows that were selected by the previous query. Will only work if you have previously called {@link #setCursorType(int)} with one of the ResultSet.TYPE_SCROLL_* constants,
+	 * and never in {@link #setStreaming(boolean) streaming mode}.
 	 * 
 	 * @return number of rows, or -1 if the query was not a select one or there was an error
 	 */
@@ -1326,16 +2925,29 @@ public class DBFunctions implements Closeable {
 
 		if (this.first) {
 			this.first = false;
+			this.lRowsRead++;
 			return true;
 		}
 
 		if (this.rsRezultat != null) {
 			try {
-				if (!this.rsRezultat.next())
+				if (!this.rsRezultat.next()){
+					finishStreaming();
+					
 					return false;
+				}
+				
+				this.lRowsRead++;
+				
+				if (this.bStreamOpen && (++this.lStreamRows % DEFAULT_STREAMING_FETCH_SIZE) == 0){
+					// the connection is still actively used, don't let the pool consider it stuck
+					this.dbc.lLastAccess = System.currentTimeMillis();
+				}
 
 				return true;
 			} catch (final Exception e) {
+				finishStreaming();
+				
 				return false;
 			}
 		}
@@ -1343,6 +2955,131 @@ public class DBFunctions implements Closeable {
 		return false;
 	}
 	
+	/**
+	 * Result set for which {@link #columnIndex} was built
+	 */
+	private ResultSet				columnIndexSource = null;
+	
+	/**
+	 * Column label to position mapping for the current result set, both the exact and the lower case labels are present
+	 */
+	private Map<String, Integer>	columnIndex = null;
+	
+	/**
+	 * SQL types of the columns of the current result set, from {@link ResultSetMetaData#getColumnType(int)}
+	 */
+	private int[]					columnTypes = null;
+	
+	/**
+	 * Whether or not {@link #gets(String, String)} should trim the values
+	 */
+	private boolean					trimStrings = true;
+	
+	/**
+	 * Values of text columns are by default trimmed by {@link #gets(String)} and {@link #gets(String, String)}. When scanning
+	 * a lot of text this means an extra copy of most values, so the trimming can be disabled if the data is known to be clean.
+	 * 
+	 * @param trim new value
+	 * @return previous value
+	 */
+	public boolean setTrimStrings(final boolean trim){
+		final boolean previousValue = this.trimStrings;
+		
+		this.trimStrings = trim;
+		
+		return previousValue;
+	}
+	
+	/**
+	 * @return whether or not the string values are trimmed
+	 * @see #setTrimStrings(boolean)
+	 */
+	public boolean isTrimStrings(){
+		return this.trimStrings;
+	}
+	
+	/**
+	 * Build the column index and type information for the current result set, if not already done
+	 * 
+	 * @throws SQLException
+	 */
+	private void buildColumnIndex() throws SQLException {
+		if (this.columnIndexSource == this.rsRezultat && this.columnIndex != null)
+			return;
+		
+		final ResultSetMetaData meta = this.rsRezultat.getMetaData();
+		
+		final int iCount = meta.getColumnCount();
+		
+		final Map<String, Integer> m = new HashMap<>(iCount * 4);
+		final int[] types = new int[iCount];
+		
+		for (int i=1; i<=iCount; i++){
+			types[i-1] = meta.getColumnType(i);
+			
+			final String sLabel = meta.getColumnLabel(i);
+			
+			if (sLabel == null)
+				continue;
+			
+			final Integer iPos = Integer.valueOf(i);
+			
+			if (!m.containsKey(sLabel))
+				m.put(sLabel, iPos);
+			
+			final String sLower = sLabel.toLowerCase(Locale.ROOT);
+			
+			if (!m.containsKey(sLower))
+				m.put(sLower, iPos);
+		}
+		
+		this.columnIndex = m;
+		this.columnTypes = types;
+		this.columnIndexSource = this.rsRezultat;
+	}
+	
+	/**
+	 * @param iColumn column position (1 = first column)
+	 * @return the SQL type of this column, {@link Types#OTHER} if not known
+	 * @throws SQLException
+	 */
+	private int getColumnType(final int iColumn) throws SQLException {
+		buildColumnIndex();
+		
+		if (iColumn < 1 || iColumn > this.columnTypes.length)
+			return Types.OTHER;
+		
+		return this.columnTypes[iColumn-1];
+	}
+	
+	/**
+	 * Resolve a column label to its position in the current result set. The mapping is built once for each result set from
+	 * its metadata, so the name-based getters don't depend on how efficiently the driver looks up the labels.
+	 * Like {@link ResultSet#findColumn(String)} the lookup is case insensitive and the first column with a given label wins.
+	 * 
+	 * @param sColumnName column label
+	 * @return position of the column (1 = first column)
+	 * @throws SQLException if there is no such column in the result set
+	 */
+	private int getColumnIndex(final String sColumnName) throws SQLException {
+		buildColumnIndex();
+		
+		Integer iPos = this.columnIndex.get(sColumnName);
+		
+		if (iPos == null){
+			iPos = this.columnIndex.get(sColumnName.toLowerCase(Locale.ROOT));
+			
+			if (iPos == null){
+				// let the driver decide, it throws an exception if the column doesn't exist
+				iPos = Integer.valueOf(this.rsRezultat.findColumn(sColumnName));
+				
+				this.columnIndex.put(sColumnName, iPos);
+			}
+		}
+		
+		return iPos.intValue();
+	}
+	
 	/**
 	 * Get the contents of a column from the current row based on its name. By default will return "" if there is any problem (column
 	 * missing, value is null ...)
@@ -1371,12 +3108,15 @@ public class DBFunctions implements Closeable {
 	 * @see #gets(int, String)
 	 */
 	public final String gets(final String sColumnName, final String sDefault) {
-		if ((this.dbc == null) || this.rsRezultat == null)
+		if (this.rsRezultat == null)
 			return sDefault;
 
 		try {
-			final String sTemp = this.rsRezultat.getString(sColumnName);
-			return (sTemp == null || this.rsRezultat.wasNull()) ? sDefault : sTemp.trim();
+			final String sTemp = this.rsRezultat.getString(getColumnIndex(sColumnName));
+			if (sTemp == null || this.rsRezultat.wasNull())
+				return sDefault;
+			
+			return this.trimStrings ? sTemp.trim() : sTemp;
 		} catch (final Throwable e) {
 			return sDefault;
 		}
@@ -1418,7 +3158,7 @@ public class DBFunctions implements Closeable {
 	 * @see #gets(int)
 	 */
 	public final String gets(final int iColumn, final String sDefault) {
-		if ((this.dbc == null) || this.rsRezultat == null)
+		if (this.rsRezultat == null)
 			return sDefault;
 		try {
 			final String sTemp = this.rsRezultat.getString(iColumn);
@@ -1458,11 +3198,11 @@ public class DBFunctions implements Closeable {
 	 * @see #getDate(int, Date)
 	 */
 	public final Date getDate(final String sColumnName, final Date dDefault) {
-		if ((this.dbc == null) || this.rsRezultat == null)
+		if (this.rsRezultat == null)
 			return dDefault;
 
 		try {
-			final Date d = this.rsRezultat.getTimestamp(sColumnName);
+			final Date d = this.rsRezultat.getTimestamp(getColumnIndex(sColumnName));
 
 			if (d != null)
 				return d;
@@ -1471,7 +3211,7 @@ public class DBFunctions implements Closeable {
 		}
 
 		try {
-			final Date d = Format.parseDate(this.rsRezultat.getString(sColumnName).trim());
+			final Date d = Format.parseDate(this.rsRezultat.getString(getColumnIndex(sColumnName)).trim());
 
 			if (d != null)
 				return d;
@@ -1514,7 +3254,7 @@ public class DBFunctions implements Closeable {
 	 * @see #getDate(int)
 	 */
 	public final Date getDate(final int iColumn, final Date dDefault) {
-		if ((this.dbc == null) || this.rsRezultat == null)
+		if (this.rsRezultat == null)
 			return dDefault;
 
 		try {
@@ -1563,10 +3303,10 @@ public class DBFunctions implements Closeable {
 	 * @see #geti(int, int)
 	 */
 	public final int geti(final String sColumnName, final int iDefault) {
-		if ((this.dbc == null) || this.rsRezultat == null)
+		if (this.rsRezultat == null)
 			return iDefault;
 		try {
-			final int iTemp = this.rsRezultat.getInt(sColumnName);
+			final int iTemp = this.rsRezultat.getInt(getColumnIndex(sColumnName));
 			return this.rsRezultat.wasNull() ? iDefault : iTemp;
 		} catch (final Exception e) {
 			return iDefault;
@@ -1601,7 +3341,7 @@ public class DBFunctions implements Closeable {
 	 * @see #geti(String)
 	 */
 	public final int geti(final int iColumn, final int iDefault) {
-		if ((this.dbc == null) || this.rsRezultat == null)
+		if (this.rsRezultat == null)
 			return iDefault;
 		try {
 			final int iTemp = this.rsRezultat.getInt(iColumn);
@@ -1642,10 +3382,10 @@ public class DBFunctions implements Closeable {
 	 * @see #getl(int, long)
 	 */
 	public final long getl(final String sColumnName, final long lDefault) {
-		if ((this.dbc == null) || this.rsRezultat == null)
+		if (this.rsRezultat == null)
 			return lDefault;
 		try {
-			final long lTemp = this.rsRezultat.getLong(sColumnName);
+			final long lTemp = this.rsRezultat.getLong(getColumnIndex(sColumnName));
 			return this.rsRezultat.wasNull() ? lDefault : lTemp;
 		} catch (final Throwable e) {
 			return lDefault;
@@ -1681,7 +3421,7 @@ public class DBFunctions implements Closeable {
 	 * @see #getl(String)
 	 */
 	public final long getl(final int iColCount, final long lDefault) {
-		if ((this.dbc == null) || this.rsRezultat == null)
+		if (this.rsRezultat == null)
 			return lDefault;
 		try {
 			final long lTemp = this.rsRezultat.getLong(iColCount);
@@ -1714,10 +3454,10 @@ public class DBFunctions implements Closeable {
 	 * @return the float value of this column
 	 */
 	public final float getf(final String sColumnName, final float fDefault) {
-		if ((this.dbc == null) || this.rsRezultat == null)
+		if (this.rsRezultat == null)
 			return fDefault;
 		try {
-			final float fTemp = this.rsRezultat.getFloat(sColumnName);
+			final float fTemp = this.rsRezultat.getFloat(getColumnIndex(sColumnName));
 			return this.rsRezultat.wasNull() ? fDefault : fTemp;
 		} catch (final Exception e) {
 			return fDefault;
@@ -1748,7 +3488,7 @@ public class DBFunctions implements Closeable {
 	 * @return the float value of this column
 	 */
 	public final float getf(final int iColumn, final float fDefault) {
-		if ((this.dbc == null) || this.rsRezultat == null)
+		if (this.rsRezultat == null)
 			return fDefault;
 		try {
 			final float fTemp = this.rsRezultat.getFloat(iColumn);
@@ -1781,10 +3521,10 @@ public class DBFunctions implements Closeable {
 	 * @return the double value of this column
 	 */
 	public final double getd(final String sColumnName, final double dDefault) {
-		if ((this.dbc == null) || this.rsRezultat == null)
+		if (this.rsRezultat == null)
 			return dDefault;
 		try {
-			final double dTemp = this.rsRezultat.getDouble(sColumnName);
+			final double dTemp = this.rsRezultat.getDouble(getColumnIndex(sColumnName));
 			return this.rsRezultat.wasNull() ? dDefault : dTemp;
 		} catch (final Throwable e) {
 			return dDefault;
@@ -1814,7 +3554,7 @@ public class DBFunctions implements Closeable {
 	 * @return the double value of this column
 	 */
 	public final double getd(final int iColumn, final double dDefault) {
-		if ((this.dbc == null) || this.rsRezultat == null)
+		if (this.rsRezultat == null)
 			return dDefault;
 		try {
 			final double dTemp = this.rsRezultat.getDouble(iColumn);
@@ -1834,11 +3574,20 @@ public class DBFunctions implements Closeable {
 	 * @see #getb(int, boolean)
 	 */
 	public final boolean getb(final String sColumn, final boolean bDefault){
-		return Utils.stringToBool(gets(sColumn), bDefault);
+		if (this.rsRezultat == null)
+			return bDefault;
+		
+		try{
+			return getb(getColumnIndex(sColumn), bDefault);
+		}
+		catch (final Throwable t){
+			return bDefault;
+		}
 	}
 
 	/**
-	 * Get the boolean value of a column
+	 * Get the boolean value of a column. Boolean and integer (0/1) columns are read directly, anything else is converted
+	 * from its text representation.
 	 * 
 	 * @param iColumn column index
 	 * @param bDefault default value
@@ -1847,7 +3596,41 @@ public class DBFunctions implements Closeable {
 	 * @see #getb(String, boolean)
 	 */
 	public final boolean getb(final int iColumn, final boolean bDefault){
-		return Utils.stringToBool(gets(iColumn), bDefault);	}
+		if (this.rsRezultat == null)
+			return bDefault;
+		
+		try{
+			switch (getColumnType(iColumn)){
+				case Types.BOOLEAN:
+				case Types.BIT:
+					final boolean b = this.rsRezultat.getBoolean(iColumn);
+					
+					return this.rsRezultat.wasNull() ? bDefault : b;
+				case Types.TINYINT:
+				case Types.SMALLINT:
+				case Types.INTEGER:
+				case Types.BIGINT:
+					final long l = this.rsRezultat.getLong(iColumn);
+					
+					if (this.rsRezultat.wasNull())
+						return bDefault;
+					
+					if (l == 0 || l == 1)
+						return l == 1;
+					
+					break;
+				default:
+					// parse the text representation below
+			}
+		}
+		catch (final Throwable t){
+			// fall back to the text representation
+		}
+		
+		final String s = gets(iColumn, null);
+		
+		return Utils.stringToBool(s != null ? s.trim() : null, bDefault);
+	}
 	
 	/**
 	 * Get the raw bytes of this column
@@ -1856,7 +3639,7 @@ public class DBFunctions implements Closeable {
 	 * @return the bytes of this column
 	 */
 	public final byte[] getBytes(final int iColumn){
-		if ((this.dbc == null) || this.rsRezultat == null)
+		if (this.rsRezultat == null)
 			return null;
 		
 		try{
@@ -1876,11 +3659,11 @@ public class DBFunctions implements Closeable {
 	 * @return the bytes of this column
 	 */
 	public final byte[] getBytes(final String columnName){
-		if ((this.dbc == null) || this.rsRezultat == null)
+		if (this.rsRezultat == null)
 			return null;
 		
 		try{
-			return this.rsRezultat.getBytes(columnName);
+			return this.rsRezultat.getBytes(getColumnIndex(columnName));
 		}
 		catch (final Throwable e){
 			// ignore
@@ -1897,7 +3680,7 @@ public class DBFunctions implements Closeable {
 	 * @since 1.0.3
 	 */
 	public final List<String> getStringArray(final String sColumn){
-		return decode(gets(sColumn));
+		return getStringArray(getColumnIndexSafe(sColumn));
 	}
 	
 	/**
@@ -1908,6 +3691,7 @@ public class DBFunctions implements Closeable {
 	 * @since 1.0.3
 	 */
 	public final List<String> getStringArray(final int iColumn){
+		// the text form is kept on purpose, the driver's objects don't print like PostgreSQL does (booleans, timestamps)
 		return decode(gets(iColumn));
 	}
 	
@@ -1919,7 +3703,7 @@ public class DBFunctions implements Closeable {
 	 * @since 1.0.3
 	 */
 	public final List<Integer> getIntArray(final String sColumn){
-		return decodeToInt(gets(sColumn));
+		return getIntArray(getColumnIndexSafe(sColumn));
 	}
 	
 	/**
@@ -1930,67 +3714,193 @@ public class DBFunctions implements Closeable {
 	 * @since 1.0.3
 	 */
 	public final List<Integer> getIntArray(final int iColumn){
-		return decodeToInt(gets(iColumn));
-	}	
+		final int[] values = getInts(iColumn);
+		
+		final List<Integer> ret = new ArrayList<>(values.length);
+		
+		for (final int value: values)
+			ret.add(Integer.valueOf(value));
+		
+		return ret;
+	}
 	
 	/**
-	 * Convert each entry from an array to Integer.
+	 * Extract an integer array column into a primitive array, without boxing the values. NULL elements are skipped.
 	 * 
-	 * @param sValue
-	 * @return the members of the database array, as list of Integer objects
-	 * @since 1.0.3
+	 * @param sColumn column name
+	 * @return the values, never <code>null</code>
 	 */
-	public static List<Integer> decodeToInt(final String sValue){
-		final List<String> lValues = decode(sValue);
+	public final int[] getInts(final String sColumn){
+		return getInts(getColumnIndexSafe(sColumn));
+	}
+	
+	/**
+	 * Extract an integer array column into a primitive array, without boxing the values. NULL elements are skipped.
+	 * 
+	 * @param iColumn column index
+	 * @return the values, never <code>null</code>
+	 */
+	public final int[] getInts(final int iColumn){
+		final List<Object> values = getNativeArray(iColumn);
 		
-		final ArrayList<Integer> l = new ArrayList<>(lValues.size());
+		if (values == null)
+			return ArrayCodec.decodeToIntArray(gets(iColumn));
 		
-		for (final String s: lValues){
-			try{
-				l.add(Integer.valueOf(s));
-			}
-			catch (final NumberFormatException nfe){
-				// ignore
+		final int[] ret = new int[values.size()];
+		
+		int n = 0;
+		
+		for (final Object o: values){
+			if (o instanceof Number)
+				ret[n++] = ((Number) o).intValue();
+			else
+			if (o != null){
+				try{
+					ret[n++] = Integer.parseInt(o.toString().trim());
+				}
+				catch (final NumberFormatException nfe){
+					// ignore
+				}
 			}
 		}
 		
-		return l;
+		return n == ret.length ? ret : Arrays.copyOf(ret, n);
 	}
 	
 	/**
-	 * Given an array in PostgreSQL format, convert it to a Java array of Strings.
+	 * Extract a bigint array column into a primitive array, without boxing the values. NULL elements are skipped.
 	 * 
-	 * @param sValue
-	 * @return the members of the database array, as list of String objects
-	 * @since 1.0.3
+	 * @param sColumn column name
+	 * @return the values, never <code>null</code>
 	 */
-	public static List<String> decode(final String sValue){
-		if (sValue==null || sValue.length()<2 || sValue.charAt(0)!='{' || sValue.charAt(sValue.length()-1)!='}')
-			return Collections.emptyList();
+	public final long[] getLongs(final String sColumn){
+		return getLongs(getColumnIndexSafe(sColumn));
+	}
+	
+	/**
+	 * Extract a bigint array column into a primitive array, without boxing the values. NULL elements are skipped.
+	 * 
+	 * @param iColumn column index
+	 * @return the values, never <code>null</code>
+	 */
+	public final long[] getLongs(final int iColumn){
+		final List<Object> values = getNativeArray(iColumn);
+		
+		if (values == null)
+			return ArrayCodec.decodeToLongArray(gets(iColumn));
+		
+		final long[] ret = new long[values.size()];
+		
+		int n = 0;
+		
+		for (final Object o: values){
+			if (o instanceof Number)
+				ret[n++] = ((Number) o).longValue();
+			else
+			if (o != null){
+				try{
+					ret[n++] = Long.parseLong(o.toString().trim());
+				}
+				catch (final NumberFormatException nfe){
+					// ignore
+				}
+			}
+		}
 		
-		final StringTokenizer st = new StringTokenizer(sValue.substring(1, sValue.length()-1), ","); //$NON-NLS-1$
+		return n == ret.length ? ret : Arrays.copyOf(ret, n);
+	}
+	
+	/**
+	 * @param sColumn column name
+	 * @return column index, or -1 if the column doesn't exist
+	 */
+	private int getColumnIndexSafe(final String sColumn){
+		if (this.rsRezultat == null)
+			return -1;
 		
-		final ArrayList<String> l = new ArrayList<>(st.countTokens());
+		try{
+			return getColumnIndex(sColumn);
+		}
+		catch (final Throwable t){
+			return -1;
+		}
+	}
+	
+	/**
+	 * Read an ARRAY column through {@link ResultSet#getArray(int)}, if the driver supports it
+	 * 
+	 * @param iColumn column index
+	 * @return the elements of the array, flattened, or <code>null</code> if the column is not an array or the driver cannot provide it
+	 */
+	private List<Object> getNativeArray(final int iColumn){
+		if (this.rsRezultat == null || iColumn <= 0)
+			return null;
 		
-		while (st.hasMoreTokens()){
-			String s = st.nextToken();
+		try{
+			if (getColumnType(iColumn) != Types.ARRAY)
+				return null;
+			
+			final java.sql.Array array = this.rsRezultat.getArray(iColumn);
 			
-			if (s.charAt(0)=='"'){
-				while ((s.length()<2 || s.charAt(s.length()-1)!='"' || s.charAt(s.length()-2)=='\\') && st.hasMoreTokens()){
-					s += ',' + st.nextToken();
+			final List<Object> ret = new ArrayList<>();
+			
+			if (array != null){
+				try{
+					ArrayCodec.flatten(array.getArray(), ret);
+				}
+				finally{
+					try{
+						array.free();
+					}
+					catch (final Throwable t){
+						// ignore, not all drivers implement it
+					}
 				}
-				
-				s = s.substring(1, s.length()-1).replace("\\\"", "\"").replace("\\\\", "\\");   //$NON-NLS-1$//$NON-NLS-2$ //$NON-NLS-3$//$NON-NLS-4$
 			}
 			
-			l.add(s);
+			return ret;
+		}
+		catch (final Throwable t){
+			// buffered results and older drivers, fall back to parsing the text representation
+			return null;
 		}
+	}
+	
+	/**
+	 * Convert each entry from an array to Integer.
+	 * 
+	 * @param sValue
+	 * @return the members of the database array, as list of Integer objects
+	 * @since 1.0.3
+	 * @see ArrayCodec#decodeToIntArray(String)
+	 */
+	public static List<Integer> decodeToInt(final String sValue){
+		final int[] values = ArrayCodec.decodeToIntArray(sValue);
+		
+		final ArrayList<Integer> l = new ArrayList<>(values.length);
+		
+		for (final int value: values)
+			l.add(Integer.valueOf(value));
 		
 		return l;
 	}
 	
 	/**
-	 * Generate a PostgreSQL array representation of the given one-dimensional collection.
+	 * Given an array in PostgreSQL format, convert it to a Java array of Strings.
+	 * Quoted values, escapes, NULL elements and multi-dimensional arrays (flattened) are supported.
+	 * 
+	 * @param sValue
+	 * @return the members of the database array, as list of String objects
+	 * @since 1.0.3
+	 * @see ArrayCodec#decode(String)
+	 */
+	public static List<String> decode(final String sValue){
+		return ArrayCodec.decode(sValue);
+	}
+	
+	/**
+	 * Generate a PostgreSQL array representation of the given one-dimensional collection, as a quoted SQL literal
+	 * to be inlined in a query. To pass the array as a parameter use {@link ArrayCodec#encode(Collection)}.
 	 * For details consult the <a href="http://www.postgresql.org/docs/8.2/static/arrays.html">documentation</a>.
 	 * 
 	 * @param array
@@ -1998,20 +3908,46 @@ public class DBFunctions implements Closeable {
 	 * @since 1.0.3
 	 */
 	public static String encodeArray(final Collection<?> array){
-		final StringBuilder sb = new StringBuilder();
+		final StringBuilder sb = new StringBuilder(array.size() * 8 + 4);
+		
+		sb.append("'{"); //$NON-NLS-1$
+		
+		boolean bFirst = true;
 		
 		for (final Object o: array){
-			String s = o.toString();
-			s = Format.replace(s, "\"", "\\\"");  //$NON-NLS-1$//$NON-NLS-2$
-			s = Format.escJS(s);
-			
-			if (sb.length()>0)
+			if (!bFirst)
 				sb.append(',');
 			
-			sb.append('"').append(s).append('"');
+			bFirst = false;
+			
+			if (o == null){
+				sb.append("NULL"); //$NON-NLS-1$
+				continue;
+			}
+			
+			final String s = o.toString();
+			
+			sb.append('"');
+			
+			for (int i=0; i<s.length(); i++){
+				final char c = s.charAt(i);
+				
+				// array element escaping and then string literal escaping, both with backslashes
+				switch (c){
+					case '"': sb.append("\\\\\\\""); break; //$NON-NLS-1$
+					case '\\': sb.append("\\\\\\\\"); break; //$NON-NLS-1$
+					case '\'': sb.append("\\'"); break; //$NON-NLS-1$
+					case '\n': sb.append("\\n"); break; //$NON-NLS-1$
+					case '\r': sb.append("\\r"); break; //$NON-NLS-1$
+					case (char) 0: sb.append("\\0"); break; //$NON-NLS-1$
+					default: sb.append(c);
+				}
+			}
+			
+			sb.append('"');
 		}
 		
-		return "'{"+sb.toString()+"}'"; //$NON-NLS-1$ //$NON-NLS-2$
+		return sb.append("}'").toString(); //$NON-NLS-1$
 	}
 
 	/**
@@ -2021,7 +3957,7 @@ public class DBFunctions implements Closeable {
 	 * @return the meta information for the current query.
 	 */
 	public final ResultSetMetaData getMetaData() {
-		if ((this.dbc == null) || this.rsRezultat == null)
+		if (this.rsRezultat == null)
 			return null;
 
 		try {
@@ -2092,37 +4028,111 @@ public class DBFunctions implements Closeable {
 	 * @return number of executed queries.
 	 */
 	public static final long getQueryCount() {
-		return lQueryCount;
+		return lQueryCount.get();
+	}
+
+	/**
+	 * Statistics : get the number of connections currently established
+	 * 
+	 * @return the number of active connections
+	 */
+	public static final long getActiveConnectionsCount() {
+		long lCount = 0;
+
+		for (final DBConnectionPool connPool : DBConnectionPool.getPools().values())
+			lCount += connPool.getSize();
+
+		return lCount;
+	}
+
+	/**
+	 * Statistics : get the number of connections per each unique key
+	 * 
+	 * @return a map of key - number of active connections
+	 * @see DBConnectionPool#getPools()
+	 */
+	public static final HashMap<String, Integer> getActiveConnections() {
+		final HashMap<String, Integer> hm = new HashMap<>();
+
+		for (final Map.Entry<String, DBConnectionPool> me : DBConnectionPool.getPools().entrySet())
+			hm.put(me.getKey(), Integer.valueOf(me.getValue().getSize()));
+
+		return hm;
+	}
+	
+	/**
+	 * Statistics : get the number of threads waiting for a free connection, per each unique key
+	 * 
+	 * @return a map of key - number of waiting threads
+	 * @see DBConnectionPool#getWaiters()
+	 */
+	public static final HashMap<String, Integer> getWaitingThreads() {
+		final HashMap<String, Integer> hm = new HashMap<>();
+
+		for (final Map.Entry<String, DBConnectionPool> me : DBConnectionPool.getPools().entrySet())
+			hm.put(me.getKey(), Integer.valueOf(me.getValue().getWaiters()));
+
+		return hm;
+	}
+	
+	/**
+	 * Statistics : get the distribution of the time spent waiting for a free connection, per each unique key.
+	 * Average and percentiles (p99 for example) can be extracted from the returned histograms.
+	 * 
+	 * @return a map of key - wait time histogram
+	 * @see DBConnectionPool#getWaitTime()
+	 */
+	public static final HashMap<String, LatencyHistogram> getConnectionWaitTimes() {
+		final HashMap<String, LatencyHistogram> hm = new HashMap<>();
+
+		for (final Map.Entry<String, DBConnectionPool> me : DBConnectionPool.getPools().entrySet())
+			hm.put(me.getKey(), me.getValue().getWaitTime());
+
+		return hm;
 	}
+	
+	/**
+	 * Statistics : get the number of times the threads gave up waiting for a free connection, per each unique key
+	 * 
+	 * @return a map of key - number of timeouts
+	 * @see DBConnectionPool#getTimeouts()
+	 */
+	public static final HashMap<String, Long> getConnectionTimeouts() {
+		final HashMap<String, Long> hm = new HashMap<>();
+
+		for (final Map.Entry<String, DBConnectionPool> me : DBConnectionPool.getPools().entrySet())
+			hm.put(me.getKey(), Long.valueOf(me.getValue().getTimeouts()));
 
+		return hm;
+	}
+	
 	/**
-	 * Statistics : get the number of connections currently established
+	 * Statistics : get what the background maintenance did to the connections of each unique key (evictions by reason,
+	 * pre-warmed connections)
 	 * 
-	 * @return the number of active connections
+	 * @return a map of key - (reason - number of connections)
+	 * @see DBConnectionPool#getMaintenanceCounters()
 	 */
-	public static final long getActiveConnectionsCount() {
-		long lCount = 0;
+	public static final HashMap<String, Map<String, Long>> getConnectionMaintenanceCounters() {
+		final HashMap<String, Map<String, Long>> hm = new HashMap<>();
 
-		synchronized (hmConn) {
-			for (final LinkedList<DBConnection> ll : hmConn.values())
-				lCount += ll.size();
-		}
+		for (final Map.Entry<String, DBConnectionPool> me : DBConnectionPool.getPools().entrySet())
+			hm.put(me.getKey(), me.getValue().getMaintenanceCounters());
 
-		return lCount;
+		return hm;
 	}
-
+	
 	/**
-	 * Statistics : get the number of connections per each unique key
+	 * Statistics : get the prepared statement cache counters (<i>hits</i>, <i>misses</i>, <i>evictions</i>) for each unique key
 	 * 
-	 * @return a map of key - number of active connections
+	 * @return a map of key - (counter - value)
+	 * @see DBConnectionPool#getStatementCacheCounters()
 	 */
-	public static final HashMap<String, Integer> getActiveConnections() {
-		final HashMap<String, Integer> hm = new HashMap<>();
+	public static final HashMap<String, Map<String, Long>> getStatementCacheCounters() {
+		final HashMap<String, Map<String, Long>> hm = new HashMap<>();
 
-		synchronized (hmConn) {
-			for (final Entry<String, LinkedList<DBConnection>> me : hmConn.entrySet())
-				hm.put(me.getKey(), Integer.valueOf(me.getValue().size()));
-		}
+		for (final Map.Entry<String, DBConnectionPool> me : DBConnectionPool.getPools().entrySet())
+			hm.put(me.getKey(), me.getValue().getStatementCacheCounters());
 
 		return hm;
 	}
@@ -2134,7 +4144,7 @@ public class DBFunctions implements Closeable {
 	 * @return the INSERT statement, or <code>null</code> if any problem
 	 */
 	public final String getEquivalentInsert(final String sTable){
-		if ((this.dbc == null) || this.rsRezultat == null)
+		if (this.rsRezultat == null)
 			return null;
 		
 		return getEquivalentInsert(sTable, getColumnNames());
@@ -2295,9 +4305,65 @@ public class DBFunctions implements Closeable {
 	}
 	
 	/**
-	 * SQL date format
+	 * Calendar used to format dates for SQL statements, one per thread
+	 */
+	private static final ThreadLocal<Calendar> SQL_CALENDAR = new ThreadLocal<Calendar>(){
+		@Override
+		protected Calendar initialValue() {
+			return Calendar.getInstance();
+		}
+	};
+	
+	/**
+	 * Format a date as <i>yyyy-MM-dd HH:mm:ss.SSS</i>, in the local time zone
+	 * 
+	 * @param d date to format
+	 * @return the formatted date
+	 */
+	static String formatSQLDate(final Date d){
+		final Calendar cal = SQL_CALENDAR.get();
+		
+		cal.setTime(d);
+		
+		final int year = cal.get(Calendar.YEAR);
+		
+		final StringBuilder sb = new StringBuilder(23);
+		
+		if (year < 1000 || year > 9999)
+			sb.append(year);
+		else
+			appendPadded(sb, year, 4);
+		
+		sb.append('-');
+		appendPadded(sb, cal.get(Calendar.MONTH) + 1, 2);
+		sb.append('-');
+		appendPadded(sb, cal.get(Calendar.DAY_OF_MONTH), 2);
+		sb.append(' ');
+		appendPadded(sb, cal.get(Calendar.HOUR_OF_DAY), 2);
+		sb.append(':');
+		appendPadded(sb, cal.get(Calendar.MINUTE), 2);
+		sb.append(':');
+		appendPadded(sb, cal.get(Calendar.SECOND), 2);
+		sb.append('.');
+		appendPadded(sb, cal.get(Calendar.MILLISECOND), 3);
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * Append a positive number, left-padded with zeros
+	 * 
+	 * @param sb where to append
+	 * @param value value
+	 * @param digits minimum number of digits
 	 */
-	private static final DateFormat SQL_DATE = new SimpleDateFormat("yyyy-MM-DD HH:mm:ss.SSS"); //$NON-NLS-1$
+	private static void appendPadded(final StringBuilder sb, final int value, final int digits){
+		for (int limit = 10, i = 1; i < digits; i++, limit *= 10)
+			if (value < limit)
+				sb.append('0');
+		
+		sb.append(value);
+	}
 	
 	/**
 	 * Get the value formatted for SQL statements
@@ -2312,7 +4378,7 @@ public class DBFunctions implements Closeable {
 		}
 	
 		if (o instanceof String || o instanceof StringBuilder || o instanceof StringBuffer){
-			return "'"+Format.escSQL((String) o)+"'";
+			return "'"+Format.escSQL(o.toString())+"'";
 		}
 		
 		if (o instanceof Number){
@@ -2320,9 +4386,7 @@ public class DBFunctions implements Closeable {
 		}
 		
 		if (o instanceof Date){
-			synchronized (SQL_DATE){
-				return "'"+Format.escSQL(SQL_DATE.format((Date) o))+"'";
-			}
+			return "'"+formatSQLDate((Date) o)+"'";
 		}
 		
 		return "'"+Format.escSQL(o.toString())+"'";
@@ -2426,4 +4490,455 @@ public class DBFunctions implements Closeable {
 		
 		return sb.toString();
 	}
+	
+	/**
+	 * A SQL statement with '?' placeholders and the values to bind to them, see {@link DBFunctions#composeBulkInsert(String, List)}
+	 */
+	public static final class BoundQuery {
+		/**
+		 * SQL statement
+		 */
+		private final String sql;
+		
+		/**
+		 * Values of the placeholders
+		 */
+		private final Object[] values;
+		
+		/**
+		 * @param sql SQL statement
+		 * @param values values of the placeholders
+		 */
+		BoundQuery(final String sql, final Object[] values){
+			this.sql = sql;
+			this.values = values;
+		}
+		
+		/**
+		 * @return the SQL statement
+		 */
+		public String getSQL(){
+			return this.sql;
+		}
+		
+		/**
+		 * @return the values to bind, in order
+		 */
+		public Object[] getValues(){
+			return this.values;
+		}
+		
+		@Override
+		public String toString(){
+			return this.sql + " " + Arrays.toString(this.values); //$NON-NLS-1$
+		}
+	}
+	
+	/**
+	 * Limit of the number of placeholders in a statement. The wire protocols of PostgreSQL and MySQL allow 65535, but older
+	 * PostgreSQL drivers (before 42.4) and several others stop at 32767.
+	 */
+	private static final int MAX_BIND_PARAMETERS = 32767;
+	
+	/**
+	 * Maximum size of a bulk statement
+	 */
+	private int bulkStatementSize = 1024 * 1024;
+	
+	/**
+	 * Set the maximum size of the statements generated by {@link #composeBulkInsert(String, List)} and
+	 * {@link #composeBulkUpsert(String, List, Collection)}. The size is the length of the SQL text plus an estimation of the
+	 * size of the bound values, and should be well under the server packet limit (<i>max_allowed_packet</i> for MySQL).
+	 * 
+	 * @param size new maximum size, in bytes, default 1MB
+	 * @return previous value
+	 */
+	public int setBulkStatementSize(final int size){
+		final int previousValue = this.bulkStatementSize;
+		
+		this.bulkStatementSize = Math.max(size, 1);
+		
+		return previousValue;
+	}
+	
+	/**
+	 * @return maximum size of a bulk statement
+	 * @see #setBulkStatementSize(int)
+	 */
+	public int getBulkStatementSize(){
+		return this.bulkStatementSize;
+	}
+	
+	/**
+	 * Compose multi-row INSERT statements for these rows, as few as {@link #getBulkStatementSize()} allows. Consecutive rows
+	 * with the same set of columns go in the same statement. The values are not inlined, they are returned to be bound to the
+	 * placeholders.<br>
+	 * <br>
+	 * Multi-row statements are generated for PostgreSQL and MySQL, for other databases there is one statement for each row.
+	 * 
+	 * @param tableName table name
+	 * @param rows column - value mappings
+	 * @return the statements, or <code>null</code> if there was any problem
+	 * @see #bulkInsert(String, List)
+	 */
+	public final List<BoundQuery> composeBulkInsert(final String tableName, final List<? extends Map<String, ?>> rows){
+		return composeBulk(tableName, rows, null, false);
+	}
+	
+	/**
+	 * Compose multi-row INSERT statements that update the existing rows instead of failing on duplicate keys: <i>ON CONFLICT ... DO UPDATE</i>
+	 * for PostgreSQL, <i>ON DUPLICATE KEY UPDATE</i> for MySQL. All the columns that are not part of the key are updated with the new values.
+	 * For PostgreSQL the rows with the same key are collapsed, the last one wins.
+	 * 
+	 * @param tableName table name
+	 * @param rows column - value mappings
+	 * @param keys columns of the primary or unique key that identifies the rows. Mandatory for PostgreSQL.
+	 * @return the statements, or <code>null</code> if there was any problem or the database is neither PostgreSQL nor MySQL
+	 * @see #bulkUpsert(String, List, Collection)
+	 */
+	public final List<BoundQuery> composeBulkUpsert(final String tableName, final List<? extends Map<String, ?>> rows, final Collection<String> keys){
+		return composeBulk(tableName, rows, keys, true);
+	}
+	
+	/**
+	 * Insert many rows with as few statements as possible
+	 * 
+	 * @param tableName table name
+	 * @param rows column - value mappings
+	 * @return <code>true</code> if all the rows were inserted. {@link #getUpdateCount()} returns the total number of inserted rows.
+	 * @see #composeBulkInsert(String, List)
+	 */
+	public final boolean bulkInsert(final String tableName, final List<? extends Map<String, ?>> rows){
+		return executeAll(composeBulkInsert(tableName, rows));
+	}
+	
+	/**
+	 * Insert or update many rows with as few statements as possible. For databases other than PostgreSQL and MySQL each row
+	 * is first UPDATEd, and INSERTed if it didn't exist.
+	 * 
+	 * @param tableName table name
+	 * @param rows column - value mappings
+	 * @param keys columns of the primary or unique key that identifies the rows
+	 * @return <code>true</code> if all the rows were written. {@link #getUpdateCount()} returns the total number of changed rows.
+	 * @see #composeBulkUpsert(String, List, Collection)
+	 */
+	public final boolean bulkUpsert(final String tableName, final List<? extends Map<String, ?>> rows, final Collection<String> keys){
+		if (isPostgreSQL() || isMySQL())
+			return executeAll(composeBulkUpsert(tableName, rows, keys));
+		
+		if (tableName == null || rows == null || keys == null || keys.isEmpty())
+			return false;
+		
+		int total = 0;
+		
+		for (final Map<String, ?> row: rows){
+			final List<String> columns = getColumns(row);
+			
+			final StringBuilder sb = new StringBuilder("UPDATE ").append(tableName).append(" SET "); //$NON-NLS-1$ //$NON-NLS-2$
+			final StringBuilder sbWhere = new StringBuilder();
+			
+			final List<Object> setValues = new ArrayList<>();
+			final List<Object> whereValues = new ArrayList<>();
+			
+			for (final String column: columns){
+				final Object value = getBindValue(row.get(column));
+				
+				if (keys.contains(column)){
+					sbWhere.append(sbWhere.length() == 0 ? " WHERE " : " AND ").append(Format.escSQL(column)).append("=?"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+					whereValues.add(value);
+				}
+				else{
+					if (setValues.size() > 0)
+						sb.append(',');
+					
+					sb.append(Format.escSQL(column)).append("=?"); //$NON-NLS-1$
+					setValues.add(value);
+				}
+			}
+			
+			int changed = 0;
+			
+			if (setValues.size() > 0 && whereValues.size() > 0){
+				setValues.addAll(whereValues);
+				
+				if (!query(sb.append(sbWhere).toString(), false, setValues.toArray()))
+					return false;
+				
+				changed = getUpdateCount();
+			}
+			
+			if (changed <= 0){
+				final List<BoundQuery> insert = composeBulk(tableName, Collections.singletonList(row), null, false);
+				
+				if (!executeAll(insert))
+					return false;
+				
+				changed = getUpdateCount();
+			}
+			
+			total += changed;
+		}
+		
+		this.iUpdateCount = total;
+		
+		return true;
+	}
+	
+	/**
+	 * Execute the given statements, stopping at the first error
+	 * 
+	 * @param queries statements to execute
+	 * @return <code>true</code> if all were executed
+	 */
+	private boolean executeAll(final List<BoundQuery> queries){
+		if (queries == null)
+			return false;
+		
+		int total = 0;
+		
+		for (final BoundQuery q: queries){
+			if (!query(q.getSQL(), false, q.getValues()))
+				return false;
+			
+			total += Math.max(getUpdateCount(), 0);
+		}
+		
+		this.iUpdateCount = total;
+		
+		return true;
+	}
+	
+	/**
+	 * @param row column - value mapping
+	 * @return the valid column names of this row
+	 */
+	private static List<String> getColumns(final Map<String, ?> row){
+		final List<String> columns = new ArrayList<>(row.size());
+		
+		for (final String column: row.keySet())
+			if (column != null && column.length() > 0)
+				columns.add(column);
+		
+		return columns;
+	}
+	
+	/**
+	 * @param o value
+	 * @return the value to pass to {@link PreparedStatement#setObject(int, Object)}
+	 */
+	private static Object getBindValue(final Object o){
+		if (o instanceof StringBuilder || o instanceof StringBuffer)
+			return o.toString();
+		
+		if (o instanceof Date && !(o instanceof java.sql.Date) && !(o instanceof java.sql.Time) && !(o instanceof java.sql.Timestamp))
+			return new java.sql.Timestamp(((Date) o).getTime());
+		
+		return o;
+	}
+	
+	/**
+	 * @param o value
+	 * @return estimated size of this value on the wire
+	 */
+	private static int getBindSize(final Object o){
+		if (o instanceof CharSequence)
+			return ((CharSequence) o).length() * 2 + 4;
+		
+		if (o instanceof byte[])
+			return ((byte[]) o).length + 4;
+		
+		return 12;
+	}
+	
+	/**
+	 * Implementation of the bulk composers
+	 * 
+	 * @param tableName table name
+	 * @param rows column - value mappings
+	 * @param keys key columns, for upserts
+	 * @param upsert whether to generate upserts or simple inserts
+	 * @return the statements
+	 */
+	@SuppressWarnings("nls")
+	private List<BoundQuery> composeBulk(final String tableName, final List<? extends Map<String, ?>> rows, final Collection<String> keys, final boolean upsert){
+		if (tableName == null || rows == null)
+			return null;
+		
+		final boolean postgres = isPostgreSQL();
+		final boolean mysql = !postgres && isMySQL();
+		
+		if (upsert && (!(postgres || mysql) || (postgres && (keys == null || keys.isEmpty()))))
+			return null;
+		
+		final List<BoundQuery> ret = new ArrayList<>();
+		
+		int start = 0;
+		
+		while (start < rows.size()){
+			// the group of consecutive rows with the same columns
+			final List<String> columns = getColumns(rows.get(start));
+			
+			int end = start + 1;
+			
+			while (end < rows.size()){
+				final Map<String, ?> row = rows.get(end);
+				
+				if (row.size() != rows.get(start).size() || !row.keySet().containsAll(columns))
+					break;
+				
+				end++;
+			}
+			
+			if (columns.size() > 0){
+				List<? extends Map<String, ?>> group = rows.subList(start, end);
+				
+				if (upsert && postgres)
+					group = dedupe(group, keys);
+				
+				composeGroup(ret, tableName, columns, group, keys, upsert ? (postgres ? 1 : 2) : 0, postgres || mysql);
+			}
+			
+			start = end;
+		}
+		
+		return ret;
+	}
+	
+	/**
+	 * Collapse the rows with the same key, the last one winning but keeping the position of the first one
+	 * 
+	 * @param rows rows to process
+	 * @param keys key columns
+	 * @return unique rows
+	 */
+	private static List<Map<String, ?>> dedupe(final List<? extends Map<String, ?>> rows, final Collection<String> keys){
+		final Map<List<Object>, Map<String, ?>> unique = new LinkedHashMap<>(rows.size());
+		
+		for (final Map<String, ?> row: rows){
+			final List<Object> key = new ArrayList<>(keys.size());
+			
+			for (final String column: keys)
+				key.add(row.get(column));
+			
+			unique.put(key, row);
+		}
+		
+		return new ArrayList<>(unique.values());
+	}
+	
+	/**
+	 * Compose the statements for a group of rows with the same columns
+	 * 
+	 * @param ret where to add the statements
+	 * @param tableName table name
+	 * @param columns columns of these rows
+	 * @param rows the rows
+	 * @param keys key columns, for upserts
+	 * @param conflict 0 = plain insert, 1 = PostgreSQL upsert, 2 = MySQL upsert
+	 * @param multiRow whether or not more rows can be inserted with the same statement
+	 */
+	@SuppressWarnings("nls")
+	private void composeGroup(final List<BoundQuery> ret, final String tableName, final List<String> columns, final List<? extends Map<String, ?>> rows, final Collection<String> keys, final int conflict, final boolean multiRow){
+		final StringBuilder header = new StringBuilder("INSERT INTO ").append(tableName).append(" (");
+		final StringBuilder rowTemplate = new StringBuilder("(");
+		
+		for (int i=0; i<columns.size(); i++){
+			if (i > 0){
+				header.append(',');
+				rowTemplate.append(',');
+			}
+			
+			header.append(Format.escSQL(columns.get(i)));
+			rowTemplate.append('?');
+		}
+		
+		header.append(") VALUES ");
+		rowTemplate.append(')');
+		
+		final StringBuilder suffix = new StringBuilder();
+		
+		if (conflict == 1){
+			suffix.append(" ON CONFLICT (");
+			
+			boolean bFirst = true;
+			
+			for (final String key: keys){
+				if (!bFirst)
+					suffix.append(',');
+				
+				suffix.append(Format.escSQL(key));
+				bFirst = false;
+			}
+			
+			suffix.append(')');
+			
+			bFirst = true;
+			
+			for (final String column: columns){
+				if (keys.contains(column))
+					continue;
+				
+				suffix.append(bFirst ? " DO UPDATE SET " : ",").append(Format.escSQL(column)).append("=EXCLUDED.").append(Format.escSQL(column));
+				bFirst = false;
+			}
+			
+			if (bFirst)
+				suffix.append(" DO NOTHING");
+		}
+		else
+		if (conflict == 2){
+			boolean bFirst = true;
+			
+			for (final String column: columns){
+				if (keys != null && keys.contains(column))
+					continue;
+				
+				suffix.append(bFirst ? " ON DUPLICATE KEY UPDATE " : ",").append(Format.escSQL(column)).append("=VALUES(").append(Format.escSQL(column)).append(')');
+				bFirst = false;
+			}
+			
+			if (bFirst)
+				suffix.append(" ON DUPLICATE KEY UPDATE ").append(Format.escSQL(columns.get(0))).append('=').append(Format.escSQL(columns.get(0)));
+		}
+		
+		final int maxRows = multiRow ? Math.max(MAX_BIND_PARAMETERS / columns.size(), 1) : 1;
+		
+		final int fixedSize = header.length() + suffix.length();
+		
+		final StringBuilder sb = new StringBuilder(header);
+		final List<Object> values = new ArrayList<>();
+		
+		int rowsInStatement = 0;
+		long size = fixedSize;
+		
+		for (final Map<String, ?> row: rows){
+			long rowSize = rowTemplate.length() + 1;
+			
+			for (final String column: columns)
+				rowSize += getBindSize(row.get(column));
+			
+			if (rowsInStatement > 0 && (rowsInStatement >= maxRows || size + rowSize > this.bulkStatementSize)){
+				ret.add(new BoundQuery(sb.append(suffix).toString(), values.toArray()));
+				
+				sb.setLength(header.length());
+				values.clear();
+				rowsInStatement = 0;
+				size = fixedSize;
+			}
+			
+			if (rowsInStatement > 0)
+				sb.append(',');
+			
+			sb.append(rowTemplate);
+			
+			for (final String column: columns)
+				values.add(getBindValue(row.get(column)));
+			
+			rowsInStatement++;
+			size += rowSize;
+		}
+		
+		if (rowsInStatement > 0)
+			ret.add(new BoundQuery(sb.append(suffix).toString(), values.toArray()));
+	}
 }
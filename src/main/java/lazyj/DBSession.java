@@ -1,28 +1,26 @@
 package lazyj;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.io.ObjectStreamClass;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.DelayQueue;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
- * Web session wrapper, with a database backend.<br>
+ * Web session wrapper, with a persistent backend.<br>
  * <br>
  * This class will take the database settings from the file "dbsessions.properties" that is found in the
  * folder specified by the system property "lazyj.config.folder". So make sure you have given the parameter
@@ -31,11 +29,18 @@ import java.util.concurrent.TimeUnit;
  * from this framework.<br>
  * <br>
  * Configuration parameters:<br><ul>
- * <li>database.enabled=boolean (default false). If true you also have to include here the options, in {@link DBFunctions} format.</li>
- * <li>flush.memory=int (default 5). Time in minutes after which an idle session is flushed to DB, if DB backing is enabled.</li>
- * <li>flush.memory.nodb=int (default 30). Time in minues after which an idle session is completely removed from memory, if DB backing is disabled.</li>
- * <li>flush.db=int (default 120). Time in minutes after which an idle session is completely removed from DB.</li>
+ * <li>session.store=sql|file|memory|class name (default sql). Where the sessions are persisted, see {@link SessionStore}.</li>
+ * <li>database.enabled=boolean (default false). If true you also have to include here the options, in {@link DBFunctions} format. Only used by the <i>sql</i> store.</li>
+ * <li>flush.memory=int (default 5). Time in minutes after which an idle session is flushed to the store, if there is one.</li>
+ * <li>flush.memory.nodb=int (default 30). Time in minues after which an idle session is completely removed from memory, if there is no persistent store.</li>
+ * <li>flush.db=int (default 120). Time in minutes after which an idle session is completely removed from the store.</li>
+ * <li>session.codec=binary|serialization|class name (default binary). Format of the stored sessions, see {@link SessionCodec}.</li>
+ * <li>session.compress=boolean (default true). Whether the binary codec compresses large sessions.</li>
+ * <li>session.compress.min=int (default 1024). Size in bytes above which the sessions are compressed.</li>
+ * <li>session.compress.level=int (default 1). Deflate level, 1 (fastest) to 9 (smallest).</li>
  * </ul>
+ * Modified sessions are written to the database in the background, see {@link SessionWriter} for the related settings.
+ * The memory budget of the active sessions is configured as described in {@link SessionCache}.
  *  
  * @author costing
  * @since 2006-10-13
@@ -54,7 +59,7 @@ public final class DBSession implements Serializable, Delayed {
 	/**
 	 * Cache active sessions.
 	 */
-	static final ConcurrentHashMap<String, DBSession>	mSessions		= new ConcurrentHashMap<>();
+	static final SessionCache	mSessions		= new SessionCache();
 	
 	/**
 	 * Database properties.
@@ -71,11 +76,6 @@ public final class DBSession implements Serializable, Delayed {
 	 */
 	private static final SessionsCleaner cleanerThread = new SessionsCleaner();
 	
-	/**
-	 * Whether or not the sessions have database backing or they are just kept in memory
-	 */
-	static boolean bDBEnabled = false;
-	
 	/**
 	 * After this many idle minutes the session is flushed to DB.
 	 */
@@ -91,6 +91,21 @@ public final class DBSession implements Serializable, Delayed {
 	 */
 	static int iDBFlushMinutes = 120;
 	
+	/**
+	 * Codec of the sessions, see {@link SessionCodec}
+	 */
+	private static volatile SessionCodec codec = new BinarySessionCodec();
+	
+	/**
+	 * The legacy codec, to read the sessions written with it
+	 */
+	private static final SessionCodec serializationCodec = new SerializationSessionCodec();
+	
+	/**
+	 * Persistent backend, <code>null</code> if the sessions are only kept in memory
+	 */
+	private static volatile SessionStore store = null;
+	
 	static{
 		final String s = Utils.getLazyjConfigFolder();
 		
@@ -111,6 +126,19 @@ public final class DBSession implements Serializable, Delayed {
 		reload();
 		
 		cleanerThread.start();
+		
+		Runtime.getRuntime().addShutdownHook(new Thread("lazyj.DBSession: shutdown"){ //$NON-NLS-1$
+			@Override
+			public void run(){
+				// write the pending changes and leave the store in a consistent state
+				SessionWriter.flush();
+				
+				final SessionStore s = store;
+				
+				if (s!=null)
+					s.close();
+			}
+		});
 	}
 	
 	/**
@@ -118,33 +146,21 @@ public final class DBSession implements Serializable, Delayed {
 	 */
 	@SuppressWarnings("nls")
 	static void reload(){
-		final boolean bPrevEnabled = bDBEnabled;
-		
-		bDBEnabled = dbProp.getb("database.enabled", bDBEnabled);
-
-		if (bDBEnabled && !bPrevEnabled){
-			final DBFunctions db = getDB();
-		
-			if (!db.query("SELECT 2;", true) || db.geti(1)!=2){
-				System.err.println("lazyj.DBSession : disabling database backing because I cannot execute the simplest query!");
-				bDBEnabled = false;
-			}
-			
-			if (bDBEnabled && db.query("CREATE TABLE sessions (id text, app int, ip text, lastaccess int, username text, fullname text, values text);", true)){
-				db.query("CREATE UNIQUE INDEX sessions_pkey ON sessions(id, app, ip);");
-				db.query("CREATE INDEX sessions_lastaccess_idx ON sessions(lastaccess);");
-			}
-			
-			db.close();
-		}
+		configureStore();
 		
 		iMemoryFlushMinutes = dbProp.geti("flush.memory", iMemoryFlushMinutes);
 		iMemoryNoDBFlushMinutes = dbProp.geti("flush.memory.nodb", iMemoryNoDBFlushMinutes);
 		iDBFlushMinutes = dbProp.geti("flush.db", iDBFlushMinutes);
+		
+		mSessions.setLimits(dbProp.getl("cache.max.entries", 0), dbProp.getl("cache.max.memory", 0) * 1024 * 1024);
+		
+		configureCodec();
+		
+		SessionWriter.configure(dbProp);
 	}
 
 	/**
-	 * Actual session values
+	 * Actual session values, all accesses are synchronized on the map itself
 	 */
 	private final HashMap<String, Serializable>	mValues		= new HashMap<>();
 
@@ -201,7 +217,23 @@ public final class DBSession implements Serializable, Delayed {
 	/**
 	 * When executing delayed database updates, this is the moment in time when the operation should be done.
 	 */
-	private long								flushTime	= 0;
+	private volatile long						flushTime	= 0;
+	
+	/**
+	 * State of the session in the {@link SessionWriter}: 0 = nothing to write, 1 = queued, 2 = being written,
+	 * 3 = being written and changed in the mean time, so to be queued again when the write is over
+	 */
+	private transient volatile int				queued		= 0;
+	
+	/**
+	 * Atomic access to {@link #queued}
+	 */
+	private static final AtomicIntegerFieldUpdater<DBSession> QUEUED = AtomicIntegerFieldUpdater.newUpdater(DBSession.class, "queued"); //$NON-NLS-1$
+	
+	/**
+	 * Number of consecutive failed writes, the session is written again with an increasing delay until it succeeds
+	 */
+	private transient volatile int				writeFailures	= 0;
 		
 	/**
 	 * Pointer to the current page that asked for a session. 
@@ -217,15 +249,6 @@ public final class DBSession implements Serializable, Delayed {
 		return UUID.randomUUID().toString();
 	}
 		
-	/**
-	 * Get a connection to the database, as specified by the configuration properties file. 
-	 * 
-	 * @return a connection to the database
-	 */
-	static final DBFunctions getDB(){
-		return new DBFunctions(dbProp);
-	}
-	
 	/**
 	 * Get the unique ID for this session.
 	 * 
@@ -373,27 +396,25 @@ public final class DBSession implements Serializable, Delayed {
 		
 		final boolean bIPProtection = tp.isSessionIPProtected();
 		
-		final String sKey = sID + '/' + iApp + (bIPProtection ? '/' + sIP : ""); //$NON-NLS-1$
+		final String sKey = getKey(sID, iApp, bIPProtection ? sIP : null);
 		
 		DBSession dbs = mSessions.get(sKey);
 		
-		if (dbs==null && bDBEnabled){
-			final DBFunctions db = getDB();
-		
-			try{
-				db.query("SELECT values FROM sessions WHERE id='"+Format.escSQL(sID)+"' AND app="+iApp+(bIPProtection ? " AND ip='"+Format.escSQL(sIP)+"'" : "")+";");  //$NON-NLS-1$//$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+		if (dbs==null){
+			// evicted but not written yet, the store has an older copy
+			dbs = mSessions.getSpilled(sKey);
 			
-				if (db.moveNext()){
-					dbs = decode(db.gets("values"), tp.getClass().getClassLoader()); //$NON-NLS-1$
-				}
-			}
-			finally{
-				db.close();
-			}
+			if (dbs!=null)
+				cache(sKey, dbs);
+		}
 		
-			if (dbs!=null){
-				mSessions.put(sKey, dbs);
-			}
+		final SessionStore s = store;
+		
+		if (dbs==null && s!=null && sID!=null){
+			dbs = s.load(sID, iApp, bIPProtection ? sIP : null, tp.getClass().getClassLoader());
+		
+			if (dbs!=null)
+				cache(sKey, dbs);
 		}
 		
 		if (dbs==null){
@@ -418,15 +439,78 @@ public final class DBSession implements Serializable, Delayed {
 		this.iApp = servlet.getApp();
 		this.bIPProtected = servlet.isSessionIPProtected();
 	}
-
+	
+	/**
+	 * Constructor for the session codecs
+	 * 
+	 * @param sessionID session ID
+	 * @param app application ID
+	 * @param ip client IP address
+	 * @param ipProtected whether or not the session is bound to the client IP address
+	 */
+	DBSession(final String sessionID, final int app, final String ip, final boolean ipProtected){
+		this.sID = sessionID;
+		this.iApp = app;
+		this.sIP = ip;
+		this.bIPProtected = ipProtected;
+	}
+	
+	/**
+	 * Set the fields of a decoded session
+	 * 
+	 * @param username account name
+	 * @param fullname complete name
+	 * @param userAgent browser
+	 * @param lastPage last visited page
+	 * @param lastAccess last access time
+	 * @param lastSaved last time the session was saved
+	 */
+	void restore(final String username, final String fullname, final String userAgent, final String lastPage, final long lastAccess, final long lastSaved){
+		this.sUsername = username;
+		this.sFullname = fullname;
+		this.sUserAgent = userAgent;
+		this.sLastPage = lastPage;
+		this.lLastAccess = lastAccess;
+		this.lLastSaved = lastSaved;
+	}
+	
+	/**
+	 * @return the values map, for the session codecs. Accesses must be synchronized on it.
+	 */
+	Map<String, Serializable> getValues(){
+		return this.mValues;
+	}
+	
 	/**
-	 * This queue is used to delay database updates. It is useful because in many cases not only a single 
-	 * modification is done in the session, but multiple updates happen at once (at login for example).
-	 * In this case it is wise to wait a bit before commiting to the database, to do a single operation that will
-	 * reflect all the updates.
+	 * @return a copy of the current values
+	 */
+	Map<String, Serializable> getValuesSnapshot(){
+		synchronized (this.mValues){
+			return new HashMap<>(this.mValues);
+		}
+	}
+	
+	/**
+	 * Serialize the values consistently even if they are modified by another thread at the same time
+	 * 
+	 * @param out where to write the session
+	 * @throws IOException
 	 */
-	static final DelayQueue<DBSession> dq = new DelayQueue<>();
+	private void writeObject(final ObjectOutputStream out) throws IOException {
+		synchronized (this.mValues){
+			out.defaultWriteObject();
+		}
+	}
 	
+	/**
+	 * Whether or not this session is bound to the client IP address, see {@link ExtendedServlet#isSessionIPProtected()}
+	 * 
+	 * @return <code>true</code> if the session can only be used from the IP address it was created from
+	 */
+	public boolean isIPProtected(){
+		return this.bIPProtected;
+	}
+
 	/**
 	 * Cleanup expired sessions
 	 * 
@@ -444,21 +528,16 @@ public final class DBSession implements Serializable, Delayed {
 		}
 		
 		/**
-		 * Executes the delayed database updates and from time to time cleans the memory cache and the 
-		 * underlying table. 
+		 * Checks the sessions that are due in the timing wheel, flushing the idle ones from memory, and from
+		 * time to time cleans the underlying table. 
 		 */
 		@Override
 		public void run(){
-			long lLastFlushed = System.currentTimeMillis();
-			long lLastCleaned = lLastFlushed;
+			long lLastCleaned = System.currentTimeMillis();
 			
 			while (true){
 				try{
-					final DBSession sess = dq.poll(1, TimeUnit.MINUTES);
-					
-					if (sess!=null){
-						sess.makePersistent();
-					}
+					Thread.sleep(SessionCache.TICK);
 				}
 				catch (final InterruptedException ie){
 					// ignore this, process the rest as usual
@@ -466,36 +545,47 @@ public final class DBSession implements Serializable, Delayed {
 				
 				final long lNow = System.currentTimeMillis();
 				
-				if (lNow - lLastFlushed > 1000*60){
-					final Iterator<Map.Entry<String,DBSession>> it = mSessions.entrySet().iterator();
+				final long lIdle = getIdleTimeout();
+				
+				final List<DBSession> toWrite = new ArrayList<>();
+				final List<DBSession> toRemove = new ArrayList<>();
+				
+				for (final DBSession dbs: mSessions.advance(lNow)){
+					// invalidated, evicted or replaced in the meantime
+					if (!dbs.isCached())
+						continue;
 					
-					final long lFlush = lNow - 1000L*60*(bDBEnabled ? iMemoryFlushMinutes : iMemoryNoDBFlushMinutes);
+					// inactive sessions are removed from memory cache, flushing them to disk
+					if (dbs.lLastAccess + lIdle <= lNow && dbs.writeFailures == 0){
+						toWrite.add(dbs);
+						toRemove.add(dbs);
+						continue;
+					}
 					
-					while (it.hasNext()){
-						final Map.Entry<String, DBSession> me = it.next();
-						
-						final DBSession dbs = me.getValue();
-						
-						// inactive sessions are removed from memory cache, flushing them to disk
-						if (dbs.lLastAccess < lFlush){
-							dbs.makePersistent();
-							it.remove();
-							continue;
-						}
-						
-						// make sure lLastAccess is updated in the database so active sessions that are always
-						// kept in memory don't expire from the database
-						if (dbs.lLastSaved < lNow - 1000*60*5){
-							dbs.makePersistent();
-						}
+					// make sure lLastAccess is updated in the store so active sessions that are always
+					// kept in memory don't expire from there
+					if (store!=null && dbs.lLastSaved < lNow - REFRESH_INTERVAL){
+						toWrite.add(dbs);
 					}
 					
-					lLastFlushed = lNow;
+					mSessions.schedule(dbs, dbs.getNextCheck());
+				}
+				
+				SessionWriter.write(toWrite);
+				
+				for (final DBSession dbs: toRemove){
+					// accessed again while it was written, or the write failed and is retried
+					if (dbs.lLastAccess + lIdle > System.currentTimeMillis() || dbs.writeFailures > 0 || !mSessions.expire(dbs)){
+						if (dbs.isCached())
+							mSessions.schedule(dbs, dbs.getNextCheck());
+					}
 				}
 				
 				if (lNow - lLastCleaned > 1000*60*10){
-					if (bDBEnabled)
-						getDB().query("DELETE FROM sessions WHERE lastaccess < extract(epoch from now()-'"+iDBFlushMinutes+" minutes'::interval)::int;"); //$NON-NLS-1$ //$NON-NLS-2$
+					final SessionStore s = store;
+					
+					if (s!=null)
+						s.purge(lNow - 1000L*60*iDBFlushMinutes);
 					
 					lLastCleaned = lNow;
 				}
@@ -517,96 +607,300 @@ public final class DBSession implements Serializable, Delayed {
 			this.tp.setCookie(COOKIE_NAME, getID());
 		}
 		
-		if (this.lLastSaved == 0 || lTimeout<10){
+		// while the store is failing the writes go through the writer, that retries them
+		if ((this.lLastSaved == 0 && this.writeFailures == 0) || lTimeout<10){
 			makePersistent();
 		}
 		else{
-			if (!dq.contains(this)){
-				this.flushTime = System.currentTimeMillis() + lTimeout;
-				dq.offer(this);
+			SessionWriter.schedule(this, lTimeout);
+		}
+		
+		cache(getKey(), this);
+	}
+	
+	/**
+	 * Put a session in the memory cache, scheduling the idle check for the new entries
+	 * 
+	 * @param sKey session key
+	 * @param dbs the session
+	 */
+	private static void cache(final String sKey, final DBSession dbs){
+		if (mSessions.put(sKey, dbs))
+			mSessions.schedule(dbs, dbs.getNextCheck());
+	}
+	
+	/**
+	 * Interval at which the sessions that are kept in memory are saved again, to keep their last access time current in the database
+	 */
+	private static final long REFRESH_INTERVAL = 1000L*60*5;
+	
+	/**
+	 * @return idle time after which the sessions are removed from memory
+	 */
+	static long getIdleTimeout(){
+		return 1000L*60*(store!=null ? iMemoryFlushMinutes : iMemoryNoDBFlushMinutes);
+	}
+	
+	/**
+	 * @return when this session should be checked again by the cleaner
+	 */
+	long getNextCheck(){
+		long lNext = this.lLastAccess + getIdleTimeout();
+		
+		if (store!=null)
+			lNext = Math.min(lNext, this.lLastSaved + REFRESH_INTERVAL);
+		
+		return lNext;
+	}
+	
+	/**
+	 * Whether or not the session is in the memory cache
+	 */
+	private transient volatile boolean bCached = false;
+	
+	/**
+	 * @param cached whether or not the session is in the memory cache
+	 */
+	void setCached(final boolean cached){
+		this.bCached = cached;
+	}
+	
+	/**
+	 * @return whether or not the session is in the memory cache
+	 */
+	boolean isCached(){
+		return this.bCached;
+	}
+	
+	/**
+	 * Start time of the {@link SessionCache} wheel slot where this session waits for its next check, -1 if none. Copies of
+	 * the session left in other slots (the session was evicted and cached again, or rescheduled) are ignored.
+	 */
+	private transient volatile long wheelSlot = -1;
+	
+	/**
+	 * Atomic access to {@link #wheelSlot}
+	 */
+	private static final AtomicLongFieldUpdater<DBSession> WHEEL_SLOT = AtomicLongFieldUpdater.newUpdater(DBSession.class, "wheelSlot"); //$NON-NLS-1$
+	
+	/**
+	 * @param slot start time of the wheel slot where the session is placed
+	 */
+	void setWheelSlot(final long slot){
+		this.wheelSlot = slot;
+	}
+	
+	/**
+	 * Take the session out of a wheel slot
+	 * 
+	 * @param slot start time of the slot that is processed
+	 * @return <code>true</code> if this is where the session is scheduled, <code>false</code> for a stale copy
+	 */
+	boolean takeWheelSlot(final long slot){
+		return WHEEL_SLOT.compareAndSet(this, slot, -1);
+	}
+	
+	/**
+	 * Estimate the memory footprint of this session
+	 * 
+	 * @return approximate size, in bytes
+	 */
+	int estimateSize(){
+		int size = 256 + 2 * (length(this.sID) + length(this.sIP) + length(this.sUsername) + length(this.sFullname) + length(this.sUserAgent) + length(this.sLastPage));
+		
+		synchronized (this.mValues){
+			for (final Map.Entry<String, Serializable> me: this.mValues.entrySet()){
+				final Object o = me.getValue();
+				
+				size += 48 + 2 * length(me.getKey());
+				
+				if (o instanceof String)
+					size += 40 + 2 * ((String) o).length();
+				else
+				if (o instanceof byte[])
+					size += 16 + ((byte[]) o).length;
+				else
+				if (o instanceof Number || o instanceof Boolean || o instanceof Character)
+					size += 16;
+				else
+					size += 128;
+			}
+		}
+		
+		return size;
+	}
+	
+	/**
+	 * @param s string
+	 * @return length of the string, 0 for <code>null</code>
+	 */
+	private static int length(final String s){
+		return s != null ? s.length() : 0;
+	}
+	
+	/**
+	 * @return the key of this session in the memory cache
+	 */
+	String getKey(){
+		return getKey(this.sID, this.iApp, this.bIPProtected ? this.sIP : null);
+	}
+	
+	/**
+	 * @param sessionID session ID
+	 * @param app application ID
+	 * @param ip client IP address, <code>null</code> if the session is not bound to it
+	 * @return the key of this session in the memory cache and in the stores that need one
+	 */
+	static String getKey(final String sessionID, final int app, final String ip){
+		return sessionID + '/' + app + (ip != null ? '/' + ip : ""); //$NON-NLS-1$
+	}
+	
+	/**
+	 * Mark the session as queued for writing. A session that is being written is not queued again, it is only marked as
+	 * changed and queued by {@link #endWrite()}, so that there is never more than one write of a session in flight.
+	 * 
+	 * @return <code>true</code> if the session has to be queued now
+	 */
+	boolean markQueued(){
+		while (true){
+			final int state = this.queued;
+			
+			if (state == 0){
+				if (QUEUED.compareAndSet(this, 0, 1))
+					return true;
 			}
+			else
+			if (state == 2){
+				if (QUEUED.compareAndSet(this, 2, 3))
+					return false;
+			}
+			else
+				return false;
 		}
+	}
+	
+	/**
+	 * The session was taken out of the write queue and is about to be written. Changes from now on are written again
+	 * after this write.
+	 */
+	void startWrite(){
+		this.queued = 2;
+	}
+	
+	/**
+	 * The write started by {@link #startWrite()} is over
+	 * 
+	 * @return <code>true</code> if the session was changed during the write and has to be queued again
+	 */
+	boolean endWrite(){
+		if (QUEUED.compareAndSet(this, 2, 0))
+			return false;
 		
-		final String sKey = this.sID + '/' + this.iApp + (this.bIPProtected ? '/' + this.sIP : ""); //$NON-NLS-1$
+		// changed during the write, it stays marked as queued
+		this.queued = 1;
 		
-		mSessions.put(sKey, this);
+		return true;
+	}
+	
+	/**
+	 * @return the moment when the queued write is due
+	 */
+	long getFlushTime(){
+		return this.flushTime;
+	}
+	
+	/**
+	 * @param lFlushTime the moment when the queued write is due
+	 */
+	void setFlushTime(final long lFlushTime){
+		this.flushTime = lFlushTime;
 	}
 	
 	/**
 	 * This method actually saves the values in the database.
 	 */
-	@SuppressWarnings("nls")
 	void makePersistent() {
-		this.lLastSaved = System.currentTimeMillis();
+		persist(Collections.singletonList(this));
+	}
+	
+	/**
+	 * @return number of consecutive failed writes of this session
+	 */
+	int getWriteFailures(){
+		return this.writeFailures;
+	}
+	
+	/**
+	 * Save the given sessions in the persistent store, with as few operations as possible. The sessions that could not
+	 * be saved are queued again in the {@link SessionWriter}, with an increasing delay.
+	 * 
+	 * @param sessions sessions to save
+	 * @return how many sessions could not be saved
+	 */
+	static int persist(final List<DBSession> sessions){
+		final SessionStore s = store;
 		
-		if (!bDBEnabled)
-			return;
+		if (s==null || sessions.isEmpty())
+			return 0;
 		
-		try {
-			final ByteArrayOutputStream baos = new ByteArrayOutputStream(1000);
-			final ObjectOutputStream oos = new ObjectOutputStream(baos);
-			oos.writeObject(this);
-			oos.flush();
-			oos.close();
-			baos.flush();
-			baos.close();
+		final long lNow = System.currentTimeMillis();
+		
+		final long[] previous = new long[sessions.size()];
+		
+		// the saved copy carries the time of the save
+		for (int i=0; i<previous.length; i++){
+			previous[i] = sessions.get(i).lLastSaved;
+			sessions.get(i).lLastSaved = lNow;
+		}
+		
+		List<DBSession> failed;
+		
+		try{
+			failed = s.save(sessions);
+		}
+		catch (final Throwable t){
+			Log.log(Log.ERROR, "lazyj.DBSession", "exception saving the sessions", t); //$NON-NLS-1$ //$NON-NLS-2$
 			
-			final String sValue = encodeBytes(baos.toByteArray());
-
-			final DBFunctions db = getDB();
-
-			db.query("UPDATE sessions SET " + 
-				"values='" + sValue + "'," + 
-				"username=" + formatName(this.sUsername) + "," + 
-				"fullname=" + formatName(this.sFullname) + "," + 
-				"lastaccess=" + (this.lLastAccess / 1000) + 
-				" WHERE id='" + Format.escSQL(this.sID) + "' AND app=" + this.iApp + (this.bIPProtected ? " AND ip='" + Format.escSQL(this.sIP) + '\'' : "") + ';'
-			);
-
-			if (db.getUpdateCount()<=0){
-				db.query(
-					"INSERT INTO sessions (id, app, ip, username, fullname, lastaccess, values) VALUES ("+
-						"'" + Format.escSQL(this.sID) + "', "+
-						this.iApp+","+
-						"'" + Format.escSQL(this.sIP) + "', "+
-						formatName(this.sUsername)+","+
-						formatName(this.sFullname)+","+
-						(this.lLastAccess/1000)+","+
-						"'" + sValue + "');"
-				);
-			}
+			failed = sessions;
+		}
+		
+		if (failed.isEmpty()){
+			for (final DBSession dbs: sessions)
+				dbs.writeFailures = 0;
 			
-			db.close();
+			return 0;
 		}
-		catch (final Throwable e) {
-			Log.log(Log.WARNING, "lazyj.DBSession", "exception saving a session into the db", e);
+		
+		final Set<DBSession> failedSet = Collections.newSetFromMap(new IdentityHashMap<DBSession, Boolean>());
+		
+		failedSet.addAll(failed);
+		
+		for (int i=0; i<previous.length; i++){
+			final DBSession dbs = sessions.get(i);
+			
+			if (failedSet.contains(dbs)){
+				dbs.lLastSaved = previous[i];
+				dbs.writeFailures++;
+				
+				SessionWriter.retry(dbs);
+			}
+			else
+				dbs.writeFailures = 0;
 		}
-	}
-
-	/**
-	 * @param sName
-	 * @return string as SQL string
-	 */
-	private static final String formatName(final String sName){
-		if (sName==null)
-			return "null"; //$NON-NLS-1$
 		
-		return '\''+Format.escSQL(sName)+'\''; 
+		return failedSet.size();
 	}
 	
 	/**
 	 * This method will delete all the information about this session. Use this at <i>logout</i> operations.
 	 */
 	public void invalidate() {
-		if (bDBEnabled){
-			final DBFunctions db = getDB();
+		final SessionStore s = store;
 		
-			db.query("DELETE FROM sessions WHERE id='" + Format.escSQL(this.sID) + "' AND app="+this.iApp+(this.bIPProtected ? " AND ip='"+Format.escSQL(this.sIP)+'\'' : "")+';');  //$NON-NLS-1$ //$NON-NLS-2$//$NON-NLS-3$ //$NON-NLS-4$
-			
-			db.close();
-		}
+		if (s!=null)
+			s.remove(this);
 		
-		mSessions.remove(this.sID + '/' + this.iApp + (this.bIPProtected ? '/' + this.sIP : "")); //$NON-NLS-1$
+		mSessions.remove(getKey(), null);
 		
 		if (this.tp != null){
 			this.tp.setCookie(COOKIE_NAME, "", 0); //$NON-NLS-1$
@@ -623,11 +917,13 @@ public final class DBSession implements Serializable, Delayed {
 	public void put(final String sKey, final Serializable oValue) {
 		boolean bSave = false;
 		
-		if (oValue != null){
-			bSave = !oValue.equals(this.mValues.put(sKey, oValue));
-		}
-		else{
-			bSave = this.mValues.remove(sKey) != null;
+		synchronized (this.mValues){
+			if (oValue != null){
+				bSave = !oValue.equals(this.mValues.put(sKey, oValue));
+			}
+			else{
+				bSave = this.mValues.remove(sKey) != null;
+			}
 		}
 		
 		if (bSave){
@@ -643,7 +939,9 @@ public final class DBSession implements Serializable, Delayed {
 	 * @return object associated with this key
 	 */
 	public Serializable get(final String sKey) {
-		return this.mValues.get(sKey);
+		synchronized (this.mValues){
+			return this.mValues.get(sKey);
+		}
 	}
 
 	/**
@@ -702,85 +1000,118 @@ public final class DBSession implements Serializable, Delayed {
 	}
 
 	/**
-	 * Object stream decoder
-	 * 
-	 * @author costing
-	 * @since Jan 17, 2009
+	 * Set the codec from the configuration
 	 */
-	private static final class MyObjectInputStream extends ObjectInputStream {
-		/**
-		 * Class loader, to be able to load objects even if they are in some servlet's zone
-		 */
-		private final ClassLoader loader;
+	@SuppressWarnings("nls")
+	private static void configureCodec(){
+		final String sCodec = dbProp.gets("session.codec", "binary");
 		
-		/**
-		 * @param is
-		 * @param loader 
-		 * @throws IOException
-		 */
-		public MyObjectInputStream(final InputStream is, final ClassLoader loader) throws IOException {
-			super(is);
-			
-			this.loader = loader;
+		if (sCodec.equalsIgnoreCase("serialization")){
+			codec = serializationCodec;
+			return;
 		}
 		
-		@Override
-		protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+		if (!sCodec.equalsIgnoreCase("binary")){
 			try{
-				return super.resolveClass(desc);
+				codec = (SessionCodec) Class.forName(sCodec).getDeclaredConstructor().newInstance();
+				return;
 			}
-			catch (final ClassNotFoundException cnfe){
-				if (this.loader!=null){
-					// we have an alternative class loader, try to use this one, maybe we are lucky this time
-					return Class.forName(desc.getName(), false, this.loader);
-				}
+			catch (final Throwable t){
+				Log.log(Log.ERROR, "lazyj.DBSession", "cannot instantiate the session codec '" + sCodec + "', using the default one", t);
+			}
+		}
+		
+		codec = new BinarySessionCodec(dbProp.getb("session.compress", true), dbProp.geti("session.compress.min", 1024), dbProp.geti("session.compress.level", 1));
+	}
+	
+	/**
+	 * Set the persistent store from the configuration. The current store is kept, and reconfigured, as long as the
+	 * configured type doesn't change.
+	 */
+	@SuppressWarnings("nls")
+	private static void configureStore(){
+		final String sStore = dbProp.gets("session.store", "sql");
+		
+		SessionStore newStore = null;
+		
+		if (sStore.equalsIgnoreCase("sql")){
+			if (dbProp.getb("database.enabled", false))
+				newStore = store instanceof SQLSessionStore ? store : new SQLSessionStore();
+		}
+		else
+		if (sStore.equalsIgnoreCase("file")){
+			newStore = store instanceof FileSessionStore ? store : new FileSessionStore();
+		}
+		else
+		if (!sStore.equalsIgnoreCase("memory")){
+			try{
+				final Class<?> c = Class.forName(sStore);
 				
-				throw cnfe;
+				newStore = c.isInstance(store) ? store : (SessionStore) c.getDeclaredConstructor().newInstance();
+			}
+			catch (final Throwable t){
+				Log.log(Log.ERROR, "lazyj.DBSession", "cannot instantiate the session store '" + sStore + "', keeping the sessions in memory only", t);
 			}
 		}
+		
+		if (newStore != null && !newStore.init(dbProp)){
+			Log.log(Log.ERROR, "lazyj.DBSession", "cannot initialize the session store '" + sStore + "', keeping the sessions in memory only");
+			
+			if (newStore != store)
+				newStore.close();
+			
+			newStore = null;
+		}
+		
+		final SessionStore oldStore = store;
+		
+		store = newStore;
+		
+		if (oldStore != null && oldStore != newStore)
+			oldStore.close();
+	}
+	
+	/**
+	 * @return the persistent backend of the sessions, <code>null</code> if they are only kept in memory
+	 */
+	public static SessionStore getStore(){
+		return store;
+	}
+	
+	/**
+	 * @return the codec used to store the sessions
+	 */
+	public static SessionCodec getCodec(){
+		return codec;
 	}
 	
 	/**
-	 * @param s
-	 * @param loader
-	 * @return the session from DB
+	 * Decode a stored session, whatever the format it was written in
+	 * 
+	 * @param data stored form
+	 * @param loader class loader to resolve the classes of the values
+	 * @return the session, or <code>null</code> if it cannot be decoded
 	 */
-	private static DBSession decode(final String s, final ClassLoader loader) {
-		ByteArrayInputStream bais = null;
-		ObjectInputStream ois = null;
+	static DBSession decode(final byte[] data, final ClassLoader loader) {
+		if (data == null)
+			return null;
+		
+		final SessionCodec current = codec;
 		
 		try {
-			bais = new ByteArrayInputStream(decodeString(s));
-			ois = new MyObjectInputStream(bais, loader);
+			if (SerializationSessionCodec.accepts(data))
+				return serializationCodec.decode(data, loader);
 			
-			final DBSession readObject = (DBSession) ois.readObject();
-
-			return readObject;
+			if (BinarySessionCodec.accepts(data) && !(current instanceof BinarySessionCodec))
+				return new BinarySessionCodec().decode(data, loader);
+			
+			return current.decode(data, loader);
 		}
 		catch (final Throwable e) {
 			Log.log(Log.WARNING, "lazyj.DBSession", "exception decoding previously saved value", e); //$NON-NLS-1$ //$NON-NLS-2$
 			
 			return null;
 		}
-		finally{
-			if (ois!=null){
-				try{
-					ois.close();
-				}
-				catch (final IOException ioe){
-					// ignore
-				}
-			}
-			
-			if (bais!=null){
-				try{
-					bais.close();
-				}
-				catch (final IOException ioe){
-					// ignore
-				}
-			}
-		}
 	}
 
 	/**
@@ -897,15 +1228,18 @@ public final class DBSession implements Serializable, Delayed {
 	
 	@Override
 	public boolean equals(final Object o){
+		if (o==this)
+			return true;
+		
 		if (o==null || !(o instanceof DBSession))
 			return false;
 		
-		return compareTo((DBSession) o)==0;
+		return getKey().equals(((DBSession) o).getKey());
 	}
 	
 	@Override
 	public int hashCode(){
-		return (int) this.flushTime;
+		return this.sID.hashCode() * 31 + this.iApp;
 	}
 	
 	/**
@@ -923,15 +1257,21 @@ public final class DBSession implements Serializable, Delayed {
 	 * Clear cached sessions
 	 */
 	public static void clear(){
-		final Iterator<Map.Entry<String, DBSession>> it = mSessions.entrySet().iterator();
+		SessionWriter.flush();
 		
-		while (it.hasNext()){
-			final Map.Entry<String, DBSession> me = it.next();
-			
-			me.getValue().makePersistent();
-			
-			it.remove();
-		}
+		final List<DBSession> sessions = new ArrayList<>(mSessions.values());
+		
+		SessionWriter.write(sessions);
+		
+		for (final DBSession dbs: sessions)
+			mSessions.remove(dbs.getKey(), dbs);
+	}
+	
+	/**
+	 * @return the memory cache of the active sessions, for statistics
+	 */
+	public static SessionCache getCache(){
+		return mSessions;
 	}
 	
 	/**
@@ -940,6 +1280,6 @@ public final class DBSession implements Serializable, Delayed {
 	 * @return number of session cache entries.
 	 */
 	public static int getCacheSize(){
-		return mSessions.size();
+		return mSessions.getSize();
 	}	
 }
@@ -8,8 +8,19 @@ import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.util.Enumeration;
 import java.util.StringTokenizer;
-
-import javax.servlet.SingleThreadModel;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -23,13 +34,26 @@ import com.oreilly.servlet.MultipartRequest;
  * This class is a wrapper over the original HttpServlet, adding caching and run time limit for the servlets.
  * There are also other useful functions, like {@link #initMultipartRequest(String, int)} for uploading files,
  * getX (s/i/f/d) for parsing the parameters and getting the correct value,  {@link #getCookie(String)},
- * {@link #setCookie(String, String)}, {@link #log(int, String)}
+ * {@link #setCookie(String, String)}, {@link #log(int, String)}<br>
+ * <br>
+ * The container calls the same servlet instance from any number of threads at the same time. By default each
+ * request is executed on an instance taken from a small pool, like the container used to do for the servlets that
+ * implemented <code>SingleThreadModel</code>: an instance executes one request at a time, and is reused by the next
+ * requests once it has finished (see {@link #getPoolSize()}). A servlet that is safe to run concurrently can override
+ * {@link #isConcurrent()} to return <code>true</code>: each request is then executed on a private shallow copy of the
+ * servlet, so the protected request fields ({@link #request}, {@link #osOut}, {@link #dbs} ...) and the
+ * primitive fields declared by the subclass are only seen by the thread that handles the request. The objects these
+ * fields point to are still shared by all the copies, so such a servlet must either make them thread safe or replace
+ * them with private ones in {@link #cloned()}.<br>
+ * <br>
+ * The current request can also be reached through {@link #getContext()} or, from code that doesn't have the servlet
+ * at hand, {@link RequestContext#current()}.
  * 
  * @author costing
  * @since 2006-10-02
  * @see RequestWrapper
  */
-public abstract class ExtendedServlet extends HttpServlet implements SingleThreadModel {
+public abstract class ExtendedServlet extends HttpServlet implements Cloneable {
 
 	/**
 	 * Some serial code
@@ -40,13 +64,16 @@ public abstract class ExtendedServlet extends HttpServlet implements SingleThrea
 	public static final long		lServerStarted	= System.currentTimeMillis();
 	
 	/** Cache hit statistics : the number of hits in the page cache*/
-	private static volatile long	lHit 			= 0;	
+	private static final AtomicLong	lHit 			= new AtomicLong(0);	
 	
 	/** Cache hit statistics : the number of accesses to the cache*/
-	private static volatile long	lTotal 			= 0;
+	private static final AtomicLong	lTotal 			= new AtomicLong(0);
 	
 	/** Framework statistics: the number of servlet calls */
-	private static volatile long	lRequests		= 0;
+	private static final AtomicLong	lRequests		= new AtomicLong(0);
+	
+	/** Framework statistics: the number of requests answered with 304 Not Modified */
+	private static final AtomicLong	lNotModified	= new AtomicLong(0);
 	
 	/* Request-related variables */
 	/** The original request object */
@@ -79,6 +106,24 @@ public abstract class ExtendedServlet extends HttpServlet implements SingleThrea
 	/** Current session */
 	public DBSession				dbs				= null;
 
+	/** Set when an asynchronous page didn't finish in time, its output is discarded */
+	private volatile boolean		bAborted		= false;
+
+	/** Idle instances of a servlet that is not {@link #isConcurrent()}, see {@link #getPoolSize()} */
+	private final ConcurrentLinkedQueue<ExtendedServlet>	idle	= new ConcurrentLinkedQueue<>();
+	
+	/** How many instances are in {@link #idle} */
+	private final AtomicInteger		idleCount		= new AtomicInteger(0);
+	
+	/** The servlet created by the container, for the instances of its pool, cleared when the instance is given up by {@link #abandon()} */
+	private volatile ExtendedServlet	owner		= null;
+	
+	/** Parts of the request that are still running, see {@link #requestDone()} */
+	private AtomicInteger			running			= null;
+
+	/** Set when this request renders a page that concurrent requests may be waiting for */
+	private volatile PageCache.Flight	flight		= null;
+
 	/**
 	 * Request wrapper that does all the work
 	 */
@@ -89,6 +134,18 @@ public abstract class ExtendedServlet extends HttpServlet implements SingleThrea
 	 */
 	String sContentType = null;
 	
+	/**
+	 * The request executed by this copy of the servlet, <code>null</code> for the instance created by the container
+	 */
+	private transient RequestContext context	= null;
+	
+	/**
+	 * @return the request that is executed, <code>null</code> if called outside of a request
+	 */
+	public final RequestContext getContext(){
+		return this.context;
+	}
+	
 	/** 
 	 * Override this method to return any value that would alter the cache.
 	 * Usually you will want to return here the username, if the user is logged.
@@ -106,7 +163,7 @@ public abstract class ExtendedServlet extends HttpServlet implements SingleThrea
 	 * @return the total number of pages served through this framework
 	 */
 	public static final long getCacheAccesses() {
-		return lTotal;
+		return lTotal.get();
 	}
 
 	/**
@@ -114,7 +171,7 @@ public abstract class ExtendedServlet extends HttpServlet implements SingleThrea
 	 * @return the number of pages served from a memory cache by this framework
 	 */
 	public static final long getCacheHits() {
-		return lHit;
+		return lHit.get();
 	}
 
 	/**
@@ -131,7 +188,17 @@ public abstract class ExtendedServlet extends HttpServlet implements SingleThrea
 	 * @return total number of requests to servlets that extend the framework
 	 */
 	public static final long getFrameworkRequests(){
-		return lRequests;
+		return lRequests.get();
+	}
+	
+	/**
+	 * Framework statistics: get the number of requests for which the client copy was still valid, so only the headers
+	 * were sent, with a 304 Not Modified status.
+	 * 
+	 * @return number of conditional requests answered without sending the content
+	 */
+	public static final long getNotModifiedResponses(){
+		return lNotModified.get();
 	}
 
 	/**
@@ -150,6 +217,67 @@ public abstract class ExtendedServlet extends HttpServlet implements SingleThrea
 		return 0; // default cache policy : disabled
 	}
 	
+	/**
+	 * When a cacheable page is not in the cache and another request is already rendering it, wait at most this many
+	 * seconds for that render to finish and serve its result, instead of rendering the same page in parallel. After
+	 * the timeout the page is rendered by this request too.<br>
+	 * <br>
+	 * Override this method to return 0 if the pages should always be rendered in parallel.
+	 * 
+	 * @return number of seconds to wait for a concurrent render of the same page, default is 10
+	 */
+	@SuppressWarnings("static-method")
+	protected int getCacheWaitTime() {
+		return 10;
+	}
+	
+	/**
+	 * For how many seconds after its expiration a cached page can still be served to the requests that would otherwise
+	 * wait for it to be rendered again (stale-while-revalidate). The request that renders the new version is not affected.
+	 * 
+	 * @return number of seconds an expired page can be served, default is 0 (disabled)
+	 */
+	@SuppressWarnings("static-method")
+	protected long getCacheStaleTime() {
+		return 0;
+	}
+	
+	/**
+	 * Compression level of the responses that are not served from the page cache (pages served from the cache are sent
+	 * gzip-compressed, as they are stored, to the clients that accept it). When enabled, the responses longer than
+	 * {@link #getCompressionMinSize()} are compressed while they are written, if the client accepts gzip.
+	 * 
+	 * @return deflate level, 1 (fastest) to 9 (smallest), default is 0 (do not compress)
+	 */
+	@SuppressWarnings("static-method")
+	protected int getCompressionLevel() {
+		return 0;
+	}
+	
+	/**
+	 * Responses shorter than this are not worth compressing, see {@link #getCompressionLevel()}.
+	 * 
+	 * @return minimum size, in bytes, of the compressed responses, default is 1024
+	 */
+	@SuppressWarnings("static-method")
+	protected int getCompressionMinSize() {
+		return 1024;
+	}
+	
+	/**
+	 * Whether or not the GET responses that are not served from the page cache get an <i>ETag</i> header, computed
+	 * from their content. Clients asking again with a matching <i>If-None-Match</i> header receive a <i>304 Not Modified</i>
+	 * status instead of the content, which saves the bandwidth but not the rendering. The response is buffered until the
+	 * page finishes, so don't enable it for pages that stream their output. Pages served from the cache always have
+	 * validators. For <i>Last-Modified</i> validation override {@link #getLastModified(HttpServletRequest)} instead.
+	 * 
+	 * @return true to validate the generated pages with entity tags, default is false
+	 */
+	@SuppressWarnings("static-method")
+	protected boolean isETagEnabled() {
+		return false;
+	}
+	
 	/**
 	 * Method to specify the domain for which the cookies will be set by default (session cookie included).
 	 * You should override this method to return something like ".acasa.ro".
@@ -192,6 +320,34 @@ public abstract class ExtendedServlet extends HttpServlet implements SingleThrea
 	public void execPost() {
 		execGet();
 	}
+	
+	/**
+	 * Asynchronous alternative to {@link #execGet()}. Servlets that wait for slow resources (database queries, mail
+	 * servers, remote services) can override this method to start the work and return right away, writing the page to
+	 * {@link #osOut} / {@link #pwOut} when the returned stage completes. The container thread is released in the meantime,
+	 * if the servlet is declared with <code>async-supported</code>, otherwise it waits for the stage to complete.<br>
+	 * <br>
+	 * The run time limit ({@link #getMaxRunTime()}) is then enforced by the container's asynchronous timeout instead of
+	 * interrupting the thread: if the stage doesn't complete in time the client receives an error and the output produced
+	 * afterwards is discarded. Note that {@link RequestContext#current()} is not available in the threads completing the stage,
+	 * use {@link #getContext()} instead.
+	 * 
+	 * @return the stage that completes when the page is written, or <code>null</code> (the default) to execute {@link #execGet()}
+	 */
+	@SuppressWarnings("static-method")
+	public CompletionStage<?> execGetAsync() {
+		return null;
+	}
+	
+	/**
+	 * Asynchronous alternative to {@link #execPost()}, see {@link #execGetAsync()}. By default POST requests are executed
+	 * with the same {@link #execGetAsync()} function.
+	 * 
+	 * @return the stage that completes when the page is written, or <code>null</code> to execute {@link #execPost()}
+	 */
+	public CompletionStage<?> execPostAsync() {
+		return execGetAsync();
+	}
 
 	/**
 	 * Get the application number. Each major application should have a different, unique, identifier.
@@ -234,22 +390,40 @@ public abstract class ExtendedServlet extends HttpServlet implements SingleThrea
 			
 			final String sKey = PageCache.getCacheKey(this.request, getCacheKeyModifier());
 
-			lTotal++;
+			lTotal.incrementAndGet();
 
-			final CachingStructure cs = PageCache.getCache(sKey);
+			CachingStructure cs = PageCache.getCache(sKey);
+			
+			if (cs == null && getCacheWaitTime() > 0){
+				this.flight = PageCache.startRender(sKey);
+				
+				if (this.flight == null){
+					// somebody else is rendering this page right now
+					cs = getCacheStaleTime() > 0 ? PageCache.getStale(sKey) : null;
+					
+					if (cs == null)
+						cs = PageCache.awaitRender(sKey, getCacheWaitTime() * 1000L);
+				}
+			}
+
+			// an off-heap page must not be freed while it is sent
+			if (cs != null && !cs.retain())
+				cs = null;
 
 			if (cs != null) { // it's ok, i can write the cache content to the output
-				lHit++;
+				lHit.incrementAndGet();
 				
 				log(Log.FINEST, "serving request from cache : "+cs.length()); //$NON-NLS-1$
 
-				cs.setHeaders(this.response);
-				
 				try {
-					this.osOut.write(cs.getContent());
+					if (!cs.write(this.request, this.response, this.osOut))
+						lNotModified.incrementAndGet();
 				} catch (final IOException e) {
 					// ignore
 				}
+				finally {
+					cs.release();
+				}
 				
 				try {
 					this.osOut.flush();
@@ -268,10 +442,31 @@ public abstract class ExtendedServlet extends HttpServlet implements SingleThrea
 			}
 			log(Log.FINEST, "generating the contents for key = '"+sKey+'\''); //$NON-NLS-1$
 			
+			this.osOut = new ClientOutputStream(this.osOut);
 			this.osOut = new StringBufferOutputStream(sKey, lTimeout);
 		} else { // this request cannot be cached, do nothing
 			log(Log.FINEST, "uncacheable request"); //$NON-NLS-1$
 			RequestWrapper.setNotCache(this.response);
+			
+			this.osOut = new ClientOutputStream(this.osOut);
+			this.pwOut = new PrintWriter(this.osOut);
+			
+			final OutputStream osClient = this.osOut;
+			
+			final int iLevel = getCompressionLevel();
+			
+			if (iLevel > 0 && RequestWrapper.acceptsEncoding(this.request, "gzip")){ //$NON-NLS-1$
+				this.osOut = new CompressingOutputStream(this.response, this.osOut, iLevel, getCompressionMinSize());
+				this.pwOut = new PrintWriter(this.osOut);
+			}
+			
+			if (this.bGet && isETagEnabled()){
+				// the client may keep the page, but has to validate it each time
+				this.response.setHeader("Cache-Control", "no-cache"); //$NON-NLS-1$ //$NON-NLS-2$
+				
+				this.osOut = new ETagOutputStream(this.osOut, osClient);
+				this.pwOut = new PrintWriter(this.osOut);
+			}
 		}
 		
 		return true;
@@ -350,6 +545,12 @@ public abstract class ExtendedServlet extends HttpServlet implements SingleThrea
 		public void close() throws IOException{
 			ExtendedServlet.this.pwOut.flush();
 			
+			if (ExtendedServlet.this.bAborted){
+				// the client already received an error
+				this.origos.close();
+				return;
+			}
+			
 			if (!ExtendedServlet.this.response.containsHeader("Location") && !ExtendedServlet.this.bRedirect) { //$NON-NLS-1$
 				long lExpires = this.lTimeout * 1000; 
 				
@@ -360,12 +561,16 @@ public abstract class ExtendedServlet extends HttpServlet implements SingleThrea
 				
 				final CachingStructure cs = new CachingStructure(this.sKey, buff, lExpires, ExtendedServlet.this.sContentType);  
 
+				cs.staleLifetime = getCacheStaleTime() * 1000;
+				
 				PageCache.put(cs);
 				
-				ExtendedServlet.this.response.setContentLength(buff.length);
-				RequestWrapper.setCacheTimeout(ExtendedServlet.this.response, (int) (lExpires/1000));
+				releaseFlight(cs);
 				
-				this.origos.write(buff);
+				// the content was just compressed for the cache, it is sent like that if the client accepts it, and
+				// a client revalidating its copy of an expired page gets a 304 if the content didn't change
+				if (!cs.write(ExtendedServlet.this.request, ExtendedServlet.this.response, this.origos, buff))
+					lNotModified.incrementAndGet();
 			}
 			else {
 				this.origos.write(this.baos.toByteArray());
@@ -378,6 +583,166 @@ public abstract class ExtendedServlet extends HttpServlet implements SingleThrea
 	}
 
 
+	/**
+	 * The stream to the client, that drops whatever is written to it after the request was aborted or closed. An
+	 * asynchronous page can still be running at that point, while the container reuses the response for another request.
+	 */
+	private final class ClientOutputStream extends OutputStream {
+		
+		/**
+		 * The container's stream
+		 */
+		private final OutputStream	os;
+		
+		/**
+		 * Set when the stream was closed
+		 */
+		private boolean				closed	= false;
+		
+		/**
+		 * @param _os the container's stream
+		 */
+		ClientOutputStream(final OutputStream _os) {
+			this.os = _os;
+		}
+		
+		/**
+		 * @return true if the output can still reach the client
+		 */
+		private boolean isOpen() {
+			return !this.closed && !ExtendedServlet.this.bAborted;
+		}
+		
+		@Override
+		public synchronized void write(final int b) throws IOException {
+			if (isOpen())
+				this.os.write(b);
+		}
+		
+		@Override
+		public synchronized void write(final byte[] b, final int off, final int len) throws IOException {
+			if (isOpen())
+				this.os.write(b, off, len);
+		}
+		
+		@Override
+		public synchronized void flush() throws IOException {
+			if (isOpen())
+				this.os.flush();
+		}
+		
+		@Override
+		public synchronized void close() throws IOException {
+			if (!this.closed) {
+				this.closed = true;
+				this.os.close();
+			}
+		}
+	}
+	
+	/**
+	 * Wrapper of the output stream of the pages that are validated with entity tags, see {@link #isETagEnabled()}.
+	 * The content is kept until the page finishes, then either the tag matches what the client has and only the headers
+	 * are sent, or the tag is set and the content is sent.
+	 * 
+	 * @author costing
+	 * @since Oct 16, 2026
+	 */
+	private final class ETagOutputStream extends OutputStream {
+		/**
+		 * Where the content goes, possibly through a compressor
+		 */
+		private final OutputStream			origos;
+		
+		/**
+		 * Stream to the client, closed without writing anything for 304 responses
+		 */
+		private final OutputStream			osClient;
+		
+		/**
+		 * The content, until the page finishes
+		 */
+		private final ByteArrayOutputStream	baos		= new ByteArrayOutputStream(32 * 1024);
+		
+		/**
+		 * Whether or not the stream was closed
+		 */
+		private boolean						closed		= false;
+		
+		/**
+		 * @param _origos where to write the content
+		 * @param _osClient stream to the client
+		 */
+		ETagOutputStream(final OutputStream _origos, final OutputStream _osClient) {
+			this.origos = _origos;
+			this.osClient = _osClient;
+		}
+		
+		@Override
+		public void write(final int b) {
+			this.baos.write(b);
+		}
+		
+		@Override
+		public void write(final byte[] b, final int off, final int len) {
+			this.baos.write(b, off, len);
+		}
+		
+		/**
+		 * Nothing is sent before the whole content is known
+		 */
+		@Override
+		public void flush() {
+			// nothing
+		}
+		
+		/**
+		 * Compute the entity tag and send either the content or a 304 status to the client
+		 */
+		@Override
+		public void close() throws IOException {
+			if (this.closed)
+				return;
+			
+			this.closed = true;
+			
+			ExtendedServlet.this.pwOut.flush();
+			
+			final HttpServletResponse resp = ExtendedServlet.this.response;
+			
+			if (ExtendedServlet.this.bAborted || ExtendedServlet.this.bRedirect || resp.isCommitted() || resp.getStatus() != HttpServletResponse.SC_OK){
+				this.baos.writeTo(this.origos);
+				this.origos.close();
+				return;
+			}
+			
+			final byte[] buff = this.baos.toByteArray();
+			
+			String sETag = RequestWrapper.getETag(buff, 0, buff.length);
+			
+			// the bytes on the wire depend on the compression, the tag only identifies the content
+			if (this.origos instanceof CompressingOutputStream)
+				sETag = "W/" + sETag; //$NON-NLS-1$
+			
+			RequestWrapper.setValidators(resp, sETag, 0);
+			
+			if (RequestWrapper.isNotModified(ExtendedServlet.this.request, 0, sETag)){
+				lNotModified.incrementAndGet();
+				
+				resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				
+				this.osClient.close();
+				return;
+			}
+			
+			if (this.origos == this.osClient)
+				resp.setContentLength(buff.length);
+			
+			this.origos.write(buff);
+			this.origos.close();
+		}
+	}
+
 	/**
 	 * Get the value of a parameter as a string.
 	 * 
@@ -702,14 +1067,175 @@ public abstract class ExtendedServlet extends HttpServlet implements SingleThrea
 	 * </ul><br>
 	 * Any error thrown by the execution will be logged under "lazyj.ExtendedServlet".<br>
 	 * <br>
-	 * This method is synchronized to prevent broken servlet containers that ignore the SingleThreadModel
-	 * specification to mess up with the actions. 
+	 * The steps are executed on a private copy of this servlet if it {@link #isConcurrent()}, otherwise on an instance
+	 * of the pool, that no other request uses until this one has completely finished.
 	 * 
 	 * @param req original request object
 	 * @param resp original response object
 	 * @param isGet true if the request was GET, false if the request was POST
 	 */
-	private final synchronized void execute(final HttpServletRequest req, final HttpServletResponse resp, final boolean isGet) {
+	private void execute(final HttpServletRequest req, final HttpServletResponse resp, final boolean isGet) {
+		final ExtendedServlet page;
+		
+		if (isConcurrent()){
+			try{
+				page = (ExtendedServlet) clone();
+			}
+			catch (final CloneNotSupportedException e){
+				// cannot happen, this class is Cloneable
+				throw new IllegalStateException(e);
+			}
+			
+			page.cloned();
+		}
+		else{
+			// given back by requestDone(), which for an asynchronous page can come after this method returns
+			page = checkOut();
+			
+			if (page == null){
+				try{
+					resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				}
+				catch (final IOException e){
+					// ignore
+				}
+				
+				return;
+			}
+		}
+		
+		page.running = new AtomicInteger(1);
+		page.context = new RequestContext(page);
+		
+		final RequestContext previous = RequestContext.bind(page.context);
+		
+		try{
+			page.run(req, resp, isGet);
+		}
+		finally{
+			RequestContext.bind(previous);
+			
+			page.requestDone();
+		}
+	}
+	
+	/**
+	 * Override this method to return <code>true</code> if the servlet can execute concurrent requests. Each request
+	 * is then executed on a shallow copy of the servlet, see {@link #cloned()}. By default each instance executes one
+	 * request at a time, see {@link #getPoolSize()}.
+	 * 
+	 * @return true if the servlet can execute concurrent requests, false (the default) to use a pool of instances
+	 */
+	@SuppressWarnings("static-method")
+	protected boolean isConcurrent(){
+		return false;
+	}
+	
+	/**
+	 * How many idle instances are kept for a servlet that is not {@link #isConcurrent()}. More instances are created
+	 * when all of them are busy, and the ones that are not needed any more are destroyed when the requests finish.
+	 * 
+	 * @return maximum number of idle instances, 20 by default (the pool size of Tomcat for the <code>SingleThreadModel</code> servlets)
+	 */
+	@SuppressWarnings("static-method")
+	protected int getPoolSize(){
+		return 20;
+	}
+	
+	/**
+	 * Take an idle instance of this servlet, or create a new one the same way the container does
+	 * 
+	 * @return the instance that executes the request, or <code>null</code> if it cannot be created
+	 */
+	private ExtendedServlet checkOut(){
+		final ExtendedServlet page = this.idle.poll();
+		
+		if (page != null){
+			this.idleCount.decrementAndGet();
+			return page;
+		}
+		
+		try{
+			final ExtendedServlet created = getClass().getDeclaredConstructor().newInstance();
+			
+			created.init(getServletConfig());
+			created.owner = this;
+			
+			return created;
+		}
+		catch (final Exception e){
+			Log.log(Log.ERROR, "lazyj.ExtendedServlet", "cannot create a new instance of "+getClass().getName(), e); //$NON-NLS-1$ //$NON-NLS-2$
+			
+			return null;
+		}
+	}
+	
+	/**
+	 * Give back an instance taken with {@link #checkOut()}, after it has completely finished its request
+	 * 
+	 * @param page the instance
+	 */
+	private void checkIn(final ExtendedServlet page){
+		if (this.idleCount.incrementAndGet() <= getPoolSize()){
+			this.idle.offer(page);
+			return;
+		}
+		
+		this.idleCount.decrementAndGet();
+		
+		page.destroy();
+	}
+	
+	/**
+	 * Destroy the pool of instances too
+	 */
+	@Override
+	public void destroy(){
+		ExtendedServlet page;
+		
+		while ((page = this.idle.poll()) != null){
+			this.idleCount.decrementAndGet();
+			page.destroy();
+		}
+		
+		super.destroy();
+	}
+	
+	/**
+	 * Called on the private copy of a servlet that {@link #isConcurrent()}, before executing the request. Override it
+	 * to replace the mutable objects the copy shares with the original servlet (buffers, collections ...) with private
+	 * ones. The default implementation does nothing.
+	 */
+	protected void cloned(){
+		// nothing by default
+	}
+	
+	/**
+	 * Mark one part of the request as finished: the thread that called {@link #execute(HttpServletRequest, HttpServletResponse, boolean)},
+	 * and, for the asynchronous pages, the stage and the completion of the response. When nothing runs any more
+	 * the temporary uploaded files are deleted and a pooled instance can take the next request.
+	 */
+	private void requestDone(){
+		if (this.running.decrementAndGet() > 0)
+			return;
+		
+		// the uploaded files could still be read by the stage until now
+		deleteUploads();
+		
+		final ExtendedServlet o = this.owner;
+		
+		if (o != null)
+			o.checkIn(this);
+	}
+	
+	/**
+	 * Execute the request on this copy of the servlet, see {@link #execute(HttpServletRequest, HttpServletResponse, boolean)}
+	 * 
+	 * @param req original request object
+	 * @param resp original response object
+	 * @param isGet true if the request was GET, false if the request was POST
+	 */
+	private void run(final HttpServletRequest req, final HttpServletResponse resp, final boolean isGet) {
 		this.bGet = isGet;
 		
 		this.request = req;
@@ -717,7 +1243,7 @@ public abstract class ExtendedServlet extends HttpServlet implements SingleThrea
 		
 		this.rw = new RequestWrapper(this.request);
 		
-		lRequests++;
+		lRequests.incrementAndGet();
 		
 		final String sPath = this.request.getServletPath();
 		
@@ -791,6 +1317,8 @@ public abstract class ExtendedServlet extends HttpServlet implements SingleThrea
 		}
 		catch (final Throwable t) {
 			Log.log(Log.FATAL, "lazyj.ExtendedServlet", "Execution exception: "+(isGet?"GET":"POST")+" "+this.sZone+'/'+this.sPage, t); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+			
+			releaseFlight(null);
 		}
 		finally{
 			if (btc!=null)
@@ -824,12 +1352,15 @@ public abstract class ExtendedServlet extends HttpServlet implements SingleThrea
 	 * <li>execute {@link #masterInit()} to check if the page is in cache or not
 	 * <li>call {@link #doInit()} to initialize servlets' local variables, if it is the case
 	 * <li>log any Exception produced by the actual execution ({@link #execGet()}, {@link #execPost()}
+	 * <li>for asynchronous pages ({@link #execGetAsync()}, {@link #execPostAsync()}) wait for the returned stage, without holding the container thread if possible
 	 * <li>close the streams
-	 * <li>delete any temporary uploaded files
+	 * <li>delete any temporary uploaded files, after the stage of an asynchronous page has finished too
 	 */
 	private void executeRequest() {
 		try {
 			this.mpRequest = null;
+			this.bRedirect = false;
+			this.bAborted = false;
 			
 			this.sContentType = "text/html; charset=UTF-8"; //$NON-NLS-1$
 			
@@ -848,23 +1379,208 @@ public abstract class ExtendedServlet extends HttpServlet implements SingleThrea
 		
 		zoneInit();
 
+		CompletionStage<?> stage = null;
+		
 		try {
-			if (this.bGet)
-				execGet();
-			else
-				execPost();
+			stage = this.bGet ? execGetAsync() : execPostAsync();
+			
+			if (stage == null){
+				if (this.bGet)
+					execGet();
+				else
+					execPost();
+			}
 		} catch (final Exception e) {
 			log(Log.ERROR, "Execution exception (get:" + this.bGet + ')', e); //$NON-NLS-1$
 		}
 
+		if (stage != null)
+			await(stage);
+		else
+			finishRequest();
+	}
+	
+	/**
+	 * Wait for an asynchronous page to be written, releasing the container thread if the servlet supports it
+	 * 
+	 * @param stage the stage returned by {@link #execGetAsync()} or {@link #execPostAsync()}
+	 */
+	private void await(final CompletionStage<?> stage){
+		final int iMaxRunTime = getMaxRunTime();
+		
+		if (!this.request.isAsyncSupported()){
+			try{
+				if (iMaxRunTime > 0)
+					stage.toCompletableFuture().get(iMaxRunTime, TimeUnit.SECONDS);
+				else
+					stage.toCompletableFuture().get();
+			}
+			catch (final TimeoutException te){
+				abort("timed out after " + iMaxRunTime + "s"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			catch (final InterruptedException ie){
+				abort("interrupted"); //$NON-NLS-1$
+			}
+			catch (final ExecutionException ee){
+				log(Log.ERROR, "Execution exception (get:" + this.bGet + ')', ee.getCause()); //$NON-NLS-1$
+			}
+			
+			finishRequest();
+			
+			// the stage may still be running after a timeout
+			this.running.incrementAndGet();
+			
+			stage.whenComplete(new BiConsumer<Object, Throwable>(){
+				@Override
+				public void accept(final Object result, final Throwable t) {
+					requestDone();
+				}
+			});
+			
+			return;
+		}
+		
+		final AsyncContext ac = this.request.startAsync(this.request, this.response);
+		
+		// one part for the stage, one for the completion of the response
+		this.running.addAndGet(2);
+		
+		ac.setTimeout(iMaxRunTime > 0 ? iMaxRunTime * 1000L : 0);
+		
+		// whichever comes first, the page or the timeout, finishes the request
+		final AtomicBoolean finished = new AtomicBoolean(false);
+		
+		ac.addListener(new AsyncListener(){
+			@Override
+			public void onTimeout(final AsyncEvent event) {
+				if (finished.compareAndSet(false, true)){
+					abort("timed out after " + iMaxRunTime + "s"); //$NON-NLS-1$ //$NON-NLS-2$
+					
+					try{
+						finishRequest();
+						ac.complete();
+					}
+					finally{
+						requestDone();
+					}
+				}
+			}
+			
+			@Override
+			public void onError(final AsyncEvent event) {
+				if (finished.compareAndSet(false, true)){
+					log(Log.WARNING, "asynchronous request failed", event.getThrowable()); //$NON-NLS-1$
+					ExtendedServlet.this.bAborted = true;
+					abandon();
+					
+					try{
+						finishRequest();
+						ac.complete();
+					}
+					finally{
+						requestDone();
+					}
+				}
+			}
+			
+			@Override
+			public void onStartAsync(final AsyncEvent event) {
+				// nothing
+			}
+			
+			@Override
+			public void onComplete(final AsyncEvent event) {
+				// nothing
+			}
+		});
+		
+		stage.whenComplete(new BiConsumer<Object, Throwable>(){
+			@Override
+			public void accept(final Object result, final Throwable t) {
+				if (t != null)
+					log(Log.ERROR, "Execution exception (get:" + ExtendedServlet.this.bGet + ')', t); //$NON-NLS-1$
+				
+				try{
+					if (finished.compareAndSet(false, true)){
+						try{
+							finishRequest();
+							ac.complete();
+						}
+						finally{
+							requestDone();
+						}
+					}
+				}
+				finally{
+					requestDone();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Take this instance out of the pool of its servlet when the request ends before its stage. The pool creates
+	 * another instance for the next requests, instead of waiting for a stage that may never complete, while the stage
+	 * keeps this one for itself until it finishes (its output goes nowhere, see {@link ClientOutputStream}).
+	 */
+	private void abandon(){
+		this.owner = null;
+	}
+	
+	/**
+	 * Give up on a page that takes too long, sending an error to the client if nothing was sent yet
+	 * 
+	 * @param sReason why
+	 */
+	private void abort(final String sReason){
+		this.bAborted = true;
+		
+		abandon();
+		
+		log(Log.WARNING, "asynchronous " + (this.bGet ? "GET" : "POST") + ' ' + sReason); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		
+		try{
+			if (!this.response.isCommitted())
+				this.response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		}
+		catch (final Exception e){
+			// ignore
+		}
+	}
+	
+	/**
+	 * Wake up the requests waiting for the page rendered by this one, if any
+	 * 
+	 * @param cs the cached page, or <code>null</code> if the page could not be cached
+	 */
+	private void releaseFlight(final CachingStructure cs){
+		final PageCache.Flight f = this.flight;
+		
+		if (f != null){
+			this.flight = null;
+			PageCache.endRender(f, cs);
+		}
+	}
+	
+	/**
+	 * Close the streams
+	 */
+	private void finishRequest(){
 		try {
 			this.osOut.flush();
 			this.osOut.close();
 		} catch (final IOException e) {
 			// ignore
 		}
-
-		// after executing the request clean up the temporary files
+		
+		// the page could not be cached, the waiting requests have to render it themselves
+		releaseFlight(null);
+	}
+	
+	/**
+	 * Delete any temporary uploaded files
+	 */
+	private void deleteUploads(){
 		if (this.mpRequest != null)
 			try {
 				final Enumeration<?> e = this.mpRequest.getFileNames();
@@ -0,0 +1,1247 @@
+package lazyj;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Session store keeping the sessions in local files, for single node deployments that want the sessions to survive
+ * restarts without depending on a database.<br>
+ * <br>
+ * Each write appends the encoded session to a log file, <i>sessions.log</i>. A memory-mapped hash table,
+ * <i>sessions.idx</i>, maps the session keys to the position of their latest version in the log, so a lookup is one
+ * probe in memory and one positional read. When the superseded and deleted records take too much of the log, the cleaner
+ * copies the live records to a new log that replaces the old one; the sessions can still be read and written during the
+ * copy, only the final swap blocks them. A lock file, <i>sessions.lock</i>, keeps other stores (other applications or
+ * JVMs using the same folder) from opening the files at the same time. The index is only a cache of the log: if it is missing or
+ * the application was not shut down cleanly it is rebuilt by scanning the log, and a truncated last record is dropped.<br>
+ * <br>
+ * Configuration parameters, from "dbsessions.properties":<br><ul>
+ * <li>store.file.dir=path (default "sessions" in the configuration folder). Where to keep the files.</li>
+ * <li>store.file.sync=boolean (default false). Force each write to the disk before returning.</li>
+ * <li>store.file.compact.ratio=double (default 0.5). Fraction of the log taken by obsolete records above which it is compacted.</li>
+ * <li>store.file.compact.min=int (default 16). Amount of obsolete records, in MB, below which the log is never compacted.</li>
+ * </ul>
+ *
+ * @author costing
+ * @since Oct 16, 2026
+ */
+public final class FileSessionStore implements SessionStore {
+
+	/**
+	 * Log file header, "LJSL"
+	 */
+	private static final int	LOG_MAGIC		= 0x4C4A534C;
+
+	/**
+	 * Index file header, "LJSI"
+	 */
+	private static final int	INDEX_MAGIC		= 0x4C4A5349;
+
+	/**
+	 * Version of the file formats
+	 */
+	private static final int	VERSION			= 1;
+
+	/**
+	 * Size of the log file header : magic, version
+	 */
+	private static final int	LOG_HEADER		= 8;
+
+	/**
+	 * Size of the index file header : magic, version, capacity, clean flag, covered log length
+	 */
+	private static final int	INDEX_HEADER	= 64;
+
+	/**
+	 * Size of an index slot : key hash, record offset, record length, last access time
+	 */
+	private static final int	SLOT			= 24;
+
+	/**
+	 * Fixed part of a record : length, CRC, type, last access time, key length
+	 */
+	private static final int	RECORD_HEADER	= 15;
+
+	/**
+	 * Record type : a new version of a session
+	 */
+	private static final byte	PUT				= 1;
+
+	/**
+	 * Record type : the session was deleted
+	 */
+	private static final byte	DELETE			= 2;
+
+	/**
+	 * Offset of a slot whose entry was deleted. Empty slots have the offset 0, which is inside the log header.
+	 */
+	private static final long	TOMBSTONE		= -1;
+
+	/**
+	 * Minimum number of index slots, a power of two
+	 */
+	private static final int	MIN_CAPACITY	= 1024;
+
+	/**
+	 * Reads share the lock, writes, resizing and compaction take it exclusively
+	 */
+	private final ReentrantReadWriteLock	lock			= new ReentrantReadWriteLock();
+
+	/**
+	 * Folder of the files, <code>null</code> if the store is not open
+	 */
+	private File							dir				= null;
+
+	/**
+	 * The lock file, kept open for as long as the store is open since closing it would release {@link #folderLock}
+	 */
+	private RandomAccessFile				lockFile		= null;
+
+	/**
+	 * Exclusive lock on {@link #lockFile}, so that no other process uses the same folder
+	 */
+	private FileLock						folderLock		= null;
+
+	/**
+	 * System property that keeps the other stores of this JVM (in any context / class loader) away from the same folder
+	 */
+	private String							lockKey			= null;
+
+	/**
+	 * The log
+	 */
+	private RandomAccessFile				logFile			= null;
+
+	/**
+	 * Channel of the log
+	 */
+	private FileChannel						log				= null;
+
+	/**
+	 * Current length of the log
+	 */
+	private long							logSize			= 0;
+
+	/**
+	 * The index
+	 */
+	private RandomAccessFile				indexFile		= null;
+
+	/**
+	 * Mapped index
+	 */
+	private MappedByteBuffer				index			= null;
+
+	/**
+	 * Number of index slots, a power of two
+	 */
+	private int								capacity		= 0;
+
+	/**
+	 * Slots that are not empty, live entries and tombstones
+	 */
+	private int								used			= 0;
+
+	/**
+	 * Live entries
+	 */
+	private int								live			= 0;
+
+	/**
+	 * Total length of the records referenced by the index
+	 */
+	private long							liveBytes		= 0;
+
+	/**
+	 * Whether to force the writes to the disk
+	 */
+	private volatile boolean				sync			= false;
+
+	/**
+	 * Obsolete fraction of the log that triggers a compaction
+	 */
+	private volatile double					compactRatio	= 0.5;
+
+	/**
+	 * Minimum amount of obsolete bytes to compact the log
+	 */
+	private volatile long					compactMin		= 16 * 1024 * 1024;
+
+	/**
+	 * Statistics : lookups
+	 */
+	private final AtomicLong				lookups			= new AtomicLong(0);
+
+	/**
+	 * Statistics : lookups that found the session
+	 */
+	private final AtomicLong				hits			= new AtomicLong(0);
+
+	/**
+	 * Statistics : compactions
+	 */
+	private final AtomicLong				compactions		= new AtomicLong(0);
+
+	@Override
+	@SuppressWarnings("nls")
+	public boolean init(final ExtProperties prop) {
+		this.sync = prop.getb("store.file.sync", false);
+		this.compactRatio = prop.getd("store.file.compact.ratio", 0.5);
+		this.compactMin = prop.getl("store.file.compact.min", 16) * 1024 * 1024;
+
+		String sDir = prop.gets("store.file.dir");
+
+		if (sDir.length() == 0){
+			final String sConfig = Utils.getLazyjConfigFolder();
+
+			sDir = (sConfig != null ? sConfig : System.getProperty("java.io.tmpdir")) + File.separator + "sessions";
+		}
+
+		final File newDir = new File(sDir).getAbsoluteFile();
+
+		this.lock.writeLock().lock();
+
+		try{
+			if (newDir.equals(this.dir))
+				return true;
+
+			closeFiles();
+
+			return open(newDir);
+		}
+		finally{
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Open the files in the given folder, rebuilding the index if needed. Called with the write lock held.
+	 *
+	 * @param newDir folder
+	 * @return <code>true</code> if the files could be opened
+	 */
+	@SuppressWarnings("nls")
+	private boolean open(final File newDir){
+		try{
+			if (!newDir.isDirectory() && !newDir.mkdirs()){
+				Log.log(Log.ERROR, "lazyj.FileSessionStore", "cannot create the sessions folder " + newDir);
+				return false;
+			}
+
+			// checked before opening any file, closing a second descriptor of the lock file would release the lock of the first one
+			final String sLockKey = "lazyj.FileSessionStore.dir:" + newDir.getCanonicalPath();
+
+			if (System.getProperties().putIfAbsent(sLockKey, "open") != null){
+				Log.log(Log.ERROR, "lazyj.FileSessionStore", newDir + " is used by another sessions store of this JVM");
+				return false;
+			}
+
+			this.lockKey = sLockKey;
+
+			this.lockFile = new RandomAccessFile(new File(newDir, "sessions.lock"), "rw");
+			this.folderLock = this.lockFile.getChannel().tryLock();
+
+			if (this.folderLock == null){
+				Log.log(Log.ERROR, "lazyj.FileSessionStore", newDir + " is used by another process");
+				closeFiles();
+				return false;
+			}
+
+			this.logFile = new RandomAccessFile(new File(newDir, "sessions.log"), "rw");
+			this.log = this.logFile.getChannel();
+
+			if (this.logFile.length() < LOG_HEADER){
+				final ByteBuffer header = ByteBuffer.allocate(LOG_HEADER);
+				header.putInt(LOG_MAGIC).putInt(VERSION).flip();
+
+				this.log.truncate(0);
+				writeFully(header, 0);
+			}
+			else{
+				final ByteBuffer header = ByteBuffer.allocate(LOG_HEADER);
+				readFully(header, 0);
+
+				if (header.getInt(0) != LOG_MAGIC || header.getInt(4) != VERSION){
+					Log.log(Log.ERROR, "lazyj.FileSessionStore", newDir + "/sessions.log is not a sessions log");
+					closeFiles();
+					return false;
+				}
+			}
+
+			this.logSize = this.log.size();
+
+			this.indexFile = new RandomAccessFile(new File(newDir, "sessions.idx"), "rw");
+
+			if (!loadIndex()){
+				Log.log(Log.INFO, "lazyj.FileSessionStore", "rebuilding the sessions index in " + newDir);
+				rebuildIndex(new File(newDir, "sessions.log"));
+			}
+
+			// until a clean shutdown, the index can be out of sync with the log
+			this.index.putInt(12, 0);
+			this.index.force();
+
+			this.dir = newDir;
+
+			return true;
+		}
+		catch (final IOException ioe){
+			Log.log(Log.ERROR, "lazyj.FileSessionStore", "cannot open the sessions store in " + newDir, ioe);
+
+			closeFiles();
+
+			return false;
+		}
+	}
+
+	/**
+	 * Map an existing index, if it matches the log
+	 *
+	 * @return <code>true</code> if the index can be used as it is
+	 * @throws IOException
+	 */
+	private boolean loadIndex() throws IOException{
+		final long length = this.indexFile.length();
+
+		if (length < INDEX_HEADER)
+			return false;
+
+		final ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER);
+
+		while (header.hasRemaining())
+			if (this.indexFile.getChannel().read(header, header.position()) < 0)
+				return false;
+
+		final int slots = header.getInt(8);
+
+		if (header.getInt(0) != INDEX_MAGIC || header.getInt(4) != VERSION || header.getInt(12) != 1 || header.getLong(16) != this.logSize
+			|| slots < MIN_CAPACITY || Integer.bitCount(slots) != 1 || length != INDEX_HEADER + (long) slots * SLOT)
+			return false;
+
+		final MappedByteBuffer mapped = this.indexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+
+		this.index = mapped;
+		this.capacity = slots;
+
+		this.used = 0;
+		this.live = 0;
+		this.liveBytes = 0;
+
+		for (int i = 0; i < slots; i++){
+			final long offset = mapped.getLong(INDEX_HEADER + i * SLOT + 8);
+
+			if (offset != 0){
+				this.used++;
+
+				if (offset != TOMBSTONE){
+					this.live++;
+					this.liveBytes += mapped.getInt(INDEX_HEADER + i * SLOT + 16);
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Create an empty index and fill it from the log, truncating the log after the last valid record
+	 *
+	 * @param logPath the log file
+	 * @throws IOException
+	 */
+	private void rebuildIndex(final File logPath) throws IOException{
+		mapIndex(MIN_CAPACITY);
+
+		long position = LOG_HEADER;
+
+		final CRC32 crc = new CRC32();
+
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(logPath), 64 * 1024))){
+			if (dis.skip(LOG_HEADER) != LOG_HEADER)
+				throw new EOFException();
+
+			while (position + RECORD_HEADER <= this.logSize){
+				final int length = dis.readInt();
+
+				if (length < RECORD_HEADER || position + length > this.logSize)
+					break;
+
+				final byte[] record = new byte[length - 4];
+				dis.readFully(record);
+
+				crc.reset();
+				crc.update(record, 4, record.length - 4);
+
+				if ((int) crc.getValue() != ByteBuffer.wrap(record).getInt(0))
+					break;
+
+				final ByteBuffer bb = ByteBuffer.wrap(record);
+
+				final byte type = bb.get(4);
+				final int lastAccess = bb.getInt(5);
+				final int keyLength = bb.getShort(9) & 0xFFFF;
+
+				if (11 + keyLength > record.length)
+					break;
+
+				final byte[] key = new byte[keyLength];
+				System.arraycopy(record, 11, key, 0, keyLength);
+
+				if (type == PUT)
+					indexPut(hash(key), key, position, length, lastAccess);
+				else
+					indexRemove(hash(key), key);
+
+				position += length;
+			}
+		}
+		catch (final EOFException eof){
+			// truncated record
+		}
+
+		if (position < this.logSize){
+			Log.log(Log.WARNING, "lazyj.FileSessionStore", "dropping " + (this.logSize - position) + " bytes of incomplete records at the end of the sessions log"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+			this.log.truncate(position);
+			this.logSize = position;
+		}
+	}
+
+	/**
+	 * Create a new, empty, index of the given size
+	 *
+	 * @param slots number of slots, a power of two
+	 * @throws IOException
+	 */
+	private void mapIndex(final int slots) throws IOException{
+		final long length = INDEX_HEADER + (long) slots * SLOT;
+
+		if (this.indexFile.length() != length)
+			this.indexFile.setLength(length);
+
+		this.index = this.indexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+
+		for (int pos = 0; pos < length; pos += 8)
+			this.index.putLong(pos, 0);
+
+		this.index.putInt(0, INDEX_MAGIC);
+		this.index.putInt(4, VERSION);
+		this.index.putInt(8, slots);
+		this.index.putInt(12, 0);
+
+		this.capacity = slots;
+		this.used = 0;
+		this.live = 0;
+		this.liveBytes = 0;
+	}
+
+	/**
+	 * Rebuild the index with the given number of slots, dropping the tombstones
+	 *
+	 * @param slots new number of slots, a power of two
+	 * @throws IOException
+	 */
+	private void resizeIndex(final int slots) throws IOException{
+		final int count = this.live;
+
+		final long[] hashes = new long[count];
+		final long[] offsets = new long[count];
+		final int[] lengths = new int[count];
+		final int[] lastAccess = new int[count];
+
+		int n = 0;
+
+		for (int i = 0; i < this.capacity; i++){
+			final int pos = INDEX_HEADER + i * SLOT;
+
+			final long offset = this.index.getLong(pos + 8);
+
+			if (offset != 0 && offset != TOMBSTONE){
+				hashes[n] = this.index.getLong(pos);
+				offsets[n] = offset;
+				lengths[n] = this.index.getInt(pos + 16);
+				lastAccess[n] = this.index.getInt(pos + 20);
+				n++;
+			}
+		}
+
+		mapIndex(slots);
+
+		// the keys are known to be distinct, no need to compare them
+		for (int i = 0; i < n; i++){
+			int slot = slotFor(hashes[i]);
+
+			while (this.index.getLong(INDEX_HEADER + slot * SLOT + 8) != 0)
+				slot = (slot + 1) & (this.capacity - 1);
+
+			writeSlot(slot, hashes[i], offsets[i], lengths[i], lastAccess[i]);
+
+			this.used++;
+			this.live++;
+			this.liveBytes += lengths[i];
+		}
+	}
+
+	/**
+	 * Release the files, with the write lock held
+	 */
+	private void closeFiles(){
+		try{
+			if (this.log != null && this.index != null){
+				this.log.force(true);
+
+				this.index.putLong(16, this.logSize);
+				this.index.putInt(12, 1);
+				this.index.force();
+			}
+		}
+		catch (final IOException ioe){
+			Log.log(Log.WARNING, "lazyj.FileSessionStore", "cannot sync the sessions store", ioe); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		close(this.logFile);
+		close(this.indexFile);
+
+		// also releases the lock
+		close(this.lockFile);
+
+		if (this.lockKey != null)
+			System.getProperties().remove(this.lockKey);
+
+		this.logFile = null;
+		this.log = null;
+		this.indexFile = null;
+		this.index = null;
+		this.dir = null;
+		this.lockFile = null;
+		this.folderLock = null;
+		this.lockKey = null;
+	}
+
+	/**
+	 * @param c file to close, can be <code>null</code>
+	 */
+	private static void close(final Closeable c){
+		if (c != null){
+			try{
+				c.close();
+			}
+			catch (final IOException ioe){
+				// ignore
+			}
+		}
+	}
+
+	@Override
+	public DBSession load(final String id, final int app, final String ip, final ClassLoader loader) {
+		final byte[] key = DBSession.getKey(id, app, ip).getBytes(StandardCharsets.UTF_8);
+
+		final long hash = hash(key);
+
+		this.lookups.incrementAndGet();
+
+		byte[] data = null;
+
+		this.lock.readLock().lock();
+
+		try{
+			if (this.index == null)
+				return null;
+
+			int slot = slotFor(hash);
+
+			for (int probes = 0; probes < this.capacity; probes++){
+				final int pos = INDEX_HEADER + slot * SLOT;
+
+				final long offset = this.index.getLong(pos + 8);
+
+				if (offset == 0)
+					break;
+
+				if (offset != TOMBSTONE && this.index.getLong(pos) == hash){
+					final ByteBuffer record = ByteBuffer.allocate(this.index.getInt(pos + 16));
+
+					readFully(record, offset);
+
+					if (keyEquals(record, key)){
+						data = new byte[record.capacity() - RECORD_HEADER - key.length];
+						record.position(RECORD_HEADER + key.length);
+						record.get(data);
+						break;
+					}
+				}
+
+				slot = (slot + 1) & (this.capacity - 1);
+			}
+		}
+		catch (final IOException ioe){
+			Log.log(Log.WARNING, "lazyj.FileSessionStore", "cannot read from the sessions log", ioe); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		finally{
+			this.lock.readLock().unlock();
+		}
+
+		if (data == null)
+			return null;
+
+		this.hits.incrementAndGet();
+
+		return DBSession.decode(data, loader);
+	}
+
+	@Override
+	public List<DBSession> save(final List<DBSession> sessions) {
+		final List<ByteBuffer> records = new ArrayList<>(sessions.size());
+
+		final List<DBSession> failed = new ArrayList<>();
+
+		for (final DBSession dbs : sessions){
+			try{
+				records.add(record(PUT, dbs.getKey().getBytes(StandardCharsets.UTF_8), (int) (dbs.lLastAccess / 1000), DBSession.getCodec().encode(dbs)));
+			}
+			catch (final Throwable t){
+				Log.log(Log.WARNING, "lazyj.FileSessionStore", "exception saving a session", t); //$NON-NLS-1$ //$NON-NLS-2$
+				failed.add(dbs);
+			}
+		}
+
+		if (records.isEmpty())
+			return failed;
+
+		this.lock.writeLock().lock();
+
+		try{
+			if (this.index == null)
+				return sessions;
+
+			for (final ByteBuffer record : records)
+				append(record);
+
+			if (this.sync)
+				this.log.force(false);
+		}
+		catch (final IOException ioe){
+			Log.log(Log.ERROR, "lazyj.FileSessionStore", "cannot write to the sessions log", ioe); //$NON-NLS-1$ //$NON-NLS-2$
+
+			// the records that made it to the log are simply written again
+			return sessions;
+		}
+		finally{
+			this.lock.writeLock().unlock();
+		}
+
+		return failed;
+	}
+
+	@Override
+	public boolean remove(final DBSession session) {
+		final ByteBuffer record = record(DELETE, session.getKey().getBytes(StandardCharsets.UTF_8), (int) (System.currentTimeMillis() / 1000), null);
+
+		this.lock.writeLock().lock();
+
+		try{
+			if (this.index == null)
+				return false;
+
+			append(record);
+
+			if (this.sync)
+				this.log.force(false);
+
+			return true;
+		}
+		catch (final IOException ioe){
+			Log.log(Log.ERROR, "lazyj.FileSessionStore", "cannot write to the sessions log", ioe); //$NON-NLS-1$ //$NON-NLS-2$
+
+			return false;
+		}
+		finally{
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public int purge(final long olderThan) {
+		final int limit = (int) (olderThan / 1000);
+
+		int count = 0;
+
+		this.lock.writeLock().lock();
+
+		try{
+			if (this.index == null)
+				return -1;
+
+			for (int i = 0; i < this.capacity; i++){
+				final int pos = INDEX_HEADER + i * SLOT;
+
+				final long offset = this.index.getLong(pos + 8);
+
+				if (offset == 0 || offset == TOMBSTONE || this.index.getInt(pos + 20) >= limit)
+					continue;
+
+				final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+				readFully(header, offset);
+
+				final byte[] key = new byte[header.getShort(RECORD_HEADER - 2) & 0xFFFF];
+				readFully(ByteBuffer.wrap(key), offset + RECORD_HEADER);
+
+				// the delete records keep the expired sessions from coming back if the index has to be rebuilt
+				append(record(DELETE, key, limit, null));
+
+				count++;
+			}
+		}
+		catch (final IOException ioe){
+			Log.log(Log.ERROR, "lazyj.FileSessionStore", "cannot purge the sessions log", ioe); //$NON-NLS-1$ //$NON-NLS-2$
+
+			return -1;
+		}
+		finally{
+			this.lock.writeLock().unlock();
+		}
+
+		// purge() is called periodically by the cleaner, the compaction runs there and not in the request threads
+		maybeCompact();
+
+		return count;
+	}
+
+	@Override
+	public void close() {
+		this.lock.writeLock().lock();
+
+		try{
+			closeFiles();
+		}
+		finally{
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Build a log record
+	 *
+	 * @param type {@link #PUT} or {@link #DELETE}
+	 * @param key session key
+	 * @param lastAccess last access time, in seconds
+	 * @param data encoded session, can be <code>null</code> for deletes
+	 * @return the record, ready to be written
+	 */
+	private static ByteBuffer record(final byte type, final byte[] key, final int lastAccess, final byte[] data){
+		if (key.length > 0xFFFF)
+			throw new IllegalArgumentException("session key too long"); //$NON-NLS-1$
+
+		final int length = RECORD_HEADER + key.length + (data != null ? data.length : 0);
+
+		final ByteBuffer bb = ByteBuffer.allocate(length);
+
+		bb.putInt(length).putInt(0).put(type).putInt(lastAccess).putShort((short) key.length).put(key);
+
+		if (data != null)
+			bb.put(data);
+
+		final CRC32 crc = new CRC32();
+		crc.update(bb.array(), 8, length - 8);
+
+		bb.putInt(4, (int) crc.getValue());
+		bb.flip();
+
+		return bb;
+	}
+
+	/**
+	 * Append a record to the log and update the index accordingly
+	 *
+	 * @param record record to append
+	 * @throws IOException
+	 */
+	private void append(final ByteBuffer record) throws IOException{
+		final long offset = this.logSize;
+		final int length = record.remaining();
+
+		writeFully(record, offset);
+
+		this.logSize += length;
+
+		final byte[] key = new byte[record.getShort(RECORD_HEADER - 2) & 0xFFFF];
+		record.position(RECORD_HEADER);
+		record.get(key);
+
+		if (record.get(8) == PUT)
+			indexPut(hash(key), key, offset, length, record.getInt(9));
+		else
+			indexRemove(hash(key), key);
+	}
+
+	/**
+	 * Point the index entry of the given key to a new record
+	 *
+	 * @param hash key hash
+	 * @param key session key
+	 * @param offset record position in the log
+	 * @param length record length
+	 * @param lastAccess last access time, in seconds
+	 * @throws IOException
+	 */
+	private void indexPut(final long hash, final byte[] key, final long offset, final int length, final int lastAccess) throws IOException{
+		int slot = slotFor(hash);
+		int free = -1;
+
+		for (int probes = 0; probes < this.capacity; probes++){
+			final int pos = INDEX_HEADER + slot * SLOT;
+
+			final long old = this.index.getLong(pos + 8);
+
+			if (old == 0)
+				break;
+
+			if (old == TOMBSTONE){
+				if (free < 0)
+					free = slot;
+			}
+			else
+			if (this.index.getLong(pos) == hash && keyEquals(old, key)){
+				this.liveBytes += length - this.index.getInt(pos + 16);
+
+				writeSlot(slot, hash, offset, length, lastAccess);
+
+				return;
+			}
+
+			slot = (slot + 1) & (this.capacity - 1);
+		}
+
+		if (free < 0)
+			this.used++;
+		else
+			slot = free;
+
+		writeSlot(slot, hash, offset, length, lastAccess);
+
+		this.live++;
+		this.liveBytes += length;
+
+		if (this.used > this.capacity / 4 * 3)
+			resizeIndex(this.live > this.capacity / 2 ? this.capacity * 2 : this.capacity);
+	}
+
+	/**
+	 * Remove the index entry of the given key
+	 *
+	 * @param hash key hash
+	 * @param key session key
+	 * @throws IOException
+	 */
+	private void indexRemove(final long hash, final byte[] key) throws IOException{
+		int slot = slotFor(hash);
+
+		for (int probes = 0; probes < this.capacity; probes++){
+			final int pos = INDEX_HEADER + slot * SLOT;
+
+			final long old = this.index.getLong(pos + 8);
+
+			if (old == 0)
+				return;
+
+			if (old != TOMBSTONE && this.index.getLong(pos) == hash && keyEquals(old, key)){
+				this.liveBytes -= this.index.getInt(pos + 16);
+				this.live--;
+
+				this.index.putLong(pos + 8, TOMBSTONE);
+
+				return;
+			}
+
+			slot = (slot + 1) & (this.capacity - 1);
+		}
+	}
+
+	/**
+	 * @param slot slot number
+	 * @param hash key hash
+	 * @param offset record position in the log
+	 * @param length record length
+	 * @param lastAccess last access time, in seconds
+	 */
+	private void writeSlot(final int slot, final long hash, final long offset, final int length, final int lastAccess){
+		final int pos = INDEX_HEADER + slot * SLOT;
+
+		this.index.putLong(pos, hash);
+		this.index.putLong(pos + 8, offset);
+		this.index.putInt(pos + 16, length);
+		this.index.putInt(pos + 20, lastAccess);
+	}
+
+	/**
+	 * Compact the log if the obsolete records take too much space. Called by {@link #purge(long)}, without any lock held.
+	 */
+	private void maybeCompact(){
+		final long garbage;
+
+		this.lock.readLock().lock();
+
+		try{
+			if (this.index == null)
+				return;
+
+			garbage = this.logSize - LOG_HEADER - this.liveBytes;
+
+			if (garbage < this.compactMin || garbage < this.compactRatio * (this.logSize - LOG_HEADER))
+				return;
+		}
+		finally{
+			this.lock.readLock().unlock();
+		}
+
+		try{
+			if (!compact())
+				return;
+
+			this.compactions.incrementAndGet();
+
+			Log.log(Log.FINE, "lazyj.FileSessionStore", "sessions log compacted, about " + Format.size(garbage) + " reclaimed"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+		catch (final IOException ioe){
+			Log.log(Log.ERROR, "lazyj.FileSessionStore", "cannot compact the sessions log", ioe); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	/**
+	 * Copy the live records to a new log that replaces the current one. The records that were live at the start are copied
+	 * without holding the lock; the write lock is only taken at the end, to append what was written in the meantime and
+	 * to swap the files.
+	 *
+	 * @return <code>false</code> if the store was closed or moved in the meantime
+	 * @throws IOException
+	 */
+	private boolean compact() throws IOException{
+		final File current;
+		final File compacted;
+		final FileChannel source;
+		final long copyEnd;
+		final long[] offsets;
+		final int[] lengths;
+
+		this.lock.readLock().lock();
+
+		try{
+			if (this.index == null)
+				return false;
+
+			current = new File(this.dir, "sessions.log"); //$NON-NLS-1$
+			compacted = new File(this.dir, "sessions.log.compact"); //$NON-NLS-1$
+			source = this.log;
+			copyEnd = this.logSize;
+
+			final Integer[] order = new Integer[this.live];
+			final long[] liveOffsets = new long[this.live];
+			final int[] liveLengths = new int[this.live];
+
+			int n = 0;
+
+			for (int i = 0; i < this.capacity && n < order.length; i++){
+				final int pos = INDEX_HEADER + i * SLOT;
+
+				final long offset = this.index.getLong(pos + 8);
+
+				if (offset == 0 || offset == TOMBSTONE)
+					continue;
+
+				liveOffsets[n] = offset;
+				liveLengths[n] = this.index.getInt(pos + 16);
+				order[n] = Integer.valueOf(n);
+				n++;
+			}
+
+			// copied in the order of the old log, so it is read sequentially and the new positions can be looked up by the old ones
+			Arrays.sort(order, 0, n, new Comparator<Integer>(){
+				@Override
+				public int compare(final Integer o1, final Integer o2) {
+					return Long.compare(liveOffsets[o1.intValue()], liveOffsets[o2.intValue()]);
+				}
+			});
+
+			offsets = new long[n];
+			lengths = new int[n];
+
+			for (int i = 0; i < n; i++){
+				offsets[i] = liveOffsets[order[i].intValue()];
+				lengths[i] = liveLengths[order[i].intValue()];
+			}
+		}
+		finally{
+			this.lock.readLock().unlock();
+		}
+
+		final long[] newOffsets = new long[offsets.length];
+
+		long position = LOG_HEADER;
+
+		try (RandomAccessFile raf = new RandomAccessFile(compacted, "rw")){ //$NON-NLS-1$
+			final FileChannel target = raf.getChannel();
+
+			target.truncate(0);
+
+			final ByteBuffer header = ByteBuffer.allocate(LOG_HEADER);
+			header.putInt(LOG_MAGIC).putInt(VERSION).flip();
+
+			while (header.hasRemaining())
+				target.write(header, header.position());
+
+			// the records before copyEnd never change, the concurrent writes only append after it
+			for (int i = 0; i < offsets.length; i++){
+				transfer(source, offsets[i], lengths[i], target, position);
+
+				newOffsets[i] = position;
+				position += lengths[i];
+			}
+
+			this.lock.writeLock().lock();
+
+			try{
+				if (this.log != source){
+					// closed or moved to another folder in the meantime
+					return false;
+				}
+
+				// what was written during the copy is appended as it is
+				final long tailStart = position;
+
+				transfer(source, copyEnd, this.logSize - copyEnd, target, tailStart);
+
+				target.force(true);
+
+				this.logFile.close();
+
+				try{
+					Files.move(compacted.toPath(), current.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}
+				finally{
+					// either the new log, or the old one if it could not be replaced
+					this.logFile = new RandomAccessFile(current, "rw"); //$NON-NLS-1$
+					this.log = this.logFile.getChannel();
+					this.logSize = this.log.size();
+				}
+
+				for (int i = 0; i < this.capacity; i++){
+					final int pos = INDEX_HEADER + i * SLOT;
+
+					final long offset = this.index.getLong(pos + 8);
+
+					if (offset == 0 || offset == TOMBSTONE)
+						continue;
+
+					if (offset >= copyEnd)
+						this.index.putLong(pos + 8, tailStart + offset - copyEnd);
+					else{
+						final int k = Arrays.binarySearch(offsets, offset);
+
+						// a record that was live at the start of the copy, nothing else can be before copyEnd
+						if (k >= 0)
+							this.index.putLong(pos + 8, newOffsets[k]);
+					}
+				}
+
+				// the delete records are gone, so are the tombstones
+				resizeIndex(this.capacity);
+			}
+			finally{
+				this.lock.writeLock().unlock();
+			}
+		}
+		finally{
+			if (compacted.exists() && !compacted.delete())
+				Log.log(Log.WARNING, "lazyj.FileSessionStore", "cannot delete " + compacted); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		return true;
+	}
+
+	/**
+	 * Copy a part of a file to another
+	 *
+	 * @param source file to copy from
+	 * @param offset where to start reading
+	 * @param length how many bytes to copy
+	 * @param target file to copy to
+	 * @param position where to start writing
+	 * @throws IOException
+	 */
+	private static void transfer(final FileChannel source, final long offset, final long length, final FileChannel target, final long position) throws IOException{
+		long copied = 0;
+
+		while (copied < length)
+			copied += source.transferTo(offset + copied, length - copied, target.position(position + copied));
+	}
+
+	/**
+	 * @param record a complete record, as read from the log
+	 * @param key session key
+	 * @return <code>true</code> if the record belongs to this key
+	 */
+	private static boolean keyEquals(final ByteBuffer record, final byte[] key){
+		if ((record.getShort(RECORD_HEADER - 2) & 0xFFFF) != key.length || record.capacity() < RECORD_HEADER + key.length)
+			return false;
+
+		for (int i = 0; i < key.length; i++)
+			if (record.get(RECORD_HEADER + i) != key[i])
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * @param offset position of a record in the log
+	 * @param key session key
+	 * @return <code>true</code> if the record belongs to this key
+	 * @throws IOException
+	 */
+	private boolean keyEquals(final long offset, final byte[] key) throws IOException{
+		final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + key.length);
+
+		readFully(record, offset);
+
+		return keyEquals(record, key);
+	}
+
+	/**
+	 * @param hash key hash
+	 * @return the first slot to probe for this hash
+	 */
+	private int slotFor(final long hash){
+		return (int) (hash ^ (hash >>> 32)) & (this.capacity - 1);
+	}
+
+	/**
+	 * 64-bit FNV-1a hash, stable across restarts
+	 *
+	 * @param key session key
+	 * @return the hash
+	 */
+	private static long hash(final byte[] key){
+		long h = 0xcbf29ce484222325L;
+
+		for (final byte b : key){
+			h ^= b & 0xFF;
+			h *= 0x100000001b3L;
+		}
+
+		return h;
+	}
+
+	/**
+	 * @param bb buffer to fill, completely
+	 * @param position log position to read from
+	 * @throws IOException if the end of the log is reached
+	 */
+	private void readFully(final ByteBuffer bb, final long position) throws IOException{
+		final int start = bb.position();
+
+		while (bb.hasRemaining())
+			if (this.log.read(bb, position + bb.position() - start) < 0)
+				throw new EOFException();
+
+		bb.flip();
+	}
+
+	/**
+	 * @param bb buffer to write, completely
+	 * @param position log position to write at
+	 * @throws IOException
+	 */
+	private void writeFully(final ByteBuffer bb, final long position) throws IOException{
+		final int start = bb.position();
+
+		while (bb.hasRemaining())
+			this.log.write(bb, position + bb.position() - start);
+	}
+
+	/**
+	 * @return number of stored sessions
+	 */
+	public int getEntries(){
+		this.lock.readLock().lock();
+
+		try{
+			return this.live;
+		}
+		finally{
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return current length of the log, in bytes
+	 */
+	public long getLogSize(){
+		this.lock.readLock().lock();
+
+		try{
+			return this.logSize;
+		}
+		finally{
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return length of the current versions of the sessions, the rest of the log is reclaimed by the next compaction
+	 */
+	public long getLiveBytes(){
+		this.lock.readLock().lock();
+
+		try{
+			return this.liveBytes;
+		}
+		finally{
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return number of lookups
+	 */
+	public long getLookups(){
+		return this.lookups.get();
+	}
+
+	/**
+	 * @return number of lookups that found the session
+	 */
+	public long getHits(){
+		return this.hits.get();
+	}
+
+	/**
+	 * @return number of log compactions
+	 */
+	public long getCompactions(){
+		return this.compactions.get();
+	}
+
+	@Override
+	public String toString() {
+		return "file: " + this.dir + ", sessions: " + getEntries() + ", log: " + Format.size(getLogSize()) + ", live: " + Format.size(getLiveBytes()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	}
+}
@@ -0,0 +1,163 @@
+package lazyj;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram. Values are kept with microsecond resolution in logarithmic buckets, each power of two being
+ * split in 8 linear sub-buckets, so any reported percentile is within 12.5% of the real value. Recording is a couple of
+ * atomic increments, without any locking or allocation, so it can be used on the hot path of every query.
+ *
+ * @author costing
+ * @since Oct 16, 2026
+ */
+public final class LatencyHistogram {
+
+	/**
+	 * Number of linear sub-buckets for each power of two (as a number of bits)
+	 */
+	private static final int	SUB_BITS	= 3;
+
+	/**
+	 * Number of linear sub-buckets for each power of two
+	 */
+	private static final int	SUB_COUNT	= 1 << SUB_BITS;
+
+	/**
+	 * Counters for each bucket
+	 */
+	private final AtomicLongArray	buckets		= new AtomicLongArray((64 - SUB_BITS + 1) * SUB_COUNT);
+
+	/**
+	 * Number of recorded values
+	 */
+	private final AtomicLong		count		= new AtomicLong();
+
+	/**
+	 * Sum of all recorded values, in microseconds
+	 */
+	private final AtomicLong		sum			= new AtomicLong();
+
+	/**
+	 * Largest recorded value, in microseconds
+	 */
+	private final AtomicLong		max			= new AtomicLong();
+
+	/**
+	 * Record one value
+	 *
+	 * @param nanos duration, in nanoseconds
+	 */
+	public void record(final long nanos) {
+		final long micros = nanos > 0 ? nanos / 1000 : 0;
+
+		this.buckets.incrementAndGet(getIndex(micros));
+		this.count.incrementAndGet();
+		this.sum.addAndGet(micros);
+
+		long lMax;
+
+		while (micros > (lMax = this.max.get()) && !this.max.compareAndSet(lMax, micros)) {
+			// retry
+		}
+	}
+
+	/**
+	 * @param micros value
+	 * @return the bucket for this value
+	 */
+	private static int getIndex(final long micros) {
+		if (micros < SUB_COUNT)
+			return (int) micros;
+
+		final int exp = 63 - Long.numberOfLeadingZeros(micros);
+
+		return (exp - SUB_BITS + 1) * SUB_COUNT + (int) ((micros >>> (exp - SUB_BITS)) & (SUB_COUNT - 1));
+	}
+
+	/**
+	 * @param index bucket index
+	 * @return the highest value that falls in this bucket
+	 */
+	private static long getUpperBound(final int index) {
+		if (index < SUB_COUNT)
+			return index;
+
+		final int shift = index / SUB_COUNT - 1;
+
+		return ((long) (SUB_COUNT + index % SUB_COUNT + 1) << shift) - 1;
+	}
+
+	/**
+	 * @return the number of recorded values
+	 */
+	public long getCount() {
+		return this.count.get();
+	}
+
+	/**
+	 * @return average value, in milliseconds
+	 */
+	public double getMean() {
+		final long lCount = this.count.get();
+
+		return lCount > 0 ? this.sum.get() / (lCount * 1000d) : 0;
+	}
+
+	/**
+	 * @return total of all recorded values, in milliseconds
+	 */
+	public double getTotal() {
+		return this.sum.get() / 1000d;
+	}
+
+	/**
+	 * @return the largest recorded value, in milliseconds
+	 */
+	public double getMax() {
+		return this.max.get() / 1000d;
+	}
+
+	/**
+	 * Get the value below which the given percentage of the recorded values fall
+	 *
+	 * @param percentile between 0 and 100
+	 * @return the value, in milliseconds
+	 */
+	public double getPercentile(final double percentile) {
+		final long lCount = this.count.get();
+
+		if (lCount <= 0)
+			return 0;
+
+		final long target = Math.max((long) Math.ceil(lCount * percentile / 100), 1);
+
+		long seen = 0;
+
+		for (int i = 0; i < this.buckets.length(); i++) {
+			seen += this.buckets.get(i);
+
+			if (seen >= target)
+				return Math.min(getUpperBound(i), this.max.get()) / 1000d;
+		}
+
+		return getMax();
+	}
+
+	/**
+	 * Forget all recorded values
+	 */
+	public void clear() {
+		for (int i = 0; i < this.buckets.length(); i++)
+			this.buckets.set(i, 0);
+
+		this.count.set(0);
+		this.sum.set(0);
+		this.max.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "count: " + getCount() + ", avg: " + Format.point(getMean()) + " ms, p50: " + Format.point(getPercentile(50)) + " ms, p99: " + Format.point(getPercentile(99)) + " ms, max: " + Format.point(getMax()) + " ms"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+	}
+}
@@ -3,15 +3,37 @@
  */
 package lazyj;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.http.HttpServletRequest;
 
 import lazyj.cache.ExpirationCache;
 
 /**
- * This is the page cache.
+ * This is the page cache.<br>
+ * <br>
+ * When a page is missing from the cache only the first request renders it, the concurrent requests for the same key
+ * wait for that render to finish and are served its result (see {@link ExtendedServlet#getCacheWaitTime()}). Pages can
+ * also be allowed to outlive their expiration for a while, so that the waiting requests are served the previous version
+ * right away (see {@link ExtendedServlet#getCacheStaleTime()}).<br>
+ * <br>
+ * By default the pages are kept on the heap. With <i>store=direct</i> or <i>store=mmap</i> in "pagecache.properties"
+ * (in the lazyj configuration folder) they are kept off-heap instead, in a {@link PageStore} of <i>store.size</i> MB
+ * (default 64) split in blocks of <i>store.block</i> bytes (default 4096). The <i>mmap</i> store maps the file given by
+ * <i>store.file</i> (by default a new file in the temporary folder), locking it so that no other store maps the same file. When
+ * the store is full the least recently used pages are evicted to make room for the new ones, and pages larger than a
+ * quarter of the store are not cached at all. {@link #shutdown()} releases the store when the context is stopped, see
+ * {@link ContextListener}.
  * 
  * @author costing
  * @since 2006-10-04
@@ -32,7 +54,104 @@ public final class PageCache extends ExpirationCache<String, CachingStructure>{
 			CachingStructure.bonus.put(key, key);
 		else
 			CachingStructure.bonus.remove(key);
+		
+		if (cs.staleLifetime > 0){
+			// the stale pages take over the reference of the cache
+			synchronized (stale){
+				release(stale.put(key, cs));
+			}
+		}
+		else
+			cs.release();
 	}
+	
+	/**
+	 * Pages pushed out by the size limit or dropped by {@link #clear()} give their off-heap memory back.
+	 */
+	@Override
+	protected void callbackOnRemoval(final String key, final CachingStructure cs){
+		cs.release();
+	}
+	
+	/**
+	 * A page that is being rendered. Concurrent requests for the same page wait for it instead of rendering it again.
+	 * 
+	 * @author costing
+	 * @since Oct 16, 2026
+	 */
+	static final class Flight {
+		/**
+		 * Cache key of the page
+		 */
+		final String sKey;
+		
+		/**
+		 * Released when the render is over
+		 */
+		private final CountDownLatch done = new CountDownLatch(1);
+		
+		/**
+		 * The rendered page, <code>null</code> if it could not be cached
+		 */
+		private volatile CachingStructure result = null;
+		
+		/**
+		 * @param key cache key of the page
+		 */
+		Flight(final String key){
+			this.sKey = key;
+		}
+	}
+	
+	/**
+	 * Pages that are being rendered
+	 */
+	private static final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+	
+	/**
+	 * Expired pages that are still allowed to be served while they are rendered again
+	 */
+	static final LRUMap<String, CachingStructure> stale = new LRUMap<String, CachingStructure>(10000){
+		/**
+		 * stop complaining :)
+		 */
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, CachingStructure> eldest) {
+			final boolean willRemove = super.removeEldestEntry(eldest);
+			
+			if (willRemove)
+				eldest.getValue().release();
+			
+			return willRemove;
+		}
+	};
+	
+	/**
+	 * Off-heap storage of the pages, <code>null</code> if they are kept on the heap
+	 */
+	private static volatile PageStore store = createStore();
+	
+	/**
+	 * Statistics : pages evicted to make room in the off-heap store
+	 */
+	private static final AtomicLong evictions = new AtomicLong(0);
+	
+	/**
+	 * Statistics : requests that were served the page rendered by a concurrent request
+	 */
+	private static final AtomicLong coalesced = new AtomicLong(0);
+	
+	/**
+	 * Statistics : requests that were served an expired page while it was rendered again
+	 */
+	private static final AtomicLong staleHits = new AtomicLong(0);
+	
+	/**
+	 * Statistics : requests that gave up waiting for a concurrent render and rendered the page themselves
+	 */
+	private static final AtomicLong waitTimeouts = new AtomicLong(0);
 
 	/**
 	 * page caching
@@ -41,6 +160,56 @@ public final class PageCache extends ExpirationCache<String, CachingStructure>{
 		super(10000);
 	}
 	
+	/**
+	 * Create the off-heap store, if configured
+	 * 
+	 * @return the store, or <code>null</code> if the pages are kept on the heap
+	 */
+	@SuppressWarnings("nls")
+	private static PageStore createStore(){
+		final String sFolder = Utils.getLazyjConfigFolder();
+		
+		if (sFolder == null)
+			return null;
+		
+		final ExtProperties prop = new ExtProperties(sFolder, "pagecache");
+		
+		final String sType = prop.gets("store", "heap").toLowerCase(Locale.US);
+		
+		if (sType.equals("heap"))
+			return null;
+		
+		final long lSize = prop.getl("store.size", 64) * 1024 * 1024;
+		final int iBlock = prop.geti("store.block", 4096);
+		
+		try{
+			final PageStore s;
+			
+			if (sType.equals("direct"))
+				s = new PageStore(lSize, iBlock, null);
+			else
+			if (sType.equals("mmap")){
+				final String sFile = prop.gets("store.file");
+				
+				// by default each JVM and context gets its own file
+				s = new PageStore(lSize, iBlock, sFile.length() > 0 ? new File(sFile) : File.createTempFile("lazyj-pagecache", ".slab"));
+			}
+			else{
+				Log.log(Log.ERROR, "lazyj.PageCache", "unknown page store '"+sType+"', the pages are kept on the heap");
+				return null;
+			}
+			
+			Log.log(Log.INFO, "lazyj.PageCache", "pages are kept off-heap: "+s);
+			
+			return s;
+		}
+		catch (final IOException | RuntimeException | OutOfMemoryError e){
+			Log.log(Log.ERROR, "lazyj.PageCache", "cannot allocate the '"+sType+"' page store of "+lSize+" bytes, the pages are kept on the heap", e);
+			
+			return null;
+		}
+	}
+	
 	/**
 	 * singleton
 	 */
@@ -87,7 +256,274 @@ public final class PageCache extends ExpirationCache<String, CachingStructure>{
 	 * @param cs the structure to cache
 	 */
 	static void put(final CachingStructure cs) {
-		instance.put(cs.sKey, cs, cs.lifetime);
+		if (offload(cs)){
+			if (!instance.put(cs.sKey, cs, cs.lifetime))
+				cs.release();
+		}
+		else
+			Log.log(Log.FINE, "lazyj.PageCache", "not enough room in the page store for "+cs.sKey); //$NON-NLS-1$ //$NON-NLS-2$
+		
+		synchronized (stale){
+			release(stale.remove(cs.sKey));
+		}
+	}
+	
+	/**
+	 * Move a page to the off-heap store, if there is one, evicting the least recently used pages if needed
+	 * 
+	 * @param cs the page
+	 * @return true if the page can be cached
+	 */
+	private static boolean offload(final CachingStructure cs){
+		final PageStore s = store;
+		
+		if (s == null)
+			return true;
+		
+		// one huge page shouldn't push out everything else
+		if (cs.getRealSize() > s.getCapacity() / 4)
+			return false;
+		
+		while (!cs.offload(s)){
+			if (!evictOne())
+				return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Evict a page to make room in the off-heap store, an expired one if there is any, otherwise the least recently
+	 * used one. The memory is freed right away unless the page is being sent to a client.
+	 * 
+	 * @return false if there is nothing left to evict
+	 */
+	private static boolean evictOne(){
+		CachingStructure cs = null;
+		
+		synchronized (stale){
+			final Iterator<CachingStructure> it = stale.values().iterator();
+			
+			if (it.hasNext()){
+				cs = it.next();
+				it.remove();
+			}
+		}
+		
+		if (cs != null)
+			cs.release();
+		else{
+			// released by callbackOnRemoval
+			cs = instance.removeEldest();
+			
+			if (cs == null)
+				return false;
+		}
+		
+		evictions.incrementAndGet();
+		
+		return true;
+	}
+	
+	/**
+	 * Release a page, if any
+	 * 
+	 * @param cs the page, can be <code>null</code>
+	 */
+	private static void release(final CachingStructure cs){
+		if (cs != null)
+			cs.release();
+	}
+	
+	/**
+	 * Announce that a page is going to be rendered
+	 * 
+	 * @param sKey cache key of the page
+	 * @return the render handle, to be passed to {@link #endRender(Flight, CachingStructure)}, or <code>null</code> if
+	 * 		another request is already rendering this page
+	 */
+	static Flight startRender(final String sKey){
+		final Flight flight = new Flight(sKey);
+		
+		return flights.putIfAbsent(sKey, flight) == null ? flight : null;
+	}
+	
+	/**
+	 * Signal the end of a render, waking up the requests that wait for it
+	 * 
+	 * @param flight handle returned by {@link #startRender(String)}
+	 * @param cs the page, or <code>null</code> if the result could not be cached (redirect, error ...)
+	 */
+	static void endRender(final Flight flight, final CachingStructure cs){
+		flights.remove(flight.sKey, flight);
+		
+		flight.result = cs;
+		flight.done.countDown();
+	}
+	
+	/**
+	 * Wait for the concurrent render of a page
+	 * 
+	 * @param sKey cache key of the page
+	 * @param lTimeout how long to wait, in milliseconds
+	 * @return the rendered page, or <code>null</code> if it is not available in time and the caller should render it itself
+	 */
+	static CachingStructure awaitRender(final String sKey, final long lTimeout){
+		final Flight flight = flights.get(sKey);
+		
+		if (flight == null){
+			// finished in the meantime
+			return getCache(sKey);
+		}
+		
+		try{
+			if (flight.done.await(lTimeout, TimeUnit.MILLISECONDS)){
+				final CachingStructure cs = flight.result;
+				
+				if (cs != null)
+					coalesced.incrementAndGet();
+				
+				return cs;
+			}
+		}
+		catch (final InterruptedException ie){
+			// give up waiting
+		}
+		
+		waitTimeouts.incrementAndGet();
+		
+		return null;
+	}
+	
+	/**
+	 * Get the expired version of a page, if it is still allowed to be served
+	 * 
+	 * @param sKey cache key of the page
+	 * @return the expired page, or <code>null</code>
+	 */
+	static CachingStructure getStale(final String sKey){
+		synchronized (stale){
+			final CachingStructure cs = stale.get(sKey);
+			
+			if (cs == null)
+				return null;
+			
+			if (cs.lGenerated + cs.lifetime + cs.staleLifetime < System.currentTimeMillis()){
+				stale.remove(sKey);
+				cs.release();
+				return null;
+			}
+			
+			staleHits.incrementAndGet();
+			
+			return cs;
+		}
+	}
+	
+	/**
+	 * @return number of requests that were served the page rendered by a concurrent request for the same key
+	 */
+	public static long getCoalescedRenders(){
+		return coalesced.get();
+	}
+	
+	/**
+	 * @return number of requests that were served an expired page while another request was rendering it again
+	 */
+	public static long getStaleHits(){
+		return staleHits.get();
+	}
+	
+	/**
+	 * @return number of requests that gave up waiting for a concurrent render and rendered the page themselves
+	 */
+	public static long getWaitTimeouts(){
+		return waitTimeouts.get();
+	}
+	
+	/**
+	 * @return number of pages that are being rendered right now
+	 */
+	public static int getRendersInProgress(){
+		return flights.size();
+	}
+	
+	/**
+	 * @return where the pages are kept: "heap" or the description of the off-heap store
+	 */
+	public static String getStoreType(){
+		final PageStore s = store;
+		
+		return s != null ? s.toString() : "heap"; //$NON-NLS-1$
+	}
+	
+	/**
+	 * @return size of the off-heap store, in bytes, or -1 if the pages are kept on the heap
+	 */
+	public static long getStoreCapacity(){
+		final PageStore s = store;
+		
+		return s != null ? s.getCapacity() : -1;
+	}
+	
+	/**
+	 * @return bytes taken by the cached pages (compressed or not, as they are kept), including the expired pages that
+	 * 		can still be served
+	 */
+	public static long getStoreUsedBytes(){
+		final PageStore s = store;
+		
+		if (s != null)
+			return s.getUsedBytes();
+		
+		long lUsed = 0;
+		
+		for (final CachingStructure cs : instance.getValues())
+			lUsed += cs.getRealSize();
+		
+		synchronized (stale){
+			for (final CachingStructure cs : stale.values())
+				lUsed += cs.getRealSize();
+		}
+		
+		return lUsed;
+	}
+	
+	/**
+	 * @return bytes of the off-heap store that are allocated to pages (used bytes plus fragmentation), or -1 if the
+	 * 		pages are kept on the heap
+	 */
+	public static long getStoreAllocatedBytes(){
+		final PageStore s = store;
+		
+		return s != null ? s.getAllocatedBytes() : -1;
+	}
+	
+	/**
+	 * @return fraction of the allocated off-heap memory that is not used by the pages (the unused end of their last
+	 * 		block), between 0 and 1, always 0 if the pages are kept on the heap
+	 */
+	public static double getStoreFragmentation(){
+		final PageStore s = store;
+		
+		return s != null ? s.getFragmentation() : 0;
+	}
+	
+	/**
+	 * @return number of pages in the off-heap store, including the ones that were evicted but are still being sent
+	 * 		to clients, or -1 if the pages are kept on the heap
+	 */
+	public static long getStoreEntries(){
+		final PageStore s = store;
+		
+		return s != null ? s.getEntries() : -1;
+	}
+	
+	/**
+	 * @return number of pages that were evicted to make room in the off-heap store
+	 */
+	public static long getEvictions(){
+		return evictions.get();
 	}
 	
 	/**
@@ -98,6 +534,31 @@ public final class PageCache extends ExpirationCache<String, CachingStructure>{
 	public static void clear(){
 		instance.refresh();
 		CachingStructure.bonus.clear();
+		
+		synchronized (stale){
+			for (final CachingStructure cs : stale.values())
+				cs.release();
+			
+			stale.clear();
+		}
+	}
+	
+	/**
+	 * Drop all the pages and release the off-heap store, unlocking and closing its file. Called when the context is
+	 * stopped, the pages cached afterwards are kept on the heap.
+	 */
+	public static void shutdown(){
+		final PageStore s = store;
+		
+		store = null;
+		
+		clear();
+		
+		if (s != null){
+			s.close();
+			
+			Log.log(Log.INFO, "lazyj.PageCache", "page store released: "+s); //$NON-NLS-1$ //$NON-NLS-2$
+		}
 	}
 	
 	/**
@@ -0,0 +1,506 @@
+package lazyj;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Off-heap storage of the {@link PageCache} contents. The memory is either allocated with {@link ByteBuffer#allocateDirect(int)}
+ * or mapped from a file, and is split in fixed size blocks. A page takes as many blocks as its (compressed) size needs, not
+ * necessarily consecutive ones, so the free space is never fragmented in unusable holes. The only waste is the unused end
+ * of the last block of each page, reported by {@link #getFragmentation()}.<br>
+ * <br>
+ * Allocating and freeing blocks is synchronized, reading and writing their contents is not, since a block belongs to a
+ * single page from its allocation until it is freed. {@link #close()} releases the memory and the file, the pages must be
+ * released before.
+ *
+ * @author costing
+ * @since Oct 16, 2026
+ */
+final class PageStore {
+
+	/**
+	 * Largest memory region, one {@link ByteBuffer} cannot address more than 2GB
+	 */
+	private static final int	MAX_REGION	= 1 << 30;
+
+	/**
+	 * Marker for the stream classes that cannot write a {@link ByteBuffer} directly
+	 */
+	private static final Method	NO_METHOD;
+
+	static {
+		try {
+			NO_METHOD = Object.class.getMethod("toString"); //$NON-NLS-1$
+		}
+		catch (final NoSuchMethodException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * The <code>write(ByteBuffer)</code> method of each output stream class, if it has one (Tomcat's stream does)
+	 */
+	private static final ConcurrentHashMap<Class<?>, Method>	bufferWriters	= new ConcurrentHashMap<>();
+
+	/**
+	 * Copy buffer for the output streams that only accept arrays
+	 */
+	private static final ThreadLocal<byte[]>	copyBuffer	= new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[8192];
+		}
+	};
+
+	/**
+	 * The memory
+	 */
+	private final ByteBuffer[]	regions;
+
+	/**
+	 * Block size, in bytes
+	 */
+	private final int			blockSize;
+
+	/**
+	 * How many blocks each region has
+	 */
+	private final int			regionBlocks;
+
+	/**
+	 * Total number of blocks
+	 */
+	private final int			blocks;
+
+	/**
+	 * Indexes of the free blocks, the first {@link #freeCount} entries are valid
+	 */
+	private final int[]			free;
+
+	/**
+	 * How many blocks are free
+	 */
+	private int					freeCount;
+
+	/**
+	 * Bytes of content kept in the allocated blocks
+	 */
+	private final AtomicLong	usedBytes	= new AtomicLong(0);
+
+	/**
+	 * Number of pages kept in the store
+	 */
+	private final AtomicLong	entries		= new AtomicLong(0);
+
+	/**
+	 * Description, for the statistics
+	 */
+	private final String		sType;
+
+	/**
+	 * The mapped file, kept open for as long as the store exists since closing it would release {@link #lock}
+	 */
+	private final RandomAccessFile	raf;
+
+	/**
+	 * Exclusive lock on the mapped file, so that two stores (of different JVMs or contexts) never share the same memory
+	 */
+	private final FileLock		lock;
+
+	/**
+	 * The mapped file, <code>null</code> for direct memory
+	 */
+	private final File			file;
+
+	/**
+	 * System property that keeps the other stores of this JVM away from {@link #file}
+	 */
+	private final String		lockKey;
+
+	/**
+	 * Set by {@link #close()}, no more blocks are handed out afterwards
+	 */
+	private boolean				closed		= false;
+
+	/**
+	 * Allocate the memory of the store
+	 *
+	 * @param lCapacity total size, in bytes
+	 * @param iBlockSize block size, in bytes
+	 * @param mapFile file to map the memory from, or <code>null</code> to allocate it with {@link ByteBuffer#allocateDirect(int)}
+	 * @throws IOException if the file cannot be mapped, or it is already used by another store
+	 */
+	PageStore(final long lCapacity, final int iBlockSize, final File mapFile) throws IOException {
+		this.blockSize = Math.max(iBlockSize, 512);
+		this.regionBlocks = MAX_REGION / this.blockSize;
+
+		final long lBlocks = Math.max(lCapacity / this.blockSize, 1);
+
+		if (lBlocks > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many blocks: " + lBlocks); //$NON-NLS-1$
+
+		this.blocks = (int) lBlocks;
+		this.regions = new ByteBuffer[(this.blocks + this.regionBlocks - 1) / this.regionBlocks];
+
+		if (mapFile != null) {
+			// closing a second descriptor of the file would release the lock of the first one, so the stores of this JVM
+			// (in any context / class loader) are told apart before the file is opened
+			final String sLockKey = "lazyj.PageStore.file:" + mapFile.getCanonicalPath(); //$NON-NLS-1$
+
+			if (System.getProperties().putIfAbsent(sLockKey, "mapped") != null) //$NON-NLS-1$
+				throw new IOException(mapFile.getAbsolutePath() + " is used by another store of this JVM"); //$NON-NLS-1$
+
+			RandomAccessFile f = null;
+
+			try {
+				f = new RandomAccessFile(mapFile, "rw"); //$NON-NLS-1$
+
+				this.lock = f.getChannel().tryLock();
+
+				if (this.lock == null)
+					throw new IOException(mapFile.getAbsolutePath() + " is used by another process"); //$NON-NLS-1$
+
+				f.setLength((long) this.blocks * this.blockSize);
+
+				final FileChannel channel = f.getChannel();
+
+				for (int i = 0; i < this.regions.length; i++) {
+					final long lOffset = (long) i * this.regionBlocks * this.blockSize;
+
+					this.regions[i] = channel.map(FileChannel.MapMode.READ_WRITE, lOffset, regionSize(i));
+				}
+			}
+			catch (final IOException | RuntimeException e) {
+				// also releases the lock
+				if (f != null)
+					f.close();
+
+				System.getProperties().remove(sLockKey);
+
+				throw e;
+			}
+
+			this.raf = f;
+			this.file = mapFile;
+			this.lockKey = sLockKey;
+
+			// the content is not needed after a restart
+			mapFile.deleteOnExit();
+
+			this.sType = "mmap:" + mapFile.getAbsolutePath(); //$NON-NLS-1$
+		}
+		else {
+			for (int i = 0; i < this.regions.length; i++)
+				this.regions[i] = ByteBuffer.allocateDirect(regionSize(i));
+
+			this.raf = null;
+			this.lock = null;
+			this.file = null;
+			this.lockKey = null;
+
+			this.sType = "direct"; //$NON-NLS-1$
+		}
+
+		this.free = new int[this.blocks];
+
+		// hand out the blocks in increasing order, so that the first pages are contiguous
+		for (int i = 0; i < this.blocks; i++)
+			this.free[i] = this.blocks - 1 - i;
+
+		this.freeCount = this.blocks;
+	}
+
+	/**
+	 * @param region region index
+	 * @return size of this region, in bytes
+	 */
+	private int regionSize(final int region) {
+		return Math.min(this.blocks - region * this.regionBlocks, this.regionBlocks) * this.blockSize;
+	}
+
+	/**
+	 * Take the blocks needed to store some content
+	 *
+	 * @param length content length
+	 * @return the indexes of the allocated blocks, or <code>null</code> if there is not enough free space
+	 */
+	synchronized int[] allocate(final int length) {
+		final int iCount = Math.max((length + this.blockSize - 1) / this.blockSize, 1);
+
+		if (this.closed || iCount > this.freeCount)
+			return null;
+
+		final int[] ret = new int[iCount];
+
+		for (int i = 0; i < iCount; i++)
+			ret[i] = this.free[--this.freeCount];
+
+		this.usedBytes.addAndGet(length);
+		this.entries.incrementAndGet();
+
+		return ret;
+	}
+
+	/**
+	 * Give the blocks back
+	 *
+	 * @param indexes blocks returned by {@link #allocate(int)}
+	 * @param length content length they were allocated for
+	 */
+	synchronized void free(final int[] indexes, final int length) {
+		// in reverse order, so that they are handed out again in the same order
+		for (int i = indexes.length - 1; i >= 0; i--)
+			this.free[this.freeCount++] = indexes[i];
+
+		this.usedBytes.addAndGet(-length);
+		this.entries.decrementAndGet();
+	}
+
+	/**
+	 * Get the memory behind a block
+	 *
+	 * @param index block index
+	 * @param length how many bytes of the block are needed
+	 * @return a view of the block, positioned at its beginning and limited to the given length
+	 */
+	private ByteBuffer slice(final int index, final int length) {
+		final ByteBuffer region = this.regions[index / this.regionBlocks];
+
+		if (region == null)
+			throw new IllegalStateException("The page store was closed"); //$NON-NLS-1$
+
+		final ByteBuffer bb = region.duplicate();
+
+		final int iOffset = (index % this.regionBlocks) * this.blockSize;
+
+		bb.limit(iOffset + length);
+		bb.position(iOffset);
+
+		return bb;
+	}
+
+	/**
+	 * Copy some content into the blocks allocated for it
+	 *
+	 * @param indexes blocks returned by {@link #allocate(int)}
+	 * @param data the content
+	 */
+	void put(final int[] indexes, final byte[] data) {
+		int iOffset = 0;
+
+		for (final int index : indexes) {
+			final int iLength = Math.min(this.blockSize, data.length - iOffset);
+
+			slice(index, iLength).put(data, iOffset, iLength);
+
+			iOffset += iLength;
+		}
+	}
+
+	/**
+	 * Copy the content back to the heap
+	 *
+	 * @param indexes blocks returned by {@link #allocate(int)}
+	 * @param length content length
+	 * @return the content
+	 */
+	byte[] get(final int[] indexes, final int length) {
+		final byte[] ret = new byte[length];
+
+		int iOffset = 0;
+
+		for (final int index : indexes) {
+			final int iLength = Math.min(this.blockSize, length - iOffset);
+
+			slice(index, iLength).get(ret, iOffset, iLength);
+
+			iOffset += iLength;
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Write the content to a stream. If the stream can take a {@link ByteBuffer} the memory is handed to it as it is,
+	 * otherwise it is copied through a small buffer, never as a whole onto the heap. Consecutive blocks are written
+	 * in one go.
+	 *
+	 * @param indexes blocks returned by {@link #allocate(int)}
+	 * @param length content length
+	 * @param os stream to write to
+	 * @throws IOException
+	 */
+	void writeTo(final int[] indexes, final int length, final OutputStream os) throws IOException {
+		final Method m = getBufferWriter(os);
+
+		int iOffset = 0;
+
+		int i = 0;
+
+		while (i < indexes.length) {
+			// extend the run while the next block follows in the same region
+			int j = i + 1;
+
+			while (j < indexes.length && indexes[j] == indexes[j - 1] + 1 && indexes[j] % this.regionBlocks != 0)
+				j++;
+
+			final int iLength = Math.min((j - i) * this.blockSize, length - iOffset);
+
+			write(slice(indexes[i], iLength), os, m);
+
+			iOffset += iLength;
+			i = j;
+		}
+	}
+
+	/**
+	 * Write some memory to a stream
+	 *
+	 * @param bb the memory
+	 * @param os stream to write to
+	 * @param m the <code>write(ByteBuffer)</code> method of the stream, or {@link #NO_METHOD}
+	 * @throws IOException
+	 */
+	private static void write(final ByteBuffer bb, final OutputStream os, final Method m) throws IOException {
+		if (os instanceof WritableByteChannel) {
+			while (bb.hasRemaining())
+				((WritableByteChannel) os).write(bb);
+
+			return;
+		}
+
+		if (m != NO_METHOD) {
+			try {
+				m.invoke(os, bb);
+				return;
+			}
+			catch (final ReflectiveOperationException e) {
+				final Throwable cause = e.getCause();
+
+				if (cause instanceof IOException)
+					throw (IOException) cause;
+
+				// write the remaining content as an array
+				bufferWriters.put(os.getClass(), NO_METHOD);
+			}
+		}
+
+		final byte[] buff = copyBuffer.get();
+
+		while (bb.hasRemaining()) {
+			final int iLength = Math.min(buff.length, bb.remaining());
+
+			bb.get(buff, 0, iLength);
+
+			os.write(buff, 0, iLength);
+		}
+	}
+
+	/**
+	 * @param os an output stream
+	 * @return its public <code>write(ByteBuffer)</code> method, or {@link #NO_METHOD}
+	 */
+	private static Method getBufferWriter(final OutputStream os) {
+		final Class<?> c = os.getClass();
+
+		Method m = bufferWriters.get(c);
+
+		if (m == null) {
+			try {
+				m = c.getMethod("write", ByteBuffer.class); //$NON-NLS-1$
+			}
+			catch (final NoSuchMethodException | SecurityException e) {
+				m = NO_METHOD;
+			}
+
+			bufferWriters.put(c, m);
+		}
+
+		return m;
+	}
+
+	/**
+	 * @return total size of the store, in bytes
+	 */
+	long getCapacity() {
+		return (long) this.blocks * this.blockSize;
+	}
+
+	/**
+	 * @return bytes taken by the allocated blocks
+	 */
+	synchronized long getAllocatedBytes() {
+		return (long) (this.blocks - this.freeCount) * this.blockSize;
+	}
+
+	/**
+	 * @return bytes of content in the allocated blocks
+	 */
+	long getUsedBytes() {
+		return this.usedBytes.get();
+	}
+
+	/**
+	 * @return fraction of the allocated space that is wasted at the end of the last block of each page, between 0 and 1
+	 */
+	double getFragmentation() {
+		final long lAllocated = getAllocatedBytes();
+
+		if (lAllocated == 0)
+			return 0;
+
+		return (double) (lAllocated - getUsedBytes()) / lAllocated;
+	}
+
+	/**
+	 * @return number of pages in the store
+	 */
+	long getEntries() {
+		return this.entries.get();
+	}
+
+	/**
+	 * Release the memory. The mapped file is unlocked, closed and deleted, so that another store can take it. The store
+	 * cannot be used afterwards, the pages that still reference it have to be released first.
+	 */
+	synchronized void close() {
+		if (this.closed)
+			return;
+
+		this.closed = true;
+
+		// the memory goes away with the last reference to the buffers, there is no way to unmap it explicitly
+		Arrays.fill(this.regions, null);
+
+		if (this.raf == null)
+			return;
+
+		try {
+			// also releases the lock
+			this.raf.close();
+		}
+		catch (final IOException ioe) {
+			Log.log(Log.WARNING, "lazyj.PageStore", "cannot close " + this.file, ioe); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		if (!this.file.delete())
+			Log.log(Log.FINE, "lazyj.PageStore", "cannot delete " + this.file); //$NON-NLS-1$ //$NON-NLS-2$
+
+		System.getProperties().remove(this.lockKey);
+	}
+
+	@Override
+	public String toString() {
+		return this.sType + ", " + getCapacity() / 1024 / 1024 + "MB in blocks of " + this.blockSize + " bytes"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+}
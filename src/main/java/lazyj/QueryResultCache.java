@@ -0,0 +1,655 @@
+package lazyj;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cache of read-only query results, shared by all {@link DBFunctions} instances. It is used for the queries executed after
+ * {@link DBFunctions#setResultCacheTTL(long)} was called with a positive value, on objects flagged with
+ * {@link DBFunctions#setReadOnly(boolean)}.<br>
+ * <br>
+ * The entries are identified by the target database, the SQL text and the values of the parameters. They are stored as
+ * compact, immutable {@link ResultBuffer}s and served through a fresh cursor to each reader. The cache is bounded both in
+ * number of entries and in (estimated) memory. Lookups don't take any lock, they only stamp the entry with the time of the
+ * access; when the cache goes over its limits the least recently used entries are evicted in one batch, down to 90% of
+ * the limits, so the cost of finding them is shared by many insertions.<br>
+ * <br>
+ * Each entry is tagged with the names of the tables it was read from, either given explicitly with
+ * {@link DBFunctions#setResultCacheTags(String...)} or extracted from the FROM and JOIN clauses of the query. Updates executed
+ * through {@link DBFunctions} invalidate the entries of the table they modify, other writers should call {@link #invalidate(String)}.
+ * Each invalidation also increments a generation counter of the table, so that a result read while the table was modified is
+ * not cached (see {@link #getGeneration(Set)}).
+ *
+ * @author costing
+ * @since Oct 16, 2026
+ */
+public final class QueryResultCache {
+
+	/**
+	 * Key of a cache entry
+	 */
+	static final class Key {
+		/**
+		 * Target database
+		 */
+		private final String	target;
+
+		/**
+		 * SQL text
+		 */
+		private final String	sql;
+
+		/**
+		 * Parameter values
+		 */
+		private final Object[]	values;
+
+		/**
+		 * Precomputed hash code
+		 */
+		private final int		hash;
+
+		/**
+		 * @param target target database
+		 * @param sql SQL text
+		 * @param values parameter values, can be <code>null</code>
+		 */
+		Key(final String target, final String sql, final Object[] values) {
+			this.target = target;
+			this.sql = sql;
+			this.values = values != null && values.length > 0 ? values.clone() : null;
+			this.hash = (target.hashCode() * 31 + sql.hashCode()) * 31 + Arrays.deepHashCode(this.values);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (this == o)
+				return true;
+
+			if (!(o instanceof Key))
+				return false;
+
+			final Key other = (Key) o;
+
+			return this.hash == other.hash && this.sql.equals(other.sql) && this.target.equals(other.target) && Arrays.deepEquals(this.values, other.values);
+		}
+	}
+
+	/**
+	 * One cached result
+	 */
+	private static final class Entry {
+		/**
+		 * Cached rows
+		 */
+		final ResultBuffer	buffer;
+
+		/**
+		 * Expiration time
+		 */
+		final long			expires;
+
+		/**
+		 * Tables this result depends on
+		 */
+		final Set<String>	tags;
+
+		/**
+		 * Last time this result was served, for the eviction order
+		 */
+		volatile long		lastAccess;
+
+		/**
+		 * @param buffer cached rows
+		 * @param expires expiration time
+		 * @param tags tables this result depends on
+		 */
+		Entry(final ResultBuffer buffer, final long expires, final Set<String> tags) {
+			this.buffer = buffer;
+			this.expires = expires;
+			this.tags = tags;
+			this.lastAccess = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * The entries, read without locking
+	 */
+	private static final ConcurrentHashMap<Key, Entry>	entries		= new ConcurrentHashMap<>(128);
+
+	/**
+	 * Serializes the changes of {@link #entries}, {@link #tagIndex}, {@link #memory} and of the generations
+	 */
+	private static final Object						lock			= new Object();
+
+	/**
+	 * Table name to the entries that depend on it
+	 */
+	private static final Map<String, Set<Key>>		tagIndex		= new HashMap<>();
+
+	/**
+	 * Table name to the number of times it was invalidated
+	 */
+	private static final ConcurrentHashMap<String, Long>	generations	= new ConcurrentHashMap<>();
+
+	/**
+	 * Number of times the whole cache was cleared
+	 */
+	private static volatile long					clearings		= 0;
+
+	/**
+	 * Whether or not any result was looked up, until then the statements don't need to be parsed for invalidation
+	 */
+	private static volatile boolean					used			= false;
+
+	/**
+	 * Estimated memory used by the entries
+	 */
+	private static volatile long					memory			= 0;
+
+	/**
+	 * Memory budget, in bytes
+	 */
+	private static volatile long					maxMemory		= 32 * 1024 * 1024;
+
+	/**
+	 * Maximum number of entries
+	 */
+	private static volatile int						maxEntries		= 10000;
+
+	/**
+	 * Statistics : results served from the cache
+	 */
+	private static final AtomicLong					hits			= new AtomicLong(0);
+
+	/**
+	 * Statistics : lookups that had to go to the database
+	 */
+	private static final AtomicLong					misses			= new AtomicLong(0);
+
+	/**
+	 * Statistics : entries removed to make room for others
+	 */
+	private static final AtomicLong					evictions		= new AtomicLong(0);
+
+	/**
+	 * Statistics : entries that were found expired
+	 */
+	private static final AtomicLong					expirations		= new AtomicLong(0);
+
+	/**
+	 * Statistics : entries removed because a table they depend on was changed
+	 */
+	private static final AtomicLong					invalidations	= new AtomicLong(0);
+
+	/**
+	 * Statistics : results that were too large to be cached
+	 */
+	private static final AtomicLong					rejected		= new AtomicLong(0);
+
+	/**
+	 * Tables referenced in FROM clauses, up to the next clause
+	 */
+	private static final Pattern					FROM_CLAUSE		= Pattern.compile("(?is)\\bfrom\\s+(.+?)(?=\\b(?:where|group|order|limit|offset|having|union|intersect|except|window|for|join|inner|left|right|full|cross|natural|on|using)\\b|[;)]|$)"); //$NON-NLS-1$
+
+	/**
+	 * Tables referenced in JOIN clauses
+	 */
+	private static final Pattern					JOIN_CLAUSE		= Pattern.compile("(?i)\\bjoin\\s+([\\w.\"`$]+)"); //$NON-NLS-1$
+
+	/**
+	 * Target table of a data modification statement
+	 */
+	private static final Pattern					MODIFIED_TABLE	= Pattern.compile("(?i)^\\s*(?:insert\\s+(?:ignore\\s+)?into|replace\\s+into|merge\\s+into|update|delete\\s+from|truncate(?:\\s+table)?|copy|alter\\s+table|drop\\s+table(?:\\s+if\\s+exists)?)\\s+(?:only\\s+)?([\\w.\"`$]+)"); //$NON-NLS-1$
+
+	/**
+	 * Don't instantiate
+	 */
+	private QueryResultCache() {
+		// static methods only
+	}
+
+	/**
+	 * Set the memory budget of the cache. A single result larger than 1/8 of the budget is never cached.
+	 *
+	 * @param bytes estimated memory that the cached results can use, default 32MB
+	 */
+	public static void setMaxMemory(final long bytes) {
+		maxMemory = Math.max(bytes, 0);
+
+		synchronized (lock) {
+			evict();
+		}
+	}
+
+	/**
+	 * @param count maximum number of cached results, default 10000
+	 */
+	public static void setMaxEntries(final int count) {
+		maxEntries = Math.max(count, 0);
+
+		synchronized (lock) {
+			evict();
+		}
+	}
+
+	/**
+	 * Look up a cached result
+	 *
+	 * @param key entry key
+	 * @return the cached rows, or <code>null</code> if the result is not cached or has expired
+	 */
+	static ResultBuffer get(final Key key) {
+		used = true;
+
+		final Entry e = entries.get(key);
+
+		if (e != null) {
+			final long now = System.currentTimeMillis();
+
+			if (e.expires > now) {
+				e.lastAccess = now;
+				hits.incrementAndGet();
+				return e.buffer;
+			}
+
+			synchronized (lock) {
+				// unless it was replaced in the meantime
+				if (entries.get(key) == e && remove(key))
+					expirations.incrementAndGet();
+			}
+		}
+
+		misses.incrementAndGet();
+
+		return null;
+	}
+
+	/**
+	 * Get the generation of a set of tables, to be taken before executing the query whose result is going to be cached
+	 * and passed to {@link #put(Key, ResultBuffer, long, Set, long)}. It changes each time one of the tables is invalidated.
+	 *
+	 * @param tags tables the result depends on
+	 * @return current generation of these tables
+	 */
+	static long getGeneration(final Set<String> tags) {
+		// the counters only increase, so the sum changes whenever one of them does
+		long ret = clearings;
+
+		for (final String tag : tags) {
+			final Long l = generations.get(tag);
+
+			if (l != null)
+				ret += l.longValue();
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Cache a result
+	 *
+	 * @param key entry key
+	 * @param buffer rows to cache
+	 * @param lifetime how long the result is valid, in milliseconds
+	 * @param tags tables the result depends on
+	 * @param generation generation of the tables when the query was started, see {@link #getGeneration(Set)}. If any of
+	 *            them was invalidated since then the result might be stale and is not cached.
+	 */
+	static void put(final Key key, final ResultBuffer buffer, final long lifetime, final Set<String> tags, final long generation) {
+		if (lifetime <= 0)
+			return;
+
+		if (buffer.getSize() > maxMemory / 8) {
+			rejected.incrementAndGet();
+			return;
+		}
+
+		final Entry e = new Entry(buffer, System.currentTimeMillis() + lifetime, tags);
+
+		synchronized (lock) {
+			// the generations only change with the lock held, so this check is exact
+			if (getGeneration(tags) != generation) {
+				invalidations.incrementAndGet();
+				return;
+			}
+
+			remove(key);
+
+			entries.put(key, e);
+			memory += buffer.getSize();
+
+			for (final String tag : tags) {
+				Set<Key> keys = tagIndex.get(tag);
+
+				if (keys == null) {
+					keys = new HashSet<>();
+					tagIndex.put(tag, keys);
+				}
+
+				keys.add(key);
+			}
+
+			evict();
+		}
+	}
+
+	/**
+	 * Remove an entry and its tag references. Must be called with the lock held.
+	 *
+	 * @param key entry to remove
+	 * @return <code>true</code> if the entry existed
+	 */
+	private static boolean remove(final Key key) {
+		final Entry e = entries.remove(key);
+
+		if (e == null)
+			return false;
+
+		memory -= e.buffer.getSize();
+
+		for (final String tag : e.tags) {
+			final Set<Key> keys = tagIndex.get(tag);
+
+			if (keys != null) {
+				keys.remove(key);
+
+				if (keys.isEmpty())
+					tagIndex.remove(tag);
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Eviction candidate, with the access time of its entry frozen for sorting
+	 */
+	private static final class Candidate {
+		/**
+		 * Entry key
+		 */
+		final Key	key;
+
+		/**
+		 * Last access time, when the candidates were collected
+		 */
+		final long	lastAccess;
+
+		/**
+		 * @param key entry key
+		 * @param lastAccess last access time
+		 */
+		Candidate(final Key key, final long lastAccess) {
+			this.key = key;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+	/**
+	 * Sort order for the eviction, least recently used first
+	 */
+	private static final Comparator<Candidate>	LRU_ORDER	= new Comparator<Candidate>() {
+		@Override
+		public int compare(final Candidate o1, final Candidate o2) {
+			return Long.compare(o1.lastAccess, o2.lastAccess);
+		}
+	};
+
+	/**
+	 * If the cache is over its limits, evict the least recently used entries until it is down to 90% of them. Must be
+	 * called with the lock held.
+	 */
+	private static void evict() {
+		if (memory <= maxMemory && entries.size() <= maxEntries)
+			return;
+
+		final long memoryTarget = maxMemory - maxMemory / 10;
+		final int entriesTarget = maxEntries - maxEntries / 10;
+
+		final List<Candidate> candidates = new ArrayList<>(entries.size());
+
+		for (final Map.Entry<Key, Entry> me : entries.entrySet())
+			candidates.add(new Candidate(me.getKey(), me.getValue().lastAccess));
+
+		Collections.sort(candidates, LRU_ORDER);
+
+		for (final Candidate c : candidates) {
+			if (memory <= memoryTarget && entries.size() <= entriesTarget)
+				break;
+
+			if (remove(c.key))
+				evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Drop all the cached results that depend on the given table
+	 *
+	 * @param table table name, case insensitive, schema prefix ignored
+	 * @return number of removed entries
+	 */
+	public static int invalidate(final String table) {
+		final String tag = normalize(table);
+
+		if (tag == null)
+			return 0;
+
+		int removed = 0;
+
+		synchronized (lock) {
+			final Long l = generations.get(tag);
+
+			generations.put(tag, Long.valueOf(l != null ? l.longValue() + 1 : 1));
+
+			final Set<Key> keys = tagIndex.remove(tag);
+
+			if (keys != null)
+				for (final Key key : keys.toArray(new Key[keys.size()]))
+					if (remove(key))
+						removed++;
+		}
+
+		invalidations.addAndGet(removed);
+
+		return removed;
+	}
+
+	/**
+	 * Drop all the cached results
+	 */
+	public static void clear() {
+		synchronized (lock) {
+			invalidations.addAndGet(entries.size());
+
+			entries.clear();
+			tagIndex.clear();
+			memory = 0;
+			clearings++;
+		}
+	}
+
+	/**
+	 * Invalidate the results that depend on the table modified by this statement, if any
+	 *
+	 * @param sql a data modification statement
+	 */
+	static void invalidateModified(final String sql) {
+		final String table = getModifiedTable(sql);
+
+		if (table != null)
+			invalidate(table);
+	}
+
+	/**
+	 * Get the table modified by a statement
+	 *
+	 * @param sql a data modification statement
+	 * @return the table name, or <code>null</code> if the statement doesn't modify a table or the cache was never used
+	 */
+	static String getModifiedTable(final String sql) {
+		// even an empty cache has to be invalidated, for the generation of the queries that are running right now
+		if (sql == null || !used)
+			return null;
+
+		final Matcher m = MODIFIED_TABLE.matcher(sql);
+
+		return m.find() ? m.group(1) : null;
+	}
+
+	/**
+	 * Extract the names of the tables that a query reads from its FROM and JOIN clauses. This is a best-effort parsing, views
+	 * and functions will be returned as well and tables referenced only in sub-queries of the WHERE clause might be missed.
+	 *
+	 * @param sql query
+	 * @return table names, lower case and without the schema prefix
+	 */
+	static Set<String> getTables(final String sql) {
+		final Set<String> ret = new HashSet<>();
+
+		Matcher m = FROM_CLAUSE.matcher(sql);
+
+		while (m.find()) {
+			for (final String item : m.group(1).split(",")) { //$NON-NLS-1$
+				final String trimmed = item.trim();
+
+				if (trimmed.length() == 0 || trimmed.charAt(0) == '(')
+					continue;
+
+				final int idx = indexOfWhitespace(trimmed);
+
+				addTag(ret, idx > 0 ? trimmed.substring(0, idx) : trimmed);
+			}
+		}
+
+		m = JOIN_CLAUSE.matcher(sql);
+
+		while (m.find())
+			addTag(ret, m.group(1));
+
+		return ret;
+	}
+
+	/**
+	 * Normalize the given tags
+	 *
+	 * @param tags table names
+	 * @return normalized tags
+	 */
+	static Set<String> getTags(final Collection<String> tags) {
+		final Set<String> ret = new HashSet<>();
+
+		for (final String tag : tags)
+			addTag(ret, tag);
+
+		return ret;
+	}
+
+	/**
+	 * @param s text
+	 * @return position of the first whitespace, or -1
+	 */
+	private static int indexOfWhitespace(final String s) {
+		for (int i = 0; i < s.length(); i++)
+			if (Character.isWhitespace(s.charAt(i)))
+				return i;
+
+		return -1;
+	}
+
+	/**
+	 * @param tags where to add
+	 * @param table table name to normalize and add
+	 */
+	private static void addTag(final Set<String> tags, final String table) {
+		final String tag = normalize(table);
+
+		if (tag != null)
+			tags.add(tag);
+	}
+
+	/**
+	 * @param table table name, maybe quoted and with a schema prefix
+	 * @return lower case table name, without the schema and the quotes
+	 */
+	private static String normalize(final String table) {
+		if (table == null)
+			return null;
+
+		String s = table.trim();
+
+		final int idx = s.lastIndexOf('.');
+
+		if (idx >= 0)
+			s = s.substring(idx + 1);
+
+		s = s.replace("\"", "").replace("`", "").trim(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+		return s.length() > 0 ? s.toLowerCase(Locale.ROOT) : null;
+	}
+
+	/**
+	 * Statistics : fraction of the lookups that were served from the cache
+	 *
+	 * @return hit ratio, between 0 and 1
+	 */
+	public static double getHitRatio() {
+		final long lHits = hits.get();
+		final long lTotal = lHits + misses.get();
+
+		return lTotal > 0 ? (double) lHits / lTotal : 0;
+	}
+
+	/**
+	 * @return number of cached results
+	 */
+	public static int getSize() {
+		return entries.size();
+	}
+
+	/**
+	 * @return estimated memory used by the cached results, in bytes
+	 */
+	public static long getMemory() {
+		return memory;
+	}
+
+	/**
+	 * Statistics : the cache counters, as <i>hits</i>, <i>misses</i>, <i>evictions</i>, <i>expirations</i>, <i>invalidations</i>
+	 * and <i>rejected</i> (too large to be cached).
+	 *
+	 * @return cache counters
+	 */
+	@SuppressWarnings("nls")
+	public static Map<String, Long> getCounters() {
+		final Map<String, Long> ret = new LinkedHashMap<>();
+
+		ret.put("hits", Long.valueOf(hits.get()));
+		ret.put("misses", Long.valueOf(misses.get()));
+		ret.put("evictions", Long.valueOf(evictions.get()));
+		ret.put("expirations", Long.valueOf(expirations.get()));
+		ret.put("invalidations", Long.valueOf(invalidations.get()));
+		ret.put("rejected", Long.valueOf(rejected.get()));
+
+		return ret;
+	}
+}
@@ -0,0 +1,442 @@
+package lazyj;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency, row and error statistics of the queries executed through {@link DBFunctions}, aggregated both by database (connection
+ * key) and by query fingerprint. A fingerprint is the SQL text with the literals replaced by '?' and the whitespace collapsed, so
+ * all the executions of the same query pattern are accounted together whatever their parameters.<br>
+ * <br>
+ * Recording is lock-free. Queries slower than {@link #setSlowQueryThreshold(long)} are also logged, with their full text.
+ *
+ * @author costing
+ * @since Oct 16, 2026
+ * @see LatencyHistogram
+ */
+public final class QueryStats {
+
+	/**
+	 * Maximum number of distinct fingerprints to keep, after this all new patterns are accounted together
+	 */
+	private static final int									MAX_FINGERPRINTS	= 5000;
+
+	/**
+	 * Fingerprint of the queries that didn't fit in {@link #MAX_FINGERPRINTS}
+	 */
+	private static final String									OTHER				= "(other queries)";	//$NON-NLS-1$
+
+	/**
+	 * Statistics by fingerprint
+	 */
+	private static final ConcurrentHashMap<String, QueryStats>	byFingerprint		= new ConcurrentHashMap<>();
+
+	/**
+	 * Statistics by database
+	 */
+	private static final ConcurrentHashMap<String, QueryStats>	byDatabase			= new ConcurrentHashMap<>();
+
+	/**
+	 * Queries taking longer than this are logged, in nanoseconds. 0 disables the logging.
+	 */
+	private static volatile long								slowQueryThreshold	= 0;
+
+	/**
+	 * Fingerprint, or database key
+	 */
+	private final String										sKey;
+
+	/**
+	 * Execution times
+	 */
+	private final LatencyHistogram								latency				= new LatencyHistogram();
+
+	/**
+	 * Rows returned by the queries or changed by the updates
+	 */
+	private final AtomicLong									rows				= new AtomicLong(0);
+
+	/**
+	 * Failed executions
+	 */
+	private final AtomicLong									errors				= new AtomicLong(0);
+
+	/**
+	 * @param key fingerprint or database key
+	 */
+	private QueryStats(final String key) {
+		this.sKey = key;
+	}
+
+	/**
+	 * @param map where to look
+	 * @param key what to look for
+	 * @return the existing or a new entry
+	 */
+	private static QueryStats get(final ConcurrentHashMap<String, QueryStats> map, final String key) {
+		QueryStats stats = map.get(key);
+
+		if (stats == null) {
+			stats = new QueryStats(key);
+
+			final QueryStats old = map.putIfAbsent(key, stats);
+
+			if (old != null)
+				stats = old;
+		}
+
+		return stats;
+	}
+
+	/**
+	 * Get the statistics entry of a query
+	 *
+	 * @param sql query text
+	 * @return entry for the fingerprint of this query
+	 */
+	static QueryStats forQuery(final String sql) {
+		final String fingerprint = fingerprint(sql);
+
+		final QueryStats stats = byFingerprint.get(fingerprint);
+
+		if (stats != null)
+			return stats;
+
+		return get(byFingerprint, byFingerprint.size() < MAX_FINGERPRINTS ? fingerprint : OTHER);
+	}
+
+	/**
+	 * Get the statistics entry of a database
+	 *
+	 * @param key connection key
+	 * @return entry for this database
+	 */
+	static QueryStats forDatabase(final String key) {
+		return get(byDatabase, key);
+	}
+
+	/**
+	 * Record one execution
+	 *
+	 * @param nanos execution time
+	 * @param error whether or not the execution failed
+	 */
+	void record(final long nanos, final boolean error) {
+		this.latency.record(nanos);
+
+		if (error)
+			this.errors.incrementAndGet();
+	}
+
+	/**
+	 * Account returned or changed rows
+	 *
+	 * @param count number of rows
+	 */
+	void addRows(final long count) {
+		if (count > 0)
+			this.rows.addAndGet(count);
+	}
+
+	/**
+	 * Log the query if it is slower than the threshold
+	 *
+	 * @param database connection key
+	 * @param sql query text
+	 * @param nanos execution time
+	 */
+	static void checkSlowQuery(final String database, final String sql, final long nanos) {
+		final long threshold = slowQueryThreshold;
+
+		if (threshold > 0 && nanos >= threshold)
+			Log.log(Log.WARNING, "lazyj.DBFunctions", database + " --> slow query (" + Format.point(nanos / 1000000d) + " ms) : " + sql); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	/**
+	 * Set the time above which the queries are logged
+	 *
+	 * @param millis threshold in milliseconds, 0 to disable the slow query log (default)
+	 */
+	public static void setSlowQueryThreshold(final long millis) {
+		slowQueryThreshold = millis > 0 ? millis * 1000000 : 0;
+	}
+
+	/**
+	 * @return slow query threshold, in milliseconds, 0 if disabled
+	 */
+	public static long getSlowQueryThreshold() {
+		return slowQueryThreshold / 1000000;
+	}
+
+	/**
+	 * Normalize a query: literal strings and numbers become '?', lists of placeholders are collapsed into one, whitespace
+	 * is collapsed and everything outside of quoted identifiers is converted to lower case.
+	 *
+	 * @param sql query text
+	 * @return the fingerprint
+	 */
+	public static String fingerprint(final String sql) {
+		if (sql == null)
+			return ""; //$NON-NLS-1$
+
+		final int len = sql.length();
+
+		final StringBuilder sb = new StringBuilder(len);
+
+		int i = 0;
+
+		while (i < len) {
+			final char c = sql.charAt(i);
+
+			if (c == '\'') {
+				// string literal, with '' as escaped quote
+				i++;
+
+				while (i < len) {
+					if (sql.charAt(i) == '\'') {
+						if (i + 1 < len && sql.charAt(i + 1) == '\'')
+							i += 2;
+						else
+							break;
+					}
+					else
+						i++;
+				}
+
+				i++;
+				appendPlaceholder(sb);
+				continue;
+			}
+
+			if (c == '"' || c == '`') {
+				// quoted identifier, kept as it is
+				final int end = sql.indexOf(c, i + 1);
+				final int stop = end < 0 ? len : end + 1;
+
+				sb.append(sql, i, stop);
+				i = stop;
+				continue;
+			}
+
+			if (Character.isWhitespace(c)) {
+				while (i < len && Character.isWhitespace(sql.charAt(i)))
+					i++;
+
+				if (sb.length() > 0 && i < len)
+					sb.append(' ');
+
+				continue;
+			}
+
+			if (Character.isDigit(c) && (sb.length() == 0 || !isIdentifierPart(sb.charAt(sb.length() - 1)))) {
+				// numeric literal
+				while (i < len && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.'))
+					i++;
+
+				// a sign right before the number is part of it
+				final int last = sb.length() - 1;
+
+				if (last >= 0 && sb.charAt(last) == '-' && (last == 0 || " (,=<>".indexOf(sb.charAt(last - 1)) >= 0)) //$NON-NLS-1$
+					sb.setLength(last);
+
+				appendPlaceholder(sb);
+				continue;
+			}
+
+			if (c == '?') {
+				appendPlaceholder(sb);
+				i++;
+				continue;
+			}
+
+			sb.append(Character.toLowerCase(c));
+			i++;
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * @param c character
+	 * @return <code>true</code> if the character can be part of an identifier
+	 */
+	private static boolean isIdentifierPart(final char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.';
+	}
+
+	/**
+	 * Append a placeholder, collapsing lists of placeholders like <code>in (?, ?, ?)</code> into <code>in (?+)</code>
+	 *
+	 * @param sb fingerprint being built
+	 */
+	private static void appendPlaceholder(final StringBuilder sb) {
+		final int len = sb.length();
+
+		if (len >= 2 && sb.charAt(len - 1) == ',' && sb.charAt(len - 2) == '?') {
+			sb.setLength(len - 1);
+			sb.append('+');
+			return;
+		}
+
+		if (len >= 3 && sb.charAt(len - 1) == ' ' && sb.charAt(len - 2) == ',' && (sb.charAt(len - 3) == '?' || sb.charAt(len - 3) == '+')) {
+			sb.setLength(len - 2);
+
+			if (sb.charAt(len - 3) == '?')
+				sb.append('+');
+
+			return;
+		}
+
+		if (len >= 2 && sb.charAt(len - 1) == ',' && sb.charAt(len - 2) == '+') {
+			sb.setLength(len - 1);
+			return;
+		}
+
+		sb.append('?');
+	}
+
+	/**
+	 * @return the fingerprint, or the database key
+	 */
+	public String getKey() {
+		return this.sKey;
+	}
+
+	/**
+	 * @return distribution of the execution times
+	 */
+	public LatencyHistogram getLatency() {
+		return this.latency;
+	}
+
+	/**
+	 * @return number of executions
+	 */
+	public long getCount() {
+		return this.latency.getCount();
+	}
+
+	/**
+	 * @return number of rows returned by the queries (as read by the application) or changed by the updates
+	 */
+	public long getRows() {
+		return this.rows.get();
+	}
+
+	/**
+	 * @return number of failed executions
+	 */
+	public long getErrors() {
+		return this.errors.get();
+	}
+
+	@Override
+	public String toString() {
+		return this.sKey + " : " + this.latency + ", p95: " + Format.point(this.latency.getPercentile(95)) + " ms, rows: " + getRows() + ", errors: " + getErrors(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	}
+
+	/**
+	 * Statistics : all the query patterns
+	 *
+	 * @return statistics by fingerprint
+	 */
+	public static Map<String, QueryStats> getQueryStats() {
+		return Collections.unmodifiableMap(byFingerprint);
+	}
+
+	/**
+	 * Statistics : all the databases
+	 *
+	 * @return statistics by connection key
+	 */
+	public static Map<String, QueryStats> getDatabaseStats() {
+		return Collections.unmodifiableMap(byDatabase);
+	}
+
+	/**
+	 * A query pattern with the value it is ranked by, taken once so that the histograms can keep changing while sorting
+	 */
+	private static final class Ranked implements Comparable<Ranked> {
+		/**
+		 * The query pattern
+		 */
+		final QueryStats	stats;
+
+		/**
+		 * Value to sort by
+		 */
+		final double		value;
+
+		/**
+		 * @param stats the query pattern
+		 * @param value value to sort by
+		 */
+		Ranked(final QueryStats stats, final double value) {
+			this.stats = stats;
+			this.value = value;
+		}
+
+		/**
+		 * Descending order of the value
+		 */
+		@Override
+		public int compareTo(final Ranked o) {
+			return Double.compare(o.value, this.value);
+		}
+	}
+
+	/**
+	 * @param bP99 <code>true</code> to sort by the 99th percentile of the execution time, <code>false</code> by the total time
+	 * @param count how many entries to return
+	 * @return the first entries in this order
+	 */
+	private static List<QueryStats> getTop(final boolean bP99, final int count) {
+		final List<Ranked> l = new ArrayList<>(byFingerprint.size());
+
+		for (final QueryStats qs : byFingerprint.values())
+			l.add(new Ranked(qs, bP99 ? qs.latency.getPercentile(99) : qs.latency.getTotal()));
+
+		Collections.sort(l);
+
+		final int iMax = Math.min(Math.max(count, 0), l.size());
+
+		final List<QueryStats> ret = new ArrayList<>(iMax);
+
+		for (int i = 0; i < iMax; i++)
+			ret.add(l.get(i).stats);
+
+		return ret;
+	}
+
+	/**
+	 * Snapshot of the query patterns that took the most time in total (count * average), the first ones to optimize
+	 *
+	 * @param count how many patterns to return
+	 * @return top query patterns by total time
+	 */
+	public static List<QueryStats> getTopQueries(final int count) {
+		return getTop(false, count);
+	}
+
+	/**
+	 * Snapshot of the query patterns with the worst tail latency
+	 *
+	 * @param count how many patterns to return
+	 * @return top query patterns by the 99th percentile of the execution time
+	 */
+	public static List<QueryStats> getSlowestQueries(final int count) {
+		return getTop(true, count);
+	}
+
+	/**
+	 * Forget all the statistics
+	 */
+	public static void clear() {
+		byFingerprint.clear();
+		byDatabase.clear();
+	}
+}
@@ -0,0 +1,147 @@
+package lazyj;
+
+import java.io.OutputStream;
+import java.io.PrintWriter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * The request that is executed by an {@link ExtendedServlet}. Each request gets its own context, reachable from the
+ * servlet with {@link ExtendedServlet#getContext()} and, from the thread that executes the request, with
+ * {@link #current()}. Code that doesn't have the servlet at hand (helpers, templates, widgets) can use the latter
+ * instead of receiving the servlet as a parameter.
+ *
+ * @author costing
+ * @since Oct 16, 2026
+ */
+public final class RequestContext {
+
+	/**
+	 * Context of the request executed by the current thread
+	 */
+	private static final ThreadLocal<RequestContext>	current	= new ThreadLocal<>();
+
+	/**
+	 * The copy of the servlet that executes this request
+	 */
+	private final ExtendedServlet						page;
+
+	/**
+	 * When the request was received
+	 */
+	private final long									started	= System.currentTimeMillis();
+
+	/**
+	 * @param servlet the copy of the servlet that executes this request
+	 */
+	RequestContext(final ExtendedServlet servlet) {
+		this.page = servlet;
+	}
+
+	/**
+	 * @return the request executed by the current thread, or <code>null</code> if the thread is not executing a request
+	 */
+	public static RequestContext current() {
+		return current.get();
+	}
+
+	/**
+	 * Associate a request with the current thread
+	 *
+	 * @param context new context, can be <code>null</code>
+	 * @return the previous context of this thread
+	 */
+	static RequestContext bind(final RequestContext context) {
+		final RequestContext previous = current.get();
+
+		if (context != null)
+			current.set(context);
+		else
+			current.remove();
+
+		return previous;
+	}
+
+	/**
+	 * @return the servlet that executes the request
+	 */
+	public ExtendedServlet getServlet() {
+		return this.page;
+	}
+
+	/**
+	 * @return the original request object
+	 */
+	public HttpServletRequest getRequest() {
+		return this.page.request;
+	}
+
+	/**
+	 * @return the original response object
+	 */
+	public HttpServletResponse getResponse() {
+		return this.page.response;
+	}
+
+	/**
+	 * @return stream to the client
+	 */
+	public OutputStream getOutputStream() {
+		return this.page.osOut;
+	}
+
+	/**
+	 * @return writer to the client
+	 */
+	public PrintWriter getWriter() {
+		return this.page.pwOut;
+	}
+
+	/**
+	 * @return the session of the client
+	 */
+	public DBSession getSession() {
+		return this.page.dbs;
+	}
+
+	/**
+	 * @return zone (context path) of the executed servlet
+	 */
+	public String getZone() {
+		return this.page.sZone;
+	}
+
+	/**
+	 * @return path of the executed servlet, relative to the zone
+	 */
+	public String getPage() {
+		return this.page.sPage;
+	}
+
+	/**
+	 * @return <code>true</code> for GET requests, <code>false</code> for POST
+	 */
+	public boolean isGet() {
+		return this.page.bGet;
+	}
+
+	/**
+	 * @return <code>true</code> if the servlet redirected the client
+	 */
+	public boolean isRedirect() {
+		return this.page.bRedirect;
+	}
+
+	/**
+	 * @return epoch time when the request was received, in milliseconds
+	 */
+	public long getStartTime() {
+		return this.started;
+	}
+
+	@Override
+	public String toString() {
+		return (this.page.bGet ? "GET " : "POST ") + this.page.sZone + '/' + this.page.sPage; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
@@ -5,6 +5,8 @@ package lazyj;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
@@ -321,6 +323,157 @@ public final class RequestWrapper {
 		}
 	}
 	
+	/**
+	 * Check whether the client accepts a content encoding, honoring the quality values ("gzip;q=0" refuses it) and
+	 * the "*" wildcard of the <i>Accept-Encoding</i> header.
+	 * 
+	 * @param request the request
+	 * @param sEncoding content encoding, in lower case (eg. "gzip")
+	 * @return true if the response can be sent with this encoding
+	 */
+	public static boolean acceptsEncoding(final HttpServletRequest request, final String sEncoding){
+		final String sHeader = request.getHeader("Accept-Encoding"); //$NON-NLS-1$
+		
+		if (sHeader == null || sHeader.length() == 0)
+			return false;
+		
+		float fWildcard = 0;
+		
+		for (final String sToken : sHeader.split(",")){ //$NON-NLS-1$
+			final int idx = sToken.indexOf(';');
+			
+			final String sName = (idx >= 0 ? sToken.substring(0, idx) : sToken).trim().toLowerCase(Locale.US);
+			
+			float fQuality = 1;
+			
+			if (idx >= 0){
+				final String sParams = sToken.substring(idx + 1).trim();
+				
+				if (sParams.startsWith("q=")){ //$NON-NLS-1$
+					try{
+						fQuality = Float.parseFloat(sParams.substring(2).trim());
+					}
+					catch (final NumberFormatException nfe){
+						// ignore, assume it is accepted
+					}
+				}
+			}
+			
+			if (sName.equals(sEncoding) || sName.equals("x-" + sEncoding)) //$NON-NLS-1$
+				return fQuality > 0;
+			
+			if (sName.equals("*")) //$NON-NLS-1$
+				fWildcard = fQuality;
+		}
+		
+		return fWildcard > 0;
+	}
+	
+	/**
+	 * Compute a strong entity tag for some content, from its MD5 digest
+	 * 
+	 * @param content the content
+	 * @param offset where the content starts in the array
+	 * @param length content length
+	 * @return the quoted entity tag, ready to be sent in the <i>ETag</i> header
+	 */
+	public static String getETag(final byte[] content, final int offset, final int length){
+		try{
+			final MessageDigest md = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+			
+			md.update(content, offset, length);
+			
+			final byte[] digest = md.digest();
+			
+			final StringBuilder sb = new StringBuilder(digest.length * 2 + 2);
+			
+			sb.append('"');
+			
+			for (final byte b : digest){
+				sb.append(Character.forDigit((b >> 4) & 0x0F, 16));
+				sb.append(Character.forDigit(b & 0x0F, 16));
+			}
+			
+			sb.append('"');
+			
+			return sb.toString();
+		}
+		catch (final NoSuchAlgorithmException e){
+			// every Java platform has MD5
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Set the validators of a response, so that the client can ask for it again conditionally, see
+	 * {@link #isNotModified(HttpServletRequest, long, String...)}.
+	 * 
+	 * @param response the response object
+	 * @param sETag entity tag, can be <code>null</code>
+	 * @param lLastModified epoch time when the content was last modified, in milliseconds, or a value &lt;= 0 if not known
+	 */
+	public static void setValidators(final HttpServletResponse response, final String sETag, final long lLastModified){
+		if (sETag != null)
+			response.setHeader("ETag", sETag); //$NON-NLS-1$
+		
+		if (lLastModified > 0)
+			response.setDateHeader("Last-Modified", lLastModified); //$NON-NLS-1$
+	}
+	
+	/**
+	 * Check whether the copy that the client already has is still valid, in which case a <i>304 Not Modified</i> status
+	 * can be sent instead of the content. <i>If-None-Match</i> takes precedence over <i>If-Modified-Since</i>, which is only
+	 * looked at when the former is missing. Entity tags are compared with the weak comparison function, so
+	 * <code>W/"x"</code> matches <code>"x"</code>.
+	 * 
+	 * @param request the request
+	 * @param lLastModified epoch time when the content was last modified, in milliseconds, or a value &lt;= 0 if not known
+	 * @param etags the current entity tags of the content (one for each representation), quoted
+	 * @return true if the client copy matches one of the given entity tags or is not older than the last modification
+	 */
+	public static boolean isNotModified(final HttpServletRequest request, final long lLastModified, final String... etags){
+		final String sIfNoneMatch = request.getHeader("If-None-Match"); //$NON-NLS-1$
+		
+		if (sIfNoneMatch != null){
+			for (final String sToken : sIfNoneMatch.split(",")){ //$NON-NLS-1$
+				final String sTag = opaqueTag(sToken.trim());
+				
+				if (sTag.equals("*")) //$NON-NLS-1$
+					return etags.length > 0;
+				
+				for (final String sETag : etags)
+					if (sETag != null && sTag.equals(opaqueTag(sETag)))
+						return true;
+			}
+			
+			return false;
+		}
+		
+		if (lLastModified <= 0)
+			return false;
+		
+		final long lSince;
+		
+		try{
+			lSince = request.getDateHeader("If-Modified-Since"); //$NON-NLS-1$
+		}
+		catch (final IllegalArgumentException iae){
+			// not a date, ignore it
+			return false;
+		}
+		
+		// HTTP dates have a precision of one second
+		return lSince >= 0 && lLastModified / 1000 <= lSince / 1000;
+	}
+	
+	/**
+	 * @param sETag entity tag
+	 * @return the entity tag without the weakness indicator
+	 */
+	private static String opaqueTag(final String sETag){
+		return sETag.startsWith("W/") ? sETag.substring(2) : sETag; //$NON-NLS-1$
+	}
+	
 	/**
 	 * http-style date formatter
 	 */
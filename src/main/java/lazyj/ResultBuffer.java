@@ -0,0 +1,1882 @@
+package lazyj;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Detached, read-only copy of a query result. The values are stored column by column: integer columns in primitive
+ * <code>long</code> arrays, date/time columns as milliseconds next to their text representation, binary columns as their
+ * bytes, everything else as the text the driver returned. Once built the buffer is immutable, so it can be shared between threads, each reader getting
+ * its own {@link #cursor()}.<br>
+ * <br>
+ * The cursor implements the read-only, scrollable part of {@link ResultSet}, so {@link DBFunctions} serves a buffered result
+ * through the same accessors as a live one.
+ *
+ * @author costing
+ * @since Oct 16, 2026
+ * @see QueryResultCache
+ */
+final class ResultBuffer {
+
+	/**
+	 * Column stored as <code>long</code> values
+	 */
+	private static final int	KIND_LONG		= 0;
+
+	/**
+	 * Column stored as text
+	 */
+	private static final int	KIND_TEXT		= 1;
+
+	/**
+	 * Column stored as text and milliseconds
+	 */
+	private static final int	KIND_TEMPORAL	= 2;
+
+	/**
+	 * Column stored as raw bytes, the text is rebuilt from them if the driver's format is known, see the TEXT_* constants
+	 */
+	private static final int	KIND_BINARY		= 3;
+
+	/**
+	 * The text format of a binary column is not known yet, all its values so far were <code>null</code>
+	 */
+	private static final int	TEXT_UNKNOWN	= 0;
+
+	/**
+	 * The driver returns binary values as <code>\x</code> followed by the hex digits (PostgreSQL's <i>bytea</i>)
+	 */
+	private static final int	TEXT_HEX		= 1;
+
+	/**
+	 * The driver returns binary values decoded as UTF-8
+	 */
+	private static final int	TEXT_UTF8		= 2;
+
+	/**
+	 * Unknown format, the text is stored next to the bytes
+	 */
+	private static final int	TEXT_STORED		= 3;
+
+	/**
+	 * Hex digits
+	 */
+	private static final char[]	HEX_DIGITS		= "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+
+	/**
+	 * Marker for date/time values that the driver could not convert to a timestamp
+	 */
+	private static final long	NO_TIME			= Long.MIN_VALUE;
+
+	/**
+	 * Column labels
+	 */
+	final String[]				labels;
+
+	/**
+	 * Column names
+	 */
+	final String[]				names;
+
+	/**
+	 * Table names of the columns
+	 */
+	final String[]				tables;
+
+	/**
+	 * SQL types of the columns
+	 */
+	final int[]					types;
+
+	/**
+	 * Database-specific type names of the columns
+	 */
+	final String[]				typeNames;
+
+	/**
+	 * How each column is stored, one of the KIND_* constants
+	 */
+	private final int[]			kinds;
+
+	/**
+	 * <code>long[]</code> for the integer columns, <code>String[]</code> for all the others
+	 */
+	private final Object[]		values;
+
+	/**
+	 * Milliseconds for the date/time columns, <code>null</code> for the others
+	 */
+	private final long[][]		millis;
+
+	/**
+	 * Raw values of the binary columns, <code>null</code> for the others
+	 */
+	private final byte[][][]	bytes;
+
+	/**
+	 * How the text of each binary column is obtained, one of the TEXT_* constants
+	 */
+	private final int[]			textFormats;
+
+	/**
+	 * <code>null</code> values of the integer columns
+	 */
+	private final BitSet[]		nulls;
+
+	/**
+	 * Column label to position, both exact and lower case
+	 */
+	private final Map<String, Integer>	columnIndex;
+
+	/**
+	 * Number of rows
+	 */
+	private int					rows			= 0;
+
+	/**
+	 * Estimated memory footprint, in bytes
+	 */
+	private long				size			= 0;
+
+	/**
+	 * Prepare the storage for the columns of the given result
+	 *
+	 * @param meta result metadata
+	 * @throws SQLException
+	 */
+	private ResultBuffer(final ResultSetMetaData meta) throws SQLException {
+		final int count = meta.getColumnCount();
+
+		this.labels = new String[count];
+		this.names = new String[count];
+		this.tables = new String[count];
+		this.types = new int[count];
+		this.typeNames = new String[count];
+		this.kinds = new int[count];
+		this.values = new Object[count];
+		this.millis = new long[count][];
+		this.bytes = new byte[count][][];
+		this.textFormats = new int[count];
+		this.nulls = new BitSet[count];
+		this.columnIndex = new HashMap<>(count * 4);
+
+		for (int i = 0; i < count; i++) {
+			this.labels[i] = meta.getColumnLabel(i + 1);
+			this.names[i] = meta.getColumnName(i + 1);
+			this.types[i] = meta.getColumnType(i + 1);
+			this.typeNames[i] = meta.getColumnTypeName(i + 1);
+
+			try {
+				this.tables[i] = meta.getTableName(i + 1);
+			}
+			catch (final SQLException e) {
+				this.tables[i] = ""; //$NON-NLS-1$
+			}
+
+			switch (this.types[i]) {
+				case Types.TINYINT:
+				case Types.SMALLINT:
+				case Types.INTEGER:
+				case Types.BIGINT:
+					this.kinds[i] = KIND_LONG;
+					this.values[i] = new long[16];
+					this.nulls[i] = new BitSet();
+					break;
+				case Types.DATE:
+				case Types.TIME:
+				case Types.TIMESTAMP:
+				case Types.TIME_WITH_TIMEZONE:
+				case Types.TIMESTAMP_WITH_TIMEZONE:
+					this.kinds[i] = KIND_TEMPORAL;
+					this.values[i] = new String[16];
+					this.millis[i] = new long[16];
+					break;
+				case Types.BINARY:
+				case Types.VARBINARY:
+				case Types.LONGVARBINARY:
+				case Types.BLOB:
+					this.kinds[i] = KIND_BINARY;
+					this.values[i] = new String[16];
+					this.bytes[i] = new byte[16][];
+					break;
+				default:
+					this.kinds[i] = KIND_TEXT;
+					this.values[i] = new String[16];
+			}
+
+			final Integer pos = Integer.valueOf(i + 1);
+
+			if (this.labels[i] != null) {
+				if (!this.columnIndex.containsKey(this.labels[i]))
+					this.columnIndex.put(this.labels[i], pos);
+
+				final String lower = this.labels[i].toLowerCase(Locale.ROOT);
+
+				if (!this.columnIndex.containsKey(lower))
+					this.columnIndex.put(lower, pos);
+			}
+		}
+	}
+
+	/**
+	 * Read all the remaining rows of a result set. The result set is left after the last row, it is not closed.
+	 *
+	 * @param rs result to copy
+	 * @return the buffered copy
+	 * @throws SQLException
+	 */
+	static ResultBuffer materialize(final ResultSet rs) throws SQLException {
+		final ResultBuffer buffer = new ResultBuffer(rs.getMetaData());
+
+		while (rs.next())
+			buffer.addRow(rs);
+
+		buffer.trim();
+
+		return buffer;
+	}
+
+	/**
+	 * Copy the current row of the result set
+	 *
+	 * @param rs result set
+	 * @throws SQLException
+	 */
+	private void addRow(final ResultSet rs) throws SQLException {
+		final int row = this.rows;
+
+		for (int i = 0; i < this.kinds.length; i++) {
+			final int column = i + 1;
+
+			switch (this.kinds[i]) {
+				case KIND_LONG: {
+					long[] arr = (long[]) this.values[i];
+
+					if (row == arr.length)
+						this.values[i] = arr = Arrays.copyOf(arr, row * 2);
+
+					arr[row] = rs.getLong(column);
+
+					if (rs.wasNull())
+						this.nulls[i].set(row);
+
+					this.size += 8;
+					break;
+				}
+				case KIND_TEMPORAL: {
+					final String s = addText(i, row, rs.getString(column));
+
+					long[] arr = this.millis[i];
+
+					if (row == arr.length)
+						this.millis[i] = arr = Arrays.copyOf(arr, row * 2);
+
+					long value = NO_TIME;
+
+					if (s != null) {
+						try {
+							final Timestamp ts = rs.getTimestamp(column);
+
+							if (ts != null)
+								value = ts.getTime();
+						}
+						catch (final SQLException e) {
+							// keep only the text representation
+						}
+					}
+
+					arr[row] = value;
+					this.size += 8;
+					break;
+				}
+				case KIND_BINARY: {
+					byte[][] arr = this.bytes[i];
+
+					if (row == arr.length)
+						this.bytes[i] = arr = Arrays.copyOf(arr, row * 2);
+
+					arr[row] = rs.getBytes(column);
+
+					if (arr[row] != null)
+						this.size += 16 + arr[row].length;
+
+					if (this.textFormats[i] == TEXT_STORED)
+						addText(i, row, rs.getString(column));
+					else
+					if (this.textFormats[i] == TEXT_UNKNOWN && arr[row] != null) {
+						// the first value tells how the driver converts the bytes, if that can be repeated the text is not kept
+						final String text = rs.getString(column);
+
+						this.textFormats[i] = getTextFormat(arr[row], text);
+
+						if (this.textFormats[i] == TEXT_STORED)
+							addText(i, row, text);
+					}
+
+					break;
+				}
+				default:
+					addText(i, row, rs.getString(column));
+			}
+		}
+
+		this.rows++;
+	}
+
+	/**
+	 * Store a text value
+	 *
+	 * @param column column (0-based)
+	 * @param row row (0-based)
+	 * @param value value to store
+	 * @return the value
+	 */
+	private String addText(final int column, final int row, final String value) {
+		String[] arr = (String[]) this.values[column];
+
+		// binary columns only start storing text once they know they have to
+		if (row >= arr.length)
+			this.values[column] = arr = Arrays.copyOf(arr, Math.max(row * 2, 16));
+
+		arr[row] = value;
+
+		this.size += value != null ? 48 + value.length() * 2L : 8;
+
+		return value;
+	}
+
+	/**
+	 * @param value the bytes of a binary value
+	 * @param text the text that the driver returned for it
+	 * @return the TEXT_* constant that rebuilds this text from the bytes, {@link #TEXT_STORED} if none does
+	 */
+	private static int getTextFormat(final byte[] value, final String text) {
+		if (text == null)
+			return TEXT_STORED;
+
+		if (text.equals(toText(value, TEXT_HEX)))
+			return TEXT_HEX;
+
+		if (text.equals(toText(value, TEXT_UTF8)))
+			return TEXT_UTF8;
+
+		return TEXT_STORED;
+	}
+
+	/**
+	 * @param value the bytes of a binary value
+	 * @param format {@link #TEXT_HEX} or {@link #TEXT_UTF8}
+	 * @return the text representation of the value, as the driver would have returned it
+	 */
+	private static String toText(final byte[] value, final int format) {
+		if (value == null)
+			return null;
+
+		if (format == TEXT_UTF8)
+			return new String(value, StandardCharsets.UTF_8);
+
+		final char[] ret = new char[2 + value.length * 2];
+
+		ret[0] = '\\';
+		ret[1] = 'x';
+
+		for (int i = 0; i < value.length; i++) {
+			ret[2 + i * 2] = HEX_DIGITS[(value[i] >> 4) & 0x0F];
+			ret[3 + i * 2] = HEX_DIGITS[value[i] & 0x0F];
+		}
+
+		return new String(ret);
+	}
+
+	/**
+	 * Release the unused capacity after the last row was added
+	 */
+	private void trim() {
+		for (int i = 0; i < this.kinds.length; i++) {
+			if (this.kinds[i] == KIND_LONG)
+				this.values[i] = Arrays.copyOf((long[]) this.values[i], this.rows);
+			else
+				this.values[i] = Arrays.copyOf((String[]) this.values[i], this.rows);
+
+			if (this.millis[i] != null)
+				this.millis[i] = Arrays.copyOf(this.millis[i], this.rows);
+
+			if (this.bytes[i] != null)
+				this.bytes[i] = Arrays.copyOf(this.bytes[i], this.rows);
+		}
+
+		this.size += 200L * this.kinds.length;
+	}
+
+	/**
+	 * @return number of rows
+	 */
+	int getRowCount() {
+		return this.rows;
+	}
+
+	/**
+	 * @return estimated memory footprint of this buffer, in bytes
+	 */
+	long getSize() {
+		return this.size;
+	}
+
+	/**
+	 * Get a new cursor over the rows, positioned before the first row
+	 *
+	 * @return a scrollable, read-only result set
+	 */
+	ResultSet cursor() {
+		return new Cursor(this);
+	}
+
+	/**
+	 * @return the metadata of the buffered result
+	 */
+	ResultSetMetaData getMetaData() {
+		return new Meta(this);
+	}
+
+	/**
+	 * @param label column label
+	 * @return column position (1 = first column)
+	 * @throws SQLException if the column doesn't exist
+	 */
+	int findColumn(final String label) throws SQLException {
+		Integer pos = this.columnIndex.get(label);
+
+		if (pos == null && label != null)
+			pos = this.columnIndex.get(label.toLowerCase(Locale.ROOT));
+
+		if (pos == null)
+			throw new SQLException("No such column: " + label); //$NON-NLS-1$
+
+		return pos.intValue();
+	}
+
+	/**
+	 * @return the exception thrown by all the operations that a buffered result doesn't support
+	 */
+	static SQLException unsupported() {
+		return new SQLFeatureNotSupportedException("Not supported by a buffered result"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Metadata of a buffered result
+	 */
+	private static final class Meta implements ResultSetMetaData {
+		/**
+		 * Buffer to describe
+		 */
+		private final ResultBuffer	buffer;
+
+		/**
+		 * @param buffer buffer to describe
+		 */
+		Meta(final ResultBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		/**
+		 * @param column column position
+		 * @return 0-based index
+		 * @throws SQLException if out of range
+		 */
+		private int index(final int column) throws SQLException {
+			if (column < 1 || column > this.buffer.types.length)
+				throw new SQLException("Column index out of range: " + column); //$NON-NLS-1$
+
+			return column - 1;
+		}
+
+		@Override
+		public int getColumnCount() {
+			return this.buffer.types.length;
+		}
+
+		@Override
+		public boolean isAutoIncrement(final int column) throws SQLException {
+			index(column);
+			return false;
+		}
+
+		@Override
+		public boolean isCaseSensitive(final int column) throws SQLException {
+			index(column);
+			return true;
+		}
+
+		@Override
+		public boolean isSearchable(final int column) throws SQLException {
+			index(column);
+			return true;
+		}
+
+		@Override
+		public boolean isCurrency(final int column) throws SQLException {
+			index(column);
+			return false;
+		}
+
+		@Override
+		public int isNullable(final int column) throws SQLException {
+			index(column);
+			return columnNullableUnknown;
+		}
+
+		@Override
+		public boolean isSigned(final int column) throws SQLException {
+			switch (this.buffer.types[index(column)]) {
+				case Types.TINYINT:
+				case Types.SMALLINT:
+				case Types.INTEGER:
+				case Types.BIGINT:
+				case Types.REAL:
+				case Types.FLOAT:
+				case Types.DOUBLE:
+				case Types.NUMERIC:
+				case Types.DECIMAL:
+					return true;
+				default:
+					return false;
+			}
+		}
+
+		@Override
+		public int getColumnDisplaySize(final int column) throws SQLException {
+			index(column);
+			return 0;
+		}
+
+		@Override
+		public String getColumnLabel(final int column) throws SQLException {
+			return this.buffer.labels[index(column)];
+		}
+
+		@Override
+		public String getColumnName(final int column) throws SQLException {
+			return this.buffer.names[index(column)];
+		}
+
+		@Override
+		public String getSchemaName(final int column) throws SQLException {
+			index(column);
+			return ""; //$NON-NLS-1$
+		}
+
+		@Override
+		public int getPrecision(final int column) throws SQLException {
+			index(column);
+			return 0;
+		}
+
+		@Override
+		public int getScale(final int column) throws SQLException {
+			index(column);
+			return 0;
+		}
+
+		@Override
+		public String getTableName(final int column) throws SQLException {
+			return this.buffer.tables[index(column)];
+		}
+
+		@Override
+		public String getCatalogName(final int column) throws SQLException {
+			index(column);
+			return ""; //$NON-NLS-1$
+		}
+
+		@Override
+		public int getColumnType(final int column) throws SQLException {
+			return this.buffer.types[index(column)];
+		}
+
+		@Override
+		public String getColumnTypeName(final int column) throws SQLException {
+			return this.buffer.typeNames[index(column)];
+		}
+
+		@Override
+		public boolean isReadOnly(final int column) throws SQLException {
+			index(column);
+			return true;
+		}
+
+		@Override
+		public boolean isWritable(final int column) throws SQLException {
+			index(column);
+			return false;
+		}
+
+		@Override
+		public boolean isDefinitelyWritable(final int column) throws SQLException {
+			index(column);
+			return false;
+		}
+
+		@Override
+		public String getColumnClassName(final int column) throws SQLException {
+			switch (this.buffer.kinds[index(column)]) {
+				case KIND_LONG:
+					return this.buffer.types[column - 1] == Types.BIGINT ? Long.class.getName() : Integer.class.getName();
+				case KIND_TEMPORAL:
+					return Timestamp.class.getName();
+				case KIND_BINARY:
+					return byte[].class.getName();
+				default:
+					return String.class.getName();
+			}
+		}
+
+		@Override
+		public <T> T unwrap(final Class<T> iface) throws SQLException {
+			if (iface.isInstance(this))
+				return iface.cast(this);
+
+			throw unsupported();
+		}
+
+		@Override
+		public boolean isWrapperFor(final Class<?> iface) {
+			return iface.isInstance(this);
+		}
+	}
+
+	/**
+	 * Independent, scrollable and read-only position over the rows of a buffer
+	 */
+	private static final class Cursor implements ResultSet {
+		/**
+		 * Rows to go through
+		 */
+		private final ResultBuffer	buffer;
+
+		/**
+		 * Current row, 0 = before the first row, <code>rows+1</code> = after the last one
+		 */
+		private int					row			= 0;
+
+		/**
+		 * Whether or not the last value read was <code>null</code>
+		 */
+		private boolean				lastNull	= false;
+
+		/**
+		 * Set after {@link #close()}
+		 */
+		private boolean				closed		= false;
+
+		/**
+		 * @param buffer rows to go through
+		 */
+		Cursor(final ResultBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		/**
+		 * Check the cursor position and the column index
+		 *
+		 * @param columnIndex column (1 = first column)
+		 * @return 0-based column index
+		 * @throws SQLException if there is no current row or no such column
+		 */
+		private int check(final int columnIndex) throws SQLException {
+			if (this.closed)
+				throw new SQLException("The result set is closed"); //$NON-NLS-1$
+
+			if (this.row < 1 || this.row > this.buffer.rows)
+				throw new SQLException("No current row"); //$NON-NLS-1$
+
+			if (columnIndex < 1 || columnIndex > this.buffer.kinds.length)
+				throw new SQLException("Column index out of range: " + columnIndex); //$NON-NLS-1$
+
+			return columnIndex - 1;
+		}
+
+		/**
+		 * @param value a value that was read
+		 * @return the same value
+		 */
+		private <T> T track(final T value) {
+			this.lastNull = value == null;
+
+			return value;
+		}
+
+		/**
+		 * @param column 0-based column index of an integer column
+		 * @return the value, setting {@link #lastNull} as well
+		 */
+		private long longValue(final int column) {
+			this.lastNull = this.buffer.nulls[column].get(this.row - 1);
+
+			return this.lastNull ? 0 : ((long[]) this.buffer.values[column])[this.row - 1];
+		}
+
+		/**
+		 * @param column 0-based column index of a text column
+		 * @return the text value
+		 */
+		private String textValue(final int column) {
+			if (this.buffer.kinds[column] == KIND_BINARY && this.buffer.textFormats[column] != TEXT_STORED)
+				return track(toText(this.buffer.bytes[column][this.row - 1], this.buffer.textFormats[column]));
+
+			return track(((String[]) this.buffer.values[column])[this.row - 1]);
+		}
+
+		@Override
+		public boolean next() {
+			if (this.row <= this.buffer.rows)
+				this.row++;
+
+			return this.row <= this.buffer.rows;
+		}
+
+		@Override
+		public boolean previous() {
+			if (this.row > 0)
+				this.row--;
+
+			return this.row > 0;
+		}
+
+		@Override
+		public boolean first() {
+			this.row = 1;
+
+			return this.buffer.rows > 0;
+		}
+
+		@Override
+		public boolean last() {
+			this.row = this.buffer.rows;
+
+			return this.buffer.rows > 0;
+		}
+
+		@Override
+		public void beforeFirst() {
+			this.row = 0;
+		}
+
+		@Override
+		public void afterLast() {
+			this.row = this.buffer.rows + 1;
+		}
+
+		@Override
+		public boolean absolute(final int position) {
+			if (position >= 0)
+				this.row = Math.min(position, this.buffer.rows + 1);
+			else
+				this.row = Math.max(this.buffer.rows + 1 + position, 0);
+
+			return this.row >= 1 && this.row <= this.buffer.rows;
+		}
+
+		@Override
+		public boolean relative(final int count) {
+			return absolute(Math.max(this.row + count, 0));
+		}
+
+		@Override
+		public int getRow() {
+			return this.row >= 1 && this.row <= this.buffer.rows ? this.row : 0;
+		}
+
+		@Override
+		public boolean isBeforeFirst() {
+			return this.row == 0 && this.buffer.rows > 0;
+		}
+
+		@Override
+		public boolean isAfterLast() {
+			return this.row > this.buffer.rows && this.buffer.rows > 0;
+		}
+
+		@Override
+		public boolean isFirst() {
+			return this.row == 1 && this.buffer.rows > 0;
+		}
+
+		@Override
+		public boolean isLast() {
+			return this.row == this.buffer.rows && this.buffer.rows > 0;
+		}
+
+		@Override
+		public boolean wasNull() {
+			return this.lastNull;
+		}
+
+		@Override
+		public int findColumn(final String columnLabel) throws SQLException {
+			return this.buffer.findColumn(columnLabel);
+		}
+
+		@Override
+		public String getString(final int columnIndex) throws SQLException {
+			final int column = check(columnIndex);
+
+			if (this.buffer.kinds[column] == KIND_LONG) {
+				final long value = longValue(column);
+
+				return this.lastNull ? null : String.valueOf(value);
+			}
+
+			return textValue(column);
+		}
+
+		@Override
+		public String getNString(final int columnIndex) throws SQLException {
+			return getString(columnIndex);
+		}
+
+		@Override
+		public long getLong(final int columnIndex) throws SQLException {
+			final int column = check(columnIndex);
+
+			if (this.buffer.kinds[column] == KIND_LONG)
+				return longValue(column);
+
+			final String s = textValue(column);
+
+			if (s == null)
+				return 0;
+
+			try {
+				return Long.parseLong(s.trim());
+			}
+			catch (final NumberFormatException nfe) {
+				try {
+					return (long) Double.parseDouble(s.trim());
+				}
+				catch (final NumberFormatException nfe2) {
+					throw new SQLException("Cannot convert '" + s + "' to a number", nfe2); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+			}
+		}
+
+		@Override
+		public int getInt(final int columnIndex) throws SQLException {
+			return (int) getLong(columnIndex);
+		}
+
+		@Override
+		public short getShort(final int columnIndex) throws SQLException {
+			return (short) getLong(columnIndex);
+		}
+
+		@Override
+		public byte getByte(final int columnIndex) throws SQLException {
+			return (byte) getLong(columnIndex);
+		}
+
+		@Override
+		public double getDouble(final int columnIndex) throws SQLException {
+			final int column = check(columnIndex);
+
+			if (this.buffer.kinds[column] == KIND_LONG)
+				return longValue(column);
+
+			final String s = textValue(column);
+
+			if (s == null)
+				return 0;
+
+			try {
+				return Double.parseDouble(s.trim());
+			}
+			catch (final NumberFormatException nfe) {
+				throw new SQLException("Cannot convert '" + s + "' to a number", nfe); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+
+		@Override
+		public float getFloat(final int columnIndex) throws SQLException {
+			return (float) getDouble(columnIndex);
+		}
+
+		@Override
+		public BigDecimal getBigDecimal(final int columnIndex) throws SQLException {
+			final int column = check(columnIndex);
+
+			if (this.buffer.kinds[column] == KIND_LONG) {
+				final long value = longValue(column);
+
+				return this.lastNull ? null : BigDecimal.valueOf(value);
+			}
+
+			final String s = textValue(column);
+
+			if (s == null)
+				return null;
+
+			try {
+				return new BigDecimal(s.trim());
+			}
+			catch (final NumberFormatException nfe) {
+				throw new SQLException("Cannot convert '" + s + "' to a number", nfe); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+
+		@Override
+		public boolean getBoolean(final int columnIndex) throws SQLException {
+			final int column = check(columnIndex);
+
+			if (this.buffer.kinds[column] == KIND_LONG)
+				return longValue(column) != 0;
+
+			final String s = textValue(column);
+
+			return s != null && Utils.stringToBool(s.trim(), false);
+		}
+
+		@Override
+		public byte[] getBytes(final int columnIndex) throws SQLException {
+			final int column = check(columnIndex);
+
+			if (this.buffer.kinds[column] == KIND_BINARY) {
+				final byte[] value = track(this.buffer.bytes[column][this.row - 1]);
+
+				return value != null ? value.clone() : null;
+			}
+
+			final String s = getString(columnIndex);
+
+			return s != null ? s.getBytes(StandardCharsets.UTF_8) : null;
+		}
+
+		/**
+		 * @param columnIndex column
+		 * @return the milliseconds of a date/time column, or {@link ResultBuffer#NO_TIME} for <code>null</code>
+		 * @throws SQLException if the column is not a date/time one
+		 */
+		private long getMillis(final int columnIndex) throws SQLException {
+			final int column = check(columnIndex);
+
+			if (this.buffer.kinds[column] != KIND_TEMPORAL)
+				throw new SQLException("Column " + columnIndex + " is not a date/time column"); //$NON-NLS-1$ //$NON-NLS-2$
+
+			final long value = this.buffer.millis[column][this.row - 1];
+
+			if (value == NO_TIME) {
+				if (textValue(column) != null)
+					throw new SQLException("Cannot convert to a date/time value"); //$NON-NLS-1$
+			}
+			else
+				this.lastNull = false;
+
+			return value;
+		}
+
+		@Override
+		public Timestamp getTimestamp(final int columnIndex) throws SQLException {
+			final long value = getMillis(columnIndex);
+
+			return value != NO_TIME ? new Timestamp(value) : null;
+		}
+
+		@Override
+		public Date getDate(final int columnIndex) throws SQLException {
+			final long value = getMillis(columnIndex);
+
+			return value != NO_TIME ? new Date(value) : null;
+		}
+
+		@Override
+		public Time getTime(final int columnIndex) throws SQLException {
+			final long value = getMillis(columnIndex);
+
+			return value != NO_TIME ? new Time(value) : null;
+		}
+
+		@Override
+		public Object getObject(final int columnIndex) throws SQLException {
+			final int column = check(columnIndex);
+
+			switch (this.buffer.kinds[column]) {
+				case KIND_LONG: {
+					final long value = longValue(column);
+
+					if (this.lastNull)
+						return null;
+
+					return this.buffer.types[column] == Types.BIGINT ? (Object) Long.valueOf(value) : (Object) Integer.valueOf((int) value);
+				}
+				case KIND_TEMPORAL:
+					return textValue(column) != null ? getTimestamp(columnIndex) : null;
+				case KIND_BINARY:
+					return getBytes(columnIndex);
+				default:
+			}
+
+			final String s = textValue(column);
+
+			if (s == null)
+				return null;
+
+			switch (this.buffer.types[column]) {
+				case Types.NUMERIC:
+				case Types.DECIMAL:
+					return getBigDecimal(columnIndex);
+				case Types.REAL:
+					return Float.valueOf(getFloat(columnIndex));
+				case Types.FLOAT:
+				case Types.DOUBLE:
+					return Double.valueOf(getDouble(columnIndex));
+				case Types.BOOLEAN:
+				case Types.BIT:
+					return Boolean.valueOf(getBoolean(columnIndex));
+				default:
+					return s;
+			}
+		}
+
+		@Override
+		public <T> T getObject(final int columnIndex, final Class<T> type) throws SQLException {
+			final Object o = getObject(columnIndex);
+
+			if (o == null || type.isInstance(o))
+				return type.cast(o);
+
+			throw new SQLException("Cannot convert column " + columnIndex + " to " + type.getName()); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		@Override
+		public String getString(final String columnLabel) throws SQLException {
+			return getString(findColumn(columnLabel));
+		}
+
+		@Override
+		public String getNString(final String columnLabel) throws SQLException {
+			return getString(findColumn(columnLabel));
+		}
+
+		@Override
+		public long getLong(final String columnLabel) throws SQLException {
+			return getLong(findColumn(columnLabel));
+		}
+
+		@Override
+		public int getInt(final String columnLabel) throws SQLException {
+			return getInt(findColumn(columnLabel));
+		}
+
+		@Override
+		public short getShort(final String columnLabel) throws SQLException {
+			return getShort(findColumn(columnLabel));
+		}
+
+		@Override
+		public byte getByte(final String columnLabel) throws SQLException {
+			return getByte(findColumn(columnLabel));
+		}
+
+		@Override
+		public double getDouble(final String columnLabel) throws SQLException {
+			return getDouble(findColumn(columnLabel));
+		}
+
+		@Override
+		public float getFloat(final String columnLabel) throws SQLException {
+			return getFloat(findColumn(columnLabel));
+		}
+
+		@Override
+		public BigDecimal getBigDecimal(final String columnLabel) throws SQLException {
+			return getBigDecimal(findColumn(columnLabel));
+		}
+
+		@Override
+		public boolean getBoolean(final String columnLabel) throws SQLException {
+			return getBoolean(findColumn(columnLabel));
+		}
+
+		@Override
+		public byte[] getBytes(final String columnLabel) throws SQLException {
+			return getBytes(findColumn(columnLabel));
+		}
+
+		@Override
+		public Timestamp getTimestamp(final String columnLabel) throws SQLException {
+			return getTimestamp(findColumn(columnLabel));
+		}
+
+		@Override
+		public Date getDate(final String columnLabel) throws SQLException {
+			return getDate(findColumn(columnLabel));
+		}
+
+		@Override
+		public Time getTime(final String columnLabel) throws SQLException {
+			return getTime(findColumn(columnLabel));
+		}
+
+		@Override
+		public Object getObject(final String columnLabel) throws SQLException {
+			return getObject(findColumn(columnLabel));
+		}
+
+		@Override
+		public <T> T getObject(final String columnLabel, final Class<T> type) throws SQLException {
+			return getObject(findColumn(columnLabel), type);
+		}
+
+		@Override
+		public ResultSetMetaData getMetaData() {
+			return this.buffer.getMetaData();
+		}
+
+		@Override
+		public void close() {
+			this.closed = true;
+		}
+
+		@Override
+		public boolean isClosed() {
+			return this.closed;
+		}
+
+		@Override
+		public int getType() {
+			return TYPE_SCROLL_INSENSITIVE;
+		}
+
+		@Override
+		public int getConcurrency() {
+			return CONCUR_READ_ONLY;
+		}
+
+		@Override
+		public int getHoldability() {
+			return HOLD_CURSORS_OVER_COMMIT;
+		}
+
+		@Override
+		public int getFetchSize() {
+			return this.buffer.rows;
+		}
+
+		@Override
+		public void setFetchSize(final int rows) {
+			// everything is in memory already
+		}
+
+		@Override
+		public int getFetchDirection() {
+			return FETCH_FORWARD;
+		}
+
+		@Override
+		public void setFetchDirection(final int direction) throws SQLException {
+			if (direction != FETCH_FORWARD)
+				throw unsupported();
+		}
+
+		@Override
+		public SQLWarning getWarnings() {
+			return null;
+		}
+
+		@Override
+		public void clearWarnings() {
+			// nothing to clear
+		}
+
+		@Override
+		public Statement getStatement() {
+			return null;
+		}
+
+		@Override
+		public <T> T unwrap(final Class<T> iface) throws SQLException {
+			if (iface.isInstance(this))
+				return iface.cast(this);
+
+			throw unsupported();
+		}
+
+		@Override
+		public boolean isWrapperFor(final Class<?> iface) {
+			return iface.isInstance(this);
+		}
+
+		@Override
+		public void cancelRowUpdates() throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void deleteRow() throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public Array getArray(final String columnLabel) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public Array getArray(final int columnIndex) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public InputStream getAsciiStream(final String columnLabel) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public InputStream getAsciiStream(final int columnIndex) throws SQLException {
+			throw unsupported();
+		}
+
+		@Deprecated
+		@Override
+		public BigDecimal getBigDecimal(final String columnLabel, final int scale) throws SQLException {
+			throw unsupported();
+		}
+
+		@Deprecated
+		@Override
+		public BigDecimal getBigDecimal(final int columnIndex, final int scale) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public InputStream getBinaryStream(final String columnLabel) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public InputStream getBinaryStream(final int columnIndex) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public Blob getBlob(final String columnLabel) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public Blob getBlob(final int columnIndex) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public Reader getCharacterStream(final String columnLabel) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public Reader getCharacterStream(final int columnIndex) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public Clob getClob(final String columnLabel) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public Clob getClob(final int columnIndex) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public String getCursorName() throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public Date getDate(final String columnLabel, final Calendar calendar) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public Date getDate(final int columnIndex, final Calendar calendar) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public Reader getNCharacterStream(final String columnLabel) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public Reader getNCharacterStream(final int columnIndex) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public NClob getNClob(final String columnLabel) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public NClob getNClob(final int columnIndex) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public Object getObject(final String columnLabel, final Map<String, Class<?>> typeMap) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public Object getObject(final int columnIndex, final Map<String, Class<?>> typeMap) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public Ref getRef(final String columnLabel) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public Ref getRef(final int columnIndex) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public RowId getRowId(final String columnLabel) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public RowId getRowId(final int columnIndex) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public SQLXML getSQLXML(final String columnLabel) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public SQLXML getSQLXML(final int columnIndex) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public Time getTime(final String columnLabel, final Calendar calendar) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public Time getTime(final int columnIndex, final Calendar calendar) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public Timestamp getTimestamp(final String columnLabel, final Calendar calendar) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public Timestamp getTimestamp(final int columnIndex, final Calendar calendar) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public URL getURL(final String columnLabel) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public URL getURL(final int columnIndex) throws SQLException {
+			throw unsupported();
+		}
+
+		@Deprecated
+		@Override
+		public InputStream getUnicodeStream(final String columnLabel) throws SQLException {
+			throw unsupported();
+		}
+
+		@Deprecated
+		@Override
+		public InputStream getUnicodeStream(final int columnIndex) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void insertRow() throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void moveToCurrentRow() throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void moveToInsertRow() throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void refreshRow() throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public boolean rowDeleted() throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public boolean rowInserted() throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public boolean rowUpdated() throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateArray(final String columnLabel, final Array array) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateArray(final int columnIndex, final Array array) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateAsciiStream(final String columnLabel, final InputStream x, final int length) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateAsciiStream(final String columnLabel, final InputStream x, final long length) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateAsciiStream(final String columnLabel, final InputStream x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateAsciiStream(final int columnIndex, final InputStream x, final int length) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateAsciiStream(final int columnIndex, final InputStream x, final long length) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateAsciiStream(final int columnIndex, final InputStream x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateBigDecimal(final String columnLabel, final BigDecimal bigDecimal) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateBigDecimal(final int columnIndex, final BigDecimal bigDecimal) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateBinaryStream(final String columnLabel, final InputStream x, final int length) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateBinaryStream(final String columnLabel, final InputStream x, final long length) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateBinaryStream(final String columnLabel, final InputStream x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateBinaryStream(final int columnIndex, final InputStream x, final int length) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateBinaryStream(final int columnIndex, final InputStream x, final long length) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateBinaryStream(final int columnIndex, final InputStream x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateBlob(final String columnLabel, final InputStream x, final long length) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateBlob(final String columnLabel, final InputStream x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateBlob(final String columnLabel, final Blob blob) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateBlob(final int columnIndex, final InputStream x, final long length) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateBlob(final int columnIndex, final InputStream x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateBlob(final int columnIndex, final Blob blob) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateBoolean(final String columnLabel, final boolean x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateBoolean(final int columnIndex, final boolean x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateByte(final String columnLabel, final byte x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateByte(final int columnIndex, final byte x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateBytes(final String columnLabel, final byte[] x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateBytes(final int columnIndex, final byte[] x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateCharacterStream(final String columnLabel, final Reader reader, final int length) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateCharacterStream(final String columnLabel, final Reader reader, final long length) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateCharacterStream(final String columnLabel, final Reader reader) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateCharacterStream(final int columnIndex, final Reader reader, final int length) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateCharacterStream(final int columnIndex, final Reader reader, final long length) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateCharacterStream(final int columnIndex, final Reader reader) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateClob(final String columnLabel, final Reader reader, final long length) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateClob(final String columnLabel, final Reader reader) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateClob(final String columnLabel, final Clob clob) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateClob(final int columnIndex, final Reader reader, final long length) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateClob(final int columnIndex, final Reader reader) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateClob(final int columnIndex, final Clob clob) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateDate(final String columnLabel, final Date date) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateDate(final int columnIndex, final Date date) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateDouble(final String columnLabel, final double x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateDouble(final int columnIndex, final double x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateFloat(final String columnLabel, final float x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateFloat(final int columnIndex, final float x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateInt(final String columnLabel, final int x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateInt(final int columnIndex, final int x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateLong(final String columnLabel, final long x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateLong(final int columnIndex, final long x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateNCharacterStream(final String columnLabel, final Reader reader, final long length) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateNCharacterStream(final String columnLabel, final Reader reader) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateNCharacterStream(final int columnIndex, final Reader reader, final long length) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateNCharacterStream(final int columnIndex, final Reader reader) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateNClob(final String columnLabel, final Reader reader, final long length) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateNClob(final String columnLabel, final Reader reader) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateNClob(final String columnLabel, final NClob clob) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateNClob(final int columnIndex, final Reader reader, final long length) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateNClob(final int columnIndex, final Reader reader) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateNClob(final int columnIndex, final NClob clob) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateNString(final String columnLabel, final String x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateNString(final int columnIndex, final String x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateNull(final String columnLabel) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateNull(final int columnIndex) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateObject(final String columnLabel, final Object x, final int scaleOrLength) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateObject(final String columnLabel, final Object x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateObject(final int columnIndex, final Object x, final int scaleOrLength) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateObject(final int columnIndex, final Object x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateRef(final String columnLabel, final Ref ref) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateRef(final int columnIndex, final Ref ref) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateRow() throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateRowId(final String columnLabel, final RowId rowId) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateRowId(final int columnIndex, final RowId rowId) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateSQLXML(final String columnLabel, final SQLXML xmlObject) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateSQLXML(final int columnIndex, final SQLXML xmlObject) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateShort(final String columnLabel, final short x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateShort(final int columnIndex, final short x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateString(final String columnLabel, final String x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateString(final int columnIndex, final String x) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateTime(final String columnLabel, final Time time) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateTime(final int columnIndex, final Time time) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateTimestamp(final String columnLabel, final Timestamp timestamp) throws SQLException {
+			throw unsupported();
+		}
+
+		@Override
+		public void updateTimestamp(final int columnIndex, final Timestamp timestamp) throws SQLException {
+			throw unsupported();
+		}
+	}
+}
@@ -0,0 +1,265 @@
+package lazyj;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Session store keeping the sessions in the <i>sessions</i> table of a database. The connection parameters are
+ * taken from "dbsessions.properties", in {@link DBFunctions} format, and the table is created if it doesn't exist.
+ *
+ * @author costing
+ * @since Oct 16, 2026
+ */
+public final class SQLSessionStore implements SessionStore {
+
+	/**
+	 * Columns that identify a session in the database
+	 */
+	private static final List<String> KEY_COLUMNS = Arrays.asList("id", "app", "ip"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+	/**
+	 * Database configuration
+	 */
+	private volatile ExtProperties prop = null;
+
+	/**
+	 * How long to write one session at a time after an upsert failed, before trying the upserts again, in milliseconds
+	 */
+	private static final long UPSERT_RETRY_INTERVAL = 1000L * 60 * 10;
+
+	/**
+	 * Until when the sessions are written one at a time, because the last upsert failed (maybe the unique index is missing,
+	 * maybe the database had a transient problem). Reset at each configuration reload.
+	 */
+	private volatile long upsertDisabledUntil = 0;
+
+	/**
+	 * @return a new connection to the sessions database
+	 */
+	private DBFunctions getDB(){
+		return new DBFunctions(this.prop);
+	}
+
+	@Override
+	@SuppressWarnings("nls")
+	public boolean init(final ExtProperties configuration) {
+		this.prop = configuration;
+		this.upsertDisabledUntil = 0;
+
+		final DBFunctions db = getDB();
+
+		try{
+			if (!db.query("SELECT 2;", true) || db.geti(1)!=2){
+				System.err.println("lazyj.DBSession : disabling database backing because I cannot execute the simplest query!");
+				return false;
+			}
+
+			final String sBinaryType = db.isPostgreSQL() ? "bytea" : "blob";
+
+			if (db.query("CREATE TABLE sessions (id text, app int, ip text, lastaccess int, username text, fullname text, values text, data "+sBinaryType+");", true)){
+				db.query("CREATE UNIQUE INDEX sessions_pkey ON sessions(id, app, ip);");
+				db.query("CREATE INDEX sessions_lastaccess_idx ON sessions(lastaccess);");
+			}
+
+			// tables created by older versions only have the text column
+			if (db.query("SELECT * FROM sessions WHERE 1=0;") && !Arrays.asList(db.getColumnNames()).contains("data")){
+				db.query("ALTER TABLE sessions ADD data "+sBinaryType+";");
+			}
+
+			return true;
+		}
+		finally{
+			db.close();
+		}
+	}
+
+	@Override
+	@SuppressWarnings("nls")
+	public DBSession load(final String id, final int app, final String ip, final ClassLoader loader) {
+		final DBFunctions db = getDB();
+
+		DBSession dbs = null;
+
+		boolean bLegacy = false;
+
+		try{
+			final boolean bOk;
+
+			if (ip != null)
+				bOk = db.query("SELECT data, values FROM sessions WHERE id=? AND app=? AND ip=?;", false, id, Integer.valueOf(app), ip);
+			else
+				bOk = db.query("SELECT data, values FROM sessions WHERE id=? AND app=?;", false, id, Integer.valueOf(app));
+
+			if (bOk && db.moveNext()){
+				final byte[] data = db.getBytes(1);
+
+				if (data != null && data.length > 0){
+					dbs = DBSession.decode(data, loader);
+				}
+				else{
+					// row written by an older version, in hex-encoded text
+					dbs = DBSession.decode(DBSession.decodeString(db.gets(2)), loader);
+					bLegacy = true;
+				}
+			}
+		}
+		finally{
+			db.close();
+		}
+
+		if (dbs != null && bLegacy){
+			// rewrite it in the current format
+			SessionWriter.schedule(dbs, 1000);
+		}
+
+		return dbs;
+	}
+
+	@Override
+	public List<DBSession> save(final List<DBSession> sessions) {
+		final List<DBSession> failed = new ArrayList<>();
+
+		final List<DBSession> encoded = new ArrayList<>(sessions.size());
+		final List<Map<String, Object>> rows = new ArrayList<>(sessions.size());
+
+		for (final DBSession dbs: sessions){
+			final Map<String, Object> row = toRow(dbs);
+
+			if (row != null){
+				encoded.add(dbs);
+				rows.add(row);
+			}
+			else
+				failed.add(dbs);
+		}
+
+		if (rows.isEmpty())
+			return failed;
+
+		final DBFunctions db = getDB();
+
+		try{
+			if (System.currentTimeMillis() >= this.upsertDisabledUntil){
+				if (db.bulkUpsert("sessions", rows, KEY_COLUMNS)) //$NON-NLS-1$
+					return failed;
+
+				Log.log(Log.WARNING, "lazyj.DBSession", "cannot upsert into the sessions table, is the unique index on (id, app, ip) missing? Writing one session at a time for the next "+UPSERT_RETRY_INTERVAL/1000/60+" minutes"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+				this.upsertDisabledUntil = System.currentTimeMillis() + UPSERT_RETRY_INTERVAL;
+			}
+
+			for (int i=0; i<rows.size(); i++)
+				if (!persist(db, encoded.get(i), rows.get(i)))
+					failed.add(encoded.get(i));
+		}
+		finally{
+			db.close();
+		}
+
+		return failed;
+	}
+
+	/**
+	 * Save one session alone, with an UPDATE followed by an INSERT if the session didn't exist
+	 *
+	 * @param db database connection
+	 * @param dbs the session
+	 * @param row the values to save, see {@link #toRow(DBSession)}
+	 * @return <code>true</code> if the session was saved
+	 */
+	@SuppressWarnings("nls")
+	private static boolean persist(final DBFunctions db, final DBSession dbs, final Map<String, Object> row){
+		final boolean bUpdated;
+
+		if (dbs.isIPProtected())
+			bUpdated = db.query("UPDATE sessions SET data=?, values=NULL, username=?, fullname=?, lastaccess=? WHERE id=? AND app=? AND ip=?;", false,
+				row.get("data"), row.get("username"), row.get("fullname"), row.get("lastaccess"), row.get("id"), row.get("app"), row.get("ip"));
+		else
+			bUpdated = db.query("UPDATE sessions SET data=?, values=NULL, username=?, fullname=?, lastaccess=? WHERE id=? AND app=?;", false,
+				row.get("data"), row.get("username"), row.get("fullname"), row.get("lastaccess"), row.get("id"), row.get("app"));
+
+		if (!bUpdated)
+			return false;
+
+		if (db.getUpdateCount() > 0)
+			return true;
+
+		return db.query("INSERT INTO sessions (id, app, ip, username, fullname, lastaccess, data) VALUES (?, ?, ?, ?, ?, ?, ?);", false,
+			row.get("id"), row.get("app"), row.get("ip"), row.get("username"), row.get("fullname"), row.get("lastaccess"), row.get("data"));
+	}
+
+	/**
+	 * Serialize a session
+	 *
+	 * @param dbs the session
+	 * @return the column - value mapping for the sessions table, or <code>null</code> if the session cannot be serialized
+	 */
+	@SuppressWarnings("nls")
+	private static Map<String, Object> toRow(final DBSession dbs){
+		try {
+			final byte[] data = DBSession.getCodec().encode(dbs);
+
+			final Map<String, Object> row = new LinkedHashMap<>();
+
+			row.put("id", dbs.getID());
+			row.put("app", Integer.valueOf(dbs.getApp()));
+			row.put("ip", dbs.getClientIP());
+			row.put("username", dbs.getUsername());
+			row.put("fullname", dbs.getFullname());
+			row.put("lastaccess", Integer.valueOf((int) (dbs.lLastAccess / 1000)));
+			row.put("data", data);
+			row.put("values", null);
+
+			return row;
+		}
+		catch (final Throwable e) {
+			Log.log(Log.WARNING, "lazyj.DBSession", "exception saving a session into the db", e);
+
+			return null;
+		}
+	}
+
+	@Override
+	@SuppressWarnings("nls")
+	public boolean remove(final DBSession session) {
+		final DBFunctions db = getDB();
+
+		try{
+			if (session.isIPProtected())
+				return db.query("DELETE FROM sessions WHERE id=? AND app=? AND ip=?;", false, session.getID(), Integer.valueOf(session.getApp()), session.getClientIP());
+
+			return db.query("DELETE FROM sessions WHERE id=? AND app=?;", false, session.getID(), Integer.valueOf(session.getApp()));
+		}
+		finally{
+			db.close();
+		}
+	}
+
+	@Override
+	public int purge(final long olderThan) {
+		final DBFunctions db = getDB();
+
+		try{
+			if (db.query("DELETE FROM sessions WHERE lastaccess<?;", false, Integer.valueOf((int) (olderThan / 1000)))) //$NON-NLS-1$
+				return db.getUpdateCount();
+
+			return -1;
+		}
+		finally{
+			db.close();
+		}
+	}
+
+	@Override
+	public void close() {
+		// connections are pooled by DBFunctions, nothing to release
+	}
+
+	@Override
+	public String toString() {
+		return "sql"; //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,86 @@
+package lazyj;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+
+/**
+ * Session codec based on the standard Java serialization, the format used by the previous versions of {@link DBSession}.
+ *
+ * @author costing
+ * @since Oct 16, 2026
+ */
+public final class SerializationSessionCodec implements SessionCodec {
+
+	/**
+	 * Object stream decoder
+	 *
+	 * @author costing
+	 * @since Jan 17, 2009
+	 */
+	static final class LoaderObjectInputStream extends ObjectInputStream {
+		/**
+		 * Class loader, to be able to load objects even if they are in some servlet's zone
+		 */
+		private final ClassLoader loader;
+
+		/**
+		 * @param is
+		 * @param loader
+		 * @throws IOException
+		 */
+		public LoaderObjectInputStream(final InputStream is, final ClassLoader loader) throws IOException {
+			super(is);
+
+			this.loader = loader;
+		}
+
+		@Override
+		protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			try{
+				return super.resolveClass(desc);
+			}
+			catch (final ClassNotFoundException cnfe){
+				if (this.loader!=null){
+					// we have an alternative class loader, try to use this one, maybe we are lucky this time
+					return Class.forName(desc.getName(), false, this.loader);
+				}
+
+				throw cnfe;
+			}
+		}
+	}
+
+	/**
+	 * @param data encoded session
+	 * @return <code>true</code> if the data starts with the Java serialization stream header
+	 */
+	static boolean accepts(final byte[] data) {
+		return data != null && data.length >= 2 && data[0] == (byte) 0xAC && data[1] == (byte) 0xED;
+	}
+
+	@Override
+	public byte[] encode(final DBSession session) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(1000);
+
+		try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+			oos.writeObject(session);
+		}
+
+		return baos.toByteArray();
+	}
+
+	@Override
+	public DBSession decode(final byte[] data, final ClassLoader loader) throws IOException {
+		try (ObjectInputStream ois = new LoaderObjectInputStream(new ByteArrayInputStream(data), loader)) {
+			return (DBSession) ois.readObject();
+		}
+		catch (final ClassNotFoundException | ClassCastException e) {
+			throw new IOException("cannot decode the session", e); //$NON-NLS-1$
+		}
+	}
+}
@@ -0,0 +1,459 @@
+package lazyj;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of the active {@link DBSession}s. The keys are spread over independently locked segments, each of them
+ * keeping its entries in LRU order, so concurrent requests rarely contend on the same lock. The cache can be bounded by the
+ * number of entries and by the estimated memory footprint of the sessions. When a segment goes over its share of the budget
+ * the least recently used sessions are evicted and queued for writing to the database. Until the write succeeds they stay
+ * in a side map where {@link #getSpilled(String)} finds them, so that a request never loads an older copy from the store.<br>
+ * <br>
+ * Idle sessions are expired by a timing wheel instead of scanning the whole cache: each session is placed in the slot of the
+ * moment it should be checked again and the cleaner only looks at the slots whose time has come. Sessions that were accessed
+ * in the meantime are simply moved to a later slot, so accessing a session never touches the wheel.<br>
+ * <br>
+ * Configuration parameters, from "dbsessions.properties":<br><ul>
+ * <li>cache.max.entries=int (default 0 = unlimited). Maximum number of sessions kept in memory.</li>
+ * <li>cache.max.memory=int (default 0 = unlimited). Maximum estimated size of the sessions kept in memory, in MB.</li>
+ * </ul>
+ *
+ * @author costing
+ * @since Oct 16, 2026
+ */
+public final class SessionCache {
+
+	/**
+	 * Number of segments, a power of two
+	 */
+	private static final int	SEGMENTS	= 64;
+
+	/**
+	 * Duration of a wheel slot, in milliseconds
+	 */
+	static final long			TICK		= 10 * 1000;
+
+	/**
+	 * Number of wheel slots. Sessions due further than this in the future wait in the farthest slot and are rescheduled from there.
+	 */
+	private static final int	WHEEL_SIZE	= 512;
+
+	/**
+	 * One cache entry
+	 */
+	private static final class Entry {
+		/**
+		 * The session
+		 */
+		final DBSession	session;
+
+		/**
+		 * Estimated size of the session, at the time it was last stored
+		 */
+		final int		size;
+
+		/**
+		 * @param session the session
+		 * @param size estimated size
+		 */
+		Entry(final DBSession session, final int size) {
+			this.session = session;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * One lock stripe
+	 */
+	private static final class Segment {
+		/**
+		 * Entries, in access order
+		 */
+		final LinkedHashMap<String, Entry>	map		= new LinkedHashMap<>(16, 0.75f, true);
+
+		/**
+		 * Estimated size of all the entries
+		 */
+		long								bytes	= 0;
+
+		/**
+		 * Default constructor
+		 */
+		Segment() {
+			// nothing
+		}
+	}
+
+	/**
+	 * The segments
+	 */
+	private final Segment[]											segments	= new Segment[SEGMENTS];
+
+	/**
+	 * Evicted sessions that were not written yet
+	 */
+	private final ConcurrentHashMap<String, DBSession>				spilling	= new ConcurrentHashMap<>();
+
+	/**
+	 * Timing wheel slots
+	 */
+	private final List<ConcurrentLinkedQueue<DBSession>>			wheel		= new ArrayList<>(WHEEL_SIZE);
+
+	/**
+	 * Start time of the first slot that was not processed yet
+	 */
+	private volatile long											wheelTime	= System.currentTimeMillis() / TICK * TICK;
+
+	/**
+	 * Maximum number of entries, 0 for unlimited
+	 */
+	private volatile long											maxEntries	= 0;
+
+	/**
+	 * Maximum estimated size, in bytes, 0 for unlimited
+	 */
+	private volatile long											maxBytes	= 0;
+
+	/**
+	 * Current number of entries
+	 */
+	private final AtomicInteger										size		= new AtomicInteger(0);
+
+	/**
+	 * Current estimated size
+	 */
+	private final AtomicLong										bytes		= new AtomicLong(0);
+
+	/**
+	 * Statistics : sessions evicted to stay within the budget
+	 */
+	private final AtomicLong										evictions	= new AtomicLong(0);
+
+	/**
+	 * Statistics : sessions expired because they were idle
+	 */
+	private final AtomicLong										expirations	= new AtomicLong(0);
+
+	/**
+	 * Package protected constructor, the only instance is kept by {@link DBSession}
+	 */
+	SessionCache() {
+		for (int i = 0; i < SEGMENTS; i++)
+			this.segments[i] = new Segment();
+
+		for (int i = 0; i < WHEEL_SIZE; i++)
+			this.wheel.add(new ConcurrentLinkedQueue<DBSession>());
+	}
+
+	/**
+	 * Set the budget
+	 *
+	 * @param entries maximum number of sessions, 0 for unlimited
+	 * @param memory maximum estimated size of the sessions in bytes, 0 for unlimited
+	 */
+	void setLimits(final long entries, final long memory) {
+		this.maxEntries = Math.max(entries, 0);
+		this.maxBytes = Math.max(memory, 0);
+	}
+
+	/**
+	 * @param key session key
+	 * @return the segment of this key
+	 */
+	private Segment segmentFor(final String key) {
+		int h = key.hashCode();
+
+		h ^= (h >>> 16);
+
+		return this.segments[h & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * Get a session, making it the most recently used one
+	 *
+	 * @param key session key
+	 * @return the session, or <code>null</code> if it is not cached
+	 */
+	DBSession get(final String key) {
+		final Segment segment = segmentFor(key);
+
+		synchronized (segment) {
+			final Entry e = segment.map.get(key);
+
+			return e != null ? e.session : null;
+		}
+	}
+
+	/**
+	 * Get a session that was evicted and is not written yet. The caller should put it back in the cache.
+	 *
+	 * @param key session key
+	 * @return the session, or <code>null</code> if it is not waiting to be written
+	 */
+	DBSession getSpilled(final String key) {
+		return this.spilling.get(key);
+	}
+
+	/**
+	 * A session was successfully written, drop it from the evicted ones if it is still there
+	 *
+	 * @param session the session
+	 */
+	void written(final DBSession session) {
+		this.spilling.remove(session.getKey(), session);
+	}
+
+	/**
+	 * Add or refresh a session, updating its estimated size. Sessions that don't fit in the budget are evicted and queued for writing.
+	 *
+	 * @param key session key
+	 * @param session the session
+	 * @return <code>true</code> if the session was not cached before (so it should be scheduled in the wheel)
+	 */
+	boolean put(final String key, final DBSession session) {
+		final int sessionSize = session.estimateSize();
+
+		final Segment segment = segmentFor(key);
+
+		List<DBSession> evicted = null;
+
+		final boolean bNew;
+
+		synchronized (segment) {
+			this.spilling.remove(key);
+
+			final Entry old = segment.map.put(key, new Entry(session, sessionSize));
+
+			if (old != null) {
+				segment.bytes -= old.size;
+				this.bytes.addAndGet(-old.size);
+
+				if (old.session != session)
+					old.session.setCached(false);
+			}
+			else
+				this.size.incrementAndGet();
+
+			segment.bytes += sessionSize;
+			this.bytes.addAndGet(sessionSize);
+
+			bNew = old == null || old.session != session;
+
+			if (bNew)
+				session.setCached(true);
+
+			final long entriesLimit = this.maxEntries > 0 ? Math.max((this.maxEntries + SEGMENTS - 1) / SEGMENTS, 1) : Long.MAX_VALUE;
+			final long bytesLimit = this.maxBytes > 0 ? Math.max(this.maxBytes / SEGMENTS, 1) : Long.MAX_VALUE;
+
+			final Iterator<Map.Entry<String, Entry>> it = segment.map.entrySet().iterator();
+
+			while ((segment.map.size() > entriesLimit || segment.bytes > bytesLimit) && segment.map.size() > 1 && it.hasNext()) {
+				final Map.Entry<String, Entry> me = it.next();
+
+				final Entry e = me.getValue();
+
+				if (e.session == session)
+					continue;
+
+				// still visible to get() callers until it is written, see getSpilled()
+				this.spilling.put(me.getKey(), e.session);
+
+				it.remove();
+
+				segment.bytes -= e.size;
+				this.bytes.addAndGet(-e.size);
+				this.size.decrementAndGet();
+
+				e.session.setCached(false);
+
+				if (evicted == null)
+					evicted = new ArrayList<>();
+
+				evicted.add(e.session);
+			}
+		}
+
+		if (evicted != null) {
+			this.evictions.addAndGet(evicted.size());
+
+			// write them outside of the lock
+			for (final DBSession dbs : evicted)
+				SessionWriter.schedule(dbs, 0);
+		}
+
+		return bNew;
+	}
+
+	/**
+	 * Remove a session
+	 *
+	 * @param key session key
+	 * @param session remove only if the key is still associated to this object, or <code>null</code> to remove whatever is there
+	 * @return <code>true</code> if the session was removed
+	 */
+	boolean remove(final String key, final DBSession session) {
+		final Segment segment = segmentFor(key);
+
+		synchronized (segment) {
+			if (session != null)
+				this.spilling.remove(key, session);
+			else
+				this.spilling.remove(key);
+
+			final Entry e = segment.map.get(key);
+
+			if (e == null || (session != null && e.session != session))
+				return false;
+
+			segment.map.remove(key);
+
+			segment.bytes -= e.size;
+			this.bytes.addAndGet(-e.size);
+			this.size.decrementAndGet();
+
+			e.session.setCached(false);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Remove an idle session, accounting it as an expiration
+	 *
+	 * @param session the session
+	 * @return <code>true</code> if the session was removed
+	 */
+	boolean expire(final DBSession session) {
+		if (remove(session.getKey(), session)) {
+			this.expirations.incrementAndGet();
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return a snapshot of the cached sessions
+	 */
+	List<DBSession> values() {
+		final List<DBSession> ret = new ArrayList<>(this.size.get());
+
+		for (final Segment segment : this.segments) {
+			synchronized (segment) {
+				for (final Entry e : segment.map.values())
+					ret.add(e.session);
+			}
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Schedule a check of this session at the given time
+	 *
+	 * @param session the session
+	 * @param time when to check it again
+	 */
+	void schedule(final DBSession session, final long time) {
+		final long start = this.wheelTime;
+
+		// never schedule in the slot that is being processed, and not further than the wheel can hold
+		final long slotTime = Math.min(Math.max(time, start + TICK), start + (WHEEL_SIZE - 1) * TICK) / TICK * TICK;
+
+		// a previous copy of the session, in another slot, is dropped when its slot comes
+		session.setWheelSlot(slotTime);
+
+		this.wheel.get((int) ((slotTime / TICK) % WHEEL_SIZE)).offer(session);
+	}
+
+	/**
+	 * Advance the wheel up to the given moment, to be called by a single thread
+	 *
+	 * @param now current time
+	 * @return the sessions that are due for a check, each of them once. Some of them might not be cached any more.
+	 */
+	List<DBSession> advance(final long now) {
+		final List<DBSession> ret = new ArrayList<>();
+
+		long t = this.wheelTime;
+
+		while (t + TICK <= now) {
+			// move the start first, so that concurrent schedule() calls don't target the slot being drained
+			this.wheelTime = t + TICK;
+
+			final ConcurrentLinkedQueue<DBSession> slot = this.wheel.get((int) ((t / TICK) % WHEEL_SIZE));
+
+			DBSession session;
+
+			while ((session = slot.poll()) != null)
+				if (session.takeWheelSlot(t))
+					ret.add(session);
+
+			t += TICK;
+		}
+
+		return ret;
+	}
+
+	/**
+	 * @return number of cached sessions
+	 */
+	public int getSize() {
+		return this.size.get();
+	}
+
+	/**
+	 * @return estimated size of the cached sessions, in bytes
+	 */
+	public long getMemory() {
+		return this.bytes.get();
+	}
+
+	/**
+	 * @return configured maximum number of sessions, 0 if unlimited
+	 */
+	public long getMaxEntries() {
+		return this.maxEntries;
+	}
+
+	/**
+	 * @return configured maximum estimated size, in bytes, 0 if unlimited
+	 */
+	public long getMaxMemory() {
+		return this.maxBytes;
+	}
+
+	/**
+	 * @return number of evicted sessions that are not written yet
+	 */
+	public int getSpilling() {
+		return this.spilling.size();
+	}
+
+	/**
+	 * @return number of sessions evicted to stay within the budget
+	 */
+	public long getEvictions() {
+		return this.evictions.get();
+	}
+
+	/**
+	 * @return number of sessions removed from memory because they were idle
+	 */
+	public long getExpirations() {
+		return this.expirations.get();
+	}
+
+	@Override
+	public String toString() {
+		return "sessions: " + getSize() + ", memory: " + Format.size(getMemory()) + ", evictions: " + getEvictions() + ", spilling: " + getSpilling() + ", expirations: " + getExpirations(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+	}
+}
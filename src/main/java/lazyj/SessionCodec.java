@@ -0,0 +1,37 @@
+package lazyj;
+
+import java.io.IOException;
+
+/**
+ * Converts {@link DBSession} objects to and from the bytes kept in the persistent store. The codec is selected with the
+ * <i>session.codec</i> key in "dbsessions.properties": <i>binary</i> (the default, {@link BinarySessionCodec}),
+ * <i>serialization</i> ({@link SerializationSessionCodec}) or the name of a class implementing this interface and having
+ * a public constructor without arguments.<br>
+ * <br>
+ * Whatever the configured codec, the data written by the two built-in ones is always recognized when reading, so changing
+ * the codec doesn't invalidate the stored sessions.
+ *
+ * @author costing
+ * @since Oct 16, 2026
+ */
+public interface SessionCodec {
+
+	/**
+	 * Serialize a session
+	 *
+	 * @param session the session
+	 * @return the encoded form
+	 * @throws IOException if the session cannot be encoded
+	 */
+	public byte[] encode(DBSession session) throws IOException;
+
+	/**
+	 * Rebuild a session from its encoded form
+	 *
+	 * @param data bytes produced by {@link #encode(DBSession)}
+	 * @param loader class loader to resolve the classes of the session values with, can be <code>null</code>
+	 * @return the session
+	 * @throws IOException if the data cannot be decoded
+	 */
+	public DBSession decode(byte[] data, ClassLoader loader) throws IOException;
+}
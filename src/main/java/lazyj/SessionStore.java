@@ -0,0 +1,67 @@
+package lazyj;
+
+import java.util.List;
+
+/**
+ * Persistent backend of {@link DBSession}. The sessions that are not in the memory cache are looked up here, the modified
+ * ones are written here and the idle ones are periodically purged from here. The backend is selected with the
+ * <i>session.store</i> key in "dbsessions.properties": <i>sql</i> (the default, {@link SQLSessionStore}, active only if
+ * <i>database.enabled</i> is true), <i>file</i> ({@link FileSessionStore}), <i>memory</i> (no persistence) or the name of
+ * a class implementing this interface and having a public constructor without arguments.<br>
+ * <br>
+ * Implementations must be thread safe, they are called concurrently by the request threads, the writer threads and the
+ * cleaner thread.
+ *
+ * @author costing
+ * @since Oct 16, 2026
+ */
+public interface SessionStore {
+
+	/**
+	 * Prepare the store for use. This is called again, on the same object, each time the configuration file changes.
+	 *
+	 * @param prop configuration
+	 * @return <code>true</code> if the store can be used, <code>false</code> to fall back to memory-only sessions
+	 */
+	public boolean init(ExtProperties prop);
+
+	/**
+	 * Look up a session
+	 *
+	 * @param id session ID
+	 * @param app application ID
+	 * @param ip client IP address, or <code>null</code> if the session is not bound to the client IP address
+	 * @param loader class loader to resolve the classes of the session values with, can be <code>null</code>
+	 * @return the session, or <code>null</code> if it is not known or cannot be decoded
+	 */
+	public DBSession load(String id, int app, String ip, ClassLoader loader);
+
+	/**
+	 * Write the given sessions, replacing the previous versions
+	 *
+	 * @param sessions sessions to write
+	 * @return the sessions that could not be written, an empty list if all of them were written. They are retried later.
+	 */
+	public List<DBSession> save(List<DBSession> sessions);
+
+	/**
+	 * Delete a session
+	 *
+	 * @param session session to delete
+	 * @return <code>true</code> if the operation succeeded
+	 */
+	public boolean remove(DBSession session);
+
+	/**
+	 * Delete the sessions that were not accessed since the given moment
+	 *
+	 * @param olderThan epoch time, in milliseconds
+	 * @return number of deleted sessions, or -1 if it is not known
+	 */
+	public int purge(long olderThan);
+
+	/**
+	 * Release the resources, the store is not used after this call
+	 */
+	public void close();
+}
@@ -0,0 +1,327 @@
+package lazyj;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind engine for {@link DBSession}. Modified sessions are queued once, no matter how many times they are changed
+ * until the write happens, and a small pool of workers persists them in batches. When the database cannot keep up and the
+ * queue grows over the configured limit, the sessions are written synchronously by the threads that modify them, slowing
+ * down the producers instead of growing the backlog. Sessions that cannot be written are queued again, with a delay that
+ * doubles with each failure, so that a database outage doesn't lose the changes made during it.<br>
+ * <br>
+ * Configuration parameters, from "dbsessions.properties":<br><ul>
+ * <li>flush.threads=int (default 2). Number of writer threads.</li>
+ * <li>flush.batch=int (default 100). Maximum number of sessions written with one statement.</li>
+ * <li>flush.queue.max=int (default 10000). Queue length above which the sessions are written synchronously.</li>
+ * </ul>
+ *
+ * @author costing
+ * @since Oct 16, 2026
+ */
+public final class SessionWriter {
+
+	/**
+	 * Sessions waiting to be written, ordered by the time they are due
+	 */
+	private static final DelayQueue<DBSession>	queue				= new DelayQueue<>();
+
+	/**
+	 * Number of queued sessions, cheaper than {@link DelayQueue#size()}
+	 */
+	private static final AtomicInteger			depth				= new AtomicInteger(0);
+
+	/**
+	 * Number of running writer threads
+	 */
+	private static final AtomicInteger			workers				= new AtomicInteger(0);
+
+	/**
+	 * How many writer threads should run
+	 */
+	private static volatile int					threads				= 0;
+
+	/**
+	 * Maximum number of sessions written at once
+	 */
+	private static volatile int					batchSize			= 100;
+
+	/**
+	 * Queue length above which the sessions are written synchronously
+	 */
+	private static volatile int					maxQueue			= 10000;
+
+	/**
+	 * How late the writes were, compared to the moment they were due
+	 */
+	private static final LatencyHistogram		flushLag			= new LatencyHistogram();
+
+	/**
+	 * Longest delay before writing again a session that could not be written, in milliseconds
+	 */
+	private static final long					MAX_RETRY_DELAY		= 1000L * 60 * 5;
+
+	/**
+	 * Statistics : sessions written
+	 */
+	private static final AtomicLong				written				= new AtomicLong(0);
+
+	/**
+	 * Statistics : batches written
+	 */
+	private static final AtomicLong				batches				= new AtomicLong(0);
+
+	/**
+	 * Statistics : sessions written synchronously because the queue was full
+	 */
+	private static final AtomicLong				synchronousWrites	= new AtomicLong(0);
+
+	/**
+	 * Statistics : sessions that could not be written
+	 */
+	private static final AtomicLong				errors				= new AtomicLong(0);
+
+	/**
+	 * No instances
+	 */
+	private SessionWriter() {
+		// static methods only
+	}
+
+	/**
+	 * Apply a new configuration, starting more writer threads if needed. Extra threads exit by themselves when the number is decreased.
+	 *
+	 * @param prop configuration
+	 */
+	static synchronized void configure(final ExtProperties prop) {
+		batchSize = Math.max(prop.geti("flush.batch", 100), 1); //$NON-NLS-1$
+		maxQueue = Math.max(prop.geti("flush.queue.max", 10000), 1); //$NON-NLS-1$
+		threads = Math.max(prop.geti("flush.threads", 2), 1); //$NON-NLS-1$
+
+		while (workers.get() < threads) {
+			final int id = workers.incrementAndGet();
+
+			final Thread t = new Thread("lazyj.DBSession: writer " + id) { //$NON-NLS-1$
+				@Override
+				public void run() {
+					work(id);
+				}
+			};
+
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	/**
+	 * Queue a session for writing, if it is not already queued
+	 *
+	 * @param session modified session
+	 * @param delay how long to wait for other changes before writing it, in milliseconds
+	 */
+	static void schedule(final DBSession session, final long delay) {
+		if (!session.markQueued())
+			return;
+
+		if (depth.get() >= maxQueue || workers.get() == 0) {
+			// back-pressure, the database is not keeping up
+			synchronousWrites.incrementAndGet();
+			writeQueued(Collections.singletonList(session));
+			return;
+		}
+
+		enqueue(session, delay);
+	}
+
+	/**
+	 * Queue again a session that could not be written. A session that is being written right now is queued again by
+	 * {@link #writeQueued(List)}.
+	 *
+	 * @param session the session
+	 */
+	static void retry(final DBSession session) {
+		if (session.markQueued())
+			enqueue(session, getRetryDelay(session));
+	}
+
+	/**
+	 * @param session a session
+	 * @return how long to wait before writing it: nothing if the last write succeeded, otherwise from 2 seconds up to
+	 * 		{@link #MAX_RETRY_DELAY}, doubling with each failure
+	 */
+	private static long getRetryDelay(final DBSession session) {
+		final int failures = session.getWriteFailures();
+
+		if (failures == 0)
+			return 0;
+
+		return Math.min(1000L << Math.min(failures, 9), MAX_RETRY_DELAY);
+	}
+
+	/**
+	 * Put a session that is marked as queued in the queue
+	 *
+	 * @param session the session
+	 * @param delay how long to wait before writing it, in milliseconds
+	 */
+	private static void enqueue(final DBSession session, final long delay) {
+		session.setFlushTime(System.currentTimeMillis() + delay);
+
+		depth.incrementAndGet();
+		queue.offer(session);
+	}
+
+	/**
+	 * Write sessions that were taken out of the queue. The sessions that were changed during the write are queued again,
+	 * to be written right away, and the ones that could not be written are queued again with a delay.
+	 *
+	 * @param sessions sessions to write
+	 */
+	private static void writeQueued(final List<DBSession> sessions) {
+		for (final DBSession session : sessions)
+			session.startWrite();
+
+		try {
+			write(sessions);
+		}
+		finally {
+			for (final DBSession session : sessions)
+				if (session.endWrite())
+					enqueue(session, getRetryDelay(session));
+				else
+				if (!session.isCached() && session.getWriteFailures() == 0)
+					DBSession.mSessions.written(session);
+		}
+	}
+
+	/**
+	 * Writer thread body
+	 *
+	 * @param id thread number, threads with a number above the configured count exit
+	 */
+	static void work(final int id) {
+		final List<DBSession> batch = new ArrayList<>();
+
+		while (id <= threads) {
+			try {
+				final DBSession first = queue.take();
+
+				batch.add(first);
+				queue.drainTo(batch, batchSize - 1);
+
+				depth.addAndGet(-batch.size());
+
+				final long now = System.currentTimeMillis();
+
+				for (final DBSession session : batch)
+					flushLag.record(Math.max(now - session.getFlushTime(), 0) * 1000000L);
+
+				writeQueued(batch);
+			}
+			catch (final InterruptedException ie) {
+				// ignore
+			}
+			catch (final Throwable t) {
+				Log.log(Log.ERROR, "lazyj.DBSession", "unexpected exception in the session writer", t); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			finally {
+				batch.clear();
+			}
+		}
+
+		synchronized (SessionWriter.class) {
+			workers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Write the given sessions right away, in batches
+	 *
+	 * @param sessions sessions to write
+	 */
+	static void write(final List<DBSession> sessions) {
+		final int size = batchSize;
+
+		for (int i = 0; i < sessions.size(); i += size) {
+			final List<DBSession> batch = sessions.subList(i, Math.min(i + size, sessions.size()));
+
+			final int failed = DBSession.persist(batch);
+
+			batches.incrementAndGet();
+			written.addAndGet(batch.size() - failed);
+			errors.addAndGet(failed);
+		}
+	}
+
+	/**
+	 * Write all the queued sessions, without waiting for them to be due
+	 */
+	static void flush() {
+		final long now = System.currentTimeMillis();
+
+		// make everything due, the queue only hands out the sessions whose delay has passed
+		for (final DBSession session : queue)
+			session.setFlushTime(now);
+
+		final List<DBSession> pending = new ArrayList<>();
+
+		queue.drainTo(pending);
+
+		depth.addAndGet(-pending.size());
+
+		writeQueued(pending);
+	}
+
+	/**
+	 * @return number of sessions waiting to be written
+	 */
+	public static int getQueueDepth() {
+		return depth.get();
+	}
+
+	/**
+	 * @return distribution of the delay between the moment the writes were due and the moment they were picked up by a writer
+	 */
+	public static LatencyHistogram getFlushLag() {
+		return flushLag;
+	}
+
+	/**
+	 * @return number of sessions written so far
+	 */
+	public static long getWrittenCount() {
+		return written.get();
+	}
+
+	/**
+	 * @return number of batches written so far
+	 */
+	public static long getBatchCount() {
+		return batches.get();
+	}
+
+	/**
+	 * @return number of sessions that were written synchronously because the queue was full
+	 */
+	public static long getSynchronousWrites() {
+		return synchronousWrites.get();
+	}
+
+	/**
+	 * @return number of sessions that could not be written
+	 */
+	public static long getErrors() {
+		return errors.get();
+	}
+
+	/**
+	 * @return number of running writer threads
+	 */
+	public static int getThreads() {
+		return workers.get();
+	}
+}
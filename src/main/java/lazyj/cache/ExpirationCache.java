@@ -4,6 +4,7 @@
 package lazyj.cache;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -217,6 +218,8 @@ public class ExpirationCache<K, V> implements CacheElement<K, V>{
 				// if the entry is removed because the LRU map has ran out of space, remove it from 
 				// the delayed queue as well
 				queue.remove(new QueueEntry<>(eldest.getKey(), null, 0, ExpirationCache.this));
+				
+				removed(eldest.getKey(), eldest.getValue());
 			}
 			
 			return willRemove;
@@ -254,12 +257,38 @@ public class ExpirationCache<K, V> implements CacheElement<K, V>{
 			
 			if (value!=null){
 				queue.remove(new QueueEntry<>(key, null, 0, this));
+				
+				removed(key, value);
 			}
 			
 			return value;
 		}
 	}
 	
+	/**
+	 * Remove the least recently used entry
+	 * 
+	 * @return the removed value, or <code>null</code> if the cache is empty
+	 */
+	public V removeEldest() {
+		synchronized (this.mCache){
+			final Iterator<Map.Entry<K, V>> it = this.mCache.entrySet().iterator();
+			
+			if (!it.hasNext())
+				return null;
+			
+			final Map.Entry<K, V> eldest = it.next();
+			
+			it.remove();
+			
+			queue.remove(new QueueEntry<>(eldest.getKey(), null, 0, this));
+			
+			removed(eldest.getKey(), eldest.getValue());
+			
+			return eldest.getValue();
+		}
+	}
+	
 	/**
 	 * Put a value in the cache with a maximum lifetime. This method will not override an existing 
 	 * cached value!
@@ -267,17 +296,21 @@ public class ExpirationCache<K, V> implements CacheElement<K, V>{
 	 * @param key 
 	 * @param value
 	 * @param lLifetime in milliseconds
+	 * @return true if the value was added, false if the key already had a value or the lifetime is not positive
 	 * @see #overwrite(Object, Object, long)
 	 */
-	public void put(final K key, final V value, final long lLifetime){
+	public boolean put(final K key, final V value, final long lLifetime){
 		if (lLifetime>0){
 			synchronized (this.mCache){
 				if (!this.mCache.containsKey(key)){
 					this.mCache.put(key, value);
 					queue.offer(new QueueEntry<>(key, value, System.currentTimeMillis()+lLifetime, this));
+					return true;
 				}
 			}
 		}
+		
+		return false;
 	}
 
 	/**
@@ -309,8 +342,9 @@ public class ExpirationCache<K, V> implements CacheElement<K, V>{
 	@Override
 	public void refresh() {
 		synchronized (this.mCache){
-			for (final K key: this.mCache.keySet()){
-				queue.remove(new QueueEntry<>(key, null, 0, this));
+			for (final Map.Entry<K, V> me: this.mCache.entrySet()){
+				queue.remove(new QueueEntry<>(me.getKey(), null, 0, this));
+				removed(me.getKey(), me.getValue());
 			}
 			this.mCache.clear();
 		}
@@ -359,4 +393,31 @@ public class ExpirationCache<K, V> implements CacheElement<K, V>{
 	protected void callbackOnExpiry(final K key, final V value){
 		// do nothing by default
 	}
+	
+	/**
+	 * Callback function for the entries that leave the cache before expiring: pushed out by the size limit, removed
+	 * or dropped by a refresh. It is called with the cache locked, so it should be fast and not use the cache.
+	 * Override it to your liking.
+	 * 
+	 * @param key key that is removed
+	 * @param value value for the key that is removed
+	 */
+	protected void callbackOnRemoval(final K key, final V value){
+		// do nothing by default
+	}
+	
+	/**
+	 * Call {@link #callbackOnRemoval(Object, Object)}, logging its errors
+	 * 
+	 * @param key key that is removed
+	 * @param value value for the key that is removed
+	 */
+	void removed(final K key, final V value){
+		try{
+			callbackOnRemoval(key, value);
+		}
+		catch (final Throwable t){
+			Log.log(Log.ERROR, "lazyj.cache.ExpirationCache", "I have encountered a problem on removal callback", t); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
 }